@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha, FAST '03). Resident pages
+ * are split between T1, pages seen once recently, and T2, pages seen at
+ * least twice. Each list has a ghost list (B1, B2) of recently evicted page
+ * ids. A miss on a ghost shows which list was evicted from too eagerly, and
+ * the target size of T1 ({@code p}) moves towards recency or frequency to
+ * match the workload.
+ */
+public class ARCPolicy implements ReplacementPolicy {
+
+    private int m_capacity;
+    private int m_p;           // Target size of T1
+
+    // All four lists keep their least recently used page first
+    private LinkedHashSet<PageId> m_t1;
+    private LinkedHashSet<PageId> m_t2;
+    private LinkedHashSet<PageId> m_b1;
+    private LinkedHashSet<PageId> m_b2;
+
+    // Ghost hit whose adaptation of p was already applied in evict()
+    private PageId m_adapted;
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     */
+    public ARCPolicy(int capacity) {
+        m_capacity = Math.max(1, capacity);
+        m_p = 0;
+        m_t1 = new LinkedHashSet<PageId>();
+        m_t2 = new LinkedHashSet<PageId>();
+        m_b1 = new LinkedHashSet<PageId>();
+        m_b2 = new LinkedHashSet<PageId>();
+        m_adapted = null;
+    }
+
+    public void admit(PageId pid) {
+        if (m_t1.contains(pid) || m_t2.contains(pid)) {
+            access(pid);
+            return;
+        }
+        if (m_b1.contains(pid) || m_b2.contains(pid)) {
+            if (!pid.equals(m_adapted)) {
+                adapt(pid);
+            }
+            m_b1.remove(pid);
+            m_b2.remove(pid);
+            m_t2.add(pid);
+        }
+        else {
+            m_t1.add(pid);
+            trimGhosts();
+        }
+        m_adapted = null;
+    }
+
+    public void access(PageId pid) {
+        if (m_t1.remove(pid) || m_t2.remove(pid)) {
+            m_t2.add(pid);
+        }
+        else {
+            admit(pid);
+        }
+    }
+
+    public PageId evict(PageId incoming) {
+        if (m_t1.isEmpty() && m_t2.isEmpty()) { return null; }
+        boolean inB2 = false;
+        if (incoming != null && (m_b1.contains(incoming) || m_b2.contains(incoming))) {
+            inB2 = m_b2.contains(incoming);
+            if (!incoming.equals(m_adapted)) {
+                adapt(incoming);
+                m_adapted = incoming;
+            }
+        }
+
+        // ARC's REPLACE step
+        if (!m_t1.isEmpty() && ((inB2 && m_t1.size() == m_p) || m_t1.size() > m_p || m_t2.isEmpty())) {
+            PageId victim = removeFirst(m_t1);
+            m_b1.add(victim);
+            return victim;
+        }
+        PageId victim = removeFirst(m_t2);
+        m_b2.add(victim);
+        return victim;
+    }
+
+    public void reinstate(PageId pid) {
+        // Back where evict() took it from, without adapting p
+        if (m_b1.remove(pid)) {
+            m_t1.add(pid);
+        }
+        else if (m_b2.remove(pid)) {
+            m_t2.add(pid);
+        }
+        else if (!m_t1.contains(pid) && !m_t2.contains(pid)) {
+            m_t1.add(pid);
+            trimGhosts();
+        }
+    }
+
+    public void remove(PageId pid) {
+        if (!m_t1.remove(pid)) {
+            m_t2.remove(pid);
+        }
+    }
+
+    /** Keeps the ghost directory bounded: |T1|+|B1| <= c, total <= 2c */
+    private void trimGhosts() {
+        if (m_t1.size() + m_b1.size() > m_capacity && !m_b1.isEmpty()) {
+            removeFirst(m_b1);
+        }
+        int total = m_t1.size() + m_t2.size() + m_b1.size() + m_b2.size();
+        if (total > 2 * m_capacity && !m_b2.isEmpty()) {
+            removeFirst(m_b2);
+        }
+    }
+
+    /** Shift the target size of T1 after a miss on a ghost page */
+    private void adapt(PageId pid) {
+        if (m_b1.contains(pid)) {
+            int delta = Math.max(1, m_b2.size() / Math.max(1, m_b1.size()));
+            m_p = Math.min(m_capacity, m_p + delta);
+        }
+        else {
+            int delta = Math.max(1, m_b1.size() / Math.max(1, m_b2.size()));
+            m_p = Math.max(0, m_p - delta);
+        }
+    }
+
+    private static PageId removeFirst(Set<PageId> s) {
+        Iterator<PageId> it = s.iterator();
+        PageId pid = it.next();
+        it.remove();
+        return pid;
+    }
+}
@@ -0,0 +1,428 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * BTreeFile is a B+tree index on an INT or STRING field of a HeapFile. It
+ * maps each tuple's key to the tuple's RecordId, so that an
+ * {@link IndexScan} can find the tuples with a key, or in a range of keys,
+ * without reading the rest of the table.
+ * <p>
+ * Its pages are {@link BTreePage}s, read and locked through the BufferPool
+ * like the pages of a table. The root is always page 0: when it splits,
+ * its entries move to two new pages and it becomes their parent. Once an
+ * index is added to the Catalog, BufferPool.insertTuple and deleteTuple
+ * keep it up to date with its table. Deletes don't merge pages; a leaf
+ * can become empty and stay in the tree.
+ * <p>
+ * Its iterators return entries in key order.
+ *
+ * @see Catalog#addIndex
+ */
+public class BTreeFile implements IndexFile {
+
+    private final File m_file;
+    private FileChannel m_file_channel;
+    private final int m_tableId;
+    private final int m_keyField;
+    private final Type m_keyType;
+    private final TupleDesc m_td;
+
+    /**
+     * Opens the index stored in a file, on a field of a table. An empty or
+     * missing file is an empty index; use {@link #create} to index the
+     * tuples a table already has.
+     *
+     * @param f the file the index is stored in
+     * @param table the table the index is on
+     * @param keyField the field of the table's tuples the index is on
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        m_file = f;
+        m_tableId = table.getId();
+        m_keyField = keyField;
+        m_keyType = table.getTupleDesc().getFieldType(keyField);
+        m_td = entryDesc(m_keyType);
+        try {
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(f, "rw");
+            } catch (FileNotFoundException e) {
+                raf = new RandomAccessFile(f, "r");
+            }
+            m_file_channel = raf.getChannel();
+            if (m_file_channel.size() == 0) {
+                writeAt(0, BTreePage.createEmptyPageData(true));
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading file channel");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes an index of the tuples a table has on disk to a file, sorting
+     * them and filling the pages of the tree from the bottom up, and opens
+     * it. Tuples changed in the BufferPool but not written are not seen.
+     *
+     * @param f the file to write the index to
+     * @param table the table to index
+     * @param keyField the field to index the table on
+     */
+    public static BTreeFile create(File f, HeapFile table, int keyField) throws IOException {
+        final Type keyType = table.getTupleDesc().getFieldType(keyField);
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        for (int p = 0; p < table.numPages(); p++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                keys.add(t.getField(keyField));
+                rids.add(t.getRecordId());
+            }
+        }
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final ArrayList<Field> k = keys;
+        final ArrayList<RecordId> r = rids;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return BTreePage.compare(k.get(a), r.get(a).getPageId().pageNumber(), r.get(a).tupleno(),
+                        k.get(b), r.get(b).getPageId().pageNumber(), r.get(b).tupleno());
+            }
+        });
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            FileChannel out = raf.getChannel();
+            out.truncate(0);
+            int leafCap = BTreePage.leafCapacity(keyType);
+            int numLeaves = Math.max(1, (order.length + leafCap - 1) / leafCap);
+            // A single leaf is the root; otherwise leaves start at page 1
+            int firstLeaf = numLeaves == 1 ? 0 : 1;
+            int nextPage = firstLeaf + numLeaves;
+
+            // the pages of the level being built, and their first entries
+            ArrayList<Integer> level = new ArrayList<Integer>();
+            ArrayList<Integer> firsts = new ArrayList<Integer>();
+            for (int l = 0; l < numLeaves; l++) {
+                BTreePage leaf = new BTreePage(new HeapPageId(0, firstLeaf + l),
+                        BTreePage.createEmptyPageData(true), keyType);
+                int from = l * leafCap;
+                int to = Math.min(order.length, from + leafCap);
+                for (int i = from; i < to; i++) {
+                    RecordId rid = rids.get(order[i]);
+                    leaf.insertEntry(i - from, keys.get(order[i]), rid.getPageId().pageNumber(), rid.tupleno(), 0);
+                }
+                leaf.next = l + 1 < numLeaves ? firstLeaf + l + 1 : -1;
+                write(out, leaf.pid.pageNumber(), leaf.getPageData());
+                level.add(leaf.pid.pageNumber());
+                firsts.add(order.length == 0 ? -1 : order[from]);
+            }
+
+            int fanout = BTreePage.internalCapacity(keyType) + 1;
+            while (level.size() > 1) {
+                boolean root = level.size() <= fanout;
+                ArrayList<Integer> upper = new ArrayList<Integer>();
+                ArrayList<Integer> upperFirsts = new ArrayList<Integer>();
+                for (int from = 0; from < level.size(); from += fanout) {
+                    int pgNo = root ? 0 : nextPage++;
+                    BTreePage node = new BTreePage(new HeapPageId(0, pgNo),
+                            BTreePage.createEmptyPageData(false), keyType);
+                    node.children[0] = level.get(from);
+                    int to = Math.min(level.size(), from + fanout);
+                    for (int i = from + 1; i < to; i++) {
+                        int e = firsts.get(i);
+                        RecordId rid = rids.get(e);
+                        node.insertEntry(i - from - 1, keys.get(e), rid.getPageId().pageNumber(),
+                                rid.tupleno(), level.get(i));
+                    }
+                    write(out, pgNo, node.getPageData());
+                    upper.add(pgNo);
+                    upperFirsts.add(firsts.get(from));
+                }
+                level = upper;
+                firsts = upperFirsts;
+            }
+        } finally {
+            raf.close();
+        }
+        return new BTreeFile(f, table, keyField);
+    }
+
+    private static void write(FileChannel out, int pgNo, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = BufferPool.PAGE_SIZE * (long) pgNo;
+        while (buf.hasRemaining()) {
+            offset += out.write(buf, offset);
+        }
+    }
+
+    /** @return the TupleDesc of the entries of an index with keys of a type */
+    static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" });
+    }
+
+    /** A B+tree finds keys equal to a value and keys in a range */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return m_file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return m_file.getAbsolutePath().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return m_tableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return m_keyField;
+    }
+
+    // see IndexFile.java for javadocs
+    public Type getKeyType() {
+        return m_keyType;
+    }
+
+    /** @return the TupleDesc of the entries of this index */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        long offset = BufferPool.PAGE_SIZE * (long) pid.pageNumber();
+        try {
+            if (offset + BufferPool.PAGE_SIZE > m_file_channel.size()) {
+                throw new IllegalArgumentException("Page does not exist, error!");
+            }
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            while (buf.hasRemaining()) {
+                if (m_file_channel.read(buf, offset + buf.position()) < 0) {
+                    throw new IllegalArgumentException("Page does not exist, error!");
+                }
+            }
+            return new BTreePage((HeapPageId) pid, buf.array(), m_keyType);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page does not exist, error!");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeAt(BufferPool.PAGE_SIZE * (long) page.getId().pageNumber(), page.getPageData());
+    }
+
+    private void writeAt(long offset, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            offset += m_file_channel.write(buf, offset);
+        }
+    }
+
+    // see PagedFile.java for javadocs
+    public int numPages() {
+        return (int) (m_file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo), perm);
+    }
+
+    /** Appends an empty page to the file and returns it from the pool */
+    private BTreePage newPage(TransactionId tid, boolean leaf)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = numPages();
+        writeAt(BufferPool.PAGE_SIZE * (long) pgNo, BTreePage.createEmptyPageData(leaf));
+        return getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Adds the entry of a tuple of the table to the index. Every page on
+     * the way from the root to the leaf is locked for writing, since a
+     * split can reach any of them.
+     *
+     * @param t a tuple of the table, with its RecordId set
+     * @return the pages that were changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(m_keyField);
+        RecordId rid = t.getRecordId();
+        int ridPage = rid.getPageId().pageNumber();
+        int ridSlot = rid.tupleno();
+
+        ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        BTreePage page = getPage(tid, 0, Permissions.READ_WRITE);
+        while (!page.leaf) {
+            path.add(page);
+            page = getPage(tid, page.childFor(key, ridPage, ridSlot), Permissions.READ_WRITE);
+        }
+        page.insertEntry(page.lowerBound(key, ridPage, ridSlot), key, ridPage, ridSlot, 0);
+
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(page);
+        while (page.numEntries > page.capacity()) {
+            page = split(tid, page, path.isEmpty() ? null : path.remove(path.size() - 1), modified);
+        }
+        return modified;
+    }
+
+    /**
+     * Splits a page that has more entries than fit, moving its upper half
+     * to a new page and adding a separator for the new page to its parent.
+     *
+     * @param parent the page's parent, or null if it is the root
+     * @return the page the separator went to, which may overflow in turn
+     */
+    private BTreePage split(TransactionId tid, BTreePage page, BTreePage parent, ArrayList<Page> modified)
+            throws DbException, IOException, TransactionAbortedException {
+        if (parent == null) {
+            // the root stays at page 0: its entries move to a new page
+            // first, which is then split, with the root as its parent
+            BTreePage left = newPage(tid, page.leaf);
+            page.pushDown(left);
+            modified.add(left);
+            parent = page;
+            page = left;
+        }
+
+        int mid = page.numEntries / 2;
+        Field key = page.keys[mid];
+        int ridPage = page.ridPage[mid];
+        int ridSlot = page.ridSlot[mid];
+        BTreePage right = newPage(tid, page.leaf);
+        page.moveEntries(mid, right);
+        parent.insertEntry(parent.upperBound(key, ridPage, ridSlot), key, ridPage, ridSlot,
+                right.pid.pageNumber());
+        modified.add(right);
+        if (!modified.contains(parent)) {
+            modified.add(parent);
+        }
+        return parent;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return deleteEntry(tid, t.getField(m_keyField), t.getRecordId());
+    }
+
+    // see IndexFile.java for javadocs
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        int ridPage = rid.getPageId().pageNumber();
+        int ridSlot = rid.tupleno();
+        BTreePage page = getPage(tid, 0, Permissions.READ_WRITE);
+        while (!page.leaf) {
+            page = getPage(tid, page.childFor(key, ridPage, ridSlot), Permissions.READ_WRITE);
+        }
+        int pos = page.lowerBound(key, ridPage, ridSlot);
+        if (pos == page.numEntries || page.compareEntry(pos, key, ridPage, ridSlot) != 0) {
+            throw new DbException("no index entry for " + key + " at " + rid);
+        }
+        page.deleteEntry(pos);
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(page);
+        return modified;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new RangeIterator(tid, null, null);
+    }
+
+    /**
+     * Returns the entries whose keys satisfy <tt>key op operand</tt>, in key
+     * order.
+     *
+     * @param op an operator the index {@link #supports}
+     * @param operand the value keys are compared with
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("an index can't find keys " + op + " a value");
+        }
+        return new RangeIterator(tid, op, operand);
+    }
+
+    /**
+     * Walks the leaves from the first that can hold a matching entry, and
+     * stops at the first entry past the range.
+     */
+    private class RangeIterator extends AbstractDbFileIterator {
+        private final TransactionId m_tid;
+        private final Predicate.Op m_op;
+        private final Field m_operand;
+        private BTreePage m_leaf;
+        private int m_pos;
+
+        RangeIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            m_tid = tid;
+            m_op = op;
+            m_operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            boolean fromStart = m_op == null || m_op == Predicate.Op.LESS_THAN
+                    || m_op == Predicate.Op.LESS_THAN_OR_EQ;
+            BTreePage page = getPage(m_tid, 0, Permissions.READ_ONLY);
+            while (!page.leaf) {
+                int child = fromStart ? page.children[0]
+                        : page.childFor(m_operand, Integer.MIN_VALUE, Integer.MIN_VALUE);
+                page = getPage(m_tid, child, Permissions.READ_ONLY);
+            }
+            m_leaf = page;
+            m_pos = fromStart ? 0 : page.lowerBound(m_operand, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (m_leaf != null) {
+                if (m_pos == m_leaf.numEntries) {
+                    m_leaf = m_leaf.next < 0 ? null : getPage(m_tid, m_leaf.next, Permissions.READ_ONLY);
+                    m_pos = 0;
+                    continue;
+                }
+                int i = m_pos++;
+                if (m_op == null || m_leaf.keys[i].compare(m_op, m_operand)) {
+                    return m_leaf.entry(m_td, i);
+                }
+                if (m_op != Predicate.Op.GREATER_THAN) {
+                    // past the end of the range
+                    m_leaf = null;
+                }
+                // keys equal to the operand come before those greater
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            m_leaf = null;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A page of a {@link BTreeFile}. A page is either a leaf, holding index
+ * entries, or an internal node, holding separators and the pages of its
+ * children.
+ * <p>
+ * Entries are ordered by key and then by the RecordId of their tuple, so
+ * that every entry is distinct even when keys repeat, and a delete can go
+ * straight to the entry of the tuple it removes. A separator is such a
+ * (key, RecordId) pair: the child to its left holds only smaller entries,
+ * the child to its right only entries at least as large.
+ * <p>
+ * The page starts with a flag byte that is 1 for a leaf, the number of
+ * entries as an int, and an int that is the next leaf to the right (or -1)
+ * for a leaf, or the leftmost child for an internal node. Leaf entries
+ * follow as (key, page number, slot); internal entries as (key, page
+ * number, slot, right child).
+ */
+public class BTreePage implements Page {
+
+    /** Bytes before the first entry */
+    static final int HEADER_SIZE = 9;
+
+    final HeapPageId pid;
+    final Type keyType;
+
+    boolean leaf;
+    int numEntries;
+    // Next leaf to the right, or -1; unused in internal nodes
+    int next;
+
+    // Room for one entry more than fits on the page, so that a page can
+    // overflow before it is split
+    final Field[] keys;
+    final int[] ridPage;
+    final int[] ridSlot;
+    // children[i] holds the entries below separator i, children[i + 1]
+    // those from it on; unused in leaves
+    final int[] children;
+
+    private TransactionId m_dirtier;
+    private byte[] m_oldData;
+    private final Object m_oldDataLock = new Object();
+
+    /**
+     * Create a BTreePage from the bytes of a page of an index file in the
+     * Catalog.
+     */
+    public BTreePage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType());
+    }
+
+    /** Create a BTreePage from the bytes of a page with keys of a type */
+    BTreePage(HeapPageId id, byte[] data, Type keyType) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        int max = Math.max(leafCapacity(keyType), internalCapacity(keyType)) + 1;
+        keys = new Field[max];
+        ridPage = new int[max];
+        ridSlot = new int[max];
+        children = new int[max + 1];
+
+        leaf = data[0] != 0;
+        numEntries = Type.readInt(data, 1);
+        int first = Type.readInt(data, 5);
+        if (numEntries < 0 || numEntries > capacity()) {
+            throw new IOException("page " + id + " has " + numEntries + " entries");
+        }
+        int off = HEADER_SIZE;
+        if (leaf) {
+            next = first;
+        } else {
+            next = -1;
+            children[0] = first;
+        }
+        for (int i = 0; i < numEntries; i++) {
+            keys[i] = keyType.parse(data, off);
+            off += keyType.getLen();
+            ridPage[i] = Type.readInt(data, off);
+            ridSlot[i] = Type.readInt(data, off + 4);
+            off += 8;
+            if (!leaf) {
+                children[i + 1] = Type.readInt(data, off);
+                off += 4;
+            }
+        }
+        m_oldData = data;
+    }
+
+    /** @return the number of entries that fit on a leaf */
+    static int leafCapacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /** @return the number of separators that fit on an internal node */
+    static int internalCapacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 12);
+    }
+
+    /** @return the number of entries that fit on this page */
+    int capacity() {
+        return leaf ? leafCapacity(keyType) : internalCapacity(keyType);
+    }
+
+    /** @return the bytes of a page with no entries */
+    static byte[] createEmptyPageData(boolean leaf) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) (leaf ? 1 : 0);
+        Type.writeInt(data, 5, -1);
+        return data;
+    }
+
+    /**
+     * Compares two entries, by key and then by RecordId.
+     *
+     * @return a negative number, zero or a positive number as the first
+     *         entry is smaller than, the same as or larger than the second
+     */
+    static int compare(Field k1, int page1, int slot1, Field k2, int page2, int slot2) {
+        if (k1.compare(Predicate.Op.LESS_THAN, k2)) {
+            return -1;
+        }
+        if (k1.compare(Predicate.Op.GREATER_THAN, k2)) {
+            return 1;
+        }
+        if (page1 != page2) {
+            return page1 < page2 ? -1 : 1;
+        }
+        return slot1 < slot2 ? -1 : (slot1 == slot2 ? 0 : 1);
+    }
+
+    /** Compares entry i of this page with an entry */
+    int compareEntry(int i, Field key, int page, int slot) {
+        return compare(keys[i], ridPage[i], ridSlot[i], key, page, slot);
+    }
+
+    /**
+     * @return the position of the first entry at least as large as the
+     *         given one, or numEntries if there is none
+     */
+    int lowerBound(Field key, int page, int slot) {
+        int lo = 0, hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, key, page, slot) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the position of the first entry larger than the given one,
+     *         or numEntries if there is none
+     */
+    int upperBound(Field key, int page, int slot) {
+        int lo = 0, hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, key, page, slot) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the child of this internal node an entry belongs under */
+    int childFor(Field key, int page, int slot) {
+        return children[upperBound(key, page, slot)];
+    }
+
+    /**
+     * Puts an entry at a position, moving the entries from there on one
+     * place to the right. For an internal node, child is the page to the
+     * right of the new separator.
+     */
+    synchronized void insertEntry(int pos, Field key, int page, int slot, int child) {
+        int n = numEntries - pos;
+        System.arraycopy(keys, pos, keys, pos + 1, n);
+        System.arraycopy(ridPage, pos, ridPage, pos + 1, n);
+        System.arraycopy(ridSlot, pos, ridSlot, pos + 1, n);
+        keys[pos] = key;
+        ridPage[pos] = page;
+        ridSlot[pos] = slot;
+        if (!leaf) {
+            System.arraycopy(children, pos + 1, children, pos + 2, n);
+            children[pos + 1] = child;
+        }
+        numEntries++;
+    }
+
+    /** Removes the entry at a position of a leaf */
+    synchronized void deleteEntry(int pos) {
+        int n = numEntries - pos - 1;
+        System.arraycopy(keys, pos + 1, keys, pos, n);
+        System.arraycopy(ridPage, pos + 1, ridPage, pos, n);
+        System.arraycopy(ridSlot, pos + 1, ridSlot, pos, n);
+        numEntries--;
+        keys[numEntries] = null;
+    }
+
+    /**
+     * Moves the entries from a position on to the start of an empty page,
+     * as the first step of splitting this one. A leaf links the other page
+     * in as its next leaf. For an internal node the entry at the position
+     * moves up to the parent instead, and its right child becomes the
+     * other page's leftmost child.
+     */
+    synchronized void moveEntries(int from, BTreePage to) {
+        int start = leaf ? from : from + 1;
+        int n = numEntries - start;
+        System.arraycopy(keys, start, to.keys, 0, n);
+        System.arraycopy(ridPage, start, to.ridPage, 0, n);
+        System.arraycopy(ridSlot, start, to.ridSlot, 0, n);
+        synchronized (to) {
+            if (leaf) {
+                to.next = next;
+                next = to.pid.pageNumber();
+            } else {
+                System.arraycopy(children, start, to.children, 0, n + 1);
+            }
+            to.leaf = leaf;
+            to.numEntries = n;
+        }
+        Arrays.fill(keys, from, numEntries, null);
+        numEntries = from;
+    }
+
+    /**
+     * Moves all entries, and the next leaf or leftmost child, of the root
+     * to an empty page, which becomes the only child of the root.
+     */
+    synchronized void pushDown(BTreePage to) {
+        synchronized (to) {
+            System.arraycopy(keys, 0, to.keys, 0, numEntries);
+            System.arraycopy(ridPage, 0, to.ridPage, 0, numEntries);
+            System.arraycopy(ridSlot, 0, to.ridSlot, 0, numEntries);
+            System.arraycopy(children, 0, to.children, 0, numEntries + 1);
+            to.leaf = leaf;
+            to.next = next;
+            to.numEntries = numEntries;
+        }
+        Arrays.fill(keys, 0, numEntries, null);
+        numEntries = 0;
+        next = -1;
+        leaf = false;
+        children[0] = to.pid.pageNumber();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return m_dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * <p>
+     * The BufferPool may write a page out while an insert has it
+     * overflowing, before the split; only the entries that fit are
+     * written then, and the page is written again once it is split.
+     */
+    public synchronized byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        int n = Math.min(numEntries, capacity());
+        data[0] = (byte) (leaf ? 1 : 0);
+        Type.writeInt(data, 1, n);
+        Type.writeInt(data, 5, leaf ? next : children[0]);
+        int off = HEADER_SIZE;
+        for (int i = 0; i < n; i++) {
+            keys[i].serialize(data, off);
+            off += keyType.getLen();
+            Type.writeInt(data, off, ridPage[i]);
+            Type.writeInt(data, off + 4, ridSlot[i]);
+            off += 8;
+            if (!leaf) {
+                Type.writeInt(data, off, children[i + 1]);
+                off += 4;
+            }
+        }
+        return data;
+    }
+
+    public BTreePage getBeforeImage() {
+        try {
+            synchronized (m_oldDataLock) {
+                return new BTreePage(pid, m_oldData, keyType);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (m_oldDataLock) {
+            m_oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the entries of a leaf as tuples of (key, page number, slot),
+     *         in order; nothing for an internal node
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        if (leaf) {
+            TupleDesc td = BTreeFile.entryDesc(keyType);
+            for (int i = 0; i < numEntries; i++) {
+                entries.add(entry(td, i));
+            }
+        }
+        return entries.iterator();
+    }
+
+    /** @return entry i of a leaf as a tuple of (key, page number, slot) */
+    Tuple entry(TupleDesc td, int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, keys[i]);
+        t.setField(1, new IntField(ridPage[i]));
+        t.setField(2, new IntField(ridSlot[i]));
+        return t;
+    }
+}
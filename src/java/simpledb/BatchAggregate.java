@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The batch version of {@link Aggregate}: folds a column of each batch
+ * into its groups in one loop. It computes what {@link IntegerAggregator}
+ * and {@link StringAggregator} do, with the same int arithmetic and field
+ * names.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator m_child;
+    private final int m_afield;
+    private final int m_gfield;
+    private final Aggregator.Op m_op;
+    private final TupleDesc m_td;
+
+    // Groups in the order they were first seen, with the running aggregate
+    // and the number of values of each; the key of group g is in
+    // m_intKeys[g] or m_strKeys[g]
+    private transient HashMap<Object, Integer> m_groups;
+    private transient int[] m_intKeys;
+    private transient String[] m_strKeys;
+    private transient int[] m_vals;
+    private transient int[] m_counts;
+    private int m_numGroups;
+
+    private transient TupleBatch m_out;
+    private int m_next;
+
+    /**
+     * @param afield the field to aggregate
+     * @param gfield the field to group by, or
+     *          {@link Aggregator#NO_GROUPING}
+     * @throws IllegalArgumentException if the aggregate isn't one of MIN,
+     *           MAX, SUM, AVG and COUNT, or isn't COUNT over a string field
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG) {
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        }
+        if (childtd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("only COUNT is supported on string fields");
+        }
+        m_child = child;
+        m_afield = afield;
+        m_gfield = gfield;
+        m_op = aop;
+        String aname = "Aggregate " + aop + "(" + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING) {
+            m_td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+        } else {
+            m_td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childtd.getFieldName(gfield), aname });
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_groups = new HashMap<Object, Integer>();
+        m_intKeys = new int[16];
+        m_strKeys = new String[16];
+        m_vals = new int[16];
+        m_counts = new int[16];
+        m_numGroups = 0;
+        if (m_gfield == Aggregator.NO_GROUPING) {
+            group(null, 0, null);
+        }
+        int[] groupOf = new int[TupleBatch.CAPACITY];
+        TupleBatch batch;
+        while ((batch = m_child.nextBatch()) != null) {
+            int[] sel = batch.selection();
+            int count = batch.numRows();
+            if (m_gfield == Aggregator.NO_GROUPING) {
+                // groupOf is all zeros
+            } else if (batch.m_ints[m_gfield] != null) {
+                int[] keys = batch.m_ints[m_gfield];
+                for (int i = 0; i < count; i++) {
+                    int k = keys[sel[i]];
+                    groupOf[i] = group(Integer.valueOf(k), k, null);
+                }
+            } else {
+                String[] keys = batch.m_strings[m_gfield];
+                for (int i = 0; i < count; i++) {
+                    groupOf[i] = group(keys[sel[i]], 0, keys[sel[i]]);
+                }
+            }
+            fold(batch, sel, count, groupOf);
+        }
+        m_out = new TupleBatch(m_td);
+        m_next = 0;
+    }
+
+    /** @return the group with the given key, which is added if it's new */
+    private int group(Object key, int intKey, String strKey) {
+        Integer g = m_groups.get(key);
+        if (g != null) {
+            return g;
+        }
+        if (m_numGroups == m_vals.length) {
+            int n = m_vals.length * 2;
+            m_intKeys = Arrays.copyOf(m_intKeys, n);
+            m_strKeys = Arrays.copyOf(m_strKeys, n);
+            m_vals = Arrays.copyOf(m_vals, n);
+            m_counts = Arrays.copyOf(m_counts, n);
+        }
+        int ng = m_numGroups++;
+        m_intKeys[ng] = intKey;
+        m_strKeys[ng] = strKey;
+        m_vals[ng] = m_op == Aggregator.Op.MIN ? Integer.MAX_VALUE
+                : m_op == Aggregator.Op.MAX ? Integer.MIN_VALUE : 0;
+        m_counts[ng] = 0;
+        m_groups.put(key, ng);
+        return ng;
+    }
+
+    /** Folds the selected rows of a batch into the groups in groupOf */
+    private void fold(TupleBatch batch, int[] sel, int count, int[] groupOf) {
+        int[] vals = m_vals;
+        int[] counts = m_counts;
+        for (int i = 0; i < count; i++) {
+            counts[groupOf[i]]++;
+        }
+        if (m_op == Aggregator.Op.COUNT) {
+            return;
+        }
+        int[] col = batch.m_ints[m_afield];
+        switch (m_op) {
+        case MIN:
+            for (int i = 0; i < count; i++) {
+                int v = col[sel[i]];
+                if (v < vals[groupOf[i]]) {
+                    vals[groupOf[i]] = v;
+                }
+            }
+            break;
+        case MAX:
+            for (int i = 0; i < count; i++) {
+                int v = col[sel[i]];
+                if (v > vals[groupOf[i]]) {
+                    vals[groupOf[i]] = v;
+                }
+            }
+            break;
+        default: // SUM, AVG
+            for (int i = 0; i < count; i++) {
+                vals[groupOf[i]] += col[sel[i]];
+            }
+            break;
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        m_out.clear();
+        int n = 0;
+        while (m_next < m_numGroups && n < TupleBatch.CAPACITY) {
+            int g = m_next++;
+            if (m_counts[g] == 0) {
+                // only the group of an ungrouped aggregate over nothing,
+                // which like Aggregate gives no tuple
+                continue;
+            }
+            int v;
+            if (m_op == Aggregator.Op.COUNT) {
+                v = m_counts[g];
+            } else if (m_op == Aggregator.Op.AVG) {
+                v = m_vals[g] / m_counts[g];
+            } else {
+                v = m_vals[g];
+            }
+            if (m_gfield == Aggregator.NO_GROUPING) {
+                m_out.m_ints[0][n] = v;
+            } else {
+                if (m_out.m_ints[0] != null) {
+                    m_out.m_ints[0][n] = m_intKeys[g];
+                } else {
+                    m_out.m_strings[0][n] = m_strKeys[g];
+                }
+                m_out.m_ints[1][n] = v;
+            }
+            n++;
+        }
+        m_out.setRows(n);
+        return n == 0 ? null : m_out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_next = 0;
+    }
+
+    public void close() {
+        m_child.close();
+        m_groups = null;
+        m_intKeys = null;
+        m_strKeys = null;
+        m_vals = null;
+        m_counts = null;
+        m_out = null;
+    }
+}
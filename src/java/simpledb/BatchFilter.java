@@ -0,0 +1,137 @@
+package simpledb;
+
+/**
+ * The batch version of {@link Filter}: compares a column of each batch
+ * with a constant in one loop and narrows the batch's selection vector to
+ * the rows that pass, without copying any values.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate m_pred;
+    private final BatchIterator m_child;
+    private transient int[] m_sel;
+
+    public BatchFilter(Predicate p, BatchIterator child) {
+        m_pred = p;
+        m_child = child;
+    }
+
+    public Predicate getPredicate() {
+        return m_pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_sel = new int[TupleBatch.CAPACITY];
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = m_child.nextBatch()) != null) {
+            int n;
+            if (batch.m_ints[m_pred.getField()] != null) {
+                n = filterInts(batch);
+            } else {
+                n = filterStrings(batch);
+            }
+            if (n > 0) {
+                batch.select(m_sel, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the selected rows of an int column that pass into m_sel, with
+     * a loop per operator so that the comparison isn't a branch per row.
+     * LIKE compares ints for equality, as IntField does.
+     *
+     * @return the number of rows that pass
+     */
+    private int filterInts(TupleBatch batch) {
+        int[] col = batch.m_ints[m_pred.getField()];
+        int[] in = batch.selection();
+        int count = batch.numRows();
+        int[] out = m_sel;
+        int v = ((IntField) m_pred.getOperand()).getValue();
+        int n = 0;
+        switch (m_pred.getOp()) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < count; i++) {
+                int r = in[i];
+                out[n] = r;
+                n += col[r] == v ? 1 : 0;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < count; i++) {
+                int r = in[i];
+                out[n] = r;
+                n += col[r] != v ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < count; i++) {
+                int r = in[i];
+                out[n] = r;
+                n += col[r] > v ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < count; i++) {
+                int r = in[i];
+                out[n] = r;
+                n += col[r] >= v ? 1 : 0;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < count; i++) {
+                int r = in[i];
+                out[n] = r;
+                n += col[r] < v ? 1 : 0;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < count; i++) {
+                int r = in[i];
+                out[n] = r;
+                n += col[r] <= v ? 1 : 0;
+            }
+            break;
+        }
+        return n;
+    }
+
+    /** Like filterInts, for a string column, as StringField compares */
+    private int filterStrings(TupleBatch batch) {
+        String[] col = batch.m_strings[m_pred.getField()];
+        int[] in = batch.selection();
+        int count = batch.numRows();
+        StringField operand = (StringField) m_pred.getOperand();
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int r = in[i];
+            if (new StringField(col[r], Type.STRING_LEN).compare(m_pred.getOp(), operand)) {
+                m_sel[n++] = r;
+            }
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public void close() {
+        m_child.close();
+        m_sel = null;
+    }
+}
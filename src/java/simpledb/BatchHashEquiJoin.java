@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The batch version of {@link HashEquiJoin}: copies the rows of its first
+ * child into columns and hashes them on the join field, then probes with
+ * each batch of its second child, filling the output columns a row at a
+ * time. Rows with equal keys are chained through an array of row numbers
+ * rather than kept in lists.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate m_pred;
+    private final BatchIterator m_child1;
+    private final BatchIterator m_child2;
+    private final TupleDesc m_td;
+    private final int m_width1;
+
+    // The rows of child1, a column per field, with the first and last row
+    // of each key and the row after each row with the same key
+    private transient int[][] m_ints;
+    private transient String[][] m_strings;
+    private int m_rows;
+    private transient HashMap<Object, int[]> m_table;
+    private transient int[] m_nextRow;
+
+    // Where probing left off: the batch of child2, the entry of its
+    // selection, and the next row of child1 to join with it, or -1
+    private transient TupleBatch m_probe;
+    private int m_probeIndex;
+    private int m_match;
+    private transient TupleBatch m_out;
+
+    /**
+     * @throws IllegalArgumentException if the predicate isn't EQUALS
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("only equality joins are supported");
+        }
+        m_pred = p;
+        m_child1 = child1;
+        m_child2 = child2;
+        m_td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        m_width1 = child1.getTupleDesc().numFields();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child1.open();
+        m_child2.open();
+        build();
+        m_out = new TupleBatch(m_td);
+        m_probe = null;
+    }
+
+    /** Reads child1 into columns and hashes its rows */
+    private void build() throws DbException, TransactionAbortedException {
+        TupleDesc td = m_child1.getTupleDesc();
+        m_ints = new int[m_width1][];
+        m_strings = new String[m_width1][];
+        for (int f = 0; f < m_width1; f++) {
+            if (td.getFieldType(f) == Type.INT_TYPE) {
+                m_ints[f] = new int[TupleBatch.CAPACITY];
+            } else {
+                m_strings[f] = new String[TupleBatch.CAPACITY];
+            }
+        }
+        m_nextRow = new int[TupleBatch.CAPACITY];
+        m_table = new HashMap<Object, int[]>();
+        m_rows = 0;
+        int key = m_pred.getField1();
+        TupleBatch batch;
+        while ((batch = m_child1.nextBatch()) != null) {
+            int[] sel = batch.selection();
+            int count = batch.numRows();
+            if (m_rows + count > m_nextRow.length) {
+                grow(Math.max(m_nextRow.length * 2, m_rows + count));
+            }
+            for (int f = 0; f < m_width1; f++) {
+                if (m_ints[f] != null) {
+                    int[] from = batch.m_ints[f];
+                    int[] to = m_ints[f];
+                    for (int i = 0; i < count; i++) {
+                        to[m_rows + i] = from[sel[i]];
+                    }
+                } else {
+                    String[] from = batch.m_strings[f];
+                    String[] to = m_strings[f];
+                    for (int i = 0; i < count; i++) {
+                        to[m_rows + i] = from[sel[i]];
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int row = m_rows + i;
+                Object k = m_ints[key] != null ? (Object) Integer.valueOf(m_ints[key][row])
+                        : m_strings[key][row];
+                m_nextRow[row] = -1;
+                int[] ends = m_table.get(k);
+                if (ends == null) {
+                    m_table.put(k, new int[] { row, row });
+                } else {
+                    m_nextRow[ends[1]] = row;
+                    ends[1] = row;
+                }
+            }
+            m_rows += count;
+        }
+    }
+
+    private void grow(int n) {
+        for (int f = 0; f < m_width1; f++) {
+            if (m_ints[f] != null) {
+                m_ints[f] = Arrays.copyOf(m_ints[f], n);
+            } else {
+                m_strings[f] = Arrays.copyOf(m_strings[f], n);
+            }
+        }
+        m_nextRow = Arrays.copyOf(m_nextRow, n);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        m_out.clear();
+        int n = 0;
+        int key = m_pred.getField2();
+        while (n < TupleBatch.CAPACITY) {
+            if (m_probe == null) {
+                m_probe = m_child2.nextBatch();
+                if (m_probe == null) {
+                    break;
+                }
+                m_probeIndex = 0;
+                m_match = -1;
+            }
+            int[] sel = m_probe.selection();
+            int count = m_probe.numRows();
+            while (n < TupleBatch.CAPACITY && m_probeIndex < count) {
+                int prow = sel[m_probeIndex];
+                if (m_match == -1) {
+                    Object k = m_probe.m_ints[key] != null
+                            ? (Object) Integer.valueOf(m_probe.m_ints[key][prow])
+                            : m_probe.m_strings[key][prow];
+                    int[] ends = m_table.get(k);
+                    if (ends == null) {
+                        m_probeIndex++;
+                        continue;
+                    }
+                    m_match = ends[0];
+                }
+                emit(n++, m_match, prow);
+                m_match = m_nextRow[m_match];
+                if (m_match == -1) {
+                    m_probeIndex++;
+                }
+            }
+            if (m_probeIndex == count) {
+                m_probe = null;
+            }
+        }
+        m_out.setRows(n);
+        return n == 0 ? null : m_out;
+    }
+
+    /** Writes row n of the output from a row of child1 and one of m_probe */
+    private void emit(int n, int brow, int prow) {
+        for (int f = 0; f < m_width1; f++) {
+            if (m_ints[f] != null) {
+                m_out.m_ints[f][n] = m_ints[f][brow];
+            } else {
+                m_out.m_strings[f][n] = m_strings[f][brow];
+            }
+        }
+        for (int f = 0; f < m_probe.m_ints.length; f++) {
+            if (m_probe.m_ints[f] != null) {
+                m_out.m_ints[m_width1 + f][n] = m_probe.m_ints[f][prow];
+            } else {
+                m_out.m_strings[m_width1 + f][n] = m_probe.m_strings[f][prow];
+            }
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child2.rewind();
+        m_probe = null;
+    }
+
+    public void close() {
+        m_child1.close();
+        m_child2.close();
+        m_ints = null;
+        m_strings = null;
+        m_table = null;
+        m_nextRow = null;
+        m_probe = null;
+        m_out = null;
+    }
+}
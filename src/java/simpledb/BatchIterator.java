@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the interface of operators that pass tuples along in
+ * {@link TupleBatch}es of up to {@link TupleBatch#CAPACITY} rows instead
+ * of one at a time, so that the work on each row is a step of a loop over
+ * a column rather than a chain of calls. Batch operators and tuple
+ * operators can be mixed in one plan with {@link TupleToBatch} and
+ * {@link BatchToTuple}.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other
+     * methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A batch has at least one selected
+     * row, and belongs to the iterator: it may be reused by the next call,
+     * so a caller that keeps rows has to copy them.
+     *
+     * @return the next batch, or null if there are no more rows
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchIterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
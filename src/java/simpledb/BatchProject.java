@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * The batch version of {@link Project}: hands out a batch over the chosen
+ * columns of each batch of its child, sharing the columns and the
+ * selection vector rather than copying them.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator m_child;
+    private final int[] m_fields;
+    private final TupleDesc m_td;
+
+    /**
+     * @param fieldList the fields of the child's rows to project out
+     * @param types the types of the fields of the projection
+     */
+    public BatchProject(ArrayList<Integer> fieldList, Type[] types, BatchIterator child) {
+        m_child = child;
+        m_fields = new int[fieldList.size()];
+        String[] names = new String[m_fields.length];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < m_fields.length; i++) {
+            m_fields[i] = fieldList.get(i);
+            names[i] = childtd.getFieldName(m_fields[i]);
+        }
+        m_td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch in = m_child.nextBatch();
+        if (in == null) {
+            return null;
+        }
+        int[][] ints = new int[m_fields.length][];
+        String[][] strings = new String[m_fields.length][];
+        for (int i = 0; i < m_fields.length; i++) {
+            ints[i] = in.m_ints[m_fields[i]];
+            strings[i] = in.m_strings[m_fields[i]];
+        }
+        return new TupleBatch(m_td, ints, strings, in.m_rows, in.m_sel, in.m_count);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public void close() {
+        m_child.close();
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * The batch version of {@link SeqScan}: reads the pages of a table in
+ * order and fills each column of a batch from the tuples of a page in one
+ * pass, reading int fields straight from the page's bytes.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId m_tid;
+    private final int m_tableId;
+    private final String m_tableAlias;
+    private final TupleDesc m_td;
+
+    private transient HeapFileIter m_pages;
+    private transient TupleBatch m_batch;
+    // The page being read and its next slot, or the tuples of a page that
+    // isn't a HeapPage
+    private transient HeapPage m_page;
+    private int m_slot;
+    private transient Iterator<Tuple> m_tuples;
+    private transient int[] m_used;
+
+    /**
+     * Creates a scan over the specified table as a part of the specified
+     * transaction.
+     *
+     * @param tableAlias the alias of the table, which prefixes the names
+     *          of the fields as in {@link SeqScan}
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        m_tid = tid;
+        m_tableId = tableid;
+        m_tableAlias = tableAlias;
+        m_td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid));
+    }
+
+    /** @return the name of the table in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(m_tableId);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return m_tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(m_tableId);
+        if (!(file instanceof PagedFile)) {
+            throw new DbException("table " + m_tableId + " has no pages to scan");
+        }
+        m_pages = new HeapFileIter(m_tid, (PagedFile) file);
+        m_pages.open();
+        m_batch = new TupleBatch(m_td);
+        m_used = new int[TupleBatch.CAPACITY];
+        m_page = null;
+        m_tuples = null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        m_batch.clear();
+        int n = 0;
+        while (n < TupleBatch.CAPACITY) {
+            if (m_page == null && m_tuples == null) {
+                Page page = m_pages.nextPage();
+                if (page == null) {
+                    break;
+                }
+                if (page instanceof HeapPage) {
+                    m_page = (HeapPage) page;
+                    m_slot = 0;
+                } else {
+                    m_tuples = page.iterator();
+                }
+            }
+            if (m_tuples != null) {
+                while (n < TupleBatch.CAPACITY && m_tuples.hasNext()) {
+                    m_batch.addTuple(m_tuples.next());
+                    n++;
+                }
+                if (!m_tuples.hasNext()) {
+                    m_tuples = null;
+                }
+                continue;
+            }
+            n = fill(n);
+        }
+        return n == 0 ? null : m_batch;
+    }
+
+    /**
+     * Copies the tuples of the current page into the batch from row n on,
+     * as far as they fit, a column at a time.
+     *
+     * @return the number of rows filled in
+     */
+    private int fill(int n) {
+        HeapPage page = m_page;
+        int used = 0;
+        while (m_slot < page.numSlots && n + used < TupleBatch.CAPACITY) {
+            if (page.isSlotUsed(m_slot)) {
+                m_used[used++] = m_slot;
+            }
+            m_slot++;
+        }
+        if (m_slot == page.numSlots) {
+            m_page = null;
+        }
+        for (int f = 0; f < m_td.numFields(); f++) {
+            int[] ints = m_batch.m_ints[f];
+            if (ints != null) {
+                for (int i = 0; i < used; i++) {
+                    ints[n + i] = page.intValue(m_used[i], f);
+                }
+            } else {
+                String[] strings = m_batch.m_strings[f];
+                for (int i = 0; i < used; i++) {
+                    strings[n + i] = ((StringField) page.fieldValue(m_used[i], f)).getValue();
+                }
+            }
+        }
+        m_batch.setRows(n + used);
+        return n + used;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_pages.rewind();
+        m_page = null;
+        m_tuples = null;
+    }
+
+    public void close() {
+        if (m_pages != null) {
+            m_pages.close();
+        }
+        m_pages = null;
+        m_batch = null;
+        m_page = null;
+        m_tuples = null;
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * Hands out the rows of the batches of a batch operator one tuple at a
+ * time, so that tuple operators can be put above it.
+ */
+public class BatchToTuple extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator m_child;
+    private transient TupleBatch m_batch;
+    private int m_next;
+
+    public BatchToTuple(BatchIterator child) {
+        m_child = child;
+    }
+
+    public BatchIterator getChild() {
+        return m_child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        m_child.close();
+        m_batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        m_batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (m_batch == null || m_next == m_batch.numRows()) {
+            m_batch = m_child.nextBatch();
+            m_next = 0;
+            if (m_batch == null) {
+                return null;
+            }
+        }
+        return m_batch.getTuple(m_next++);
+    }
+
+    /**
+     * @return no children: the child is a batch operator, which tuple
+     *         operators can't walk into
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        // no children
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapHeapScan returns the tuples of a HeapFile that satisfy predicates
+ * on fields with {@link BitmapIndex}es. The predicates are combined with
+ * ANDs and ORs of their bitmaps before the table is touched, and only the
+ * pages with a tuple left in the result are read, each of them once and
+ * in order. Since a bitmap may hold tuples that no longer match, each
+ * tuple is checked against the predicates again.
+ */
+public class BitmapHeapScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId m_tid;
+    private final int m_tableId;
+    private final String m_tableAlias;
+    private final Predicate[][] m_clauses;
+    private final HeapFile m_file;
+
+    // The positions of the tuples to fetch, the next one to look at, and
+    // the page the last tuple came from
+    private RoaringBitmap m_bits;
+    private int m_next;
+    private HeapPage m_page;
+
+    /**
+     * Creates a scan of the tuples of a table that satisfy every clause,
+     * where a clause is satisfied by a tuple that satisfies any one of its
+     * predicates. Each predicate must be on a field the table has a
+     * bitmap index on.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan, a HeapFile
+     * @param tableAlias the alias of the table, which prefixes the names
+     *          of the fields as in {@link SeqScan}
+     * @param clauses the clauses, ANDed together, each an OR of predicates
+     */
+    public BitmapHeapScan(TransactionId tid, int tableid, String tableAlias, Predicate[][] clauses) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile) || clauses.length == 0) {
+            throw new IllegalArgumentException("no bitmap indexes to scan table " + tableid + " with");
+        }
+        m_file = (HeapFile) file;
+        for (Predicate[] clause : clauses) {
+            if (clause.length == 0) {
+                throw new IllegalArgumentException("empty clause");
+            }
+            for (Predicate p : clause) {
+                if (m_file.getBitmapIndex(p.getField()) == null) {
+                    throw new IllegalArgumentException("no bitmap index for " + p);
+                }
+            }
+        }
+        m_tid = tid;
+        m_tableId = tableid;
+        m_tableAlias = tableAlias;
+        m_clauses = clauses;
+    }
+
+    /** @return the name of the table in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(m_tableId);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return m_tableAlias;
+    }
+
+    /** @return the clauses, ANDed together, each an OR of predicates */
+    public Predicate[][] getClauses() {
+        return m_clauses;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with
+     * the table alias as in {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = m_file.getTupleDesc();
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = m_tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        RoaringBitmap bits = null;
+        for (Predicate[] clause : m_clauses) {
+            RoaringBitmap any = null;
+            for (Predicate p : clause) {
+                RoaringBitmap b = m_file.getBitmapIndex(p.getField()).lookup(p.getOp(), p.getOperand());
+                any = any == null ? b : RoaringBitmap.or(any, b);
+            }
+            bits = bits == null ? any : RoaringBitmap.and(bits, any);
+        }
+        m_bits = bits;
+        m_next = 0;
+        m_page = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        m_bits = null;
+        m_page = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_next = 0;
+        m_page = null;
+    }
+
+    /** @return the number of tuples the bitmaps picked out at open */
+    int candidates() {
+        return m_bits.cardinality();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        BitmapIndex index = m_file.getBitmapIndex(m_clauses[0][0].getField());
+        int pos;
+        while ((pos = m_bits.nextSetBit(m_next)) >= 0) {
+            m_next = pos + 1;
+            int pgNo = index.pageOf(pos);
+            if (m_page == null || m_page.getId().pageNumber() != pgNo) {
+                m_page = (HeapPage) Database.getBufferPool().getPage(m_tid,
+                        new HeapPageId(m_tableId, pgNo), Permissions.READ_ONLY);
+            }
+            Tuple t = m_page.tuple(index.slotOf(pos));
+            if (t != null && matches(t)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate[] clause : m_clauses) {
+            boolean any = false;
+            for (Predicate p : clause) {
+                if (p.filter(t)) {
+                    any = true;
+                    break;
+                }
+            }
+            if (!any) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        // no children
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A bitmap index on one field of a HeapFile: for each distinct value of
+ * the field, a {@link RoaringBitmap} of the tuples that have it. Tuple
+ * slot s of page p is position p * n + s, where n is the number of slots
+ * on a page. It suits fields with few distinct values, whose bitmaps are
+ * dense and compress well, and predicates on several such fields can be
+ * combined with bitmap ANDs and ORs before any page of the table is read.
+ * <p>
+ * The index is kept in memory while the file is in use, and in a sidecar
+ * file next to the data file. Like the {@link ZoneMap} it may hold more
+ * tuples than match, but never fewer: an insert sets its tuple's bit right
+ * away, while a delete or a replaced value leaves the old bit set until
+ * the page is written and its bits are worked out again from the page.
+ * Readers recheck the tuples they fetch. The sidecar is deleted when the
+ * first page is written after it was saved, and the index is rebuilt from
+ * the pages if the sidecar is missing or out of date.
+ *
+ * @see HeapFile#addBitmapIndex
+ * @see BitmapHeapScan
+ */
+public class BitmapIndex {
+
+    private final int m_field;
+    private final int m_slotsPerPage;
+    private final HashMap<Field, RoaringBitmap> m_bitmaps = new HashMap<Field, RoaringBitmap>();
+
+    private final File m_file;
+    // Set once the sidecar no longer matches the pages written
+    private boolean m_stale;
+
+    private BitmapIndex(File file, TupleDesc td, int field) {
+        m_file = file;
+        m_field = field;
+        m_slotsPerPage = HeapPage.numSlots(td);
+    }
+
+    /** @return the sidecar file holding the index on a field of the given data file */
+    public static File fileFor(File dataFile, int field) {
+        return new File(dataFile.getPath() + "." + field + ".bm");
+    }
+
+    /**
+     * Opens the index on a field of a HeapFile, reading every page of the
+     * file from disk to rebuild it if its sidecar file can't be used.
+     */
+    static BitmapIndex open(HeapFile hf, int field) throws IOException {
+        File file = fileFor(hf.getFile(), field);
+        BitmapIndex index = new BitmapIndex(file, hf.getTupleDesc(), field);
+        if (file.exists() && file.lastModified() >= hf.getFile().lastModified()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                Type type = hf.getTupleDesc().getFieldType(field);
+                int values = in.readInt();
+                for (int i = 0; i < values; i++) {
+                    byte[] key = new byte[type.getLen()];
+                    in.readFully(key);
+                    index.m_bitmaps.put(type.parse(key, 0), RoaringBitmap.readFrom(in));
+                }
+                return index;
+            }
+            catch (IOException e) {
+                // short or garbled, rebuild below
+                index.m_bitmaps.clear();
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        int numPages = hf.numPages();
+        for (int i = 0; i < numPages; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            index.set(page);
+        }
+        index.save();
+        return index;
+    }
+
+    /** @return the field this index is on */
+    public int getField() {
+        return m_field;
+    }
+
+    /** @return the number of distinct values the index has bitmaps for */
+    public synchronized int numValues() {
+        return m_bitmaps.size();
+    }
+
+    /** @return the page of the tuple at a position of a bitmap */
+    public int pageOf(int pos) {
+        return pos / m_slotsPerPage;
+    }
+
+    /** @return the slot of the tuple at a position of a bitmap */
+    public int slotOf(int pos) {
+        return pos % m_slotsPerPage;
+    }
+
+    /**
+     * Returns the positions of the tuples whose value of the field may
+     * satisfy <tt>field op operand</tt>, by ORing the bitmaps of the values
+     * that do. The result is the caller's to change.
+     */
+    public synchronized RoaringBitmap lookup(Predicate.Op op, Field operand) {
+        if (op == Predicate.Op.EQUALS) {
+            RoaringBitmap b = m_bitmaps.get(operand);
+            return b == null ? new RoaringBitmap() : b.copy();
+        }
+        RoaringBitmap result = new RoaringBitmap();
+        for (Map.Entry<Field, RoaringBitmap> e : m_bitmaps.entrySet()) {
+            if (e.getKey().compare(op, operand)) {
+                result = RoaringBitmap.or(result, e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Sets the bit of a tuple inserted into a page, or whose value was replaced */
+    synchronized void inserted(int pgNo, Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            return;
+        }
+        bitmap(t.getField(m_field)).add(pgNo * m_slotsPerPage + rid.tupleno());
+    }
+
+    /**
+     * Works out the bits of a page that was just written to disk from its
+     * tuples, and marks the sidecar out of date.
+     */
+    synchronized void written(HeapPage page) {
+        if (!m_stale) {
+            m_file.delete();
+            m_stale = true;
+        }
+        int start = page.getId().pageNumber() * m_slotsPerPage;
+        Iterator<RoaringBitmap> it = m_bitmaps.values().iterator();
+        while (it.hasNext()) {
+            RoaringBitmap b = it.next();
+            b.removeRange(start, start + m_slotsPerPage);
+            if (b.isEmpty()) {
+                it.remove();
+            }
+        }
+        set(page);
+    }
+
+    private void set(HeapPage page) {
+        int start = page.getId().pageNumber() * m_slotsPerPage;
+        for (int slot = 0; slot < page.numSlots; slot++) {
+            if (page.isSlotUsed(slot)) {
+                bitmap(page.fieldValue(slot, m_field)).add(start + slot);
+            }
+        }
+    }
+
+    private RoaringBitmap bitmap(Field value) {
+        RoaringBitmap b = m_bitmaps.get(value);
+        if (b == null) {
+            b = new RoaringBitmap();
+            m_bitmaps.put(value, b);
+        }
+        return b;
+    }
+
+    /** Writes the whole index to the sidecar file */
+    public synchronized void save() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_file)));
+        try {
+            out.writeInt(m_bitmaps.size());
+            for (Map.Entry<Field, RoaringBitmap> e : m_bitmaps.entrySet()) {
+                e.getKey().serialize(out);
+                e.getValue().writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+        m_stale = false;
+    }
+}
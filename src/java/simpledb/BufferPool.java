@@ -2,9 +2,11 @@ package simpledb;
 
 import java.io.*;
 
-import java.util.HashMap;
-//Importing our map
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,8 +16,12 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
- * 
- * @Threadsafe, all fields are final
+ * <p>
+ * Hits on cached pages take no lock. Misses, evictions and the replacement
+ * policy are serialized by a single eviction lock, which is not held while
+ * a page is read from disk.
+ *
+ * @Threadsafe
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -28,20 +34,74 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    /** This is our cache which maps a Page ID to the Page, we decided to use a hashmap for efficiency*/
-    private HashMap<PageId, Page> cache;
+    /** Largest number of frames given to the ring of a single large scan */
+    public static final int RING_PAGES = 16;
+
+    /** Number of page accesses buffered before a hit tries to apply them
+        to the replacement policy */
+    private static final int ACCESS_BUFFER = 64;
+
+    /** The page table. Lookups take no lock; a miss puts an empty frame
+        here first, so concurrent misses on the same page share one read. */
+    private final ConcurrentHashMap<PageId, Frame> frames;
+
+    /** Number of frames in the page table, including ones being read */
+    private final AtomicInteger resident;
 
     /** Capacity of the buffer pool*/
-    private int size;
+    private final int size;
+
+    /** Decides which page to evict when the pool is full. Only called with
+        evictionLock held. */
+    private final ReplacementPolicy policy;
+
+    /** Serializes misses, evictions and every call into the policy */
+    private final ReentrantLock evictionLock;
+
+    /** Hits not yet passed on to the policy. Hits only append here, and
+        whoever holds evictionLock next applies them. */
+    private final ConcurrentLinkedQueue<PageId> accesses;
+    private final AtomicInteger pendingAccesses;
+
+    /** Pages read through a scan ring, mapped to the ring that owns them.
+        These pages are not known to the replacement policy. */
+    private final ConcurrentHashMap<PageId, ScanRing> ringPages;
+
+    /** Writes dirty pages in the background; started on the first one */
+    private volatile PageFlusher flusher;
+    private boolean shutdown;
+
+    /** Pages dirtied since the flusher's last pass */
+    private final AtomicInteger dirtied;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting the
+     * least recently used page when it is full.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        cache = new HashMap<PageId, Page>();
+        this(numPages, new LRUPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy used to pick victims
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        frames = new ConcurrentHashMap<PageId, Frame>();
+        resident = new AtomicInteger(0);
         size = numPages;
+        this.policy = policy;
+        evictionLock = new ReentrantLock();
+        accesses = new ConcurrentLinkedQueue<PageId>();
+        pendingAccesses = new AtomicInteger(0);
+        ringPages = new ConcurrentHashMap<PageId, ScanRing>();
+        flusher = null;
+        shutdown = false;
+        dirtied = new AtomicInteger(0);
     }
     
     public static int getPageSize() {
@@ -53,6 +113,11 @@ public class BufferPool {
     	BufferPool.pageSize = pageSize;
     }
 
+    /** @return the number of pages this buffer pool can hold */
+    public int getNumPages() {
+        return size;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -68,24 +133,321 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        //Search our hashmap, if we find a key, then we return the page 
-        if(cache.containsKey(pid))
-            return cache.get(pid);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Returns a scan ring for a sequential scan over numPages pages, or null
+     * if the scan is small enough to go through the shared pool. A scan
+     * counts as large when it reads more pages than the pool can hold, so
+     * caching its pages could never pay off.
+     *
+     * @param numPages the number of pages the scan will read
+     */
+    public ScanRing newScanRing(int numPages) {
+        int ringSize = Math.min(RING_PAGES, size / 4);
+        if (ringSize < 1 || numPages <= size) {
+            return null;
+        }
+        return new ScanRing(ringSize);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a sequential scan that uses
+     * the given ring. Pages already in the buffer pool are returned as
+     * usual. A miss is read into one of the ring's frames: once the ring
+     * is full, the page the ring read longest ago is written out if dirty
+     * and dropped, so the scan doesn't push other tables' pages out.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to use the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            ScanRing ring) throws TransactionAbortedException, DbException {
+        for (;;) {
+            Frame frame = frames.get(pid);
+            if (frame == null) {
+                Frame mine = new Frame();
+                frame = frames.putIfAbsent(pid, mine);
+                if (frame == null) {
+                    resident.incrementAndGet();
+                    return load(pid, mine, ring);
+                }
+            }
+            if (!frame.pin()) {
+                // Being evicted; it is gone from the table in a moment
+                Thread.yield();
+                continue;
+            }
+            try {
+                Page page = frame.await();
+                // A ring's own pages are not known to the policy. Any other
+                // reader hitting one makes it a regular shared page.
+                if (ring == null || !ringPages.containsKey(pid)) {
+                    recordAccess(pid);
+                }
+                return page;
+            }
+            finally {
+                frame.unpin();
+            }
+        }
+    }
+
+    /**
+     * Retrieves a page that the caller is about to change in place, with
+     * the page's latch held. Writers take the latch before copying a page
+     * out, so none of them sees the change half made. The page can't be
+     * evicted until the latch is released by {@link #unlatchPage}.
+     *
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public Page latchPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        for (;;) {
+            Page page = getPage(tid, pid, perm);
+            Frame frame = frames.get(pid);
+            if (frame == null) {
+                continue;
+            }
+            frame.latch();
+            // Evicted, and maybe read again, before the latch was taken
+            if (frames.get(pid) == frame && frame.page() == page) {
+                return page;
+            }
+            frame.unlatch();
+        }
+    }
+
+    /**
+     * Releases the latch on a page returned by {@link #latchPage}. If the
+     * page was changed, its version is bumped first, so a copy of it taken
+     * before the change isn't taken for the latest one.
+     *
+     * @param tid the transaction that has the page latched
+     * @param page the latched page
+     * @param changed whether the page was changed
+     */
+    public void unlatchPage(TransactionId tid, Page page, boolean changed) {
+        Frame frame = frames.get(page.getId());
+        if (changed) {
+            frame.markDirty(tid);
+        }
+        frame.unlatch();
+    }
+
+    /**
+     * Reads a page into the pool ahead of a scan, unless it is already
+     * cached or being read. Unlike getPage this doesn't count as a use of
+     * the page, so read-ahead doesn't disturb the replacement policy.
+     *
+     * @param pid the ID of the page to read
+     * @param ring the ring of the scan the page is read for, or null
+     * @return true if this call read the page
+     */
+    public boolean prefetchPage(PageId pid, ScanRing ring) throws DbException {
+        if (frames.containsKey(pid)) {
+            return false;
+        }
+        Frame mine = new Frame();
+        if (frames.putIfAbsent(pid, mine) != null) {
+            return false;
+        }
+        resident.incrementAndGet();
+        load(pid, mine, ring);
+        return true;
+    }
 
-        //Otherwise we couldn't find the page in our buffer, so need to fetch them
-        else {
-            if(cache.size() == size){
-                // Buffer is full, evict a page before adding
-                evictPage();
+    /**
+     * Reads a page into the empty frame this thread put in the page table.
+     * Other threads asking for the page wait on the frame meanwhile.
+     */
+    private Page load(PageId pid, Frame frame, ScanRing ring) throws DbException {
+        boolean loaded = false;
+        try {
+            evictionLock.lock();
+            try {
+                // Reuse the ring's oldest frame, unless another reader adopted it
+                if (ring != null && ring.isFull()) {
+                    dropRingPage(ring, ring.pollOldest());
+                }
+                // Until the ring is full, its frames are taken from the shared pool
+                while (resident.get() > size && evictPage(pid)) {
+                }
             }
-            //Fetch the page in our catalog and return the page
+            finally {
+                evictionLock.unlock();
+            }
+
             DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
             Page page = file.readPage(pid);
-            cache.put(pid, page);
+
+            evictionLock.lock();
+            try {
+                if (ring != null) {
+                    ringPages.put(pid, ring);
+                    ring.add(pid);
+                } else {
+                    policy.admit(pid);
+                }
+            }
+            finally {
+                evictionLock.unlock();
+            }
+            frame.loaded(page);
+            loaded = true;
             return page;
         }
+        catch (DbException e) {
+            frame.failed(e);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            frame.failed(e);
+            throw e;
+        }
+        finally {
+            if (!loaded) {
+                frames.remove(pid, frame);
+                resident.decrementAndGet();
+            }
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Queues a hit for the replacement policy. This never blocks: the queue
+     * is drained by whichever thread holds evictionLock next, or here once
+     * it grows long and the lock happens to be free.
+     */
+    private void recordAccess(PageId pid) {
+        accesses.offer(pid);
+        if (pendingAccesses.incrementAndGet() >= ACCESS_BUFFER && evictionLock.tryLock()) {
+            try {
+                drainAccesses();
+            }
+            finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /** Passes queued hits on to the policy; evictionLock must be held */
+    private void drainAccesses() {
+        for (int n = pendingAccesses.get(); n > 0; n--) {
+            PageId pid = accesses.poll();
+            if (pid == null) {
+                break;
+            }
+            pendingAccesses.decrementAndGet();
+            if (!frames.containsKey(pid)) {
+                continue;
+            }
+            if (ringPages.remove(pid) != null) {
+                // Another reader wants a page a scan ring brought in, so
+                // it becomes a regular shared page
+                policy.admit(pid);
+            } else {
+                policy.access(pid);
+            }
+        }
+    }
+
+    /**
+     * Gives back the frames of a scan ring once its scan is done. Pages
+     * still owned by the ring are written out if dirty and dropped.
+     *
+     * @param ring the ring to release; may be null
+     */
+    public void releaseScanRing(ScanRing ring) {
+        if (ring == null) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            PageId pid;
+            while ((pid = ring.pollOldest()) != null) {
+                dropRingPage(ring, pid);
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes pid from the pool if ring still owns it; evictionLock must be
+     * held.
+     *
+     * @return true if a frame was freed
+     */
+    private boolean dropRingPage(ScanRing ring, PageId pid) {
+        if (pid == null || ringPages.get(pid) != ring) {
+            return false;
+        }
+        Frame frame = frames.get(pid);
+        try {
+            flushPage(pid);
+        }
+        catch (IOException e) {
+            // Keep the page; it becomes a regular page the policy can evict
+            e.printStackTrace();
+            ringPages.remove(pid);
+            policy.reinstate(pid);
+            return false;
+        }
+        ringPages.remove(pid);
+        if (frame == null || !removeFrame(pid, frame)) {
+            // Somebody is reading it right now, so hand it to the policy
+            if (frame != null) {
+                policy.reinstate(pid);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evicts a frame the caller has just flushed, unless it is pinned, and
+     * tells the policy the page is gone; evictionLock must be held.
+     * The page can be dirtied again between the flush and the eviction, so
+     * it is written once more after the eviction, when it no longer can be.
+     *
+     * @return false if the frame is pinned or latched, or its page couldn't
+     *            be written and the frame is kept
+     */
+    private boolean removeFrame(PageId pid, Frame frame) {
+        // A page being changed in place counts as pinned
+        if (!frame.tryLatch()) {
+            return false;
+        }
+        try {
+            if (!frame.tryEvict()) {
+                return false;
+            }
+            Page page = frame.page();
+            if (page != null && page.isDirty() != null) {
+                try {
+                    flushPage(pid);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                    frame.cancelEvict();
+                    return false;
+                }
+            }
+            frames.remove(pid, frame);
+            resident.decrementAndGet();
+            policy.remove(pid);
+            return true;
+        }
+        finally {
+            frame.unlatch();
+        }
     }
 
     /**
@@ -141,6 +503,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The tuple is also added to the table's indexes in the Catalog.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -151,8 +514,12 @@ public class BufferPool {
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> page = file.insertTuple(tid, t);
         for (Page p : page) {
-            p.markDirty(true, tid);
-            cache.put(p.getId(),p);
+            cachePage(p, tid);
+        }
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page p : index.insertTuple(tid, t)) {
+                cachePage(p, tid);
+            }
         }
     }
 
@@ -164,18 +531,195 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The tuple is also removed from the table's indexes in the Catalog.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        int tableId = t.getRecordId().getPageId().getTableId();
+        RecordId rid = t.getRecordId();
+        int tableId = rid.getPageId().getTableId();
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> page = file.deleteTuple(tid, t);
         for (Page p : page) {
-            p.markDirty(true, tid);
-            cache.put(p.getId(),p);
+            cachePage(p, tid);
+        }
+        // t no longer has its RecordId
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page p : index.deleteEntry(tid, t.getField(index.getKeyField()), rid)) {
+                cachePage(p, tid);
+            }
+        }
+    }
+
+    /**
+     * Puts a page modified by insertTuple/deleteTuple in the cache, so that
+     * later requests see the modified version, and marks it dirty.
+     */
+    private void cachePage(Page p, TransactionId tid) throws DbException {
+        PageId pid = p.getId();
+        for (;;) {
+            Frame frame = frames.get(pid);
+            if (frame != null) {
+                if (!frame.pin()) {
+                    Thread.yield();
+                    continue;
+                }
+                try {
+                    if (frame.await() != p) {
+                        frame.setPage(p);
+                    }
+                    frame.markDirty(tid);
+                }
+                finally {
+                    frame.unpin();
+                }
+                recordAccess(pid);
+                pageDirtied();
+                return;
+            }
+            Frame mine = new Frame(p);
+            mine.markDirty(tid);
+            if (frames.putIfAbsent(pid, mine) == null) {
+                resident.incrementAndGet();
+                evictionLock.lock();
+                try {
+                    policy.admit(pid);
+                }
+                finally {
+                    evictionLock.unlock();
+                }
+                pageDirtied();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts the background flusher on the first dirty page, and wakes it
+     * up early once a quarter of the pool has been dirtied since its last
+     * pass.
+     */
+    private void pageDirtied() {
+        PageFlusher f = flusher;
+        if (f == null) {
+            synchronized (this) {
+                if (flusher == null && !shutdown) {
+                    flusher = new PageFlusher(this);
+                    flusher.start();
+                }
+                f = flusher;
+            }
+        }
+        if (f != null && dirtied.incrementAndGet() >= Math.max(1, size / 4)) {
+            f.wakeUp();
+        }
+    }
+
+    /**
+     * Stops the background flusher. Dirty pages stay in the pool, and are
+     * only written when evicted or flushed explicitly.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+    }
+
+    /**
+     * Writes every dirty page, in (tableId, pageNumber) order so that runs
+     * of adjacent pages go to disk in a single write. Pages dirtied again
+     * while being written stay dirty. Called by the background flusher.
+     */
+    void flushDirtyPages() throws IOException {
+        dirtied.set(0);
+        TreeMap<PageId, Frame> dirty = new TreeMap<PageId, Frame>(PAGE_ORDER);
+        for (Map.Entry<PageId, Frame> e : frames.entrySet()) {
+            Page page = e.getValue().page();
+            if (page != null && page.isDirty() != null) {
+                dirty.put(e.getKey(), e.getValue());
+            }
+        }
+        ArrayList<Frame> batch = new ArrayList<Frame>();
+        int tableId = 0;
+        for (Map.Entry<PageId, Frame> e : dirty.entrySet()) {
+            if (!batch.isEmpty() && tableId != e.getKey().getTableId()) {
+                writeBatch(tableId, batch);
+                batch.clear();
+            }
+            tableId = e.getKey().getTableId();
+            batch.add(e.getValue());
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(tableId, batch);
+        }
+    }
+
+    /** Orders page ids by table, then by page number */
+    private static final Comparator<PageId> PAGE_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId()) {
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            }
+            return a.pageNumber() < b.pageNumber() ? -1
+                    : (a.pageNumber() == b.pageNumber() ? 0 : 1);
+        }
+    };
+
+    /**
+     * Writes the dirty pages of a batch of frames, all from one table and
+     * sorted by page number, and marks clean the ones not dirtied again
+     * meanwhile.
+     */
+    private void writeBatch(int tableId, List<Frame> batch) throws IOException {
+        ArrayList<Page> pages = new ArrayList<Page>(batch.size());
+        long[] versions = new long[batch.size()];
+        ArrayList<Frame> written = new ArrayList<Frame>(batch.size());
+        try {
+            for (Frame frame : batch) {
+                frame.latch();
+                // Read the version before the page data is copied out
+                long version = frame.version();
+                Page page = frame.page();
+                if (page.isDirty() != null) {
+                    versions[written.size()] = version;
+                    written.add(frame);
+                    pages.add(page);
+                }
+                else {
+                    frame.unlatch();
+                }
+            }
+            if (pages.isEmpty()) {
+                return;
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            writePages(file, pages);
+            for (int i = 0; i < written.size(); i++) {
+                written.get(i).markClean(pages.get(i), versions[i]);
+            }
+        }
+        finally {
+            for (Frame frame : written) {
+                frame.unlatch();
+            }
+        }
+    }
+
+    /**
+     * Writes pages of one file, sorted by page number. Heap files coalesce
+     * adjacent pages; other files write one page at a time.
+     */
+    private static void writePages(DbFile file, List<Page> pages) throws IOException {
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).writePages(pages);
+            return;
+        }
+        for (Page page : pages) {
+            file.writePage(page);
         }
     }
 
@@ -184,10 +728,8 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        for (PageId i : cache.keySet()) {
-            flushPage(i);
-        }
+    public void flushAllPages() throws IOException {
+        flushDirtyPages();
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -195,26 +737,58 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // only necessary for lab5
+    public void discardPage(PageId pid) {
+        evictionLock.lock();
+        try {
+            Frame frame = frames.get(pid);
+            // Nothing to do if the page isn't cached; a frame still being
+            // read or in use by another thread is left alone
+            if (frame == null || !frame.tryLatch()) {
+                return;
+            }
+            try {
+                if (!frame.tryEvict()) {
+                    return;
+                }
+                frames.remove(pid, frame);
+                resident.decrementAndGet();
+                ringPages.remove(pid);
+                policy.remove(pid);
+            }
+            finally {
+                frame.unlatch();
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        Page page = cache.get(pid);
-        TransactionId tid = page.isDirty();
-        // If page not found or page is clean, do nothing
-        if (page == null || tid == null) { return; }
+    private void flushPage(PageId pid) throws IOException {
+        Frame frame = frames.get(pid);
+        // If page not found, still being read or clean, do nothing
+        if (frame == null) { return; }
+        frame.latch();
+        try {
+            long version = frame.version();
+            Page page = frame.page();
+            if (page == null) { return; }
+            TransactionId tid = page.isDirty();
+            if (tid == null) { return; }
 
-        // Write the page to disk
-        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        file.writePage(page);
-        // Mark as not dirty
-        page.markDirty(false, tid);
+            // Write the page to disk
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            writePages(file, Collections.singletonList(page));
+            // Mark as not dirty, unless it was dirtied again meanwhile
+            frame.markClean(page, version);
+        }
+        finally {
+            frame.unlatch();
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -225,27 +799,56 @@ public class BufferPool {
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards a page from the buffer pool; evictionLock must be held.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * @param incoming the page that will take the freed frame, passed on to
+     *            the replacement policy
+     * @return true if a frame was freed, false if every remaining frame is
+     *            pinned or still being read
      */
-    private synchronized  void evictPage() throws DbException {
-        boolean evicted = false;
-        Page page;
-        // Random replacement policy
-        for (PageId i : cache.keySet()) {
-            page = cache.get(i);
-            // Flush to disk, evict the page
+    private boolean evictPage(PageId incoming) throws DbException {
+        drainAccesses();
+        boolean failed = false;
+        // Ask the policy for victims until one can be written out
+        for (int tries = frames.size(); tries > 0; tries--) {
+            PageId victim = policy.evict(incoming);
+            if (victim == null) {
+                // Only ring pages are left, e.g. from a scan never closed
+                Iterator<Map.Entry<PageId, ScanRing>> it = ringPages.entrySet().iterator();
+                if (!it.hasNext()) {
+                    break;
+                }
+                Map.Entry<PageId, ScanRing> e = it.next();
+                if (dropRingPage(e.getValue(), e.getKey())) {
+                    return true;
+                }
+                continue;
+            }
+            Frame frame = frames.get(victim);
+            if (frame == null) {
+                continue;
+            }
             try {
-                flushPage(i);
-                cache.remove(i);
-                evicted = true;
-                break;
+                flushPage(victim);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+                policy.reinstate(victim);
+                continue;
             }
-            catch (IOException e) { e.printStackTrace(); }
+            if (!removeFrame(victim, frame)) {
+                // Pinned by a reader
+                policy.reinstate(victim);
+                continue;
+            }
+            return true;
         }
-        if (!evicted) {
+        if (failed) {
             throw new DbException("All pages are dirty, can't evict");
         }
+        return false;
     }
 
 }
@@ -23,12 +23,21 @@ public class Catalog {
      */
     HashMap<Integer,Table> m_tables;
 
+    /**
+     * m_indexes maps an index's file ID to the index, and m_tableIndexes
+     * a table's ID to the indexes on it
+     */
+    HashMap<Integer,IndexFile> m_indexes;
+    HashMap<Integer,List<IndexFile>> m_tableIndexes;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
         m_tables = new HashMap<Integer,Table>();
+        m_indexes = new HashMap<Integer,IndexFile>();
+        m_tableIndexes = new HashMap<Integer,List<IndexFile>>();
     }
 
     /**
@@ -51,11 +60,71 @@ public class Catalog {
             Table val = entry.getValue();
             if (val.get_name().equals(name)) {
                 m_tables.remove(val.get_file().getId());
+                removeIndexes(val.get_file().getId());
             }
         }
         m_tables.put(file.getId(),table);
     }
 
+    /**
+     * Add an index on a table in the catalog. From then on the index's
+     * pages can be read through the BufferPool, BufferPool.insertTuple and
+     * deleteTuple keep it up to date, and the optimizer can use it to scan
+     * the table.
+     * @param index the index to add
+     * @throws NoSuchElementException if the index's table isn't in the catalog
+     */
+    public void addIndex(IndexFile index) throws NoSuchElementException {
+        if (!m_tables.containsKey(index.getTableId())) {
+            throw new NoSuchElementException("No table exists with id " + index.getTableId());
+        }
+        List<IndexFile> indexes = m_tableIndexes.get(index.getTableId());
+        if (indexes == null) {
+            indexes = new ArrayList<IndexFile>();
+            m_tableIndexes.put(index.getTableId(), indexes);
+        }
+        indexes.add(index);
+        m_indexes.put(index.getId(), index);
+    }
+
+    /**
+     * Returns the indexes on a table, in the order they were added.
+     * @param tableid The id of the table
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> indexes = m_tableIndexes.get(tableid);
+        if (indexes == null) {
+            return Collections.emptyList();
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns an index on a field of a table that can find the tuples of a
+     * predicate with the given operator, or null if there is none. The
+     * index added first wins.
+     * @param tableid The id of the table
+     * @param field The index of the field in the table's TupleDesc
+     * @param op The operator of the predicate
+     */
+    public IndexFile getIndex(int tableid, int field, Predicate.Op op) {
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index.getKeyField() == field && index.supports(op)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private void removeIndexes(int tableid) {
+        List<IndexFile> indexes = m_tableIndexes.remove(tableid);
+        if (indexes != null) {
+            for (IndexFile index : indexes) {
+                m_indexes.remove(index.getId());
+            }
+        }
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -102,13 +171,17 @@ public class Catalog {
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or of the specified index.
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable, or the id of an index
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         Table table = m_tables.get(tableid);
         if (table == null) {
+            IndexFile index = m_indexes.get(tableid);
+            if (index != null) {
+                return index;
+            }
             throw new NoSuchElementException("No table exists with id " + tableid);
         }
         return table.get_file();
@@ -137,10 +210,18 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         m_tables.clear();
+        m_indexes.clear();
+        m_tableIndexes.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <code>name (field type, field type, ...) [format]</code>,
+     * where the optional format is heap (the default), pax or slotted. A field's type
+     * can be followed by <code>pk</code> to make it the primary key, and by
+     * <code>index</code> to keep a {@link BTreeFile} on it in <code>name.field.idx</code>,
+     * or <code>hash</code> to keep a {@link HashIndexFile} on it in <code>name.field.hash</code>,
+     * or <code>bitmap</code> to keep a {@link BitmapIndex} on it next to the table's data file.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -158,6 +239,9 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
+                ArrayList<Integer> hashed = new ArrayList<Integer>();
+                ArrayList<Integer> bitmapped = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -169,11 +253,17 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int a = 2; a < els2.length; a++) {
+                        if (els2[a].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[a].trim().equals("index"))
+                            indexed.add(names.size() - 1);
+                        else if (els2[a].trim().equals("hash"))
+                            hashed.add(names.size() - 1);
+                        else if (els2[a].trim().equals("bitmap"))
+                            bitmapped.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[a]);
                             System.exit(0);
                         }
                     }
@@ -181,9 +271,49 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // an optional word after the fields names the storage format
+                String format = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (format.equals("") || format.equals("heap"))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (format.equals("pax"))
+                    tabHf = new PaxFile(dataFile, t);
+                else if (format.equals("slotted"))
+                    tabHf = new SlottedFile(dataFile, t);
+                else {
+                    System.out.println("Unknown storage format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (!(indexed.isEmpty() && hashed.isEmpty() && bitmapped.isEmpty())
+                        && !(tabHf instanceof HeapFile)) {
+                    System.out.println("Only heap and pax tables can be indexed: " + name);
+                    System.exit(0);
+                }
+                // built from the table the first time it is loaded
+                for (int field : indexed) {
+                    File indexFile = new File(baseFolder+"/"+name+"."+namesAr[field]+".idx");
+                    BTreeFile index = indexFile.length() > 0
+                            ? new BTreeFile(indexFile, tabHf, field)
+                            : BTreeFile.create(indexFile, (HeapFile) tabHf, field);
+                    addIndex(index);
+                    System.out.println("Added index on " + name + "." + namesAr[field]);
+                }
+                for (int field : hashed) {
+                    File indexFile = new File(baseFolder+"/"+name+"."+namesAr[field]+".hash");
+                    HashIndexFile index = indexFile.length() > 0
+                            ? new HashIndexFile(indexFile, tabHf, field)
+                            : HashIndexFile.create(indexFile, (HeapFile) tabHf, field);
+                    addIndex(index);
+                    System.out.println("Added hash index on " + name + "." + namesAr[field]);
+                }
+                for (int field : bitmapped) {
+                    ((HeapFile) tabHf).addBitmapIndex(field);
+                    System.out.println("Added bitmap index on " + name + "." + namesAr[field]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a ring of frames,
+ * each with a reference bit that is set on every access. The clock hand
+ * sweeps the ring, clearing set bits, and evicts the first page whose bit is
+ * already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private PageId[] m_frames;
+    private boolean[] m_referenced;
+    private HashMap<PageId, Integer> m_slots;   // Maps a page to its frame
+    private int m_hand;
+
+    public ClockPolicy() {
+        m_frames = new PageId[16];
+        m_referenced = new boolean[16];
+        m_slots = new HashMap<PageId, Integer>();
+        m_hand = 0;
+    }
+
+    public void admit(PageId pid) {
+        if (m_slots.containsKey(pid)) {
+            access(pid);
+            return;
+        }
+        int slot = freeSlot();
+        m_frames[slot] = pid;
+        m_referenced[slot] = true;
+        m_slots.put(pid, slot);
+    }
+
+    public void access(PageId pid) {
+        Integer slot = m_slots.get(pid);
+        if (slot == null) {
+            admit(pid);
+            return;
+        }
+        m_referenced[slot] = true;
+    }
+
+    public PageId evict(PageId incoming) {
+        if (m_slots.isEmpty()) { return null; }
+        // At most two sweeps: the first clears every reference bit
+        while (true) {
+            PageId pid = m_frames[m_hand];
+            if (pid != null) {
+                if (m_referenced[m_hand]) {
+                    m_referenced[m_hand] = false;
+                }
+                else {
+                    m_frames[m_hand] = null;
+                    m_slots.remove(pid);
+                    advance();
+                    return pid;
+                }
+            }
+            advance();
+        }
+    }
+
+    public void reinstate(PageId pid) {
+        admit(pid);
+    }
+
+    public void remove(PageId pid) {
+        Integer slot = m_slots.remove(pid);
+        if (slot != null) {
+            m_frames[slot] = null;
+            m_referenced[slot] = false;
+        }
+    }
+
+    private void advance() {
+        m_hand = (m_hand + 1) % m_frames.length;
+    }
+
+    /** Returns an empty frame, growing the ring if every frame is in use */
+    private int freeSlot() {
+        if (m_slots.size() == m_frames.length) {
+            int n = m_frames.length;
+            m_frames = Arrays.copyOf(m_frames, n * 2);
+            m_referenced = Arrays.copyOf(m_referenced, n * 2);
+            return n;
+        }
+        for (int i = 0; i < m_frames.length; i++) {
+            int slot = (m_hand + i) % m_frames.length;
+            if (m_frames[slot] == null) { return slot; }
+        }
+        throw new IllegalStateException("impossible to reach here");
+    }
+}
@@ -14,6 +14,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into an array, in the same
+     * format as {@link #serialize(DataOutputStream)}.
+     * @param data The array to write to
+     * @param offset The offset in the array to write the field at
+     */
+    void serialize(byte[] data, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
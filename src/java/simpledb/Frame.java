@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A slot in the BufferPool's page table. The thread that misses on a page
+ * puts an empty frame in the table and fills it once the page is read, so
+ * other threads asking for the same page wait for that one read instead of
+ * issuing their own.
+ * <p>
+ * The pin count is the number of threads using the frame right now. Only
+ * an unpinned frame can be evicted; eviction moves the count to -1, after
+ * which the frame can't be pinned again.
+ * <p>
+ * Every time the page is dirtied its version goes up. A writer that copied
+ * the page out at one version only marks it clean if it is still at that
+ * version, so changes made while it was writing are not lost.
+ * <p>
+ * The frame's latch keeps writers and changes made to the page in place
+ * apart. Writers hold it from taking the copy until the write is done, so
+ * an older copy can't reach the disk after a newer one. A file changing the
+ * page holds it across the change and the version bump, so no copy is taken
+ * of a page half changed.
+ */
+class Frame {
+
+    private final AtomicInteger m_pins;
+    private final CountDownLatch m_loaded;
+    private volatile Page m_page;
+    private volatile Exception m_failure;
+    private long m_version;
+    private final ReentrantLock m_latch = new ReentrantLock();
+
+    /** Creates an empty frame, pinned by the thread that will load it */
+    Frame() {
+        m_pins = new AtomicInteger(1);
+        m_loaded = new CountDownLatch(1);
+    }
+
+    /** Creates an unpinned frame for a page that is already in memory */
+    Frame(Page page) {
+        m_pins = new AtomicInteger(0);
+        m_loaded = new CountDownLatch(0);
+        m_page = page;
+    }
+
+    /** @return false if the frame is being evicted */
+    boolean pin() {
+        for (;;) {
+            int pins = m_pins.get();
+            if (pins < 0) {
+                return false;
+            }
+            if (m_pins.compareAndSet(pins, pins + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void unpin() {
+        m_pins.decrementAndGet();
+    }
+
+    int pinCount() {
+        return m_pins.get();
+    }
+
+    /** Marks the frame evicted if nobody has it pinned */
+    boolean tryEvict() {
+        return m_pins.compareAndSet(0, -1);
+    }
+
+    /** Undoes a successful tryEvict, for a frame that has to stay after all */
+    void cancelEvict() {
+        m_pins.compareAndSet(-1, 0);
+    }
+
+    /** @return the page, or null while it is being read */
+    Page page() {
+        return m_page;
+    }
+
+    synchronized void setPage(Page page) {
+        m_page = page;
+    }
+
+    synchronized long version() {
+        return m_version;
+    }
+
+    /** Marks the page dirty on behalf of tid */
+    synchronized void markDirty(TransactionId tid) {
+        m_version++;
+        m_page.markDirty(true, tid);
+    }
+
+    /** Taken before copying the page out to write it, or changing it */
+    void latch() {
+        m_latch.lock();
+    }
+
+    /** @return false if somebody else holds the latch */
+    boolean tryLatch() {
+        return m_latch.tryLock();
+    }
+
+    void unlatch() {
+        m_latch.unlock();
+    }
+
+    /**
+     * Marks the page clean after a copy taken at the given version was
+     * written out.
+     *
+     * @return false if the page was dirtied again since
+     */
+    synchronized boolean markClean(Page page, long version) {
+        if (m_version != version || m_page != page) {
+            return false;
+        }
+        TransactionId tid = page.isDirty();
+        if (tid != null) {
+            page.markDirty(false, tid);
+        }
+        return true;
+    }
+
+    void loaded(Page page) {
+        m_page = page;
+        m_loaded.countDown();
+    }
+
+    void failed(Exception e) {
+        m_failure = e;
+        m_loaded.countDown();
+    }
+
+    /**
+     * Waits until the page has been read.
+     *
+     * @throws DbException if reading the page failed
+     */
+    Page await() throws DbException {
+        Page page = m_page;
+        if (page != null) {
+            return page;
+        }
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                m_loaded.await();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Exception failure = m_failure;
+        if (failure instanceof DbException) {
+            throw (DbException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        return m_page;
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Records how many free tuple slots each page of a HeapFile has, so that
+ * an insert can go straight to a page with room instead of reading every
+ * page from the start of the file.
+ * <p>
+ * The map is kept in memory while the file is in use, and in a sidecar
+ * file next to the data file with one byte per page (counts above 255 are
+ * stored as 255). The sidecar is updated whenever a page is written, so it
+ * describes the pages on disk; it is rebuilt from the page headers if it
+ * is missing, or if it is older than the data file or of the wrong length.
+ * <p>
+ * The map is a hint: a page it says has room may have filled up in the
+ * buffer pool, so HeapFile checks the page and corrects the map if not.
+ */
+public class FreeSpaceMap {
+
+    private byte[] m_free;
+    private int m_numPages;
+    // Pages with at least one free slot
+    private final BitSet m_hasRoom;
+    // No page below this one has room
+    private int m_first;
+
+    private final File m_file;
+    private FileChannel m_channel;
+
+    private FreeSpaceMap(File file, byte[] free, int numPages) {
+        m_file = file;
+        m_free = free;
+        m_numPages = numPages;
+        m_hasRoom = new BitSet(numPages);
+        for (int i = 0; i < numPages; i++) {
+            if (free[i] != 0) {
+                m_hasRoom.set(i);
+            }
+        }
+        m_first = 0;
+    }
+
+    /** @return the sidecar file holding the map of the given data file */
+    public static File fileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Opens the free-space map of a HeapFile, rebuilding it from the page
+     * headers on disk if its sidecar file can't be used.
+     */
+    static FreeSpaceMap open(HeapFile hf) throws IOException {
+        File file = fileFor(hf.getFile());
+        int numPages = hf.numPages();
+        if (file.exists() && file.length() == numPages
+                && file.lastModified() >= hf.getFile().lastModified()) {
+            byte[] free = new byte[numPages];
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                in.readFully(free);
+                return new FreeSpaceMap(file, free, numPages);
+            }
+            catch (EOFException e) {
+                // shorter than it claimed, rebuild below
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        byte[] free = new byte[numPages];
+        for (int i = 0; i < numPages; i++) {
+            free[i] = encode(hf.countEmptySlots(i));
+        }
+        FreeSpaceMap map = new FreeSpaceMap(file, free, numPages);
+        map.save();
+        return map;
+    }
+
+    private static byte encode(int freeSlots) {
+        return (byte) Math.min(255, freeSlots);
+    }
+
+    /** @return a page with a free slot, lowest numbered first, or -1 */
+    synchronized int pageWithRoom() {
+        int pgNo = m_hasRoom.nextSetBit(m_first);
+        m_first = pgNo < 0 ? m_numPages : pgNo;
+        return pgNo;
+    }
+
+    /**
+     * Records the number of free slots a page has in memory, after an
+     * insert or delete, or when a hint turned out to be wrong.
+     */
+    synchronized void update(int pgNo, int freeSlots) {
+        if (pgNo >= m_numPages) {
+            grow(pgNo + 1);
+        }
+        m_free[pgNo] = encode(freeSlots);
+        if (freeSlots > 0) {
+            m_hasRoom.set(pgNo);
+            m_first = Math.min(m_first, pgNo);
+        } else {
+            m_hasRoom.clear(pgNo);
+        }
+    }
+
+    /**
+     * Stores the number of free slots of a page that was just written to
+     * disk in the sidecar file.
+     */
+    synchronized void written(int pgNo, int freeSlots) throws IOException {
+        if (pgNo >= m_numPages) {
+            grow(pgNo + 1);
+        }
+        ByteBuffer b = ByteBuffer.wrap(new byte[] { encode(freeSlots) });
+        channel().write(b, pgNo);
+    }
+
+    private void grow(int numPages) {
+        if (numPages > m_free.length) {
+            byte[] free = new byte[Math.max(numPages, m_free.length * 2)];
+            System.arraycopy(m_free, 0, free, 0, m_numPages);
+            m_free = free;
+        }
+        m_numPages = numPages;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (m_channel == null) {
+            m_channel = new RandomAccessFile(m_file, "rw").getChannel();
+        }
+        return m_channel;
+    }
+
+    /** Writes the whole map to the sidecar file */
+    private synchronized void save() throws IOException {
+        FileChannel ch = channel();
+        ch.truncate(m_numPages);
+        ByteBuffer b = ByteBuffer.wrap(m_free, 0, m_numPages);
+        long pos = 0;
+        while (b.hasRemaining()) {
+            pos += ch.write(b, pos);
+        }
+    }
+}
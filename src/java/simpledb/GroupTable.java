@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A map from group keys, each a fixed number of ints, to group numbers, for
+ * hash aggregation. Groups are numbered from 0 in the order they were first
+ * seen. Keys live in one int array, and slots of an open-addressing table
+ * probed linearly hold group numbers, so looking up a key allocates nothing
+ * but the occasional larger array.
+ */
+public class GroupTable {
+
+    private final int m_width;
+
+    // The slots of the table: the group of each plus one, 0 if it's empty
+    private int[] m_slots;
+    private int m_mask;
+
+    // The groups: the key of group g is at [g * width, (g + 1) * width)
+    private int[] m_keys;
+    private int[] m_hashes;
+    private int m_size;
+
+    /** Creates a table of keys of the given number of ints */
+    public GroupTable(int width) {
+        m_width = width;
+        m_slots = new int[64];
+        m_mask = m_slots.length - 1;
+        m_keys = new int[32 * Math.max(1, width)];
+        m_hashes = new int[32];
+    }
+
+    private int hash(int[] key) {
+        int h = 0;
+        for (int i = 0; i < m_width; i++) {
+            h = (h + key[i]) * 0x9e3779b9;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(int group, int[] key) {
+        int base = group * m_width;
+        for (int i = 0; i < m_width; i++) {
+            if (m_keys[base + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key the first width ints of which are the key
+     * @return the group with the key, or -1 if there is none
+     */
+    public int find(int[] key) {
+        int h = hash(key);
+        int s = h & m_mask;
+        int g;
+        while ((g = m_slots[s]) != 0) {
+            if (m_hashes[g - 1] == h && matches(g - 1, key)) {
+                return g - 1;
+            }
+            s = (s + 1) & m_mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param key the first width ints of which are the key
+     * @return the group with the key, which is added if it's new
+     */
+    public int group(int[] key) {
+        int h = hash(key);
+        int s = h & m_mask;
+        int g;
+        while ((g = m_slots[s]) != 0) {
+            if (m_hashes[g - 1] == h && matches(g - 1, key)) {
+                return g - 1;
+            }
+            s = (s + 1) & m_mask;
+        }
+        if (m_size == m_hashes.length) {
+            m_hashes = Arrays.copyOf(m_hashes, m_size * 2);
+            m_keys = Arrays.copyOf(m_keys, m_size * 2 * Math.max(1, m_width));
+        }
+        g = m_size++;
+        System.arraycopy(key, 0, m_keys, g * m_width, m_width);
+        m_hashes[g] = h;
+        m_slots[s] = g + 1;
+        if (m_size * 2 > m_slots.length) {
+            rehash(m_slots.length * 2);
+        }
+        return g;
+    }
+
+    private void rehash(int slots) {
+        m_slots = new int[slots];
+        m_mask = slots - 1;
+        for (int g = 0; g < m_size; g++) {
+            int s = m_hashes[g] & m_mask;
+            while (m_slots[s] != 0) {
+                s = (s + 1) & m_mask;
+            }
+            m_slots[s] = g + 1;
+        }
+    }
+
+    /** @return the i'th int of the key of a group */
+    public int key(int group, int i) {
+        return m_keys[group * m_width + i];
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return m_size;
+    }
+}
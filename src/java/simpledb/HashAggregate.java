@@ -0,0 +1,384 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The hash aggregation operator: computes any number of aggregates (MIN,
+ * MAX, SUM, AVG and COUNT) in one pass over its child, grouped by any number
+ * of fields. Groups are numbered by a {@link GroupTable}, string group fields
+ * by a dictionary of their values, and each aggregate folds into a long
+ * array indexed by group, so merging a tuple boxes nothing. Output tuples
+ * are the group fields followed by the aggregates, one per group in the
+ * order the groups were first seen. As with {@link Aggregate}, aggregates
+ * are ints, AVG rounds toward zero, only COUNT is supported on string
+ * fields, and without grouping an empty input gives no tuple.
+ * <p>
+ * At most a budget of groups is kept in memory. Once it is reached, the
+ * tuples of groups not in memory are written out to FANOUT partitions by
+ * the hash of their group, and each partition is aggregated in turn by a
+ * HashAggregate of its own, which may partition it again. After
+ * HashEquiJoin.MAX_LEVEL levels of partitioning the budget is ignored.
+ */
+public class HashAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of groups held in memory */
+    public static final int DEFAULT_BUDGET = 1 << 18;
+
+    private DbIterator m_child;
+    private final int[] m_gfields;
+    private final int[] m_afields;
+    private final Aggregator.Op[] m_ops;
+    private final TupleDesc m_td;
+    private final int m_budget;
+    private final int m_level;
+
+    // The groups; the values of string group field i, by their number in
+    // the key, and the numbers of the values
+    private transient GroupTable m_groups;
+    private transient ArrayList<ArrayList<String>> m_strings;
+    private transient ArrayList<HashMap<String, Integer>> m_dicts;
+    // The number of tuples in each group, and the running aggregates
+    private transient long[] m_counts;
+    private transient long[][] m_acc;
+    private int m_numGroups;
+    private int m_next;
+
+    // Once the budget is reached, the tuples of the other groups by
+    // partition, null for a partition without any; the next partition to
+    // aggregate, and the aggregate of the current one
+    private transient SpillFile[] m_spill;
+    private int m_part;
+    private transient HashAggregate m_sub;
+
+    /**
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param gfields
+     *            The fields to group by, none for a single group
+     * @param afields
+     *            The field of each aggregate
+     * @param ops
+     *            The operator of each aggregate
+     * @throws IllegalArgumentException
+     *             if there isn't an operator for every aggregate field, or
+     *             an aggregate isn't one of MIN, MAX, SUM, AVG and COUNT, or
+     *             isn't COUNT over a string field
+     */
+    public HashAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] ops) {
+        this(child, gfields, afields, ops, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Creates a HashAggregate that keeps at most budget groups in memory,
+     * partitioning the input on disk to aggregate the rest.
+     */
+    public HashAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] ops,
+            int budget) {
+        this(child, gfields, afields, ops, budget, 0);
+    }
+
+    private HashAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] ops,
+            int budget, int level) {
+        if (afields.length != ops.length) {
+            throw new IllegalArgumentException("need an operator for each aggregate field");
+        }
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childtd.getFieldType(gfields[i]);
+            names[i] = childtd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            if (ops[i] == Aggregator.Op.SUM_COUNT || ops[i] == Aggregator.Op.SC_AVG) {
+                throw new IllegalArgumentException("unsupported aggregate " + ops[i]);
+            }
+            if (childtd.getFieldType(afields[i]) != Type.INT_TYPE && ops[i] != Aggregator.Op.COUNT) {
+                throw new IllegalArgumentException("only COUNT is supported on string fields");
+            }
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = "Aggregate " + ops[i] + "("
+                    + childtd.getFieldName(afields[i]) + ")";
+        }
+        m_child = child;
+        m_gfields = gfields.clone();
+        m_afields = afields.clone();
+        m_ops = ops.clone();
+        m_td = new TupleDesc(types, names);
+        m_budget = Math.max(1, budget);
+        m_level = level;
+    }
+
+    /** @return the fields grouped by, in the input tuples */
+    public int[] groupFields() {
+        return m_gfields.clone();
+    }
+
+    /** @return the field of each aggregate, in the input tuples */
+    public int[] aggregateFields() {
+        return m_afields.clone();
+    }
+
+    /** @return the operator of each aggregate */
+    public Aggregator.Op[] aggregateOps() {
+        return m_ops.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        m_child.open();
+        super.open();
+
+        int width = m_gfields.length;
+        m_groups = new GroupTable(width);
+        m_strings = new ArrayList<ArrayList<String>>();
+        m_dicts = new ArrayList<HashMap<String, Integer>>();
+        for (int i = 0; i < width; i++) {
+            boolean str = m_td.getFieldType(i) == Type.STRING_TYPE;
+            m_strings.add(str ? new ArrayList<String>() : null);
+            m_dicts.add(str ? new HashMap<String, Integer>() : null);
+        }
+        m_counts = new long[16];
+        m_acc = new long[m_ops.length][];
+        for (int a = 0; a < m_ops.length; a++) {
+            m_acc[a] = new long[16];
+        }
+        m_numGroups = 0;
+        if (width == 0) {
+            // the single group, which has no key
+            addGroup();
+        }
+
+        m_spill = null;
+        boolean read = false;
+        try {
+            aggregate(width);
+            read = true;
+        } finally {
+            if (!read) {
+                // close() deletes the partitions, but a failed open doesn't
+                // get closed
+                deleteSpills();
+            }
+        }
+        m_next = 0;
+        m_part = 0;
+        m_sub = null;
+    }
+
+    /** Aggregates the child's tuples, writing out those of groups over budget */
+    private void aggregate(int width) throws DbException, TransactionAbortedException {
+        int[] key = new int[width];
+        while (m_child.hasNext()) {
+            Tuple t = m_child.next();
+            int g = 0;
+            if (width > 0) {
+                if (m_numGroups < m_budget || m_level >= HashEquiJoin.MAX_LEVEL) {
+                    makeKey(t, key, true);
+                    g = m_groups.group(key);
+                    if (g == m_numGroups) {
+                        addGroup();
+                    }
+                } else if (!makeKey(t, key, false) || (g = m_groups.find(key)) < 0) {
+                    spill(t);
+                    continue;
+                }
+            }
+            m_counts[g]++;
+            for (int a = 0; a < m_ops.length; a++) {
+                if (m_ops[a] == Aggregator.Op.COUNT) {
+                    continue;
+                }
+                long v = ((IntField) t.getField(m_afields[a])).getValue();
+                long[] acc = m_acc[a];
+                switch (m_ops[a]) {
+                case MIN:
+                    if (v < acc[g]) {
+                        acc[g] = v;
+                    }
+                    break;
+                case MAX:
+                    if (v > acc[g]) {
+                        acc[g] = v;
+                    }
+                    break;
+                default: // SUM, AVG
+                    acc[g] += v;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets key to the group fields of a tuple, with string values by their
+     * number, numbering new values if add is set.
+     * 
+     * @return false if a string value isn't numbered, so the group of the
+     *         tuple doesn't exist
+     */
+    private boolean makeKey(Tuple t, int[] key, boolean add) {
+        for (int i = 0; i < m_gfields.length; i++) {
+            Field f = t.getField(m_gfields[i]);
+            if (f instanceof IntField) {
+                key[i] = ((IntField) f).getValue();
+                continue;
+            }
+            String s = ((StringField) f).getValue();
+            HashMap<String, Integer> dict = m_dicts.get(i);
+            Integer n = dict.get(s);
+            if (n == null) {
+                if (!add) {
+                    return false;
+                }
+                n = dict.size();
+                dict.put(s, n);
+                m_strings.get(i).add(s);
+            }
+            key[i] = n;
+        }
+        return true;
+    }
+
+    /** Writes a tuple to the partition of its group */
+    private void spill(Tuple t) throws DbException {
+        if (m_spill == null) {
+            m_spill = new SpillFile[HashEquiJoin.FANOUT];
+        }
+        int h = 0;
+        for (int gfield : m_gfields) {
+            h = h * 31 + t.getField(gfield).hashCode();
+        }
+        int p = HashEquiJoin.partition(h, m_level);
+        if (m_spill[p] == null) {
+            m_spill[p] = new SpillFile(m_child.getTupleDesc());
+        }
+        m_spill[p].add(t);
+    }
+
+    /** Starts the aggregates of a new group */
+    private void addGroup() {
+        int g = m_numGroups++;
+        if (g == m_counts.length) {
+            m_counts = Arrays.copyOf(m_counts, g * 2);
+            for (int a = 0; a < m_ops.length; a++) {
+                m_acc[a] = Arrays.copyOf(m_acc[a], g * 2);
+            }
+        }
+        m_counts[g] = 0;
+        for (int a = 0; a < m_ops.length; a++) {
+            m_acc[a][g] = m_ops[a] == Aggregator.Op.MIN ? Long.MAX_VALUE
+                    : m_ops[a] == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+        }
+    }
+
+    /**
+     * Returns the next group: its group fields, then its aggregates, or null
+     * if there are no more groups. The groups in memory come first, then
+     * those of each partition written out.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (m_next < m_numGroups) {
+            int g = m_next++;
+            if (m_counts[g] == 0) {
+                // only the group of an ungrouped aggregate over nothing
+                continue;
+            }
+            Tuple t = new Tuple(m_td);
+            for (int i = 0; i < m_gfields.length; i++) {
+                int k = m_groups.key(g, i);
+                ArrayList<String> strings = m_strings.get(i);
+                t.setField(i, strings == null ? new IntField(k)
+                        : new StringField(strings.get(k), Type.STRING_LEN));
+            }
+            for (int a = 0; a < m_ops.length; a++) {
+                long v;
+                switch (m_ops[a]) {
+                case COUNT:
+                    v = m_counts[g];
+                    break;
+                case AVG:
+                    v = m_acc[a][g] / m_counts[g];
+                    break;
+                default:
+                    v = m_acc[a][g];
+                    break;
+                }
+                t.setField(m_gfields.length + a, new IntField((int) v));
+            }
+            return t;
+        }
+        while (m_spill != null) {
+            if (m_sub != null) {
+                if (m_sub.hasNext()) {
+                    return m_sub.next();
+                }
+                m_sub.close();
+                m_sub = null;
+            }
+            if (m_part == m_spill.length) {
+                break;
+            }
+            SpillFile part = m_spill[m_part++];
+            if (part != null) {
+                m_sub = new HashAggregate(part.iterator(), m_gfields, m_afields,
+                        m_ops, m_budget, m_level + 1);
+                m_sub.open();
+            }
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_next = 0;
+        m_part = 0;
+        if (m_sub != null) {
+            m_sub.close();
+        }
+        m_sub = null;
+    }
+
+    public void close() {
+        super.close();
+        m_child.close();
+        if (m_sub != null) {
+            m_sub.close();
+        }
+        m_sub = null;
+        deleteSpills();
+        m_groups = null;
+        m_strings = null;
+        m_dicts = null;
+        m_counts = null;
+        m_acc = null;
+    }
+
+    /** Deletes the partitions written out, if any */
+    private void deleteSpills() {
+        if (m_spill != null) {
+            for (SpillFile part : m_spill) {
+                if (part != null) {
+                    part.delete();
+                }
+            }
+        }
+        m_spill = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (m_child != children[0]) { m_child = children[0]; }
+    }
+
+}
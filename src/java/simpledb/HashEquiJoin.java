@@ -26,10 +26,7 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
-        this.pred = p;
-        this.child1 = child1;
-        this.child2 = child2;
-        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this(p, child1, child2, MAP_SIZE);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -50,51 +47,368 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** The default number of build tuples held in memory */
     public final static int MAP_SIZE = 20000;
+    /** The number of partitions the inputs are split into when spilling */
+    final static int FANOUT = 32;
+    /** How many times a partition pair is split again before its build
+     *  side is joined a chunk at a time */
+    final static int MAX_LEVEL = 3;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+    private final int budget;
+
+    // Build tuples in memory by join key, in intMap if the key is an int
+    // and in map otherwise, and how many of them there are in each
+    // partition
+    private boolean intKeys;
+    transient HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+    transient IntHashTable intMap;
+    transient private int inMemory;
+    transient private int[] partCounts;
+    // Once the build side overflows, the partitions written out: the build
+    // tuples of partition p are in buildSpill[p] and the probe tuples that
+    // go with them in probeSpill[p]; null for a partition kept in memory
+    transient private SpillFile[] buildSpill;
+    transient private SpillFile[] probeSpill;
+    // Partition pairs still to be joined once child2 has been read
+    transient private LinkedList<Partition> pending;
+    // Tuples being probed with: child2, then a probe partition. chunk is
+    // the build partition being read a budget at a time, if it is too big
+    transient private DbIterator probe;
+    transient private Partition current;
+    transient private DbIterator chunk;
+
+    /** A build partition and the probe partition to join with it */
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+        // set if splitting the parent left everything in this partition,
+        // as when all the tuples have one key
+        boolean unsplittable;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    /**
+     * Constructor for a join that holds up to budget tuples of child1 in
+     * memory. Once child1 has more, the join becomes a hybrid hash join:
+     * partitions of child1 are written out to temporary files, largest
+     * first, until the rest fit; child2 is read once, joining the tuples
+     * of the partitions in memory right away and writing out the rest;
+     * then each pair of partitions written out is joined in turn.
+     * 
+     * @param budget
+     *            the most tuples of child1 to hold in memory
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int budget) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.budget = budget;
+        this.intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return the partition of a join key at the given level of splitting */
+    static int partition(Field key, int level) {
+        return partition(key.hashCode(), level);
+    }
+
+    /** @return the partition of a join key's hash code */
+    static int partition(int hash, int level) {
+        int h = hash + level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    private void addToMap(Tuple t, Field key) {
+        if (intKeys) {
+            intMap.add(((IntField) key).getValue(), t);
+            return;
+        }
+        ArrayList<Tuple> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(key, list);
+        }
+        list.add(t);
+    }
+
+    /**
+     * Reads child1 into memory, writing out partitions while it doesn't
+     * fit in the budget.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        clearMap();
+        inMemory = 0;
+        partCounts = new int[FANOUT];
+        buildSpill = null;
+        probeSpill = null;
+        pending = new LinkedList<Partition>();
+        boolean built = false;
+        try {
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                Field key = t.getField(pred.getField1());
+                int part = partition(key, 0);
+                if (buildSpill != null && buildSpill[part] != null) {
+                    buildSpill[part].add(t);
+                    continue;
+                }
+                addToMap(t, key);
+                partCounts[part]++;
+                if (++inMemory > budget) {
+                    spillLargest();
+                }
+            }
+            built = true;
+        } finally {
+            if (!built) {
+                deleteSpills();
+            }
+        }
+        probe = child2;
+        current = null;
+        chunk = null;
+    }
+
+    /** Writes out the partition in memory with the most build tuples */
+    private void spillLargest() throws DbException {
+        if (buildSpill == null) {
+            buildSpill = new SpillFile[FANOUT];
+            probeSpill = new SpillFile[FANOUT];
+        }
+        int largest = 0;
+        for (int p = 1; p < FANOUT; p++) {
+            if (partCounts[p] > partCounts[largest]) {
+                largest = p;
+            }
+        }
+        SpillFile file = new SpillFile(child1.getTupleDesc());
+        buildSpill[largest] = file;
+        probeSpill[largest] = new SpillFile(child2.getTupleDesc());
+        if (intKeys) {
+            // copy the rows of the other partitions to a new table, as
+            // there's no taking keys out of an open-addressing table
+            IntHashTable kept = new IntHashTable(inMemory - partCounts[largest]);
+            for (int row = 0; row < intMap.size(); row++) {
+                int key = intMap.keyOf(row);
+                if (partition(key, 0) == largest) {
+                    file.add(intMap.get(row));
+                } else {
+                    kept.add(key, intMap.get(row));
+                }
+            }
+            intMap = kept;
+        }
+        Iterator<Map.Entry<Field, ArrayList<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Field, ArrayList<Tuple>> e = it.next();
+            if (partition(e.getKey(), 0) == largest) {
+                for (Tuple t : e.getValue()) {
+                    file.add(t);
+                }
+                it.remove();
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        }
+        inMemory -= partCounts[largest];
+        partCounts[largest] = 0;
+    }
+
+    /**
+     * Fills the map with the next budget tuples of the build partition
+     * being read a chunk at a time.
+     * 
+     * @return false if there are none left
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        clearMap();
+        int cnt = 0;
+        while (cnt < budget && chunk.hasNext()) {
+            Tuple t = chunk.next();
+            addToMap(t, t.getField(pred.getField1()));
+            cnt++;
         }
         return cnt > 0;
+    }
 
+    /**
+     * Sets up the join of the next pair of partitions written out,
+     * splitting pairs whose build side doesn't fit in memory.
+     * 
+     * @return false if there are none left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        endPartition();
+        while (!pending.isEmpty()) {
+            Partition part = pending.removeFirst();
+            if (part.probe.size() == 0) {
+                part.delete();
+                continue;
+            }
+            if (part.build.size() > budget && part.level < MAX_LEVEL && !part.unsplittable) {
+                split(part);
+                continue;
+            }
+            // current from here on, so close() deletes it if reading fails
+            current = part;
+            probe = part.probe.iterator();
+            chunk = part.build.iterator();
+            chunk.open();
+            loadChunk();
+            if (part.build.size() <= budget) {
+                chunk.close();
+                chunk = null;
+            }
+            probe.open();
+            return true;
+        }
+        return false;
     }
 
+    /** Splits a pair of partitions into FANOUT pairs at the next level */
+    private void split(Partition part) throws DbException, TransactionAbortedException {
+        int level = part.level + 1;
+        SpillFile[] builds = new SpillFile[FANOUT];
+        SpillFile[] probes = new SpillFile[FANOUT];
+        boolean done = false;
+        try {
+            for (int p = 0; p < FANOUT; p++) {
+                builds[p] = new SpillFile(child1.getTupleDesc());
+                probes[p] = new SpillFile(child2.getTupleDesc());
+            }
+            DbIterator it = part.build.iterator();
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                builds[partition(t.getField(pred.getField1()), level)].add(t);
+            }
+            it.close();
+            it = part.probe.iterator();
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                probes[partition(t.getField(pred.getField2()), level)].add(t);
+            }
+            it.close();
+            done = true;
+        } finally {
+            if (!done) {
+                for (int p = 0; p < FANOUT; p++) {
+                    if (builds[p] != null) {
+                        builds[p].delete();
+                    }
+                    if (probes[p] != null) {
+                        probes[p].delete();
+                    }
+                }
+                part.delete();
+            }
+        }
+        for (int p = 0; p < FANOUT; p++) {
+            Partition sub = new Partition(builds[p], probes[p], level);
+            if (builds[p].size() == 0 || probes[p].size() == 0) {
+                sub.delete();
+                continue;
+            }
+            sub.unsplittable = builds[p].size() == part.build.size();
+            pending.addFirst(sub);
+        }
+        part.delete();
+    }
+
+    /** Closes and deletes the partition pair being joined, if any */
+    private void endPartition() {
+        if (current != null) {
+            if (probe != null) {
+                probe.close();
+            }
+            if (chunk != null) {
+                chunk.close();
+            }
+            current.delete();
+        }
+        current = null;
+        chunk = null;
+        probe = null;
+        clearMap();
+    }
+
+    private void clearMap() {
+        map.clear();
+        match = -1;
+        if (intMap == null && intKeys) {
+            intMap = new IntHashTable(Math.min(budget, 1024));
+        } else if (intMap != null) {
+            intMap.clear();
+        }
+    }
+
+    /** Deletes every partition written out */
+    private void deleteSpills() {
+        endPartition();
+        if (buildSpill != null) {
+            for (int p = 0; p < FANOUT; p++) {
+                if (buildSpill[p] != null) {
+                    buildSpill[p].delete();
+                    probeSpill[p].delete();
+                }
+            }
+        }
+        buildSpill = null;
+        probeSpill = null;
+        if (pending != null) {
+            for (Partition part : pending) {
+                part.delete();
+            }
+            pending.clear();
+        }
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
+        super.open();
     }
 
     public void close() {
         super.close();
+        deleteSpills();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
+        this.intMap=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        deleteSpills();
+        this.listIt=null;
         child1.rewind();
         child2.rewind();
+        build();
     }
 
     transient Iterator<Tuple> listIt = null;
+    // The next row of intMap that matches t2, or -1
+    transient private int match = -1;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -115,7 +429,12 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        if (match >= 0) {
+            t1 = intMap.get(match);
+            match = intMap.next(match);
+        } else {
+            t1 = listIt.next();
+        }
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -132,32 +451,59 @@ public class HashEquiJoin extends Operator {
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
+        while (true) {
+            if (match >= 0 || (listIt != null && listIt.hasNext())) {
+                return processList();
+            }
+            if (probe != null) {
+                while (probe.hasNext()) {
+                    t2 = probe.next();
+                    Field key = t2.getField(pred.getField2());
+                    if (probe == child2 && probeSpill != null) {
+                        SpillFile spill = probeSpill[partition(key, 0)];
+                        if (spill != null) {
+                            spill.add(t2);
+                            continue;
+                        }
+                    }
 
-        }
+                    // if match, create a combined tuple and fill it with
+                    // the values from both tuples
+                    if (intKeys) {
+                        match = intMap.first(((IntField) key).getValue());
+                        if (match < 0)
+                            continue;
+                        return processList();
+                    }
+                    ArrayList<Tuple> l = map.get(key);
+                    if (l == null)
+                        continue;
+                    listIt = l.iterator();
+                    return processList();
+                }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+                if (probe == child2) {
+                    // child2 is done: queue up the partitions written out
+                    if (buildSpill != null) {
+                        for (int p = 0; p < FANOUT; p++) {
+                            if (buildSpill[p] != null) {
+                                pending.add(new Partition(buildSpill[p], probeSpill[p], 0));
+                            }
+                        }
+                    }
+                    buildSpill = null;
+                    probeSpill = null;
+                    probe = null;
+                } else if (chunk != null && loadChunk()) {
+                    // the next chunk of an oversized partition
+                    probe.rewind();
+                    continue;
+                }
+            }
+            if (!nextPartition()) {
+                return null;
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -169,6 +515,9 @@ public class HashEquiJoin extends Operator {
     public void setChildren(DbIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE;
+        this.intMap = null;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
     
 
@@ -0,0 +1,449 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * HashIndexFile is an extendible hash index on an INT or STRING field of a
+ * HeapFile. It finds the tuples with a key in one or two page reads, and
+ * finds nothing else: it only supports equality predicates.
+ * <p>
+ * Its pages are {@link HashIndexPage}s, read and locked through the
+ * BufferPool like the pages of a table. Page 0 is the directory, which the
+ * low bits of a key's hash index into. A full bucket is split in two, and
+ * the directory doubled if the bucket was the only one its slots led to.
+ * A bucket grows a chain of overflow pages only when its entries all have
+ * the hash of the key being added, or when the directory fills its page.
+ * Once the chain is full too, a key with another hash splits the bucket,
+ * chain and all. Deletes don't merge buckets.
+ *
+ * @see Catalog#addIndex
+ */
+public class HashIndexFile implements IndexFile {
+
+    private final File m_file;
+    private FileChannel m_file_channel;
+    private final int m_tableId;
+    private final int m_keyField;
+    private final Type m_keyType;
+    private final TupleDesc m_td;
+
+    /**
+     * Opens the index stored in a file, on a field of a table. An empty or
+     * missing file is an empty index; use {@link #create} to index the
+     * tuples a table already has.
+     *
+     * @param f the file the index is stored in
+     * @param table the table the index is on
+     * @param keyField the field of the table's tuples the index is on
+     */
+    public HashIndexFile(File f, DbFile table, int keyField) {
+        m_file = f;
+        m_tableId = table.getId();
+        m_keyField = keyField;
+        m_keyType = table.getTupleDesc().getFieldType(keyField);
+        m_td = BTreeFile.entryDesc(m_keyType);
+        try {
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(f, "rw");
+            } catch (FileNotFoundException e) {
+                raf = new RandomAccessFile(f, "r");
+            }
+            m_file_channel = raf.getChannel();
+            if (m_file_channel.size() == 0) {
+                writeAt(0, HashIndexPage.createEmptyDirectoryData());
+                writeAt(BufferPool.PAGE_SIZE, HashIndexPage.createEmptyBucketData(0));
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading file channel");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes an index of the tuples a table has on disk to a file, with
+     * enough buckets to leave them about two thirds full, and opens it.
+     * Tuples changed in the BufferPool but not written are not seen.
+     *
+     * @param f the file to write the index to
+     * @param table the table to index
+     * @param keyField the field to index the table on
+     */
+    public static HashIndexFile create(File f, HeapFile table, int keyField) throws IOException {
+        Type keyType = table.getTupleDesc().getFieldType(keyField);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int p = 0; p < table.numPages(); p++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                tuples.add(it.next());
+            }
+        }
+
+        int cap = HashIndexPage.capacity(keyType);
+        int depth = 0;
+        while (depth < HashIndexPage.maxDepth() && (cap << depth) * 2 < tuples.size() * 3) {
+            depth++;
+        }
+        HashIndexPage[] buckets = new HashIndexPage[1 << depth];
+        ArrayList<HashIndexPage> pages = new ArrayList<HashIndexPage>();
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new HashIndexPage(new HeapPageId(0, 1 + i),
+                    HashIndexPage.createEmptyBucketData(depth), keyType);
+            pages.add(buckets[i]);
+        }
+        // the page each bucket's next entry goes to, the last of its chain
+        HashIndexPage[] last = buckets.clone();
+        for (Tuple t : tuples) {
+            Field key = t.getField(keyField);
+            int b = HashIndexPage.hash(key) & (buckets.length - 1);
+            if (!last[b].hasRoom()) {
+                HashIndexPage next = new HashIndexPage(new HeapPageId(0, 1 + pages.size()),
+                        HashIndexPage.createEmptyBucketData(depth), keyType);
+                last[b].overflow = next.pid.pageNumber();
+                last[b] = next;
+                pages.add(next);
+            }
+            RecordId rid = t.getRecordId();
+            last[b].addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+        }
+
+        byte[] dir = new byte[BufferPool.getPageSize()];
+        Type.writeInt(dir, 0, depth);
+        for (int i = 0; i < buckets.length; i++) {
+            Type.writeInt(dir, 4 + 4 * i, 1 + i);
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            FileChannel out = raf.getChannel();
+            out.truncate(0);
+            write(out, 0, dir);
+            for (HashIndexPage page : pages) {
+                write(out, page.pid.pageNumber(), page.getPageData());
+            }
+        } finally {
+            raf.close();
+        }
+        return new HashIndexFile(f, table, keyField);
+    }
+
+    private static void write(FileChannel out, int pgNo, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = BufferPool.PAGE_SIZE * (long) pgNo;
+        while (buf.hasRemaining()) {
+            offset += out.write(buf, offset);
+        }
+    }
+
+    /** A hash index only finds keys equal to a value */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return m_file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return m_file.getAbsolutePath().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return m_tableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return m_keyField;
+    }
+
+    // see IndexFile.java for javadocs
+    public Type getKeyType() {
+        return m_keyType;
+    }
+
+    /** @return the TupleDesc of the entries of this index */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        long offset = BufferPool.PAGE_SIZE * (long) pid.pageNumber();
+        try {
+            if (offset + BufferPool.PAGE_SIZE > m_file_channel.size()) {
+                throw new IllegalArgumentException("Page does not exist, error!");
+            }
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            while (buf.hasRemaining()) {
+                if (m_file_channel.read(buf, offset + buf.position()) < 0) {
+                    throw new IllegalArgumentException("Page does not exist, error!");
+                }
+            }
+            return new HashIndexPage((HeapPageId) pid, buf.array(), m_keyType);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page does not exist, error!");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeAt(BufferPool.PAGE_SIZE * (long) page.getId().pageNumber(), page.getPageData());
+    }
+
+    private void writeAt(long offset, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            offset += m_file_channel.write(buf, offset);
+        }
+    }
+
+    // see PagedFile.java for javadocs
+    public int numPages() {
+        return (int) (m_file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private HashIndexPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashIndexPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo), perm);
+    }
+
+    /** Appends an empty bucket page to the file and returns it from the pool */
+    private HashIndexPage newPage(TransactionId tid, int localDepth)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = numPages();
+        writeAt(BufferPool.PAGE_SIZE * (long) pgNo, HashIndexPage.createEmptyBucketData(localDepth));
+        return getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Adds the entry of a tuple of the table to the index. The directory is
+     * locked for writing, since a split can change it.
+     *
+     * @param t a tuple of the table, with its RecordId set
+     * @return the pages that were changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(m_keyField);
+        RecordId rid = t.getRecordId();
+        int hash = HashIndexPage.hash(key);
+        ArrayList<Page> modified = new ArrayList<Page>();
+
+        HashIndexPage dir = getPage(tid, 0, Permissions.READ_WRITE);
+        HashIndexPage bucket = getPage(tid, dir.bucketFor(hash), Permissions.READ_WRITE);
+        while (!bucket.hasRoom() && bucket.localDepth < HashIndexPage.maxDepth()) {
+            ArrayList<HashIndexPage> chain = chain(tid, bucket);
+            if (!splits(chain, hash)) {
+                break;
+            }
+            split(tid, dir, chain, modified);
+            bucket = getPage(tid, dir.bucketFor(hash), Permissions.READ_WRITE);
+        }
+        // the first page of the chain with room, or a new one at its end
+        while (!bucket.hasRoom()) {
+            if (bucket.overflow < 0) {
+                HashIndexPage next = newPage(tid, bucket.localDepth);
+                bucket.overflow = next.pid.pageNumber();
+                addModified(modified, bucket);
+                bucket = next;
+            } else {
+                bucket = getPage(tid, bucket.overflow, Permissions.READ_WRITE);
+            }
+        }
+        bucket.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+        addModified(modified, bucket);
+        return modified;
+    }
+
+    /** @return a bucket and the overflow pages chained to it, in order */
+    private ArrayList<HashIndexPage> chain(TransactionId tid, HashIndexPage bucket)
+            throws DbException, TransactionAbortedException {
+        ArrayList<HashIndexPage> chain = new ArrayList<HashIndexPage>();
+        chain.add(bucket);
+        while (bucket.overflow >= 0) {
+            bucket = getPage(tid, bucket.overflow, Permissions.READ_WRITE);
+            chain.add(bucket);
+        }
+        return chain;
+    }
+
+    /**
+     * @return true if a bucket's chain is full, and a split could separate
+     *         some of its entries from a key with the given hash
+     */
+    private static boolean splits(ArrayList<HashIndexPage> chain, int hash) {
+        boolean allHash = true;
+        for (HashIndexPage page : chain) {
+            if (page.hasRoom()) {
+                return false;
+            }
+            allHash &= page.allHash(hash);
+        }
+        return !allHash;
+    }
+
+    /**
+     * Splits a full bucket, with its chain of overflow pages, by the next
+     * bit of its entries' hashes, doubling the directory first if the
+     * bucket is as deep as the directory. The chain's entries are dealt
+     * out between the two halves, which reuse its pages before new ones
+     * are added; a page neither half needs is left empty.
+     */
+    private void split(TransactionId tid, HashIndexPage dir, ArrayList<HashIndexPage> chain,
+            ArrayList<Page> modified) throws DbException, IOException, TransactionAbortedException {
+        HashIndexPage bucket = chain.get(0);
+        if (bucket.localDepth == dir.globalDepth) {
+            dir.grow();
+        }
+        int bit = 1 << bucket.localDepth;
+        int depth = bucket.localDepth + 1;
+
+        int n = 0;
+        for (HashIndexPage page : chain) {
+            n += page.numEntries;
+        }
+        Field[] keys = new Field[n];
+        int[] ridPage = new int[n];
+        int[] ridSlot = new int[n];
+        n = 0;
+        for (HashIndexPage page : chain) {
+            for (int i = 0; i < page.numEntries; i++, n++) {
+                keys[n] = page.keys[i];
+                ridPage[n] = page.ridPage[i];
+                ridSlot[n] = page.ridSlot[i];
+            }
+            page.clear(depth);
+            addModified(modified, page);
+        }
+
+        LinkedList<HashIndexPage> spare = new LinkedList<HashIndexPage>(chain.subList(1, chain.size()));
+        HashIndexPage sibling = spare.isEmpty() ? newPage(tid, depth) : spare.removeFirst();
+        addModified(modified, sibling);
+        // the last page of each half's chain
+        HashIndexPage[] last = { bucket, sibling };
+        for (int i = 0; i < n; i++) {
+            int half = (HashIndexPage.hash(keys[i]) & bit) != 0 ? 1 : 0;
+            if (!last[half].hasRoom()) {
+                HashIndexPage next = spare.isEmpty() ? newPage(tid, depth) : spare.removeFirst();
+                last[half].overflow = next.pid.pageNumber();
+                last[half] = next;
+                addModified(modified, next);
+            }
+            last[half].addEntry(keys[i], ridPage[i], ridSlot[i]);
+        }
+        dir.redirect(bucket.pid.pageNumber(), sibling.pid.pageNumber(), bit);
+        addModified(modified, dir);
+    }
+
+    private static void addModified(ArrayList<Page> modified, Page page) {
+        if (!modified.contains(page)) {
+            modified.add(page);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return deleteEntry(tid, t.getField(m_keyField), t.getRecordId());
+    }
+
+    // see IndexFile.java for javadocs
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        int ridPage = rid.getPageId().pageNumber();
+        int ridSlot = rid.tupleno();
+        HashIndexPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+        int pgNo = dir.bucketFor(HashIndexPage.hash(key));
+        while (pgNo >= 0) {
+            HashIndexPage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+            int pos = page.find(key, ridPage, ridSlot);
+            if (pos >= 0) {
+                page.removeEntry(pos);
+                ArrayList<Page> modified = new ArrayList<Page>();
+                modified.add(page);
+                return modified;
+            }
+            pgNo = page.overflow;
+        }
+        throw new DbException("no index entry for " + key + " at " + rid);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BucketIterator(tid, null);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("a hash index can't find keys " + op + " a value");
+        }
+        return new BucketIterator(tid, operand);
+    }
+
+    /**
+     * Walks the pages of the bucket a key hashes to, or of every bucket
+     * when there is no key.
+     */
+    private class BucketIterator extends AbstractDbFileIterator {
+        private final TransactionId m_tid;
+        private final Field m_key;
+        private HashIndexPage m_page;
+        private int m_pos;
+        // the next page to read when scanning every bucket
+        private int m_nextPage;
+
+        BucketIterator(TransactionId tid, Field key) {
+            m_tid = tid;
+            m_key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (m_key == null) {
+                m_page = null;
+                m_nextPage = 1;
+            } else {
+                HashIndexPage dir = getPage(m_tid, 0, Permissions.READ_ONLY);
+                m_page = getPage(m_tid, dir.bucketFor(HashIndexPage.hash(m_key)), Permissions.READ_ONLY);
+            }
+            m_pos = 0;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            for (;;) {
+                if (m_page == null || m_pos == m_page.numEntries) {
+                    int next = m_key != null ? (m_page == null ? -1 : m_page.overflow)
+                            : (m_nextPage < numPages() ? m_nextPage++ : -1);
+                    if (next < 0) {
+                        m_page = null;
+                        return null;
+                    }
+                    m_page = getPage(m_tid, next, Permissions.READ_ONLY);
+                    m_pos = 0;
+                    continue;
+                }
+                int i = m_pos++;
+                if (m_key == null || m_page.keys[i].equals(m_key)) {
+                    return m_page.entry(m_td, i);
+                }
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            m_page = null;
+        }
+    }
+}
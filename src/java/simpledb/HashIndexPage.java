@@ -0,0 +1,298 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A page of a {@link HashIndexFile}. Page 0 is the directory; every other
+ * page is a bucket, or an overflow page chained to a bucket.
+ * <p>
+ * The directory holds the global depth d as an int, followed by the 2^d
+ * page numbers of the buckets that the low d bits of a key's hash lead to.
+ * <p>
+ * A bucket holds its local depth, the number of entries and the next page
+ * of its overflow chain (or -1) as ints, followed by its entries as (key,
+ * page number, slot). An overflow page has the same layout as its bucket.
+ */
+public class HashIndexPage implements Page {
+
+    /** Bytes before the first entry of a bucket */
+    static final int HEADER_SIZE = 12;
+
+    final HeapPageId pid;
+    final Type keyType;
+
+    /** True for the directory, page 0 */
+    final boolean directory;
+
+    // Directory: the global depth, and 2^globalDepth bucket page numbers
+    int globalDepth;
+    int[] buckets;
+
+    // Bucket: its local depth, entries and next overflow page, or -1
+    int localDepth;
+    int numEntries;
+    int overflow;
+    final Field[] keys;
+    final int[] ridPage;
+    final int[] ridSlot;
+
+    private TransactionId m_dirtier;
+    private byte[] m_oldData;
+    private final Object m_oldDataLock = new Object();
+
+    /**
+     * Create a HashIndexPage from the bytes of a page of an index file in
+     * the Catalog.
+     */
+    public HashIndexPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, ((IndexFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType());
+    }
+
+    /** Create a HashIndexPage from the bytes of a page with keys of a type */
+    HashIndexPage(HeapPageId id, byte[] data, Type keyType) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.directory = id.pageNumber() == 0;
+        if (directory) {
+            keys = null;
+            ridPage = null;
+            ridSlot = null;
+            globalDepth = Type.readInt(data, 0);
+            if (globalDepth < 0 || globalDepth > maxDepth()) {
+                throw new IOException("directory " + id + " has depth " + globalDepth);
+            }
+            buckets = new int[1 << globalDepth];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = Type.readInt(data, 4 + 4 * i);
+            }
+        } else {
+            int cap = capacity(keyType);
+            keys = new Field[cap];
+            ridPage = new int[cap];
+            ridSlot = new int[cap];
+            localDepth = Type.readInt(data, 0);
+            numEntries = Type.readInt(data, 4);
+            overflow = Type.readInt(data, 8);
+            if (numEntries < 0 || numEntries > cap) {
+                throw new IOException("page " + id + " has " + numEntries + " entries");
+            }
+            int off = HEADER_SIZE;
+            for (int i = 0; i < numEntries; i++) {
+                keys[i] = keyType.parse(data, off);
+                off += keyType.getLen();
+                ridPage[i] = Type.readInt(data, off);
+                ridSlot[i] = Type.readInt(data, off + 4);
+                off += 8;
+            }
+        }
+        m_oldData = data;
+    }
+
+    /** @return the number of entries that fit on a bucket page */
+    static int capacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /** @return the largest global depth whose directory fits on a page */
+    static int maxDepth() {
+        int depth = 0;
+        while (4 + 4 * (2 << depth) <= BufferPool.getPageSize()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /** @return the bytes of a directory with one bucket, on page 1 */
+    static byte[] createEmptyDirectoryData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Type.writeInt(data, 4, 1);
+        return data;
+    }
+
+    /** @return the bytes of a bucket with no entries */
+    static byte[] createEmptyBucketData(int localDepth) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Type.writeInt(data, 0, localDepth);
+        Type.writeInt(data, 8, -1);
+        return data;
+    }
+
+    /**
+     * @return the hash of a key; its low bits pick the bucket. The hash
+     *         codes of fields are mixed first, since the hash code of an
+     *         IntField is its value.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** @return the bucket of the directory a hash leads to */
+    int bucketFor(int hash) {
+        return buckets[hash & ((1 << globalDepth) - 1)];
+    }
+
+    /** Doubles the directory, each new slot pointing where its twin does */
+    synchronized void grow() {
+        int[] grown = Arrays.copyOf(buckets, buckets.length * 2);
+        System.arraycopy(buckets, 0, grown, buckets.length, buckets.length);
+        buckets = grown;
+        globalDepth++;
+    }
+
+    /**
+     * Points the directory slots that lead to a bucket that was just split
+     * and have the new bit of its local depth set at the new bucket.
+     *
+     * @param bit the bit that tells the two halves of the bucket apart
+     */
+    synchronized void redirect(int oldBucket, int newBucket, int bit) {
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == oldBucket && (i & bit) != 0) {
+                buckets[i] = newBucket;
+            }
+        }
+    }
+
+    /** @return true if a bucket page has room for another entry */
+    boolean hasRoom() {
+        return numEntries < keys.length;
+    }
+
+    /** Adds an entry to a bucket page with room for it */
+    synchronized void addEntry(Field key, int page, int slot) {
+        keys[numEntries] = key;
+        ridPage[numEntries] = page;
+        ridSlot[numEntries] = slot;
+        numEntries++;
+    }
+
+    /** @return the position of an entry on a bucket page, or -1 */
+    int find(Field key, int page, int slot) {
+        for (int i = 0; i < numEntries; i++) {
+            if (ridPage[i] == page && ridSlot[i] == slot && keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Removes an entry, moving the last entry of the page into its place */
+    synchronized void removeEntry(int pos) {
+        numEntries--;
+        keys[pos] = keys[numEntries];
+        ridPage[pos] = ridPage[numEntries];
+        ridSlot[pos] = ridSlot[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /**
+     * Empties a bucket page and unlinks it from its chain, for a split to
+     * deal its entries out again.
+     *
+     * @param localDepth the local depth of the bucket after the split
+     */
+    synchronized void clear(int localDepth) {
+        Arrays.fill(keys, 0, numEntries, null);
+        numEntries = 0;
+        overflow = -1;
+        this.localDepth = localDepth;
+    }
+
+    /**
+     * @return true if every entry of the page has the same hash as a key,
+     *         so that no split could separate them from it
+     */
+    boolean allHash(int hash) {
+        for (int i = 0; i < numEntries; i++) {
+            if (hash(keys[i]) != hash) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return m_dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_dirtier = dirty ? tid : null;
+    }
+
+    public synchronized byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        if (directory) {
+            Type.writeInt(data, 0, globalDepth);
+            for (int i = 0; i < buckets.length; i++) {
+                Type.writeInt(data, 4 + 4 * i, buckets[i]);
+            }
+            return data;
+        }
+        Type.writeInt(data, 0, localDepth);
+        Type.writeInt(data, 4, numEntries);
+        Type.writeInt(data, 8, overflow);
+        int off = HEADER_SIZE;
+        for (int i = 0; i < numEntries; i++) {
+            keys[i].serialize(data, off);
+            off += keyType.getLen();
+            Type.writeInt(data, off, ridPage[i]);
+            Type.writeInt(data, off + 4, ridSlot[i]);
+            off += 8;
+        }
+        return data;
+    }
+
+    public HashIndexPage getBeforeImage() {
+        try {
+            synchronized (m_oldDataLock) {
+                return new HashIndexPage(pid, m_oldData, keyType);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (m_oldDataLock) {
+            m_oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the entries of a bucket page as tuples of (key, page number,
+     *         slot); nothing for the directory
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        if (!directory) {
+            TupleDesc td = BTreeFile.entryDesc(keyType);
+            for (int i = 0; i < numEntries; i++) {
+                entries.add(entry(td, i));
+            }
+        }
+        return entries.iterator();
+    }
+
+    /** @return entry i of a bucket page as a tuple of (key, page number, slot) */
+    Tuple entry(TupleDesc td, int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, keys[i]);
+        t.setField(1, new IntField(ridPage[i]));
+        t.setField(2, new IntField(ridSlot[i]));
+        return t;
+    }
+}
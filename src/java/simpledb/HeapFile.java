@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
@@ -15,13 +16,37 @@ import java.nio.channels.FileChannel;
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements PagedFile {
 
     //Private variables
     private TupleDesc m_tupleDesc;
     private File m_file;
     private FileChannel m_file_channel;
 
+    /** Number of pages in each memory-mapped segment of a file */
+    static int mapSegmentPages = 1 << 14;
+
+    private static boolean mapByDefault = false;
+
+    // Memory-mapped segments of the file, when reading through a mapping.
+    // Replaced, never changed in place, when a segment is (re)mapped.
+    private volatile boolean m_mapped;
+    private volatile MappedByteBuffer[] m_segments;
+
+    // Free-space map, opened by the first insert or delete
+    private FreeSpaceMap m_fsm;
+    // Set once a sidecar map that pages were written behind is deleted
+    private boolean m_fsm_stale;
+
+    // Zone map, opened by the first scan with a predicate. Until then, the
+    // pages values were stored on, whose ranges may be wider than on disk.
+    private ZoneMap m_zones;
+    private boolean m_zones_stale;
+    private final BitSet m_unzoned = new BitSet();
+
+    // Bitmap indexes by field; replaced, never changed in place
+    private volatile Map<Integer, BitmapIndex> m_bitmaps = Collections.emptyMap();
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -33,9 +58,18 @@ public class HeapFile implements DbFile {
         //Initialize variables
         m_file = f;
         m_tupleDesc = td;
+        m_mapped = mapByDefault;
+        m_segments = new MappedByteBuffer[0];
 
+        // One channel for the life of the file, used for positional reads
+        // and writes; read-only files can still be scanned
         try {
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(f, "rw");
+            } catch (FileNotFoundException e) {
+                raf = new RandomAccessFile(f, "r");
+            }
             m_file_channel = raf.getChannel();
         } catch (IOException e) {
             System.err.println("Error reading file channel");
@@ -43,6 +77,42 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /**
+     * Sets whether HeapFiles created from now on read their pages through
+     * a memory mapping of the file.
+     *
+     * @see #setMemoryMapped
+     */
+    public static void setMemoryMappedByDefault(boolean mapped) {
+        mapByDefault = mapped;
+    }
+
+    /**
+     * Switches between reading pages with FileChannel reads and reading
+     * them through a memory mapping of the file. A mapped page is copied
+     * out of the mapping once, without a system call, which suits
+     * read-mostly tables that fit in the OS page cache. Pages aren't built
+     * over the mapping itself: a page decodes its tuples from the bytes it
+     * was read from when they are first asked for, and keeps those bytes
+     * as its before image, so they must not change when the file is
+     * written. The file is mapped in segments of {@link #mapSegmentPages}
+     * pages, and a segment is mapped again when the file grows into it.
+     * Writes always go through the FileChannel.
+     */
+    public void setMemoryMapped(boolean mapped) {
+        m_mapped = mapped;
+        if (!mapped) {
+            synchronized (this) {
+                m_segments = new MappedByteBuffer[0];
+            }
+        }
+    }
+
+    /** @return true if pages are read through a memory mapping */
+    public boolean isMemoryMapped() {
+        return m_mapped;
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -80,6 +150,19 @@ public class HeapFile implements DbFile {
         int page_num = pid.pageNumber();
         int offset = (BufferPool.PAGE_SIZE * page_num);
 
+        if (m_mapped) {
+            try {
+                // a copy, as the page keeps its bytes; see setMemoryMapped
+                byte[] data = new byte[BufferPool.PAGE_SIZE];
+                mappedPage(page_num).get(data);
+                HeapPage page = newPage((HeapPageId) pid, data);
+                page.setFile(this);
+                return page;
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Page does not exist, error!");
+            }
+        }
+
         try {
             //Allocate for our buffer to be the page size
             ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
@@ -93,7 +176,8 @@ public class HeapFile implements DbFile {
             //Otherwise read from the buffer based on the offset
             m_file_channel.read(buf,offset);
             HeapPageId page = (HeapPageId) pid;
-            HeapPage result = new HeapPage(page,buf.array());
+            HeapPage result = newPage(page,buf.array());
+            result.setFile(this);
             return result;
 
         } catch (IOException e) {
@@ -101,15 +185,239 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /**
+     * Builds a page of this file from its bytes. Subclasses that store
+     * their pages in another layout return their own kind of page.
+     */
+    HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /** Returns a slice of the file's mapping holding the given page */
+    private ByteBuffer mappedPage(int pageNo) throws IOException {
+        int segment = pageNo / mapSegmentPages;
+        int offset = (pageNo % mapSegmentPages) * BufferPool.PAGE_SIZE;
+        MappedByteBuffer[] segments = m_segments;
+        MappedByteBuffer map = segment < segments.length ? segments[segment] : null;
+        if (map == null || map.capacity() < offset + BufferPool.PAGE_SIZE) {
+            map = mapSegment(segment, offset + BufferPool.PAGE_SIZE);
+        }
+        ByteBuffer page = map.duplicate();
+        page.position(offset);
+        page.limit(offset + BufferPool.PAGE_SIZE);
+        return page.slice();
+    }
+
+    /**
+     * Maps a segment of the file, as far as the file reaches into it.
+     *
+     * @param needed the number of bytes of the segment the caller reads
+     * @throws IllegalArgumentException if the file doesn't reach that far
+     */
+    private synchronized MappedByteBuffer mapSegment(int segment, int needed) throws IOException {
+        MappedByteBuffer[] segments = m_segments;
+        if (segment < segments.length && segments[segment] != null
+                && segments[segment].capacity() >= needed) {
+            return segments[segment];
+        }
+        long segmentBytes = (long) mapSegmentPages * BufferPool.PAGE_SIZE;
+        long start = segment * segmentBytes;
+        long length = Math.min(segmentBytes, m_file_channel.size() - start);
+        if (length < needed) {
+            throw new IllegalArgumentException("Page does not exist, error!");
+        }
+        MappedByteBuffer map = m_file_channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        MappedByteBuffer[] updated = Arrays.copyOf(segments, Math.max(segments.length, segment + 1));
+        updated[segment] = map;
+        m_segments = updated;
+        return map;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        int pnum = page.getId().pageNumber();
+        writeAt(BufferPool.PAGE_SIZE * (long) page.getId().pageNumber(), page.getPageData());
+        written(page);
+    }
+
+    /** Writes data at the given offset without moving the channel's position */
+    private void writeAt(long offset, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            offset += m_file_channel.write(buf, offset);
+        }
+    }
+
+    /**
+     * Writes several pages of this file, sorted by page number. Each run of
+     * consecutive pages goes to disk in a single gathering write.
+     *
+     * @param pages the pages to write
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        int i = 0;
+        while (i < pages.size()) {
+            int first = pages.get(i).getId().pageNumber();
+            int j = i + 1;
+            while (j < pages.size() && pages.get(j).getId().pageNumber() == first + (j - i)) {
+                j++;
+            }
+            if (j - i == 1) {
+                writePage(pages.get(i));
+            } else {
+                ByteBuffer[] run = new ByteBuffer[j - i];
+                for (int k = 0; k < run.length; k++) {
+                    run[k] = ByteBuffer.wrap(pages.get(i + k).getPageData());
+                }
+                // Gathering writes go through the channel's position, which
+                // positional reads and writes don't use or move
+                synchronized (m_file_channel) {
+                    m_file_channel.position((long) first * BufferPool.PAGE_SIZE);
+                    long remaining = (long) run.length * BufferPool.PAGE_SIZE;
+                    while (remaining > 0) {
+                        remaining -= m_file_channel.write(run);
+                    }
+                }
+                for (int k = i; k < j; k++) {
+                    written(pages.get(k));
+                }
+            }
+            i = j;
+        }
+    }
+
+    /**
+     * Returns the free-space map of this file, opening or rebuilding it
+     * the first time it is needed.
+     */
+    synchronized FreeSpaceMap freeSpaceMap() throws IOException {
+        if (m_fsm == null) {
+            m_fsm = FreeSpaceMap.open(this);
+        }
+        return m_fsm;
+    }
+
+    /**
+     * Returns the zone map of this file, opening or rebuilding it the first
+     * time it is needed. The map describes the pages on disk, so pages
+     * values were stored on before it was opened match anything until they
+     * are next written.
+     */
+    synchronized ZoneMap zoneMap() throws IOException {
+        if (m_zones == null) {
+            m_zones = ZoneMap.open(this);
+            for (int p = m_unzoned.nextSetBit(0); p >= 0; p = m_unzoned.nextSetBit(p + 1)) {
+                m_zones.widen(p);
+            }
+            m_unzoned.clear();
+        }
+        return m_zones;
+    }
+
+    /**
+     * Keeps a bitmap index on a field of this file from now on, opening or
+     * building it if it isn't kept already. Filters on the field can then
+     * be answered by a {@link BitmapHeapScan}.
+     *
+     * @return the index
+     */
+    public synchronized BitmapIndex addBitmapIndex(int field) throws IOException {
+        BitmapIndex index = m_bitmaps.get(field);
+        if (index == null) {
+            index = BitmapIndex.open(this, field);
+            HashMap<Integer, BitmapIndex> bitmaps = new HashMap<Integer, BitmapIndex>(m_bitmaps);
+            bitmaps.put(field, index);
+            m_bitmaps = bitmaps;
+        }
+        return index;
+    }
+
+    /** @return the bitmap index kept on a field of this file, or null */
+    public BitmapIndex getBitmapIndex(int field) {
+        return m_bitmaps.get(field);
+    }
+
+    /**
+     * Counts the free slots of a page on disk from its header, without
+     * reading the rest of the page.
+     */
+    int countEmptySlots(int pgNo) throws IOException {
+        int numSlots = HeapPage.numSlots(m_tupleDesc);
+        ByteBuffer header = ByteBuffer.allocate(HeapPage.headerSize(numSlots));
+        long offset = BufferPool.PAGE_SIZE * (long) pgNo;
+        while (header.hasRemaining()) {
+            if (m_file_channel.read(header, offset + header.position()) < 0) {
+                throw new EOFException("page " + pgNo + " is past the end of " + m_file);
+            }
+        }
+        return HeapPage.countEmptySlots(header.array(), numSlots);
+    }
+
+    /**
+     * Called by a HeapPage of this file after a tuple was inserted into or
+     * deleted from it.
+     */
+    void pageChanged(int pgNo, int freeSlots) {
         try {
-            FileOutputStream fostream = new FileOutputStream(m_file);
-            fostream.write(page.getPageData(), BufferPool.PAGE_SIZE * pnum, BufferPool.PAGE_SIZE);
-            fostream.close();
+            freeSpaceMap().update(pgNo, freeSlots);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Called by a HeapPage of this file when a tuple's values are stored on
+     * it, by an insert or by replacing a field of a tuple on the page.
+     */
+    void valuesStored(int pgNo, Tuple t) {
+        ZoneMap zones;
+        synchronized (this) {
+            zones = m_zones;
+            if (zones == null) {
+                // Not worth reading the whole file for; see zoneMap
+                m_unzoned.set(pgNo);
+            }
+        }
+        if (zones != null) {
+            zones.inserted(pgNo, t);
+        }
+        for (BitmapIndex index : m_bitmaps.values()) {
+            index.inserted(pgNo, t);
+        }
+    }
+
+    /**
+     * Keeps the free-space and zone maps' sidecar files, and the bitmap
+     * indexes, in step with a page that was written. If a map isn't open,
+     * its sidecar is deleted instead so it is rebuilt when the map is next
+     * opened.
+     */
+    private void written(Page page) throws IOException {
+        FreeSpaceMap fsm;
+        ZoneMap zones;
+        synchronized (this) {
+            fsm = m_fsm;
+            if (fsm == null && !m_fsm_stale) {
+                FreeSpaceMap.fileFor(m_file).delete();
+                m_fsm_stale = true;
+            }
+            zones = m_zones;
+            if (zones == null && !m_zones_stale) {
+                ZoneMap.fileFor(m_file).delete();
+                m_zones_stale = true;
+            }
+        }
+        if (page instanceof HeapPage) {
+            if (fsm != null) {
+                fsm.written(page.getId().pageNumber(), ((HeapPage) page).getNumEmptySlots());
+            }
+            if (zones != null) {
+                zones.written((HeapPage) page);
+            }
+            for (BitmapIndex index : m_bitmaps.values()) {
+                index.written((HeapPage) page);
+            }
         }
-        catch (FileNotFoundException e) { System.out.println("File not found"); }
     }
 
     /**
@@ -125,46 +433,73 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> modified = new ArrayList<Page>();
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
         PageId pid;
         HeapPage page;
         int pnum;
-        // Look for an available page
-        for (pnum = 0; pnum < numPages(); pnum++) {
+        // Go to a page the free-space map says has room; the map can be
+        // behind the buffer pool, so check and correct it if it's wrong
+        while ((pnum = fsm.pageWithRoom()) >= 0) {
             pid = new HeapPageId(getId(), pnum);
-            page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            page = (HeapPage)bp.latchPage(tid, pid, Permissions.READ_WRITE);
             if (page.getNumEmptySlots() != 0) {
-                page.insertTuple(t);
+                insertLatched(bp, page, tid, t);
                 modified.add(page);
                 return modified;
             }
+            bp.unlatchPage(tid, page, false);
+            fsm.update(pnum, 0);
         }
         
         // All pages are full
         // Append empty page to end of file
-        try {
-            FileOutputStream fostream = new FileOutputStream(m_file, true);
-            fostream.write(HeapPage.createEmptyPageData());
-            fostream.close();
-        }
-        catch (FileNotFoundException e) { System.out.println("File not found"); }
+        pnum = numPages();
+        writeAt(BufferPool.PAGE_SIZE * (long) pnum, HeapPage.createEmptyPageData());
+        fsm.written(pnum, HeapPage.numSlots(m_tupleDesc));
+        fsm.update(pnum, HeapPage.numSlots(m_tupleDesc));
 
         // Retreive page
         pid = new HeapPageId(getId(), pnum);
-        page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page = (HeapPage)bp.latchPage(tid, pid, Permissions.READ_WRITE);
         // Insert tuple
-        page.insertTuple(t);
+        insertLatched(bp, page, tid, t);
         modified.add(page);
         return modified;
     }
 
+    /**
+     * Inserts a tuple into a page latched by the buffer pool, and releases
+     * the latch once the page is marked changed.
+     */
+    private static void insertLatched(BufferPool bp, HeapPage page, TransactionId tid, Tuple t)
+            throws DbException {
+        boolean changed = false;
+        try {
+            page.insertTuple(t);
+            changed = true;
+        }
+        finally {
+            bp.unlatchPage(tid, page, changed);
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         ArrayList<Page> modified = new ArrayList<Page>();
         PageId pid = t.getRecordId().getPageId();
-        HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        BufferPool bp = Database.getBufferPool();
+        HeapPage page = (HeapPage)bp.latchPage(tid, pid, Permissions.READ_WRITE);
 
-        page.deleteTuple(t);
+        boolean changed = false;
+        try {
+            page.deleteTuple(t);
+            changed = true;
+        }
+        finally {
+            bp.unlatchPage(tid, page, changed);
+        }
         modified.add(page);
         return modified;
     }
@@ -174,5 +509,17 @@ public class HeapFile implements DbFile {
         return new HeapFileIter(tid, this);
     }
 
+    /**
+     * Returns an iterator that skips the pages on which, going by the zone
+     * map, no tuple satisfies all of the given predicates. Tuples on the
+     * pages it reads are returned whether they satisfy them or not, so the
+     * caller still has to filter them.
+     *
+     * @param preds predicates on fields of this file's tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        return new HeapFileIter(tid, this, preds);
+    }
+
 }
 
@@ -223,4 +223,105 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file, in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}, into a file of
+   * SlottedPages of BufferPool.getPageSize() bytes. Each page is filled
+   * with as many tuples as fit, in the order of the input.
+   *
+   * @see SlottedPage
+   * @see SlottedFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param typeAr the type of each field of the input lines
+   * @param fieldSeparator the character between the fields of a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertSlotted(File inFile, File outFile, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      try {
+          int npages = 0;
+          SlottedPage page = new SlottedPage(new HeapPageId(0, npages), SlottedPage.createEmptyPageData(), td);
+          boolean empty = true;
+          String line;
+          while ((line = br.readLine()) != null) {
+              line = line.trim();
+              if (line.length() == 0)
+                  continue;
+              String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+              if (values.length != typeAr.length)
+                  throw new IOException("malformed input line: " + line);
+              Tuple t = new Tuple(td);
+              for (int i = 0; i < typeAr.length; i++) {
+                  String s = values[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE) {
+                      try {
+                          t.setField(i, new IntField(Integer.parseInt(s)));
+                      } catch (NumberFormatException e) {
+                          throw new IOException("malformed input line: " + line);
+                      }
+                  } else {
+                      t.setField(i, new StringField(s, Type.STRING_LEN));
+                  }
+              }
+              if (!page.hasRoomFor(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new SlottedPage(new HeapPageId(0, npages), SlottedPage.createEmptyPageData(), td);
+              }
+              page.insertTuple(t);
+              empty = false;
+          }
+          // like convert, an empty table still gets one page
+          if (!empty || npages == 0)
+              os.write(page.getPageData());
+      } catch (DbException e) {
+          throw new IOException("tuple doesn't fit on a page: " + e.getMessage());
+      } finally {
+          br.close();
+          os.close();
+      }
+  }
+
+  /** Convert the specified input text file, in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}, into a file of
+   * PaxPages, with the same tuples on each page as convert would write.
+   *
+   * @see PaxPage
+   * @see PaxFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the type of each field of the input lines
+   * @param fieldSeparator the character between the fields of a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      File rows = File.createTempFile("tempTable", ".dat");
+      rows.deleteOnExit();
+      convert(inFile, rows, npagebytes, numFields, typeAr, fieldSeparator);
+
+      TupleDesc td = new TupleDesc(typeAr);
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rows)));
+      FileOutputStream os = new FileOutputStream(outFile);
+      try {
+          byte[] page = new byte[npagebytes];
+          for (long n = rows.length() / npagebytes; n > 0; n--) {
+              is.readFully(page);
+              os.write(PaxPage.fromHeapPageData(page, td));
+          }
+      } finally {
+          is.close();
+          os.close();
+          rows.delete();
+      }
+  }
 }
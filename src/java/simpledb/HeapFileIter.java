@@ -1,15 +1,16 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * Iterator class for Heap Files
+ * Iterator class for Heap Files, and other files of numbered pages
  */
 public class HeapFileIter implements DbFileIterator {
 
     //Need variables for our transactionID and heapfile for constructor
     private TransactionId m_tid;
-    private HeapFile m_file;
+    private PagedFile m_file;
 
     //Keep track of our pages, their IDs, and the number of pages we have
     private Page m_page;
@@ -19,15 +20,74 @@ public class HeapFileIter implements DbFileIterator {
     //Need an iterator for our tuples
     private Iterator<Tuple> m_itr;
 
+    //Private buffer pool frames for scans of large tables, null otherwise
+    private ScanRing m_ring;
+
+    //Reads the next pages in the background, null if not reading ahead
+    private ReadAhead m_read_ahead;
+
+    //Predicates pushed down to the scan, and the pages that may hold
+    //tuples satisfying them, null to read every page
+    private List<Predicate> m_preds;
+    private BitSet m_pages;
+
     //Constructor for our heap file iterator
-    public HeapFileIter(TransactionId tid, HeapFile file) {
+    public HeapFileIter(TransactionId tid, PagedFile file) {
+        this(tid, file, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Creates an iterator that skips the pages of a HeapFile whose zone map
+     * ranges show that none of their tuples satisfy all of the predicates.
+     * Other tuples are returned whether they satisfy them or not.
+     */
+    public HeapFileIter(TransactionId tid, PagedFile file, List<Predicate> preds) {
         m_tid = tid;
         m_file = file;
+        m_preds = preds;
         //Initially zero
         m_page_id = 0;
         m_num_pages = m_file.numPages();
     }
 
+    /**
+     * Works out which pages may hold tuples that satisfy the predicates,
+     * or returns null if every page has to be read.
+     */
+    private BitSet pagesToRead() throws DbException {
+        if (m_preds.isEmpty() || !(m_file instanceof HeapFile)) {
+            return null;
+        }
+        ZoneMap zones;
+        try {
+            zones = ((HeapFile) m_file).zoneMap();
+        } catch (IOException e) {
+            throw new DbException("can't open the zone map of " + ((HeapFile) m_file).getFile() + ": " + e);
+        }
+        BitSet pages = new BitSet(m_num_pages);
+        for (int i = 0; i < m_num_pages; i++) {
+            boolean match = true;
+            for (Predicate p : m_preds) {
+                if (!zones.mayMatch(i, p)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                pages.set(i);
+            }
+        }
+        return pages;
+    }
+
+    //The first page to read from page_num on, or m_num_pages if none
+    private int next_page(int page_num) {
+        if (m_pages == null || page_num >= m_num_pages)
+            return page_num;
+        int next = m_pages.nextSetBit(page_num);
+        return next < 0 ? m_num_pages : next;
+    }
+
     // Calls BufferPool.getPage() to access the given page in HeapFile, as mentioned in spec
     private Page read_page(int page_num)
         throws DbException, TransactionAbortedException {
@@ -36,12 +96,55 @@ public class HeapFileIter implements DbFileIterator {
         int tableid = m_file.getId();        
 
         HeapPageId heappid = new HeapPageId(tableid, pageid);
-        return Database.getBufferPool().getPage(m_tid, heappid, Permissions.READ_ONLY);
+        if (m_read_ahead == null) {
+            return Database.getBufferPool().getPage(m_tid, heappid, Permissions.READ_ONLY, m_ring);
+        }
+        m_read_ahead.pageRequested(page_num);
+        Page page = Database.getBufferPool().getPage(m_tid, heappid, Permissions.READ_ONLY, m_ring);
+        m_read_ahead.pageReceived();
+        return page;
     }
 
     public void open() throws DbException,TransactionAbortedException {
-        m_page = read_page(m_page_id++);
-        m_itr = m_page.iterator();
+        m_pages = pagesToRead();
+        int reads = m_pages == null ? m_num_pages : m_pages.cardinality();
+        // Large scans read through a ring so they don't flush the pool
+        m_ring = Database.getBufferPool().newScanRing(reads);
+        m_read_ahead = ReadAhead.forScan(m_file.getId(), m_num_pages, m_pages, m_ring);
+        m_page_id = next_page(0);
+        if (m_page_id < m_num_pages) {
+            m_page = read_page(m_page_id);
+            m_itr = m_page.iterator();
+        } else {
+            m_page = null;
+            m_itr = Collections.<Tuple>emptyList().iterator();
+        }
+        m_page_id = next_page(m_page_id + 1);
+    }
+
+    /**
+     * Returns the next page of the scan, for readers that take the tuples
+     * off each page themselves, or null once every page has been returned.
+     * A scan is read either by page or by tuple, not both.
+     */
+    Page nextPage() throws DbException, TransactionAbortedException {
+        if (m_itr == null) {
+            return null;
+        }
+        Page page = m_page;
+        if (page != null) {
+            // read by open
+            m_page = null;
+            return page;
+        }
+        if (m_page_id < m_num_pages) {
+            page = read_page(m_page_id);
+            m_page_id = next_page(m_page_id + 1);
+            return page;
+        }
+        releaseRing();
+        m_itr = null;
+        return null;
     }
 
     public boolean hasNext()
@@ -52,14 +155,27 @@ public class HeapFileIter implements DbFileIterator {
             return true;
         // Check if there are additional pages
         while (m_page_id < m_num_pages) {
-            m_page = read_page(m_page_id++);
+            m_page = read_page(m_page_id);
+            m_page_id = next_page(m_page_id + 1);
             m_itr = m_page.iterator();
             if (m_itr.hasNext())
                 return true;
         }
+        // Scan is done, hand the ring's frames back
+        releaseRing();
         return false;
     }
 
+    private void releaseRing() {
+        // Read-ahead must stop before the ring goes away
+        if (m_read_ahead != null) {
+            m_read_ahead.cancel();
+            m_read_ahead = null;
+        }
+        Database.getBufferPool().releaseScanRing(m_ring);
+        m_ring = null;
+    }
+
     public Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException {
         if (hasNext())
@@ -80,5 +196,6 @@ public class HeapFileIter implements DbFileIterator {
         //Resets out member variables
         m_page_id = 0;
         m_itr = null;
+        releaseRing();
     }
 }
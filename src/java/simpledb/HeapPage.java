@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -21,10 +22,30 @@ public class HeapPage implements Page {
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
+    // Bytes the page was read from. Never written to, so they are the
+    // before image until setBeforeImage is called.
+    private final byte[] m_data;
+    // Size of a tuple. Field j of a slot is at m_base[j] + slot * m_stride[j]
+    // and takes up m_width[j] bytes.
+    private final int m_tupleSize;
+    private final int[] m_base;
+    private final int[] m_stride;
+    private final int[] m_width;
 
     private boolean m_dirty;
     private TransactionId m_tid;
 
+    // Counts changes to the page. getPageData keeps the last image it
+    // built, with the version it was built at.
+    private volatile int m_version;
+    private byte[] m_image;
+    private int m_imageVersion;
+
+    // Number of slots not in use, kept up to date by markSlotUsed
+    private int m_numEmpty;
+    // File whose free-space and zone maps hear about changes, if any
+    private HeapFile m_file;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -37,43 +58,113 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Only the header is read up front. The page keeps the array, which
+     * must not be changed afterwards, and its tuples are views that decode
+     * each field from it the first time the field is asked for.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a page with the same header and slots as a HeapPage, with its
+     * fields stored either row by row, or column by column as in a
+     * {@link PaxPage}.
+     */
+    HeapPage(HeapPageId id, byte[] data, boolean columnar) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
         m_dirty = false;
         m_tid = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        m_data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        int n = td.numFields();
+        m_base = new int[n];
+        m_stride = new int[n];
+        m_width = new int[n];
+        int size = 0;
+        for (int j = 0; j < n; j++) {
+            m_width[j] = td.getFieldType(j).getLen();
+            m_base[j] = header.length + (columnar ? numSlots * size : size);
+            size += m_width[j];
+        }
+        for (int j = 0; j < n; j++) {
+            m_stride[j] = columnar ? m_width[j] : size;
+        }
+        m_tupleSize = size;
+
+        if (data.length < header.length + numSlots * m_tupleSize) {
+            throw new IOException("page " + id + " is too short");
         }
-        dis.close();
+        System.arraycopy(data, 0, header, 0, header.length);
+        m_numEmpty = countEmptySlots(header, numSlots);
 
-        setBeforeImage();
+        // records are decoded when they are first asked for
+        tuples = new Tuple[numSlots];
+
+        // until the page changes, its image is the bytes it was read from
+        m_version = 0;
+        m_image = data.length == BufferPool.getPageSize() ? data : null;
+        m_imageVersion = 0;
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the bytes of the page, such
+     * as a slice of a memory-mapped HeapFile. The bytes are copied once, so
+     * the page doesn't change if the file is written later.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, toArray(data));
+    }
+
+    private static byte[] toArray(ByteBuffer data) {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return copy;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
+        return numSlots(td);
+    }
+
+    /** @return the number of tuple slots on a page of tuples of the given type */
+    static int numSlots(TupleDesc td) {
         //Formula for finding the number of Tuples
         return (int) Math.floor((BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1));
+    }
 
+    /** @return the number of header bytes on a page with the given number of slots */
+    static int headerSize(int numSlots) {
+        return (int) Math.ceil(numSlots / 8.0);
+    }
+
+    /** @return the number of clear bits among the first numSlots bits of a header */
+    static int countEmptySlots(byte[] header, int numSlots) {
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(header[i] & 0xff);
+        }
+        if (numSlots % 8 != 0) {
+            used += Integer.bitCount(header[numSlots / 8] & ((1 << (numSlots % 8)) - 1));
+        }
+        return numSlots - used;
     }
 
     /**
@@ -81,22 +172,14 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {        
-        // Used for the formula to get header size
-        double numTuples = getNumTuples();
-        return (int) Math.ceil(numTuples / 8);
-            
+        return headerSize(getNumTuples());
     }
     
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,beforeImageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -105,10 +188,18 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return the bytes of the page's before image */
+    byte[] beforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return oldData != null ? oldData : m_data;
+        }
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
         }
     }
 
@@ -120,37 +211,88 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a slot, creating a view over the page's bytes
+     * the first time a slot read from disk is asked for.
+     *
+     * @return the tuple in the slot, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    Tuple tuple(int slot) {
+        Tuple t = tuples[slot];
+        if (t == null && isSlotUsed(slot)) {
+            t = new PageTuple(this, slot);
+            tuples[slot] = t;
+        }
+        return t;
+    }
+
+    /**
+     * A tuple stored on a page, whose fields are decoded from the page's
+     * bytes when they are first read. Fields that were set replace the
+     * stored ones. The tuple can be inserted into another page as well,
+     * and setting a field changes both.
+     */
+    private static class PageTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HeapPage m_page;
+        private final byte[] m_data;
+        private final int m_slot;
+        // set once a field is replaced, after which the stored bytes are stale
+        private volatile boolean m_changed;
+        // the page the tuple was last inserted into, if not m_page
+        private volatile HeapPage m_insertedInto;
+
+        PageTuple(HeapPage page, int slot) {
+            super(page.td);
+            m_page = page;
+            m_data = page.m_data;
+            m_slot = slot;
+            setRecordId(new RecordId(page.pid, slot));
+        }
+
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null) {
+                f = getTupleDesc().getFieldType(i).parse(m_data, m_page.fieldOffset(m_slot, i));
+                super.setField(i, f);
             }
-            return null;
+            return f;
         }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        public void setField(int i, Field f) {
+            super.setField(i, f);
+            m_changed = true;
+            m_page.changed();
+            m_page.valuesStored(this);
+            HeapPage other = m_insertedInto;
+            if (other != null) {
+                other.changed();
+                other.valuesStored(this);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
 
-        return t;
+        /**
+         * Copies the stored bytes of this tuple into an image of a page,
+         * which starts out as a copy of the bytes that page was read from,
+         * unless a field has been replaced.
+         *
+         * @return false if the tuple has to be serialized field by field
+         */
+        boolean copyTo(HeapPage page, byte[] data, int slot) {
+            if (m_changed) {
+                return false;
+            }
+            if (m_data == page.m_data && m_slot == slot) {
+                // already in place
+                return true;
+            }
+            for (int j = 0; j < page.m_width.length; j++) {
+                System.arraycopy(m_data, m_page.fieldOffset(m_slot, j),
+                        data, page.fieldOffset(slot, j), page.m_width[j]);
+            }
+            return true;
+        }
     }
 
     /**
@@ -160,69 +302,68 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The array is kept and returned again until the page changes, so it
+     * must not be modified. A page that hasn't changed since it was read
+     * returns the bytes it was read from.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+        int version = m_version;
+        synchronized (this) {
+            if (m_image != null && m_imageVersion == version) {
+                return m_image;
             }
         }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        // start from the bytes the page was read from and patch the slots
+        // that differ from them
+        byte[] data = new byte[BufferPool.getPageSize()];
+        System.arraycopy(m_data, 0, data, 0, header.length + numSlots * m_tupleSize);
+        System.arraycopy(header, 0, data, 0, header.length);
 
-            // empty slot
+        for (int i=0; i<tuples.length; i++) {
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                // empty slots are zero
+                if ((m_data[i / 8] & (1 << (i % 8))) != 0) {
+                    for (int j=0; j<m_width.length; j++) {
+                        int offset = fieldOffset(i, j);
+                        Arrays.fill(data, offset, offset + m_width[j], (byte) 0);
                     }
-
                 }
                 continue;
             }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+            Tuple t = tuples[i];
+            if (t == null) {
+                // never looked at since it was read
+                continue;
+            }
+            if (!(t instanceof PageTuple) || !((PageTuple) t).copyTo(this, data, i)) {
+                for (int j=0; j<m_width.length; j++) {
+                    t.getField(j).serialize(data, fieldOffset(i, j));
                 }
             }
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+        synchronized (this) {
+            if (m_version == version) {
+                m_image = data;
+                m_imageVersion = version;
+            }
         }
+        return data;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /** @return the offset in the page's bytes of a field of a slot */
+    private int fieldOffset(int slot, int field) {
+        return m_base[field] + slot * m_stride[field];
+    }
 
-        return baos.toByteArray();
+    /** Called after every change to the page's contents */
+    private void changed() {
+        m_version++;
     }
 
     /**
@@ -260,6 +401,8 @@ public class HeapPage implements Page {
         markSlotUsed(slot, false);
         t.setRecordId(null);
         tuples[slot] = null;
+        changed();
+        spaceChanged();
     }
 
     private int find_empty_slot() throws DbException {
@@ -291,9 +434,88 @@ public class HeapPage implements Page {
         
         int slot = find_empty_slot();
         tuples[slot] = t;
+        if (t instanceof PageTuple && ((PageTuple) t).m_page != this) {
+            // so that setting its fields invalidates this page's image too
+            ((PageTuple) t).m_insertedInto = this;
+        }
         RecordId rid = new RecordId(pid, slot);
         t.setRecordId(rid);
         markSlotUsed(slot, true);
+        changed();
+        spaceChanged();
+        valuesStored(t);
+    }
+
+    /**
+     * Sets the file whose free-space and zone maps are told when tuples are inserted
+     * into or deleted from this page.
+     */
+    void setFile(HeapFile file) {
+        m_file = file;
+    }
+
+    private void spaceChanged() {
+        if (m_file != null) {
+            m_file.pageChanged(pid.pageNumber(), m_numEmpty);
+        }
+    }
+
+    private void valuesStored(Tuple t) {
+        if (m_file != null) {
+            m_file.valuesStored(pid.pageNumber(), t);
+        }
+    }
+
+    /**
+     * Finds the smallest and largest value of some int fields among the
+     * tuples on this page. Values are read straight from the page's bytes
+     * for tuples that haven't been decoded.
+     *
+     * @param fields the int fields to look at
+     * @param min set to the smallest value of each field, or
+     *            Integer.MAX_VALUE if the page has no tuples
+     * @param max set to the largest value of each field, or
+     *            Integer.MIN_VALUE if the page has no tuples
+     */
+    void intRanges(int[] fields, int[] min, int[] max) {
+        Arrays.fill(min, Integer.MAX_VALUE);
+        Arrays.fill(max, Integer.MIN_VALUE);
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            Tuple t = tuples[slot];
+            for (int c = 0; c < fields.length; c++) {
+                int v = t != null ? ((IntField) t.getField(fields[c])).getValue()
+                        : Type.readInt(m_data, fieldOffset(slot, fields[c]));
+                min[c] = Math.min(min[c], v);
+                max[c] = Math.max(max[c], v);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of an int field of the tuple in a used slot,
+     * without making a Field of it if the tuple hasn't been decoded.
+     */
+    int intValue(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null) {
+            return ((IntField) t.getField(field)).getValue();
+        }
+        return Type.readInt(m_data, fieldOffset(slot, field));
+    }
+
+    /**
+     * Returns the value of a field of the tuple in a used slot, reading it
+     * straight from the page's bytes if the tuple hasn't been decoded.
+     */
+    Field fieldValue(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null) {
+            return t.getField(field);
+        }
+        return td.getFieldType(field).parse(m_data, fieldOffset(slot, field));
     }
 
     /**
@@ -319,14 +541,7 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        //Initialize a counter that will look through all our slots, 
-        //and if it's not being used, we increment the counter
-        int counter = 0;
-        for(int i = 0; i < numSlots; i++) {
-            if(!isSlotUsed(i))
-                counter++;
-        }
-        return counter;
+        return m_numEmpty;
     }
 
     /**
@@ -353,6 +568,9 @@ public class HeapPage implements Page {
         if (value) { mask = headerSlot | (1 << headerBit); }
         else       { mask = headerSlot & ~(1 << headerBit); }
         header[headerByte] = (byte) mask;
+        if ((byte) mask != headerSlot) {
+            m_numEmpty += value ? -1 : 1;
+        }
     }
 
     /**
@@ -6,30 +6,36 @@ public class HeapPageIter implements Iterator<Tuple> {
 
     private HeapPage heapPage;
 
-    //Number of Tuples that are valid, ie empty and not used already
-    private int numTuples;
+    //Slot of the next tuple to return, or numSlots when there is none
+    private int nextSlot;
 
-    //Keeps track of our current Tuple
-    private int currTuple;
-        
     //
     public HeapPageIter(HeapPage page) {
         heapPage = page;
-        currTuple = 0;
-        //Calls helper function to calculate total tuples - empty slots
-        numTuples = heapPage.availibleTuples();
+        nextSlot = findUsed(0);
     }
-         
+
+    //Skips past empty slots, which may sit between used ones
+    private int findUsed(int slot) {
+        while (slot < heapPage.numSlots && !heapPage.isSlotUsed(slot))
+            slot++;
+        return slot;
+    }
+
     public boolean hasNext() {
-        if(currTuple < numTuples)
+        if(nextSlot < heapPage.numSlots)
             return true;
         return false;
     }
-        
+
     public Tuple next() {
-        return heapPage.tuples[currTuple++];
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = heapPage.tuple(nextSlot);
+        nextSlot = findUsed(nextSlot + 1);
+        return t;
     }
-        
+
     public void remove() throws UnsupportedOperationException {
         throw new UnsupportedOperationException("Unimplemented, can't remove");
     }
@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * An index on one field of a HeapFile, stored in its own file of pages
+ * that are read through the BufferPool. It maps the key of each tuple of
+ * the table to the tuple's RecordId.
+ * <p>
+ * As a DbFile, an index holds tuples of (key, page number, slot), one per
+ * tuple of the table. insertTuple adds the entry of a tuple of the table,
+ * which must have its RecordId set.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public interface IndexFile extends PagedFile {
+
+    /** @return the id of the table this index is on */
+    public int getTableId();
+
+    /** @return the field of the table's tuples this index is on */
+    public int getKeyField();
+
+    /** @return the type of the field this index is on */
+    public Type getKeyType();
+
+    /**
+     * @return true if the index can find the tuples that satisfy a
+     *         predicate with the given operator
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Removes the entry of a tuple of the table from the index.
+     *
+     * @param key the tuple's key
+     * @param rid the RecordId the tuple had
+     * @return the pages that were changed
+     * @throws DbException if the index has no such entry
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Returns the entries whose keys satisfy <tt>key op operand</tt>, as
+     * tuples of (key, page number, slot).
+     *
+     * @param op an operator the index {@link #supports}
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand);
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+/**
+ * IndexNestedLoopJoin joins the tuples of its child with the tuples of a
+ * table that have an equal value in an indexed field, by looking up the
+ * value of each child tuple in the table's index. Only the matching tuples
+ * of the table are read, so this beats reading the whole table when the
+ * child returns few tuples.
+ * <p>
+ * As with {@link Join}, each result is a child tuple followed by a tuple
+ * of the table.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId m_tid;
+    private final JoinPredicate m_p;
+    private DbIterator m_child;
+    private final IndexFile m_index;
+    private final String m_alias;
+    private TupleDesc m_td;
+
+    // The child tuple whose matches are being returned, and the scan of
+    // the index that finds them
+    private Tuple m_outer;
+    private IndexScan m_matches;
+
+    /**
+     * Creates a join of a child with the table of an index.
+     *
+     * @param tid the transaction the table is read as a part of
+     * @param p an equality predicate between a field of the child's tuples
+     *          and the field of the table the index is on
+     * @param child the outer relation, whose tuples are looked up
+     * @param index an index on the table that can find equal keys
+     * @param tableAlias the alias of the table, which prefixes the names of
+     *          its fields as in {@link SeqScan}
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, DbIterator child,
+            IndexFile index, String tableAlias) {
+        if (p.getOperator() != Predicate.Op.EQUALS || p.getField2() != index.getKeyField()
+                || !index.supports(Predicate.Op.EQUALS)
+                || child.getTupleDesc().getFieldType(p.getField1()) != index.getKeyType()) {
+            throw new IllegalArgumentException("index on field " + index.getKeyField()
+                    + " can't join on " + p.getOperator() + " field " + p.getField2());
+        }
+        m_tid = tid;
+        m_p = p;
+        m_child = child;
+        m_index = index;
+        m_alias = tableAlias;
+        m_td = joinedDesc();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_p;
+    }
+
+    public IndexFile getIndex() {
+        return m_index;
+    }
+
+    /** @return the name in the catalog of the table the index is on */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(m_index.getTableId());
+    }
+
+    /** @return the alias of the table the index is on */
+    public String getAlias() {
+        return m_alias;
+    }
+
+    /** @return the name of the join field of the child, quantified by alias */
+    public String getJoinField1Name() {
+        return m_child.getTupleDesc().getFieldName(m_p.getField1());
+    }
+
+    /** @return the name of the indexed field, quantified by alias */
+    public String getJoinField2Name() {
+        return m_alias + "." + Database.getCatalog().getTupleDesc(m_index.getTableId())
+                .getFieldName(m_p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    private TupleDesc joinedDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(m_index.getTableId());
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = m_alias + "." + td.getFieldName(i);
+        }
+        return TupleDesc.merge(m_child.getTupleDesc(), new TupleDesc(types, names));
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_outer = null;
+        m_matches = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        m_child.close();
+        if (m_matches != null) {
+            m_matches.close();
+            m_matches = null;
+        }
+        m_outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        if (m_matches != null) {
+            m_matches.close();
+            m_matches = null;
+        }
+        m_outer = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        for (;;) {
+            if (m_matches != null) {
+                if (m_matches.hasNext()) {
+                    return merge(m_outer, m_matches.next());
+                }
+                m_matches.close();
+                m_matches = null;
+            }
+            if (!m_child.hasNext()) {
+                return null;
+            }
+            m_outer = m_child.next();
+            Predicate lookup = new Predicate(m_index.getKeyField(), Predicate.Op.EQUALS,
+                    m_outer.getField(m_p.getField1()));
+            m_matches = new IndexScan(m_tid, m_index, lookup, m_alias);
+            m_matches.open();
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(m_td);
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < n2; i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child = children[0];
+        m_td = joinedDesc();
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan returns the tuples of a table that satisfy a predicate on an
+ * indexed field, finding them through an {@link IndexFile} instead of
+ * reading the whole table. Tuples come out in the order of the index's
+ * entries, which for a {@link BTreeFile} is the order of the field.
+ */
+public class IndexScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId m_tid;
+    private final IndexFile m_index;
+    private final Predicate m_pred;
+    private final String m_tableAlias;
+
+    private DbFileIterator m_entries;
+    // Table page the last tuple came from; matching tuples are often on
+    // the same page
+    private HeapPage m_page;
+
+    /**
+     * Creates a scan of the tuples of an index's table that satisfy a
+     * predicate on the indexed field.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param index an index on a HeapFile
+     * @param p a predicate on the indexed field, with an operator the
+     *          index {@link IndexFile#supports}
+     * @param tableAlias the alias of the table, which prefixes the names
+     *          of the fields as in {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate p, String tableAlias) {
+        if (p.getField() != index.getKeyField() || !index.supports(p.getOp())
+                || p.getOperand().getType() != index.getKeyType()) {
+            throw new IllegalArgumentException("index on field " + index.getKeyField()
+                    + " can't find tuples for " + p);
+        }
+        m_tid = tid;
+        m_index = index;
+        m_pred = p;
+        m_tableAlias = tableAlias;
+    }
+
+    public IndexScan(TransactionId tid, IndexFile index, Predicate p) {
+        this(tid, index, p, Database.getCatalog().getTableName(index.getTableId()));
+    }
+
+    /** @return the name of the table in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(m_index.getTableId());
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return m_tableAlias;
+    }
+
+    public IndexFile getIndex() {
+        return m_index;
+    }
+
+    public Predicate getPredicate() {
+        return m_pred;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with
+     * the table alias as in {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(m_index.getTableId());
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = m_tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_entries = m_index.iterator(m_tid, m_pred.getOp(), m_pred.getOperand());
+        m_entries.open();
+        m_page = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (m_entries != null) {
+            m_entries.close();
+        }
+        m_page = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_entries.rewind();
+        m_page = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (m_entries.hasNext()) {
+            Tuple entry = m_entries.next();
+            int pgNo = ((IntField) entry.getField(1)).getValue();
+            int slot = ((IntField) entry.getField(2)).getValue();
+            if (m_page == null || m_page.getId().pageNumber() != pgNo) {
+                m_page = (HeapPage) Database.getBufferPool().getPage(m_tid,
+                        new HeapPageId(m_index.getTableId(), pgNo), Permissions.READ_ONLY);
+            }
+            Tuple t = m_page.tuple(slot);
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        // no children
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A multimap from int keys to tuples, for hash joins on INT_TYPE fields.
+ * Keys live in an open-addressing table probed linearly; the tuples of a
+ * key are chained through an array of row numbers, in the order they were
+ * added. Adding a tuple allocates nothing but the occasional larger array.
+ */
+public class IntHashTable {
+
+    // The slots of the table: the key of each, and the first and last row
+    // with it plus one, 0 if the slot is empty
+    private int[] m_keys;
+    private int[] m_heads;
+    private int[] m_tails;
+    private int m_mask;
+    private int m_numKeys;
+
+    // The rows: each tuple, its key and the next row with the key, or -1
+    private Tuple[] m_rows;
+    private int[] m_rowKeys;
+    private int[] m_next;
+    private int m_size;
+
+    /** Creates a table sized for about the given number of rows */
+    public IntHashTable(int expected) {
+        int slots = Integer.highestOneBit(Math.max(16, expected) * 2 - 1) * 2;
+        m_keys = new int[slots];
+        m_heads = new int[slots];
+        m_tails = new int[slots];
+        m_mask = slots - 1;
+        int rows = Math.max(16, expected);
+        m_rows = new Tuple[rows];
+        m_rowKeys = new int[rows];
+        m_next = new int[rows];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the slot of the key, or of the empty slot where it would go */
+    private int slot(int key) {
+        int s = hash(key) & m_mask;
+        while (m_heads[s] != 0 && m_keys[s] != key) {
+            s = (s + 1) & m_mask;
+        }
+        return s;
+    }
+
+    /** Adds a tuple under a key */
+    public void add(int key, Tuple t) {
+        if (m_size == m_rows.length) {
+            int n = m_rows.length * 2;
+            m_rows = Arrays.copyOf(m_rows, n);
+            m_rowKeys = Arrays.copyOf(m_rowKeys, n);
+            m_next = Arrays.copyOf(m_next, n);
+        }
+        int row = m_size++;
+        m_rows[row] = t;
+        m_rowKeys[row] = key;
+        m_next[row] = -1;
+        int s = slot(key);
+        if (m_heads[s] == 0) {
+            m_keys[s] = key;
+            m_heads[s] = row + 1;
+            m_tails[s] = row + 1;
+            if (++m_numKeys * 2 > m_keys.length) {
+                rehash(m_keys.length * 2);
+            }
+        } else {
+            m_next[m_tails[s] - 1] = row;
+            m_tails[s] = row + 1;
+        }
+    }
+
+    private void rehash(int slots) {
+        int[] keys = m_keys;
+        int[] heads = m_heads;
+        int[] tails = m_tails;
+        m_keys = new int[slots];
+        m_heads = new int[slots];
+        m_tails = new int[slots];
+        m_mask = slots - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (heads[i] != 0) {
+                int s = slot(keys[i]);
+                m_keys[s] = keys[i];
+                m_heads[s] = heads[i];
+                m_tails[s] = tails[i];
+            }
+        }
+    }
+
+    /** @return the first row with the key, or -1 if there is none */
+    public int first(int key) {
+        return m_heads[slot(key)] - 1;
+    }
+
+    /** @return the row after the given one with the same key, or -1 */
+    public int next(int row) {
+        return m_next[row];
+    }
+
+    /** @return the tuple of a row */
+    public Tuple get(int row) {
+        return m_rows[row];
+    }
+
+    /** @return the key of a row */
+    public int keyOf(int row) {
+        return m_rowKeys[row];
+    }
+
+    /** @return the number of rows, which are numbered from 0 in the order they were added */
+    public int size() {
+        return m_size;
+    }
+
+    /** Empties the table, keeping its arrays to be filled again */
+    public void clear() {
+        if (m_numKeys > 0) {
+            Arrays.fill(m_heads, 0);
+        }
+        Arrays.fill(m_rows, 0, m_size, null);
+        m_numKeys = 0;
+        m_size = 0;
+    }
+}
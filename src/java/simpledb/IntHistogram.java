@@ -144,15 +144,21 @@ public class IntHistogram {
      *     implement a more efficient optimization
      * */
     public double avgSelectivity() {
-        /* CODE NOT NEEDED
-        int num = 0;
-        for (int i : m_histogram.keySet()) {
-            int height = m_histogram.get(i);
-            num += (height * height);
+        if (m_tuples == 0) {
+            return 1.0;
         }
-        return num / (m_tuples * m_tuples);
-        */
-        return 1.0;
+        // A value drawn from the histogram falls in bucket b with chance
+        // h_b/N, and then matches h_b/N/width_b of the tuples
+        double sel = 0;
+        for (int i = 0; i < m_buckets; i++) {
+            double width = m_width;
+            if (i == m_buckets - 1) {
+                width = Math.max(1, (long) m_max - m_min + 1 - (long) i * m_width);
+            }
+            double frac = (double) m_histogram[i] / m_tuples;
+            sel += frac * frac / width;
+        }
+        return sel;
     }
     
     /**
@@ -3,23 +3,41 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, as a block
+ * nested-loops join: it reads as many tuples of child1 as fit in its memory
+ * budget, then scans child2 once for the whole block. The join fields of
+ * the block are copied into an array, so each tuple of child2 is compared
+ * with them in a tight loop.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The default number of bytes of child1 tuples to hold in a block */
+    public static final int DEFAULT_BLOCK_BYTES = 1 << 20;
+
     //Private member variables
     private JoinPredicate m_p;
     private DbIterator m_child1;
     private DbIterator m_child2;
-    // Tuples used in our nested loop join 
-    private Tuple tuple1 = null;
-    private Tuple tuple2 = null;
-    // Boolean used to keep track of if we're grabbing data from the other tuple loop
-    private boolean outerLoop = true;
-    // Bool used to keep track of whether our loop has more tuples or not
-    private boolean nestedLoop = true;
+    private final int m_budget;
+    // True if both join fields are ints, which are compared as such
+    private boolean m_intKeys;
+
+    // The block of child1 tuples, with their join fields in m_intBlock or
+    // m_fieldBlock, and how many there are
+    private transient Tuple[] m_block;
+    private transient int[] m_intBlock;
+    private transient Field[] m_fieldBlock;
+    private int m_count;
+    // Whether child2 has been read for a block and needs a rewind
+    private boolean m_scanned;
+    // The tuple of child2 being joined with the block, its join field, and
+    // the next tuple of the block to compare it with
+    private transient Tuple m_inner;
+    private int m_innerKey;
+    private int m_pos;
+    private transient TupleDesc m_td;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -33,10 +51,33 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
-        // some code goes here
+        this(p, child1, child2, DEFAULT_BLOCK_BYTES);
+    }
+
+    /**
+     * Constructor for a join that holds up to budget bytes of child1 tuples
+     * (as stored in a page) in a block.
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int budget) {
         m_p = p;
         m_child1 = child1;
         m_child2 = child2;
+        m_budget = budget;
+        m_intKeys = intKeys();
+    }
+
+    /** @return true if both join fields of the children are ints */
+    private boolean intKeys() {
+        return m_child1.getTupleDesc().getFieldType(m_p.getField1()) == Type.INT_TYPE
+                && m_child2.getTupleDesc().getFieldType(m_p.getField2()) == Type.INT_TYPE;
+    }
+
+    /**
+     * @return the number of tuples of the given type that fit in a block of
+     *         budget bytes, and at least one
+     */
+    public static int blockTuples(TupleDesc td, int budget) {
+        return Math.max(1, budget / td.getSize());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -80,24 +121,109 @@ public class Join extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
-        //Following OrderBy/Project operators
         m_child1.open();
         m_child2.open();
+        int n = blockTuples(m_child1.getTupleDesc(), m_budget);
+        m_block = new Tuple[n];
+        if (m_intKeys) {
+            m_intBlock = new int[n];
+        } else {
+            m_fieldBlock = new Field[n];
+        }
+        m_count = 0;
+        m_scanned = false;
+        m_inner = null;
+        m_td = getTupleDesc();
         super.open();
     }
 
     public void close() {
-        // some code goes here
         super.close();
         m_child1.close();
         m_child2.close();
+        m_block = null;
+        m_intBlock = null;
+        m_fieldBlock = null;
+        m_inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
         m_child1.rewind();
         m_child2.rewind();
+        m_count = 0;
+        m_scanned = false;
+        m_inner = null;
+    }
+
+    /**
+     * Reads the next block of child1, rewinding child2 to be scanned again.
+     *
+     * @return false if child1 has no more tuples
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        Arrays.fill(m_block, 0, m_count, null);
+        m_count = 0;
+        while (m_count < m_block.length && m_child1.hasNext()) {
+            Tuple t = m_child1.next();
+            m_block[m_count] = t;
+            if (m_intKeys) {
+                m_intBlock[m_count] = ((IntField) t.getField(m_p.getField1())).getValue();
+            } else {
+                m_fieldBlock[m_count] = t.getField(m_p.getField1());
+            }
+            m_count++;
+        }
+        if (m_count == 0) {
+            return false;
+        }
+        if (m_scanned) {
+            m_child2.rewind();
+        }
+        m_scanned = true;
+        return true;
+    }
+
+    /**
+     * @return the first tuple of the block from m_pos on that joins with
+     *         m_inner, or -1 if there is none
+     */
+    private int nextMatch() {
+        if (!m_intKeys) {
+            Field key = m_inner.getField(m_p.getField2());
+            Predicate.Op op = m_p.getOperator();
+            for (int i = m_pos; i < m_count; i++) {
+                if (m_fieldBlock[i].compare(op, key))
+                    return i;
+            }
+            return -1;
+        }
+        // t1 op t2 for each t1 of the block, a loop per operator
+        int[] keys = m_intBlock;
+        int v = m_innerKey;
+        int n = m_count;
+        int i = m_pos;
+        switch (m_p.getOperator()) {
+        case EQUALS:
+        case LIKE:
+            while (i < n && keys[i] != v) i++;
+            break;
+        case NOT_EQUALS:
+            while (i < n && keys[i] == v) i++;
+            break;
+        case GREATER_THAN:
+            while (i < n && keys[i] <= v) i++;
+            break;
+        case GREATER_THAN_OR_EQ:
+            while (i < n && keys[i] < v) i++;
+            break;
+        case LESS_THAN:
+            while (i < n && keys[i] >= v) i++;
+            break;
+        case LESS_THAN_OR_EQ:
+            while (i < n && keys[i] > v) i++;
+            break;
+        }
+        return i < n ? i : -1;
     }
 
     /**
@@ -119,51 +245,38 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        // If we're in the outerloop during processing, we can set our nested loop
-        // to be whether or not our m_child1 has more tuples. Otherwise
-        // we continue our inner loop by continueing with m_child2
-        if(outerLoop)
-            nestedLoop = m_child1.hasNext();
-        // Nested loop implementation
-        while(nestedLoop){
-
-            //If we're in the outer loop, it means we can set our tuple1 to the next child
-            if(outerLoop)
-                tuple1 = m_child1.next();
-
-            while(m_child2.hasNext()){
-                
-                tuple2 = m_child2.next();            
-                if(m_p.filter(tuple1, tuple2)){
-                    // Since both tuples match predicate, we'll be using the inner loop
-                    outerLoop = false;
-            
-                    // Merging our tuples
-                    Tuple mergedTuples = new Tuple(getTupleDesc());
-                    // Set iterators to manually look through and set our fields
-                    Iterator<Field> iter1 = tuple1.fields();
-                    Iterator<Field> iter2 = tuple2.fields();
-                    int index = 0;
-                    while (iter1.hasNext()) {
-                        mergedTuples.setField(index, iter1.next());
-                        index++;;
-                    }
-                    while (iter2.hasNext()) {
-                        mergedTuples.setField(index, iter2.next());
-                        index++;
-                    }
-                    return mergedTuples;
+        while (true) {
+            if (m_inner != null) {
+                int i = nextMatch();
+                if (i >= 0) {
+                    m_pos = i + 1;
+                    return merge(m_block[i], m_inner);
                 }
+                m_inner = null;
+            }
+            if (m_count > 0 && m_child2.hasNext()) {
+                m_inner = m_child2.next();
+                if (m_intKeys) {
+                    m_innerKey = ((IntField) m_inner.getField(m_p.getField2())).getValue();
+                }
+                m_pos = 0;
+                continue;
+            }
+            // child2 is done with this block, or there was none yet
+            if (!loadBlock()) {
+                return null;
             }
-            // Resetting our inner child since we're on the next iteration
-            m_child2.rewind();
-            nestedLoop = m_child1.hasNext();
-            outerLoop = true;
-            // Done resetting, next loop
         }
-        //Otherwise return null
-        return null;
+    }
+
+    private Tuple merge(Tuple tuple1, Tuple tuple2) {
+        Tuple mergedTuples = new Tuple(m_td);
+        int n1 = tuple1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            mergedTuples.setField(i, tuple1.getField(i));
+        for (int i = 0; i < tuple2.getTupleDesc().numFields(); i++)
+            mergedTuples.setField(n1 + i, tuple2.getField(i));
+        return mergedTuples;
     }
 
     @Override
@@ -177,6 +290,7 @@ public class Join extends Operator {
         // some code goes here
         m_child1 = children[0];
         m_child2 = children[1];
+        m_intKeys = intKeys();
 
     }
 
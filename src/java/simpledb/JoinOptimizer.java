@@ -74,6 +74,152 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Return the best iterator for a logical join, given estimates of the
+     * size and cost of the subplans. An equality join of a plan with a table
+     * that is scanned without filters, and that has an index on the join
+     * field, becomes an {@link IndexNestedLoopJoin} when looking up each
+     * tuple of the plan in the index is estimated to cost less than one scan
+     * of the table. Otherwise the join is whichever of a nested-loops
+     * {@link Join}, a {@link HashEquiJoin} (for equality joins) and a
+     * {@link SortMergeJoin} costs the least by {@link #nestedLoopJoinCost},
+     * {@link #hashJoinCost} and {@link #sortMergeJoinCost}, or a Join if the
+     * subplans can't be estimated.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param stats
+     *            The table stats, referenced by table names, not alias
+     */
+    public DbIterator instantiateJoin(LogicalJoinNode lj, DbIterator plan1,
+            DbIterator plan2, Map<String, TableStats> stats)
+            throws ParsingException {
+        if (lj.p == Predicate.Op.EQUALS && !(lj instanceof LogicalSubplanJoinNode)) {
+            DbIterator j = indexJoin(lj, plan1, plan2, stats);
+            if (j == null) {
+                j = indexJoin(lj.swapInnerOuter(), plan2, plan1, stats);
+            }
+            if (j != null) {
+                return j;
+            }
+        }
+        DbIterator j = instantiateJoin(lj, plan1, plan2);
+        int card1 = estimateCardinality(plan1, stats);
+        int card2 = estimateCardinality(plan2, stats);
+        if (lj instanceof LogicalSubplanJoinNode || card1 < 0 || card2 < 0) {
+            return j;
+        }
+        double cost1 = estimatePlanCost(plan1, stats);
+        double cost2 = estimatePlanCost(plan2, stats);
+        JoinPredicate jp = ((Join) j).getJoinPredicate();
+
+        double best = nestedLoopJoinCost(card1, card2, cost1, cost2,
+                Join.blockTuples(plan1.getTupleDesc(), Join.DEFAULT_BLOCK_BYTES));
+        if (lj.p == Predicate.Op.EQUALS) {
+            double hash = hashJoinCost(card1, card2, cost1, cost2);
+            if (hash < best) {
+                best = hash;
+                j = new HashEquiJoin(jp, plan1, plan2);
+            }
+        }
+        double merge = sortMergeJoinCost(lj.p, card1, card2, cost1, cost2,
+                SortMergeJoin.isSortedOn(plan1, jp.getField1()),
+                SortMergeJoin.isSortedOn(plan2, jp.getField2()),
+                Join.blockTuples(plan2.getTupleDesc(), SortMergeJoin.DEFAULT_BLOCK_BYTES));
+        if (merge < best) {
+            j = new SortMergeJoin(jp, plan1, plan2);
+        }
+        return j;
+    }
+
+    /**
+     * @return the estimated number of tuples of a plan, or -1 if it can't
+     *         be estimated
+     */
+    private int estimateCardinality(DbIterator plan, Map<String, TableStats> stats) {
+        if (plan instanceof SeqScan) {
+            TableStats s = stats.get(((SeqScan) plan).getTableName());
+            return s == null ? -1 : s.estimateTableCardinality(1.0);
+        } else if (plan instanceof Operator) {
+            Operator o = (Operator) plan;
+            OperatorCardinality.updateOperatorCardinality(o,
+                    p.getTableAliasToIdMapping(), stats);
+            return o.getEstimatedCardinality();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the estimated cost of running a plan once: the cost of
+     *         scanning the tables it scans
+     */
+    private static double estimatePlanCost(DbIterator plan, Map<String, TableStats> stats) {
+        if (plan instanceof SeqScan) {
+            TableStats s = stats.get(((SeqScan) plan).getTableName());
+            return s == null ? 0 : s.estimateScanCost();
+        }
+        double cost = 0;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                cost += estimatePlanCost(child, stats);
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * @return an IndexNestedLoopJoin that looks up the tuples of outer in an
+     *         index of the table inner scans, or null if inner is not a plain
+     *         scan of a table with such an index or if it isn't cheaper
+     */
+    private DbIterator indexJoin(LogicalJoinNode lj, DbIterator outer,
+            DbIterator inner, Map<String, TableStats> stats)
+            throws ParsingException {
+        if (!(inner instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) inner;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(scan.getTableId())
+                    .fieldNameToIndex(lj.f2PureName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f2QuantifiedName);
+        }
+        IndexFile index = Database.getCatalog().getIndex(scan.getTableId(),
+                field, Predicate.Op.EQUALS);
+        TableStats innerStats = stats.get(scan.getTableName());
+        if (index == null || innerStats == null) {
+            return null;
+        }
+
+        int outerCard = estimateCardinality(outer, stats);
+        if (outerCard < 0) {
+            return null;
+        }
+        double lookups = outerCard * innerStats.estimateIndexScanCost(
+                innerStats.avgSelectivity(field, Predicate.Op.EQUALS));
+        if (lookups >= innerStats.estimateScanCost()) {
+            return null;
+        }
+
+        int outerField;
+        try {
+            outerField = outer.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+        }
+        if (outer.getTupleDesc().getFieldType(outerField) != index.getKeyType()) {
+            return null;
+        }
+        return new IndexNestedLoopJoin(scan.getTransactionId(), new JoinPredicate(
+                outerField, Predicate.Op.EQUALS, field), outer, index, scan.getAlias());
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -107,12 +253,89 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
         } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
-            return -1.0;
+            // the cheapest of the joins instantiateJoin picks from, for
+            // inputs that aren't sorted
+            Integer t1id = p.getTableId(j.t1Alias);
+            int block = t1id == null ? 1 : Join.blockTuples(Database.getCatalog()
+                    .getTupleDesc(t1id), Join.DEFAULT_BLOCK_BYTES);
+            Integer t2id = p.getTableId(j.t2Alias);
+            int block2 = t2id == null ? 1 : Join.blockTuples(Database.getCatalog()
+                    .getTupleDesc(t2id), SortMergeJoin.DEFAULT_BLOCK_BYTES);
+            double cost = nestedLoopJoinCost(card1, card2, cost1, cost2, block);
+            if (j.p == Predicate.Op.EQUALS) {
+                cost = Math.min(cost, hashJoinCost(card1, card2, cost1, cost2));
+            }
+            return Math.min(cost, sortMergeJoinCost(j.p, card1, card2, cost1,
+                    cost2, false, false, block2));
+        }
+    }
+
+    /** The cost of spilling a tuple to a temporary file and reading it back */
+    static final double SPILL_COST = 2.0 * TableStats.IOCOSTPERPAGE / 100;
+
+    /**
+     * @return the cost of a block nested-loops {@link Join}: one run of the
+     *         outer plan, a run of the inner plan per block of blockTuples
+     *         outer tuples, and a predicate per pair of tuples
+     */
+    public static double nestedLoopJoinCost(int card1, int card2, double cost1,
+            double cost2, int blockTuples) {
+        double blocks = Math.ceil((double) card1 / blockTuples);
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * @return the cost of a {@link HashEquiJoin}: one run of each plan and a
+     *         hash of each tuple, plus writing both inputs out to partitions
+     *         and reading them back if child1 doesn't fit in memory
+     */
+    public static double hashJoinCost(int card1, int card2, double cost1,
+            double cost2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (card1 > HashEquiJoin.MAP_SIZE) {
+            cost += SPILL_COST * ((double) card1 + card2);
+        }
+        return cost;
+    }
+
+    /**
+     * @return the cost of a {@link SortMergeJoin}: one run of each plan, a
+     *         sort of each input that needs one, and the merge. An equality
+     *         join merges in one pass over both inputs; any other join runs
+     *         the outer plan once per block of blockTuples sorted inner
+     *         tuples, searches the block for each outer tuple and walks the
+     *         range that matches, which for a range predicate is about half
+     *         of it and for NOT_EQUALS or LIKE all of it
+     */
+    public static double sortMergeJoinCost(Predicate.Op op, int card1,
+            int card2, double cost1, double cost2, boolean sorted1,
+            boolean sorted2, int blockTuples) {
+        double cost = cost2 + card2;
+        if (!sorted2) {
+            cost += sortCost(card2);
+        }
+        if (op == Predicate.Op.EQUALS) {
+            cost += cost1 + card1;
+            if (!sorted1) {
+                cost += sortCost(card1);
+            }
+        } else {
+            double blocks = Math.max(1, Math.ceil((double) card2 / blockTuples));
+            double walked = op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE
+                    ? 1.0 : 0.5;
+            cost += blocks * (cost1 + card1)
+                    + card1 * (blocks * log2(Math.min(card2, blockTuples)) + walked * card2);
         }
+        return cost;
+    }
+
+    private static double log2(int n) {
+        return n > 1 ? Math.log(n) / Math.log(2) : 1;
+    }
+
+    /** @return the cost of sorting n tuples: a comparison per n log n */
+    private static double sortCost(int n) {
+        return n * log2(n);
     }
 
     /**
@@ -0,0 +1,44 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Least-recently-used replacement: evicts the resident page whose last
+ * access is oldest.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    // Access-ordered, so iteration starts at the least recently used page
+    private LinkedHashMap<PageId, Boolean> m_pages;
+
+    public LRUPolicy() {
+        m_pages = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    }
+
+    public void admit(PageId pid) {
+        m_pages.put(pid, Boolean.TRUE);
+    }
+
+    public void access(PageId pid) {
+        // get() moves the entry to the most recently used end
+        if (m_pages.get(pid) == null) {
+            m_pages.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public PageId evict(PageId incoming) {
+        Iterator<PageId> it = m_pages.keySet().iterator();
+        if (!it.hasNext()) { return null; }
+        PageId victim = it.next();
+        it.remove();
+        return victim;
+    }
+
+    public void reinstate(PageId pid) {
+        admit(pid);
+    }
+
+    public void remove(PageId pid) {
+        m_pages.remove(pid);
+    }
+}
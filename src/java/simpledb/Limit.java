@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that returns only the first tuples of its child, as
+ * for a LIMIT clause.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator m_child;
+    private final int m_limit;
+    private int m_count;
+
+    /**
+     * @param limit
+     *            The most tuples to return
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, DbIterator child) {
+        m_limit = limit;
+        m_child = child;
+    }
+
+    public int getLimit() {
+        return m_limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_child.open();
+        m_count = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        m_child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        m_count = 0;
+    }
+
+    /**
+     * Returns tuples of the child until the limit is reached, without reading
+     * the child any further after that.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (m_count < m_limit && m_child.hasNext()) {
+            m_count++;
+            return m_child.next();
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (m_child != children[0]) { m_child = children[0]; }
+    }
+
+}
@@ -29,15 +29,17 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> groupByFields;
+    private Vector<LogicalSelectListNode> aggregates;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = NO_LIMIT;
     private String query;
 //    private Query owner;
 
+    /** The limit of a plan without a LIMIT clause */
+    public static final int NO_LIMIT = -1;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
@@ -47,6 +49,8 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggregates = new Vector<LogicalSelectListNode>();
         this.query = "";
     }
 
@@ -185,22 +189,40 @@ public class LogicalPlan {
         selectList.addElement(new LogicalSelectListNode(aggOp, fname));
     }
     
-    /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+    /** Add an aggregate over the field to the query, optionally with a field
+        to group by.  All the aggregates of a query are computed in one
+        {@link HashAggregate}, grouped by all of the GROUP BY fields.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (aggregateIndex(op, afield) < 0)
+            aggregates.addElement(new LogicalSelectListNode(op, afield));
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+            addGroupBy(gfield);
+    }
+
+    /** Add a field to group the aggregates of the query by.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** @return the position of an aggregate among those added, or -1 if it wasn't */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            LogicalSelectListNode a = aggregates.elementAt(i);
+            if (a.aggOp.equalsIgnoreCase(op) && a.fname.equals(afield))
+                return i;
+        }
+        return -1;
     }
 
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
@@ -216,6 +238,21 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause, returning at most the first limit tuples of the result.
+        @param limit the most tuples to return
+     * @throws ParsingException if limit is negative
+    */
+    public void setLimit(int limit) throws ParsingException {
+        if (limit < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        this.limit = limit;
+    }
+
+    /** @return the LIMIT of the query, or NO_LIMIT */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -273,6 +310,8 @@ public class LogicalPlan {
 
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   A table with an index on a filtered field is read with an {@link IndexScan} when
+     *   {@link TableStats#estimateIndexScanCost} is below the cost of scanning it.
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -289,6 +328,7 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -300,12 +340,22 @@ public class LogicalPlan {
             }
             
             subplanMap.put(table.alias,ss);
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        // the predicate of each filter, and the filter per table that an
+        // index scan can answer most cheaply, if that beats a scan
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        HashMap<String,Predicate> indexPreds = new HashMap<String,Predicate>();
+        HashMap<String,Double> indexCosts = new HashMap<String,Double>();
+        // the filters per table on fields with bitmap indexes, and their
+        // combined selectivity
+        HashMap<String,ArrayList<Predicate>> bitmapPreds = new HashMap<String,ArrayList<Predicate>>();
+        HashMap<String,Double> bitmapSels = new HashMap<String,Double>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,15 +384,72 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            preds.add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            IndexFile index = Database.getCatalog().getIndex(this.getTableId(lf.tableAlias), p.getField(), p.getOp());
+            if (index != null) {
+                double cost = s.estimateIndexScanCost(sel);
+                Double best = indexCosts.get(lf.tableAlias);
+                if (cost < s.estimateScanCost() && (best == null || cost < best)) {
+                    indexPreds.put(lf.tableAlias, p);
+                    indexCosts.put(lf.tableAlias, cost);
+                }
+            }
+
+            DbFile file = Database.getCatalog().getDatabaseFile(this.getTableId(lf.tableAlias));
+            if (file instanceof HeapFile && ((HeapFile) file).getBitmapIndex(p.getField()) != null) {
+                if (!bitmapPreds.containsKey(lf.tableAlias)) {
+                    bitmapPreds.put(lf.tableAlias, new ArrayList<Predicate>());
+                    bitmapSels.put(lf.tableAlias, 1.0);
+                }
+                bitmapPreds.get(lf.tableAlias).add(p);
+                bitmapSels.put(lf.tableAlias, bitmapSels.get(lf.tableAlias) * sel);
+            }
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // ANDing the bitmaps of several filters can beat any one index
+        Iterator<Map.Entry<String,ArrayList<Predicate>>> bitmapIt = bitmapPreds.entrySet().iterator();
+        while (bitmapIt.hasNext()) {
+            Map.Entry<String,ArrayList<Predicate>> e = bitmapIt.next();
+            String alias = e.getKey();
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            double cost = s.estimateBitmapScanCost(bitmapSels.get(alias));
+            Double best = indexCosts.get(alias);
+            if (cost >= s.estimateScanCost() || (best != null && cost >= best)) {
+                bitmapIt.remove();
+                continue;
+            }
+            indexPreds.remove(alias);
+            Predicate[][] clauses = new Predicate[e.getValue().size()][];
+            for (int i = 0; i < clauses.length; i++) {
+                clauses[i] = new Predicate[] { e.getValue().get(i) };
+            }
+            subplanMap.put(alias, new BitmapHeapScan(t, this.getTableId(alias), alias, clauses));
+        }
+        for (Map.Entry<String,Predicate> e : indexPreds.entrySet()) {
+            Predicate p = e.getValue();
+            IndexFile index = Database.getCatalog().getIndex(this.getTableId(e.getKey()), p.getField(), p.getOp());
+            subplanMap.put(e.getKey(), new IndexScan(t, index, p, e.getKey()));
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            String alias = filters.get(i).tableAlias;
+            Predicate p = preds.get(i);
+            if (indexPreds.get(alias) == p
+                    || (bitmapPreds.containsKey(alias) && bitmapPreds.get(alias).contains(p))) {
+                // the index or bitmap scan returns only tuples that satisfy it
+                continue;
+            }
+            subplanMap.put(alias, new Filter(p, subplanMap.get(alias)));
+            // lets the scan skip pages the filter would reject all of
+            scans.get(alias).pushDown(p);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -382,7 +489,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(lj,plan1,plan2,statsMap);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -414,7 +521,12 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // the aggregates come after the group by fields
+                int a = aggregateIndex(si.aggOp, si.fname);
+                if (a < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + a);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -425,17 +537,18 @@ public class LogicalPlan {
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
-            } else if (hasAgg) {
-                    if (groupByField == null) {
+            } else if (!aggregates.isEmpty()) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -458,14 +571,20 @@ public class LogicalPlan {
                 }
         }
 
-        if (hasAgg) {
+        if (!aggregates.isEmpty()) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            HashAggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int g = 0; g < gfields.length; g++)
+                    gfields[g] = td.fieldNameToIndex(groupByFields.elementAt(g));
+                int[] afields = new int[aggregates.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[afields.length];
+                for (int a = 0; a < afields.length; a++) {
+                    afields[a] = td.fieldNameToIndex(aggregates.elementAt(a).fname);
+                    ops[a] = getAggOp(aggregates.elementAt(a).aggOp);
+                }
+                aggNode = new HashAggregate(node, gfields, afields, ops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,8 +593,14 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && limit != NO_LIMIT) {
+            // only the first rows of the ordering are wanted: keep a heap of
+            // them rather than sorting the lot
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, node);
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
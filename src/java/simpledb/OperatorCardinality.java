@@ -24,14 +24,64 @@ public class OperatorCardinality {
         if (o instanceof Filter) {
             return updateFilterCardinality((Filter) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof IndexScan) {
+            IndexScan s = (IndexScan) o;
+            Predicate pred = s.getPredicate();
+            TableStats stats = tableStats.get(s.getTableName());
+            s.setEstimatedCardinality((int) (stats.estimateTableCardinality(1.0)
+                    * stats.estimateSelectivity(pred.getField(), pred.getOp(),
+                            pred.getOperand())) + 1);
+            return false;
+        } else if (o instanceof BitmapHeapScan) {
+            BitmapHeapScan s = (BitmapHeapScan) o;
+            TableStats stats = tableStats.get(s.getTableName());
+            double sel = 1.0;
+            for (Predicate[] clause : s.getClauses()) {
+                double any = 0;
+                for (Predicate pred : clause) {
+                    any += stats.estimateSelectivity(pred.getField(),
+                            pred.getOp(), pred.getOperand());
+                }
+                sel *= Math.min(1.0, any);
+            }
+            s.setEstimatedCardinality(stats.estimateTableCardinality(sel) + 1);
+            return false;
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateBinaryJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
                     tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) o;
+            return updateBinaryJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            return updateIndexNestedLoopJoinCardinality(
+                    (IndexNestedLoopJoin) o, tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof HashAggregate) {
+            return updateHashAggregateCardinality((HashAggregate) o,
+                    tableAliasToId, tableStats);
+        } else if (o instanceof TopN || o instanceof Limit) {
+            int limit = o instanceof TopN ? ((TopN) o).getLimit() : ((Limit) o).getLimit();
+            DbIterator child = o.getChildren()[0];
+            int childC = 1;
+            boolean hasJoinPK = false;
+            if (child instanceof Operator) {
+                hasJoinPK = updateOperatorCardinality((Operator) child,
+                        tableAliasToId, tableStats);
+                childC = ((Operator) child).getEstimatedCardinality();
+            } else if (child instanceof SeqScan) {
+                childC = tableStats.get(((SeqScan) child).getTableName())
+                        .estimateTableCardinality(1.0);
+            }
+            o.setEstimatedCardinality(Math.min(childC, limit));
+            return hasJoinPK;
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
@@ -144,7 +194,13 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
+    /**
+     * Estimates the cardinality of a join of two child plans, such as a
+     * HashEquiJoin or a SortMergeJoin, given its predicate and the
+     * qualified names of its join fields.
+     */
+    private static boolean updateBinaryJoinCardinality(Operator j,
+            JoinPredicate p, String field1Name, String field2Name,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
 
@@ -154,10 +210,10 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = field1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = field2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -194,6 +250,49 @@ public class OperatorCardinality {
                     .getTableName()).estimateTableCardinality(1.0));
         }
 
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(p
+                .getOperator(), tableAlias1, tableAlias2,
+                pureFieldName1, pureFieldName2, child1Card, child2Card,
+                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+        return child1HasJoinPK || child2HasJoinPK;
+    }
+
+    private static boolean updateIndexNestedLoopJoinCardinality(
+            IndexNestedLoopJoin j, Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+
+        DbIterator child1 = j.getChildren()[0];
+        int child1Card = 1;
+        // The inner side is the whole table the index is on
+        int child2Card = tableStats.get(j.getTableName())
+                .estimateTableCardinality(1.0);
+
+        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String tableAlias1 = tmp1[0];
+        String pureFieldName1 = tmp1[1];
+        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String tableAlias2 = tmp2[0];
+        String pureFieldName2 = tmp2[1];
+
+        boolean child1HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias1))
+                .equals(pureFieldName1);
+        boolean child2HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(j.getIndex().getTableId())
+                .equals(pureFieldName2);
+
+        if (child1 instanceof Operator) {
+            Operator child1O = (Operator) child1;
+            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                    tableStats);
+            child1HasJoinPK = pk || child1HasJoinPK;
+            child1Card = child1O.getEstimatedCardinality();
+            child1Card = child1Card > 0 ? child1Card : 1;
+        } else if (child1 instanceof SeqScan) {
+            child1Card = tableStats.get(((SeqScan) child1)
+                    .getTableName()).estimateTableCardinality(1.0);
+        }
+
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
                 .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
@@ -244,4 +343,43 @@ public class OperatorCardinality {
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    /**
+     * Estimates the groups of a HashAggregate as the product of the number
+     * of distinct values of each group field, up to the child's cardinality.
+     */
+    private static boolean updateHashAggregateCardinality(HashAggregate a,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        DbIterator child = a.getChildren()[0];
+        int childCard = 1;
+        boolean hasJoinPK = false;
+        if (child instanceof Operator) {
+            Operator oChild = (Operator) child;
+            hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
+                    tableStats);
+            childCard = oChild.getEstimatedCardinality();
+        } else if (child instanceof SeqScan) {
+            childCard = tableStats.get(((SeqScan) child).getTableName())
+                    .estimateTableCardinality(1.0);
+        }
+
+        double groups = 1.0;
+        for (int gfield : a.groupFields()) {
+            String[] tmp = child.getTupleDesc().getFieldName(gfield).split("[.]");
+            Integer tableId = tmp.length == 2 ? tableAliasToId.get(tmp[0]) : null;
+            if (tableId == null) {
+                groups = childCard;
+                break;
+            }
+            groups /= tableStats.get(
+                    Database.getCatalog().getTableName(tableId))
+                    .avgSelectivity(
+                            Database.getCatalog().getTupleDesc(tableId)
+                                    .fieldNameToIndex(tmp[1]),
+                            Predicate.Op.EQUALS);
+        }
+        a.setEstimatedCardinality((int) Math.max(1, Math.min(childCard, groups)));
+        return hasJoinPK;
+    }
 }
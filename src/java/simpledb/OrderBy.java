@@ -3,11 +3,22 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. Tuples are
+ * sorted in memory when they fit in the memory budget. Otherwise it's an
+ * external merge sort: each budget's worth of tuples is sorted and written
+ * out as a run to a {@link SpillFile}, and the runs are merged through a
+ * heap, MAX_FAN_IN at a time. The last run stays in memory. The sort is
+ * stable.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default number of bytes of tuples (as stored in a page) to sort in memory */
+    public static final int DEFAULT_BUDGET_BYTES = 4 << 20;
+    /** The most runs merged at once; more are merged into longer runs first */
+    static final int MAX_FAN_IN = 64;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +26,12 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int budget;
+
+    // The sorted runs written out, if the tuples didn't fit in memory, with
+    // childTups holding the last one; and the merge of them all
+    private transient ArrayList<SpillFile> runs;
+    private transient Merge merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +44,20 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_BUDGET_BYTES);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts up to budget bytes of tuples
+     * (as stored in a page) in memory at a time.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int budget) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.budget = budget;
     }
     
     public boolean isASC()
@@ -56,21 +82,95 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+        int runTuples = Join.blockTuples(td, budget);
+        childTups.clear();
+        runs = new ArrayList<SpillFile>();
+        ArrayList<SpillFile> merged = null;
+        boolean sorted = false;
+        try {
+            // load the tuples in a collection and sort it, writing it out as
+            // a run whenever it fills up
+            while (child.hasNext()) {
+                if (childTups.size() == runTuples) {
+                    Collections.sort(childTups, cmp);
+                    SpillFile run = new SpillFile(td);
+                    runs.add(run);
+                    for (Tuple t : childTups)
+                        run.add(t);
+                    childTups.clear();
+                }
+                childTups.add((Tuple) child.next());
+            }
+            Collections.sort(childTups, cmp);
+            // merge runs down to few enough to merge at once
+            while (runs.size() >= MAX_FAN_IN) {
+                merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                    List<SpillFile> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+                    SpillFile run = new SpillFile(td);
+                    merged.add(run);
+                    Merge m = new Merge(group, null, cmp);
+                    try {
+                        Tuple t;
+                        while ((t = m.next()) != null)
+                            run.add(t);
+                    } finally {
+                        m.close();
+                    }
+                    for (SpillFile f : group)
+                        f.delete();
+                }
+                runs = merged;
+                merged = null;
+            }
+            start();
+            sorted = true;
+        } finally {
+            if (!sorted) {
+                // the runs are only deleted by close(), which a failed open
+                // doesn't get
+                deleteRuns(runs);
+                deleteRuns(merged);
+                runs = null;
+                childTups.clear();
+            }
+        }
         super.open();
     }
 
+    private static void deleteRuns(List<SpillFile> runs) {
+        if (runs != null) {
+            for (SpillFile run : runs)
+                run.delete();
+        }
+    }
+
+    /** Starts handing out the sorted tuples from the beginning */
+    private void start() throws DbException, TransactionAbortedException {
+        if (merge != null)
+            merge.close();
+        merge = null;
+        if (runs.isEmpty())
+            it = childTups.iterator();
+        else
+            merge = new Merge(runs, childTups, new TupleComparator(orderByField, asc));
+    }
+
     public void close() {
         super.close();
         it = null;
+        if (merge != null)
+            merge.close();
+        merge = null;
+        deleteRuns(runs);
+        runs = null;
+        childTups.clear();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        start();
     }
 
     /**
@@ -82,7 +182,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (merge != null) {
+            return merge.next();
+        } else if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
@@ -98,26 +200,56 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * Merges sorted runs, and optionally a sorted list, through a heap of
+     * the next tuple of each. Ties go to the earlier run, so the merge of
+     * runs written in order is stable.
+     */
+    private static class Merge {
+        private final DbIterator[] sources;
+        private final Iterator<Tuple> last;
+        private final PriorityQueue<Object[]> heap;
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+        Merge(List<SpillFile> runs, List<Tuple> lastRun, final TupleComparator cmp)
+                throws DbException, TransactionAbortedException {
+            sources = new DbIterator[runs.size()];
+            last = lastRun == null ? null : lastRun.iterator();
+            // entries are {tuple, index of its source}
+            heap = new PriorityQueue<Object[]>(runs.size() + 1, new Comparator<Object[]>() {
+                public int compare(Object[] a, Object[] b) {
+                    int c = cmp.compare((Tuple) a[0], (Tuple) b[0]);
+                    return c != 0 ? c : (Integer) a[1] - (Integer) b[1];
+                }
+            });
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = runs.get(i).iterator();
+                sources[i].open();
+                advance(i);
+            }
+            advance(sources.length);
+        }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
+        /** Puts the next tuple of a source, the list for the last, on the heap */
+        private void advance(int i) throws DbException, TransactionAbortedException {
+            if (i < sources.length) {
+                if (sources[i].hasNext())
+                    heap.add(new Object[] { sources[i].next(), i });
+            } else if (last != null && last.hasNext()) {
+                heap.add(new Object[] { last.next(), i });
+            }
+        }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        Tuple next() throws DbException, TransactionAbortedException {
+            Object[] top = heap.poll();
+            if (top == null)
+                return null;
+            advance((Integer) top[1]);
+            return (Tuple) top[0];
+        }
+
+        void close() {
+            for (DbIterator source : sources)
+                source.close();
+        }
     }
-    
 }
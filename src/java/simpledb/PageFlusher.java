@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * Background thread that writes the BufferPool's dirty pages to disk ahead
+ * of eviction, so the query thread that needs a free frame usually finds a
+ * clean page to drop instead of paying for the write itself.
+ * <p>
+ * The thread wakes up every {@link #INTERVAL_MS} milliseconds, or sooner
+ * when the pool asks it to because many pages were dirtied, and writes
+ * every dirty page in one pass through {@link BufferPool#flushDirtyPages}.
+ */
+class PageFlusher extends Thread {
+
+    /** Longest time between two passes over the pool */
+    static final long INTERVAL_MS = 100;
+
+    private final BufferPool m_pool;
+    private final Object m_lock;
+    private boolean m_signalled;
+    private volatile boolean m_stopped;
+
+    PageFlusher(BufferPool pool) {
+        super("simpledb-flusher");
+        setDaemon(true);
+        m_pool = pool;
+        m_lock = new Object();
+        m_signalled = false;
+        m_stopped = false;
+    }
+
+    public void run() {
+        while (!m_stopped) {
+            synchronized (m_lock) {
+                if (!m_signalled) {
+                    try {
+                        m_lock.wait(INTERVAL_MS);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                m_signalled = false;
+            }
+            if (m_stopped) {
+                return;
+            }
+            try {
+                m_pool.flushDirtyPages();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            catch (RuntimeException e) {
+                // e.g. a table dropped from the catalog; try again next pass
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Starts a pass now instead of at the next interval */
+    void wakeUp() {
+        synchronized (m_lock) {
+            m_signalled = true;
+            m_lock.notify();
+        }
+    }
+
+    /** Stops the thread after the pass it is in, if any */
+    void shutdown() {
+        m_stopped = true;
+        wakeUp();
+    }
+}
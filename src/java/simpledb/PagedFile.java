@@ -0,0 +1,13 @@
+package simpledb;
+
+/**
+ * A DbFile whose pages are numbered from zero and identified by
+ * HeapPageIds, so it can be scanned with a {@link HeapFileIter}.
+ */
+public interface PagedFile extends DbFile {
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages();
+}
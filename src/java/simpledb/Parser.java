@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -182,23 +184,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        ArrayList<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +205,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        ArrayList<String[]> aggs = new ArrayList<String[]>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +215,17 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggs.add(new String[] { aggFun, aggField });
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,12 +235,15 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggs.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String[] agg : aggs) {
+            lp.addAggregate(agg[0], agg[1], null);
+        }
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
@@ -273,6 +270,59 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /** A LIMIT clause at the end of a statement, which Zql doesn't parse */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
+    /** The LIMIT of the statement being processed */
+    private int limit = LogicalPlan.NO_LIMIT;
+
+    /**
+     * Takes the LIMIT clause, if any, off the end of the first statement in
+     * s, and remembers it for the query of the statement. Only the first
+     * statement is parsed, so later ones are left alone.
+     * 
+     * @return s without the first statement's LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = LogicalPlan.NO_LIMIT;
+        int end = statementEnd(s);
+        if (end < 0)
+            return s;
+        // Anchored at the statement's end, which is outside any quotes, so
+        // the clause can't be part of a string literal
+        Matcher m = LIMIT_CLAUSE.matcher(s).region(0, end);
+        if (!m.find())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1)
+                    + " is too large");
+        }
+        return s.substring(0, m.start()) + s.substring(m.end());
+    }
+
+    /**
+     * @return the index of the ';' ending the first statement in s, the
+     *         length of s if it has none, or -1 if s ends inside quotes
+     */
+    private static int statementEnd(String s) {
+        char quote = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                // A doubled quote toggles twice, so it stays quoted
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';') {
+                return i;
+            }
+        }
+        return quote == 0 ? s.length() : -1;
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -280,6 +330,8 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit != LogicalPlan.NO_LIMIT)
+            lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -344,6 +396,9 @@ public class Parser {
         DbIterator newTups;
 
         if (s.getValues() != null) {
+            if (limit != LogicalPlan.NO_LIMIT)
+                throw new simpledb.ParsingException(
+                        "LIMIT is not supported in INSERT ... VALUES statements.");
             @SuppressWarnings("unchecked")
             Vector<ZExp> values = (Vector<ZExp>) s.getValues();
             if (td.numFields() != values.size()) {
@@ -388,6 +443,8 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            if (limit != LogicalPlan.NO_LIMIT)
+                lp.setLimit(limit);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -398,6 +455,9 @@ public class Parser {
     public Query handleDeleteStatement(ZDelete s, TransactionId tid)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        if (limit != LogicalPlan.NO_LIMIT)
+            throw new simpledb.ParsingException(
+                    "LIMIT is not supported in DELETE statements.");
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); // will fall
@@ -431,6 +491,9 @@ public class Parser {
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        if (limit != LogicalPlan.NO_LIMIT)
+            throw new simpledb.ParsingException(
+                    "LIMIT is not supported in transaction statements.");
         if (s.getStmtType().equals("COMMIT")) {
             if (curtrans == null)
                 throw new simpledb.ParsingException(
@@ -466,12 +529,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit != LogicalPlan.NO_LIMIT)
+                    lp.setLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -504,7 +569,13 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                bytes.write(buf, 0, n);
+            String sql = stripLimit(bytes.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -581,7 +652,7 @@ public class Parser {
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
-            "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
+            "group by", "limit", "max(", "min(", "avg(", "count", "rollback", "commit",
             "insert", "delete", "values", "into" };
 
     public static void main(String argv[]) throws IOException {
@@ -0,0 +1,30 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxFile is a HeapFile whose pages store their tuples column by column,
+ * in the PAX layout described in {@link PaxPage}. Everything but the
+ * layout of a page's slots is the same as for a HeapFile, including the
+ * free-space map and the page header, so scans, inserts and deletes work
+ * the same way. Files can be written with {@link HeapFileEncoder#convertPax}.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
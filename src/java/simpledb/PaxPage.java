@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A page of a PaxFile. It has the same header and slots as a HeapPage,
+ * but stores its fields column by column: the values of each column for
+ * all the slots of the page sit next to each other in a minipage, in
+ * column order after the header. The field of column j of slot i is at
+ * <p>
+ *      header size + no. tuple slots * (width of columns before j) + i * (width of column j)
+ * <p>
+ * Tuples are decoded one field at a time, as for a HeapPage, so an
+ * operator that reads two columns of a wide table only touches the two
+ * minipages of those columns.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk. The
+     * array must not be changed afterwards.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data, true);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, beforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Lays out the bytes of a HeapPage holding tuples of the given type as
+     * the bytes of a PaxPage with the same tuples in the same slots.
+     */
+    public static byte[] fromHeapPageData(byte[] rows, TupleDesc td) {
+        int numSlots = numSlots(td);
+        int header = headerSize(numSlots);
+        int tupleSize = td.getSize();
+        byte[] data = new byte[rows.length];
+        System.arraycopy(rows, 0, data, 0, header);
+        int column = header;
+        int field = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            int width = td.getFieldType(j).getLen();
+            for (int i = 0; i < numSlots; i++) {
+                System.arraycopy(rows, header + i * tupleSize + field, data, column + i * width, width);
+            }
+            column += numSlots * width;
+            field += width;
+        }
+        return data;
+    }
+}
@@ -9,11 +9,17 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String BITMAP_SCAN = "bitmap scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "o(top)";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -26,14 +32,15 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin
+                || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
         }
         else
         {
-            if (children!=null && children[0]!=null)
+            if (children!=null && children.length>0 && children[0]!=null)
                 return this.calculateQueryPlanTreeDepth(children[0])+2;
         }
         return 2;
@@ -65,17 +72,50 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof IndexScan
+                || queryPlan instanceof BitmapHeapScan) {
+            String tableName;
+            String alias;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof BitmapHeapScan) {
+                BitmapHeapScan s = (BitmapHeapScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (queryPlan instanceof SeqScan) {
+                thisNode.text = String
+                        .format("%1$s(%2$s)", SCAN, tableName + alias);
+            } else if (queryPlan instanceof BitmapHeapScan) {
+                BitmapHeapScan s = (BitmapHeapScan) queryPlan;
+                StringBuilder preds = new StringBuilder();
+                for (Predicate[] clause : s.getClauses()) {
+                    for (int i = 0; i < clause.length; i++) {
+                        preds.append(i == 0 ? "," : "|");
+                        preds.append(s.getTupleDesc().getFieldName(clause[i].getField())
+                                + clause[i].getOp() + clause[i].getOperand());
+                    }
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", BITMAP_SCAN,
+                        tableName + alias + preds, s.getEstimatedCardinality());
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                Predicate p = s.getPredicate();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", INDEX_SCAN,
+                        tableName + alias + "," + s.getTupleDesc().getFieldName(p.getField())
+                        + p.getOp() + p.getOperand(), s.getEstimatedCardinality());
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -136,18 +176,25 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof SortMergeJoin) {
+                JoinPredicate jp;
+                String label;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    label = HASH_JOIN;
+                } else {
+                    jp = ((SortMergeJoin) plan).getJoinPredicate();
+                    label = MERGE_JOIN;
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", label, field1
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (label.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = label.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -156,7 +203,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - label.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -185,6 +232,43 @@ public class QueryPlanVisualizer {
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
 
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - alignTxt.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof HashAggregate) {
+                HashAggregate a = (HashAggregate) plan;
+                TupleDesc td = a.getTupleDesc();
+                int groups = a.groupFields().length;
+                String aggs = "";
+                for (int i = groups; i < td.numFields(); i++)
+                    aggs += td.getFieldName(i).substring("Aggregate ".length()) + ",";
+                aggs = aggs.substring(0, aggs.length() - 1);
+                String alignTxt;
+                if (groups == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d", aggs,
+                            a.getEstimatedCardinality());
+                    alignTxt = td.getFieldName(0);
+                } else {
+                    String fields = "";
+                    for (int i = 0; i < groups; i++)
+                        fields += td.getFieldName(i) + ",";
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, fields.substring(0, fields.length() - 1),
+                            aggs, a.getEstimatedCardinality());
+                    alignTxt = GROUPBY;
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (alignTxt.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = alignTxt.length() / 2;
+
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
                         currentDepth + 2 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -217,6 +301,26 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof IndexNestedLoopJoin) {
+                IndexNestedLoopJoin j = (IndexNestedLoopJoin) plan;
+                JoinPredicate jp = j.getJoinPredicate();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", INDEX_JOIN,
+                        j.getJoinField1Name() + jp.getOperator()
+                        + j.getJoinField2Name(), j.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (INDEX_JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = INDEX_JOIN.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - INDEX_JOIN.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
                 thisNode.text = String.format(
@@ -238,6 +342,34 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String op;
+                if (plan instanceof TopN) {
+                    TopN t = (TopN) plan;
+                    op = TOPN;
+                    thisNode.text = String.format("%1$s(%2$s,%3$d),card:%4$d",
+                            op, t.getOrderFieldName(), t.getLimit(),
+                            t.getEstimatedCardinality());
+                } else {
+                    Limit l = (Limit) plan;
+                    op = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            op, l.getLimit(), l.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (op.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = op.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - op.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads the pages a sequential scan is about to need into the BufferPool
+ * on background threads, so that reading one page overlaps with the scan
+ * processing the tuples of the pages before it.
+ * <p>
+ * The number of pages read ahead adapts to the scan: it is the time one
+ * page takes to read divided by the time the scan spends on one page,
+ * both measured as the scan runs, so a fast scan over a slow disk reads
+ * further ahead than a slow scan over cached pages. It never exceeds
+ * {@link #getMaxPages}, nor what the scan's ring or the pool can hold
+ * without evicting pages that were read ahead but not used yet.
+ */
+public class ReadAhead {
+
+    /** Default largest number of pages read ahead of a scan */
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    /** Number of background threads shared by all scans */
+    public static final int THREADS = 4;
+
+    private static int maxPages = DEFAULT_MAX_PAGES;
+    private static ExecutorService executor;
+
+    private final int m_tableId;
+    private final int m_numPages;
+    // Pages the scan reads, null if it reads all of them
+    private final BitSet m_pages;
+    private final ScanRing m_ring;
+    private final int m_limit;
+
+    // Next page to hand to the executor
+    private int m_next;
+    private final ArrayDeque<Future<?>> m_pending;
+
+    // Moving averages, in nanoseconds, of reading a page from disk and of
+    // the scan processing a page
+    private volatile long m_readNanos;
+    private long m_processNanos;
+    private long m_lastReceived;
+
+    /**
+     * @param tableId the table being scanned
+     * @param numPages the number of pages in the table
+     * @param pages the pages the scan reads, or null if it reads them all
+     * @param ring the scan's ring, or null if it reads through the pool
+     */
+    ReadAhead(int tableId, int numPages, BitSet pages, ScanRing ring) {
+        m_tableId = tableId;
+        m_numPages = numPages;
+        m_pages = pages;
+        m_ring = ring;
+        // Half the ring, so pages read ahead are not recycled before use
+        int room = ring != null ? ring.capacity() / 2
+                : Database.getBufferPool().getNumPages() / 4;
+        m_limit = Math.min(maxPages, room);
+        m_next = 1;
+        m_pending = new ArrayDeque<Future<?>>();
+        m_readNanos = 0;
+        m_processNanos = 0;
+        m_lastReceived = 0;
+    }
+
+    /**
+     * Creates a read-ahead for a scan, or returns null if read-ahead is
+     * switched off or there is no room for it.
+     *
+     * @param pages the pages the scan reads in order, or null if it reads
+     *              them all
+     */
+    static ReadAhead forScan(int tableId, int numPages, BitSet pages, ScanRing ring) {
+        ReadAhead ra = new ReadAhead(tableId, numPages, pages, ring);
+        int reads = pages == null ? numPages : pages.cardinality();
+        return ra.m_limit > 0 && reads > 1 ? ra : null;
+    }
+
+    /** @return the first page the scan reads from pageNo on, or m_numPages */
+    private int nextPage(int pageNo) {
+        if (m_pages == null || pageNo >= m_numPages) {
+            return pageNo;
+        }
+        int next = m_pages.nextSetBit(pageNo);
+        return next < 0 ? m_numPages : next;
+    }
+
+    /** @return the largest number of pages read ahead of a scan */
+    public static int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * Sets the largest number of pages read ahead of a scan. Scans opened
+     * afterwards use the new value; 0 switches read-ahead off.
+     */
+    public static void setMaxPages(int pages) {
+        maxPages = Math.max(0, pages);
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /** @return how many pages ahead of the scan are read right now */
+    int depth() {
+        if (m_readNanos == 0 || m_processNanos == 0) {
+            return Math.min(2, m_limit);
+        }
+        long pages = (m_readNanos + m_processNanos - 1) / m_processNanos;
+        return (int) Math.max(1, Math.min(m_limit, pages));
+    }
+
+    /**
+     * Called by the scan just before it asks the pool for page pageNo.
+     * Starts reading the pages after it that are not being read yet.
+     */
+    void pageRequested(int pageNo) {
+        long now = System.nanoTime();
+        if (m_lastReceived != 0) {
+            m_processNanos = average(m_processNanos, now - m_lastReceived);
+        }
+        while (!m_pending.isEmpty() && m_pending.peekFirst().isDone()) {
+            m_pending.pollFirst();
+        }
+        if (m_next <= pageNo) {
+            m_next = pageNo + 1;
+        }
+        int last = pageNo;
+        for (int i = depth(); i > 0 && nextPage(last + 1) < m_numPages; i--) {
+            last = nextPage(last + 1);
+        }
+        for (m_next = nextPage(m_next); m_next <= last; m_next = nextPage(m_next + 1)) {
+            final PageId pid = new HeapPageId(m_tableId, m_next);
+            m_pending.addLast(executor().submit(new Runnable() {
+                public void run() {
+                    read(pid);
+                }
+            }));
+        }
+    }
+
+    /** Called by the scan once the page it asked for has been returned */
+    void pageReceived() {
+        m_lastReceived = System.nanoTime();
+    }
+
+    private void read(PageId pid) {
+        long start = System.nanoTime();
+        try {
+            if (Database.getBufferPool().prefetchPage(pid, m_ring)) {
+                m_readNanos = average(m_readNanos, System.nanoTime() - start);
+            }
+        }
+        catch (Exception e) {
+            // The scan reads the page itself and sees the error there
+        }
+    }
+
+    /**
+     * Stops reading ahead and waits for reads already running, so that
+     * none of them touches the scan's ring after it has been released.
+     */
+    void cancel() {
+        for (Future<?> f : m_pending) {
+            f.cancel(false);
+        }
+        for (Future<?> f : m_pending) {
+            if (f.isCancelled()) {
+                continue;
+            }
+            try {
+                f.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (ExecutionException e) {
+                // read() doesn't throw
+            }
+        }
+        m_pending.clear();
+    }
+
+    private static long average(long avg, long sample) {
+        return avg == 0 ? sample : (avg * 7 + sample) / 8;
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the {@link BufferPool}
+ * should give up when it needs a free frame.
+ * <p>
+ * The BufferPool tells the policy about every page that becomes resident
+ * ({@link #admit}), every hit on a resident page ({@link #access}) and every
+ * page that leaves the pool for a reason other than eviction
+ * ({@link #remove}). When the pool is full it asks for a victim through
+ * {@link #evict}, and hands back through {@link #reinstate} a victim it
+ * turned out it couldn't evict.
+ * <p>
+ * Implementations are not thread safe; the BufferPool serializes calls.
+ *
+ * @see LRUPolicy
+ * @see ClockPolicy
+ * @see TwoQPolicy
+ * @see ARCPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that a page was read into the buffer pool.
+     *
+     * @param pid the page that is now resident
+     */
+    public void admit(PageId pid);
+
+    /**
+     * Record a hit on a page that is already resident.
+     *
+     * @param pid the page that was requested
+     */
+    public void access(PageId pid);
+
+    /**
+     * Choose a resident page to evict and forget it as resident.
+     *
+     * @param incoming the page whose miss caused the eviction, or null if
+     *            unknown. Adaptive policies use this to learn from misses
+     *            on recently evicted pages.
+     * @return the page to evict, or null if no page is resident
+     */
+    public PageId evict(PageId incoming);
+
+    /**
+     * Put back a page that {@link #evict} chose but the BufferPool could not
+     * evict (e.g. it was pinned). The page stays resident in the list it was
+     * evicted from; unlike {@link #admit} this is not a miss on a page that
+     * was evicted recently. A page the policy doesn't know is admitted as if
+     * seen for the first time.
+     *
+     * @param pid the page that is still resident
+     */
+    public void reinstate(PageId pid);
+
+    /**
+     * Record that a page left the buffer pool without being chosen by
+     * {@link #evict} (e.g. it was discarded).
+     *
+     * @param pid the page that is no longer resident
+     */
+    public void remove(PageId pid);
+}
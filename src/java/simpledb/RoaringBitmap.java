@@ -0,0 +1,493 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints, in the style of a Roaring bitmap.
+ * Ints are grouped by their high 16 bits into chunks of 65536, and each
+ * chunk that holds any of them has a container: a sorted array of their
+ * low 16 bits while it holds at most {@link #ARRAY_MAX}, and a bitmap of
+ * 65536 bits once it holds more. A sparse set costs two bytes an int, a
+ * dense one a bit an int, and AND and OR work a container at a time.
+ */
+public class RoaringBitmap {
+
+    /** The most ints an array container holds before it becomes a bitmap */
+    static final int ARRAY_MAX = 4096;
+
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // The high 16 bits of each container, in order, each container, either
+    // a char[] whose first m_cards[i] entries are sorted low bits or a
+    // long[BITMAP_WORDS], and the number of ints in each container
+    private char[] m_keys = new char[4];
+    private Object[] m_containers = new Object[4];
+    private int[] m_cards = new int[4];
+    private int m_size;
+
+    /** Creates an empty bitmap */
+    public RoaringBitmap() {
+    }
+
+    /** @return a copy of this bitmap, which can be changed independently */
+    public RoaringBitmap copy() {
+        RoaringBitmap b = new RoaringBitmap();
+        b.m_keys = Arrays.copyOf(m_keys, Math.max(4, m_size));
+        b.m_containers = new Object[b.m_keys.length];
+        b.m_cards = Arrays.copyOf(m_cards, b.m_keys.length);
+        for (int i = 0; i < m_size; i++) {
+            b.m_containers[i] = copyContainer(m_containers[i], m_cards[i]);
+        }
+        b.m_size = m_size;
+        return b;
+    }
+
+    private static Object copyContainer(Object c, int card) {
+        if (c instanceof long[]) {
+            return ((long[]) c).clone();
+        }
+        return Arrays.copyOf((char[]) c, card);
+    }
+
+    /** @return the position of the container with the given key, or -(insertion point) - 1 */
+    private int find(char key) {
+        int lo = 0;
+        int hi = m_size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (m_keys[mid] < key) {
+                lo = mid + 1;
+            } else if (m_keys[mid] > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private void insertContainer(int pos, char key, Object container, int card) {
+        if (m_size == m_keys.length) {
+            m_keys = Arrays.copyOf(m_keys, m_size * 2);
+            m_containers = Arrays.copyOf(m_containers, m_size * 2);
+            m_cards = Arrays.copyOf(m_cards, m_size * 2);
+        }
+        System.arraycopy(m_keys, pos, m_keys, pos + 1, m_size - pos);
+        System.arraycopy(m_containers, pos, m_containers, pos + 1, m_size - pos);
+        System.arraycopy(m_cards, pos, m_cards, pos + 1, m_size - pos);
+        m_keys[pos] = key;
+        m_containers[pos] = container;
+        m_cards[pos] = card;
+        m_size++;
+    }
+
+    private void removeContainer(int pos) {
+        System.arraycopy(m_keys, pos + 1, m_keys, pos, m_size - pos - 1);
+        System.arraycopy(m_containers, pos + 1, m_containers, pos, m_size - pos - 1);
+        System.arraycopy(m_cards, pos + 1, m_cards, pos, m_size - pos - 1);
+        m_size--;
+        m_containers[m_size] = null;
+    }
+
+    /** Appends a container with a key larger than any so far, unless it is empty */
+    private void append(char key, Object container, int card) {
+        if (card > 0) {
+            insertContainer(m_size, key, container, card);
+        }
+    }
+
+    /** @return the position of low among the first card entries of an array, as Arrays.binarySearch */
+    private static int search(char[] array, int card, char low) {
+        return Arrays.binarySearch(array, 0, card, low);
+    }
+
+    /** Adds an int to the set */
+    public void add(int x) {
+        char key = (char) (x >>> 16);
+        char low = (char) x;
+        int i = find(key);
+        if (i < 0) {
+            insertContainer(-i - 1, key, new char[] { low }, 1);
+            return;
+        }
+        Object c = m_containers[i];
+        if (c instanceof long[]) {
+            long[] bits = (long[]) c;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) == 0) {
+                bits[low >>> 6] |= mask;
+                m_cards[i]++;
+            }
+            return;
+        }
+        char[] array = (char[]) c;
+        int card = m_cards[i];
+        int j = search(array, card, low);
+        if (j >= 0) {
+            return;
+        }
+        j = -j - 1;
+        if (card == ARRAY_MAX) {
+            long[] bits = toBitmap(array, card);
+            bits[low >>> 6] |= 1L << low;
+            m_containers[i] = bits;
+        } else {
+            if (card == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, card * 2));
+                m_containers[i] = array;
+            }
+            System.arraycopy(array, j, array, j + 1, card - j);
+            array[j] = low;
+        }
+        m_cards[i]++;
+    }
+
+    /** Removes an int from the set, if it is there */
+    public void remove(int x) {
+        char key = (char) (x >>> 16);
+        char low = (char) x;
+        int i = find(key);
+        if (i < 0) {
+            return;
+        }
+        Object c = m_containers[i];
+        if (c instanceof long[]) {
+            long[] bits = (long[]) c;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) != 0) {
+                bits[low >>> 6] &= ~mask;
+                m_cards[i]--;
+                shrink(i);
+            }
+            return;
+        }
+        char[] array = (char[]) c;
+        int j = search(array, m_cards[i], low);
+        if (j >= 0) {
+            System.arraycopy(array, j + 1, array, j, m_cards[i] - j - 1);
+            m_cards[i]--;
+            if (m_cards[i] == 0) {
+                removeContainer(i);
+            }
+        }
+    }
+
+    /** Turns a bitmap container that has become sparse back into an array */
+    private void shrink(int i) {
+        if (m_cards[i] <= ARRAY_MAX && m_containers[i] instanceof long[]) {
+            m_containers[i] = toArray((long[]) m_containers[i], m_cards[i]);
+        }
+        if (m_cards[i] == 0) {
+            removeContainer(i);
+        }
+    }
+
+    /** Removes the ints in [from, to) from the set */
+    public void removeRange(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int i = find((char) (from >>> 16));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        while (i < m_size) {
+            int base = m_keys[i] << 16;
+            if (base >= to) {
+                break;
+            }
+            int lo = Math.max(from - base, 0);
+            int hi = Math.min(to - base, 1 << 16);
+            Object c = m_containers[i];
+            if (c instanceof long[]) {
+                long[] bits = (long[]) c;
+                for (int b = lo; b < hi; b++) {
+                    bits[b >>> 6] &= ~(1L << b);
+                }
+                m_cards[i] = cardinality(bits);
+            } else {
+                char[] array = (char[]) c;
+                int start = search(array, m_cards[i], (char) lo);
+                start = start < 0 ? -start - 1 : start;
+                int end = hi == 1 << 16 ? m_cards[i] : search(array, m_cards[i], (char) hi);
+                end = end < 0 ? -end - 1 : end;
+                System.arraycopy(array, end, array, start, m_cards[i] - end);
+                m_cards[i] -= end - start;
+            }
+            int size = m_size;
+            shrink(i);
+            if (m_size == size) {
+                i++;
+            }
+        }
+    }
+
+    /** @return true if the set holds an int */
+    public boolean contains(int x) {
+        int i = find((char) (x >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) x;
+        Object c = m_containers[i];
+        if (c instanceof long[]) {
+            return (((long[]) c)[low >>> 6] & (1L << low)) != 0;
+        }
+        return search((char[]) c, m_cards[i], low) >= 0;
+    }
+
+    /** @return the number of ints in the set */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < m_size; i++) {
+            n += m_cards[i];
+        }
+        return n;
+    }
+
+    /** @return true if the set holds no ints */
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * @return the smallest int in the set that is at least from, or -1 if
+     *         there is none
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int i = find((char) (from >>> 16));
+        int low = from & 0xFFFF;
+        if (i < 0) {
+            i = -i - 1;
+            low = 0;
+        }
+        for (; i < m_size; i++, low = 0) {
+            int base = m_keys[i] << 16;
+            Object c = m_containers[i];
+            if (c instanceof long[]) {
+                long[] bits = (long[]) c;
+                int w = low >>> 6;
+                long word = bits[w] & (-1L << low);
+                while (true) {
+                    if (word != 0) {
+                        return base + (w << 6) + Long.numberOfTrailingZeros(word);
+                    }
+                    if (++w == BITMAP_WORDS) {
+                        break;
+                    }
+                    word = bits[w];
+                }
+            } else {
+                char[] array = (char[]) c;
+                int j = search(array, m_cards[i], (char) low);
+                j = j < 0 ? -j - 1 : j;
+                if (j < m_cards[i]) {
+                    return base + array[j];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** @return the ints that are in both a and b */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.m_size && j < b.m_size) {
+            if (a.m_keys[i] < b.m_keys[j]) {
+                i++;
+            } else if (a.m_keys[i] > b.m_keys[j]) {
+                j++;
+            } else {
+                Object ca = a.m_containers[i];
+                Object cb = b.m_containers[j];
+                if (ca instanceof long[] && cb instanceof long[]) {
+                    long[] bits = new long[BITMAP_WORDS];
+                    long[] ba = (long[]) ca;
+                    long[] bb = (long[]) cb;
+                    for (int w = 0; w < BITMAP_WORDS; w++) {
+                        bits[w] = ba[w] & bb[w];
+                    }
+                    int card = cardinality(bits);
+                    r.append(a.m_keys[i], card <= ARRAY_MAX ? toArray(bits, card) : bits, card);
+                } else if (ca instanceof long[] || cb instanceof long[]) {
+                    // keep the entries of the array that the bitmap has
+                    char[] array = (char[]) (ca instanceof long[] ? cb : ca);
+                    int card = ca instanceof long[] ? b.m_cards[j] : a.m_cards[i];
+                    long[] bits = (long[]) (ca instanceof long[] ? ca : cb);
+                    char[] out = new char[card];
+                    int n = 0;
+                    for (int k = 0; k < card; k++) {
+                        if ((bits[array[k] >>> 6] & (1L << array[k])) != 0) {
+                            out[n++] = array[k];
+                        }
+                    }
+                    r.append(a.m_keys[i], out, n);
+                } else {
+                    char[] aa = (char[]) ca;
+                    char[] ab = (char[]) cb;
+                    int na = a.m_cards[i];
+                    int nb = b.m_cards[j];
+                    char[] out = new char[Math.min(na, nb)];
+                    int n = 0;
+                    for (int x = 0, y = 0; x < na && y < nb;) {
+                        if (aa[x] < ab[y]) {
+                            x++;
+                        } else if (aa[x] > ab[y]) {
+                            y++;
+                        } else {
+                            out[n++] = aa[x];
+                            x++;
+                            y++;
+                        }
+                    }
+                    r.append(a.m_keys[i], out, n);
+                }
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return the ints that are in a or in b */
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.m_size || j < b.m_size) {
+            if (j == b.m_size || (i < a.m_size && a.m_keys[i] < b.m_keys[j])) {
+                r.append(a.m_keys[i], copyContainer(a.m_containers[i], a.m_cards[i]), a.m_cards[i]);
+                i++;
+            } else if (i == a.m_size || a.m_keys[i] > b.m_keys[j]) {
+                r.append(b.m_keys[j], copyContainer(b.m_containers[j], b.m_cards[j]), b.m_cards[j]);
+                j++;
+            } else {
+                Object ca = a.m_containers[i];
+                Object cb = b.m_containers[j];
+                int na = a.m_cards[i];
+                int nb = b.m_cards[j];
+                if (!(ca instanceof long[]) && !(cb instanceof long[]) && na + nb <= ARRAY_MAX) {
+                    char[] aa = (char[]) ca;
+                    char[] ab = (char[]) cb;
+                    char[] out = new char[na + nb];
+                    int n = 0;
+                    int x = 0;
+                    int y = 0;
+                    while (x < na || y < nb) {
+                        if (y == nb || (x < na && aa[x] < ab[y])) {
+                            out[n++] = aa[x++];
+                        } else if (x == na || aa[x] > ab[y]) {
+                            out[n++] = ab[y++];
+                        } else {
+                            out[n++] = aa[x++];
+                            y++;
+                        }
+                    }
+                    r.append(a.m_keys[i], out, n);
+                } else {
+                    long[] bits = ca instanceof long[] ? ((long[]) ca).clone() : toBitmap((char[]) ca, na);
+                    if (cb instanceof long[]) {
+                        long[] bb = (long[]) cb;
+                        for (int w = 0; w < BITMAP_WORDS; w++) {
+                            bits[w] |= bb[w];
+                        }
+                    } else {
+                        char[] ab = (char[]) cb;
+                        for (int k = 0; k < nb; k++) {
+                            bits[ab[k] >>> 6] |= 1L << ab[k];
+                        }
+                    }
+                    int card = cardinality(bits);
+                    r.append(a.m_keys[i], card <= ARRAY_MAX ? toArray(bits, card) : bits, card);
+                }
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    private static long[] toBitmap(char[] array, int card) {
+        long[] bits = new long[BITMAP_WORDS];
+        for (int k = 0; k < card; k++) {
+            bits[array[k] >>> 6] |= 1L << array[k];
+        }
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int card) {
+        char[] array = new char[card];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                array[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+
+    private static int cardinality(long[] bits) {
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            n += Long.bitCount(bits[w]);
+        }
+        return n;
+    }
+
+    /** Writes the set in a form {@link #readFrom} reads back */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(m_size);
+        for (int i = 0; i < m_size; i++) {
+            out.writeChar(m_keys[i]);
+            out.writeInt(m_cards[i]);
+            Object c = m_containers[i];
+            if (c instanceof long[]) {
+                for (long word : (long[]) c) {
+                    out.writeLong(word);
+                }
+            } else {
+                char[] array = (char[]) c;
+                for (int k = 0; k < m_cards[i]; k++) {
+                    out.writeChar(array[k]);
+                }
+            }
+        }
+    }
+
+    /** Reads a set written by {@link #writeTo} */
+    public static RoaringBitmap readFrom(DataInput in) throws IOException {
+        RoaringBitmap b = new RoaringBitmap();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            char key = in.readChar();
+            int card = in.readInt();
+            if (card <= 0 || card > 1 << 16) {
+                throw new IOException("container of " + card + " ints");
+            }
+            Object c;
+            if (card > ARRAY_MAX) {
+                long[] bits = new long[BITMAP_WORDS];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    bits[w] = in.readLong();
+                }
+                c = bits;
+            } else {
+                char[] array = new char[card];
+                for (int k = 0; k < card; k++) {
+                    array[k] = in.readChar();
+                }
+                c = array;
+            }
+            b.append(key, c, card);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A ScanRing is a small, private set of buffer pool frames used by one large
+ * sequential scan. Pages the scan misses on are read into the ring instead
+ * of the shared pool, and once the ring is full each new page reuses the
+ * frame of the oldest one. A scan over a table much larger than the buffer
+ * pool therefore displaces at most {@link #capacity} shared pages.
+ * <p>
+ * Rings are created by {@link BufferPool#newScanRing} and passed to
+ * {@link BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)}.
+ * The scan must hand its ring back with {@link BufferPool#releaseScanRing}
+ * when it finishes.
+ */
+public class ScanRing {
+
+    private final int m_capacity;
+    // Pages read into this ring, oldest first
+    private final ArrayDeque<PageId> m_frames;
+
+    ScanRing(int capacity) {
+        m_capacity = capacity;
+        m_frames = new ArrayDeque<PageId>(capacity);
+    }
+
+    /** @return the maximum number of frames this ring uses */
+    public int capacity() {
+        return m_capacity;
+    }
+
+    boolean isFull() {
+        return m_frames.size() >= m_capacity;
+    }
+
+    void add(PageId pid) {
+        m_frames.addLast(pid);
+    }
+
+    /** Removes and returns the oldest page read into this ring */
+    PageId pollOldest() {
+        return m_frames.pollFirst();
+    }
+}
@@ -18,6 +18,7 @@ public class SeqScan implements DbIterator {
 
     private DbFile dbfile;      // DbFile which contains table contents
     private DbFileIterator it;  // Our iterator to iterator through tuples, initialize it to null
+    private ArrayList<Predicate> preds = new ArrayList<Predicate>(); // pushed down by the planner
 
 
     /**
@@ -54,6 +55,16 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableid);
     }
     
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -79,6 +90,20 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        preds.clear();
+    }
+
+    /**
+     * Pushes a predicate down to the scan, which uses it to skip pages of
+     * a HeapFile on which no tuple can satisfy it. The scan may still
+     * return tuples that don't satisfy it, so they have to be filtered
+     * above the scan as before.
+     *
+     * @param p a predicate on the fields of this scan's tuples
+     * @see ZoneMap
+     */
+    public void pushDown(Predicate p) {
+        preds.add(p);
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -87,7 +112,11 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = dbfile.iterator(tid);
+        if (!preds.isEmpty() && dbfile instanceof HeapFile) {
+            it = ((HeapFile) dbfile).iterator(tid, preds);
+        } else {
+            it = dbfile.iterator(tid);
+        }
         it.open();
     }
 
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * SlottedFile is a DbFile of SlottedPages, which store each tuple in only
+ * as many bytes as its values need. It suits tables of short strings,
+ * which take up Type.STRING_LEN bytes each in a HeapFile: more tuples fit
+ * on a page, so there are fewer pages to scan and cache. Files can be
+ * written with {@link HeapFileEncoder#convertSlotted}.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile implements PagedFile {
+
+    private final TupleDesc m_tupleDesc;
+    private final File m_file;
+    private FileChannel m_file_channel;
+
+    // No page below this one had room for a tuple of the smallest size
+    private volatile int m_insertHint;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        m_file = f;
+        m_tupleDesc = td;
+        m_insertHint = 0;
+        try {
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(f, "rw");
+            } catch (FileNotFoundException e) {
+                raf = new RandomAccessFile(f, "r");
+            }
+            m_file_channel = raf.getChannel();
+        } catch (IOException e) {
+            System.err.println("Error reading file channel");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return m_file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return m_file.getAbsolutePath().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return m_tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        long offset = BufferPool.PAGE_SIZE * (long) pid.pageNumber();
+        try {
+            if (offset + BufferPool.PAGE_SIZE > m_file_channel.size()) {
+                throw new IllegalArgumentException("Page does not exist, error!");
+            }
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            while (buf.hasRemaining()) {
+                if (m_file_channel.read(buf, offset + buf.position()) < 0) {
+                    throw new IllegalArgumentException("Page does not exist, error!");
+                }
+            }
+            return new SlottedPage((HeapPageId) pid, buf.array(), m_tupleDesc);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page does not exist, error!");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long offset = BufferPool.PAGE_SIZE * (long) page.getId().pageNumber();
+        while (buf.hasRemaining()) {
+            offset += m_file_channel.write(buf, offset);
+        }
+    }
+
+    // see PagedFile.java for javadocs
+    public int numPages() {
+        return (int) (m_file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /** @return the smallest number of bytes a tuple of this file takes up */
+    private int minTupleSize() {
+        int size = SlottedPage.SLOT_SIZE;
+        for (int j = 0; j < m_tupleDesc.numFields(); j++) {
+            size += m_tupleDesc.getFieldType(j) == Type.STRING_TYPE ? 2 : m_tupleDesc.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> modified = new ArrayList<Page>();
+        int numPages = numPages();
+        int pnum;
+        for (pnum = m_insertHint; pnum < numPages; pnum++) {
+            PageId pid = new HeapPageId(getId(), pnum);
+            SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
+                page.insertTuple(t);
+                modified.add(page);
+                return modified;
+            }
+            // pages too full for any tuple are skipped from now on
+            if (pnum == m_insertHint && page.getFreeBytes() < minTupleSize()) {
+                m_insertHint = pnum + 1;
+            }
+        }
+
+        // No page has room, append an empty one
+        ByteBuffer empty = ByteBuffer.wrap(SlottedPage.createEmptyPageData());
+        long offset = BufferPool.PAGE_SIZE * (long) pnum;
+        while (empty.hasRemaining()) {
+            offset += m_file_channel.write(empty, offset);
+        }
+        PageId pid = new HeapPageId(getId(), pnum);
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        modified.add(page);
+        return modified;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        ArrayList<Page> modified = new ArrayList<Page>();
+        PageId pid = t.getRecordId().getPageId();
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        modified.add(page);
+        // the freed space can take new tuples
+        m_insertHint = Math.min(m_insertHint, pid.pageNumber());
+        return modified;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HeapFileIter(tid, this);
+    }
+}
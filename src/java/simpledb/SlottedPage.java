@@ -0,0 +1,440 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * A page of a SlottedFile. Unlike a HeapPage, whose slots are all as wide
+ * as the widest possible tuple, a slotted page stores each tuple in as many
+ * bytes as it needs, so strings only take up their actual length.
+ * <p>
+ * The page starts with a 4 byte header: the number of slots in bytes 0-1,
+ * and in bytes 2-3 the offset where the tuples start, the end of the free
+ * space. Then comes a slot directory with the offset and length of each
+ * tuple's bytes. All of these are unsigned shorts. Tuples are packed at
+ * the end of the page, growing towards the directory. An empty slot has
+ * offset 0. Ints are stored in 4 bytes and strings as a 2 byte length
+ * followed by their bytes.
+ * <p>
+ * A tuple keeps its slot for as long as it is on the page, so its RecordId
+ * stays valid; deleting it frees its bytes at once, and the page is packed
+ * again when it is written out. Slots freed by deletes are reused by later
+ * inserts. Setting a field of a tuple read from the page changes the tuple
+ * on the page.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes before the slot directory */
+    static final int HEADER_SIZE = 4;
+    /** Bytes of each slot directory entry */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+
+    byte[] oldData;
+    private final Object m_oldDataLock = new Object();
+    // Bytes the page was read from. Never written to.
+    private final byte[] m_data;
+
+    // Slot directory: offset of each tuple in m_data, or -1 for tuples
+    // inserted or changed since the page was read, and its length, 0 if the
+    // slot is empty
+    private int m_numSlots;
+    private int[] m_offsets;
+    private int[] m_lengths;
+    // Tuples decoded or inserted so far
+    private Tuple[] m_tuples;
+    // Bytes the page would take up if it were written now
+    private int m_usedBytes;
+
+    private boolean m_dirty;
+    private TransactionId m_tid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, of
+     * the table the page id names. The array must not be changed afterwards.
+     *
+     * @see #SlottedPage(HeapPageId, byte[], TupleDesc)
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage from a set of bytes of data, holding tuples of
+     * the given type. Only the slot directory is read up front; tuples are
+     * decoded when they are first asked for.
+     *
+     * @throws IOException if the slot directory doesn't fit in the data
+     */
+    SlottedPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        this.pid = id;
+        this.td = td;
+        m_data = data;
+        m_dirty = false;
+        m_tid = null;
+
+        m_numSlots = readShort(data, 0);
+        if (HEADER_SIZE + m_numSlots * SLOT_SIZE > data.length) {
+            throw new IOException("page " + id + " has a bad slot directory");
+        }
+        m_offsets = new int[Math.max(m_numSlots, 8)];
+        m_lengths = new int[m_offsets.length];
+        m_tuples = new Tuple[m_offsets.length];
+        m_usedBytes = HEADER_SIZE + m_numSlots * SLOT_SIZE;
+        for (int i = 0; i < m_numSlots; i++) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            m_offsets[i] = readShort(data, entry);
+            if (m_offsets[i] != 0) {
+                m_lengths[i] = readShort(data, entry + 2);
+                if (m_offsets[i] + m_lengths[i] > data.length) {
+                    throw new IOException("page " + id + " has a bad slot " + i);
+                }
+                m_usedBytes += m_lengths[i];
+            }
+        }
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    /**
+     * @return the number of bytes the given tuple takes up on a page, not
+     *   counting its slot directory entry
+     */
+    static int tupleSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(j).getLen();
+            }
+        }
+        return size;
+    }
+
+    /** Writes the fields of a tuple at the given offset */
+    private static void writeTuple(Tuple t, byte[] data, int offset) {
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(j)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                writeShort(data, offset, len);
+                offset += 2;
+                // like StringField, keeps the low byte of each char
+                for (int i = 0; i < len; i++)
+                    data[offset + i] = (byte) s.charAt(i);
+                offset += len;
+            } else {
+                t.getField(j).serialize(data, offset);
+                offset += td.getFieldType(j).getLen();
+            }
+        }
+    }
+
+    /**
+     * A tuple read from a page. Setting one of its fields changes the tuple
+     * stored in its slot, which is written out from the tuple from then on.
+     */
+    private static class SlotTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SlottedPage m_page;
+        private final int m_slot;
+
+        /** Reads the tuple stored in a slot */
+        SlotTuple(SlottedPage page, int slot) {
+            super(page.td);
+            m_page = page;
+            m_slot = slot;
+            setRecordId(new RecordId(page.pid, slot));
+            TupleDesc td = page.td;
+            byte[] data = page.m_data;
+            int offset = page.m_offsets[slot];
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    int len = readShort(data, offset);
+                    super.setField(j, new StringField(new String(data, offset + 2, len), Type.STRING_LEN));
+                    offset += 2 + len;
+                } else {
+                    super.setField(j, td.getFieldType(j).parse(data, offset));
+                    offset += td.getFieldType(j).getLen();
+                }
+            }
+        }
+
+        /**
+         * @throws IllegalArgumentException if the tuple would no longer fit
+         *             on its page
+         */
+        public void setField(int i, Field f) {
+            Field old = getField(i);
+            super.setField(i, f);
+            if (!m_page.changed(this, m_slot)) {
+                super.setField(i, old);
+                throw new IllegalArgumentException("tuple " + getRecordId()
+                        + " no longer fits on its page");
+            }
+        }
+    }
+
+    /**
+     * Called after a field of a tuple read from this page was set, so it
+     * is written out from the tuple from now on.
+     *
+     * @return false if the tuple no longer fits on the page
+     */
+    private boolean changed(Tuple t, int slot) {
+        if (m_tuples[slot] != t) {
+            // deleted from the page since
+            return true;
+        }
+        int len = tupleSize(t);
+        if (m_usedBytes - m_lengths[slot] + len > BufferPool.getPageSize()) {
+            return false;
+        }
+        m_usedBytes += len - m_lengths[slot];
+        m_offsets[slot] = -1;
+        m_lengths[slot] = len;
+        return true;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(m_oldDataLock)
+            {
+                oldDataRef = oldData != null ? oldData : m_data;
+            }
+            return new SlottedPage(pid, oldDataRef, td);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(m_oldDataLock)
+        {
+        oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the tuples packed together at the end of the page. Empty slots at the
+     * end of the directory are dropped.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        int numSlots = m_numSlots;
+        while (numSlots > 0 && m_lengths[numSlots - 1] == 0)
+            numSlots--;
+        writeShort(data, 0, numSlots);
+
+        int end = data.length;
+        for (int i = 0; i < numSlots; i++) {
+            int len = m_lengths[i];
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            if (len == 0)
+                continue;
+            end -= len;
+            if (m_offsets[i] >= 0)
+                System.arraycopy(m_data, m_offsets[i], data, end, len);
+            else
+                writeTuple(m_tuples[i], data, end);
+            writeShort(data, entry, end);
+            writeShort(data, entry + 2, len);
+        }
+        writeShort(data, 2, end);
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its slot becomes free for
+     * a later insert.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("Delete error: Tuple " + t.toString() + " is not on this page");
+        }
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("Delete error: Tuple slot is already empty");
+        }
+        m_usedBytes -= m_lengths[slot];
+        m_offsets[slot] = 0;
+        m_lengths[slot] = 0;
+        m_tuples[slot] = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first free slot or a new
+     * one at the end of the directory. The tuple is kept as it is until the
+     * page is written, so it must not be changed afterwards.
+     * @throws DbException if the tuple doesn't fit on the page or tupledesc
+     *         is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("Insert error: tupledesc mismatch");
+        }
+        int len = tupleSize(t);
+        int slot = 0;
+        while (slot < m_numSlots && m_lengths[slot] != 0)
+            slot++;
+        int needed = len + (slot == m_numSlots ? SLOT_SIZE : 0);
+        if (m_usedBytes + needed > BufferPool.getPageSize()) {
+            throw new DbException("Insert error: Page is full");
+        }
+        if (slot == m_numSlots) {
+            if (slot == m_offsets.length) {
+                m_offsets = Arrays.copyOf(m_offsets, slot * 2);
+                m_lengths = Arrays.copyOf(m_lengths, slot * 2);
+                m_tuples = Arrays.copyOf(m_tuples, slot * 2);
+            }
+            m_numSlots++;
+        }
+        m_usedBytes += needed;
+        m_offsets[slot] = -1;
+        m_lengths[slot] = len;
+        m_tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * @return true if the tuple fits on this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int slot = 0;
+        while (slot < m_numSlots && m_lengths[slot] != 0)
+            slot++;
+        int needed = tupleSize(t) + (slot == m_numSlots ? SLOT_SIZE : 0);
+        return m_usedBytes + needed <= BufferPool.getPageSize();
+    }
+
+    /**
+     * @return the number of bytes not taken up by tuples or the slot directory
+     */
+    public int getFreeBytes() {
+        return BufferPool.getPageSize() - m_usedBytes;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < m_numSlots; i++) {
+            if (m_lengths[i] != 0)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < m_numSlots && m_lengths[i] != 0;
+    }
+
+    /** @return the tuple in a slot, or null if the slot is empty */
+    Tuple tuple(int slot) {
+        if (!isSlotUsed(slot))
+            return null;
+        Tuple t = m_tuples[slot];
+        if (t == null) {
+            t = new SlotTuple(this, slot);
+            m_tuples[slot] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_dirty = dirty;
+        m_tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (m_dirty)
+            return m_tid;
+        else
+            return null;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order
+     * (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int m_next = find(0);
+
+            private int find(int slot) {
+                while (slot < m_numSlots && m_lengths[slot] == 0)
+                    slot++;
+                return slot;
+            }
+
+            public boolean hasNext() {
+                return m_next < m_numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = tuple(m_next);
+                m_next = find(m_next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("Unimplemented, can't remove");
+            }
+        };
+    }
+}
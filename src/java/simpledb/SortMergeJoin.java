@@ -0,0 +1,347 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs sorted on their join fields. A child that
+ * isn't already sorted ascending on its join field, as an OrderBy, a scan
+ * of a {@link BTreeFile} or a Filter over either is, gets sorted with an
+ * OrderBy when the join opens.
+ * <p>
+ * An equality join merges the two inputs in one pass, holding only the
+ * tuples of child2 with the current key. Any other predicate reads child2
+ * sorted, in blocks of as many tuples as fit in its memory budget, and runs
+ * child1 once per block, joining each tuple of child1 with the range of
+ * the block that satisfies the predicate, found by binary search; only
+ * child2 needs to be sorted then. LIKE on strings isn't an ordered
+ * comparison, so it checks each tuple of the block.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of bytes of child2 tuples to hold in a block */
+    public static final int DEFAULT_BLOCK_BYTES = Join.DEFAULT_BLOCK_BYTES;
+
+    private final JoinPredicate m_pred;
+    private DbIterator m_child1;
+    private DbIterator m_child2;
+    private final TupleDesc m_td;
+    private final boolean m_equality;
+    private final int m_budget;
+
+    // The children, sorted if need be
+    private transient DbIterator m_in1;
+    private transient DbIterator m_in2;
+
+    // Equality joins: the tuple of child1 being joined, the tuples of child2
+    // with its key, the next of them to join with, and the first tuple of
+    // child2 past them
+    private transient Tuple m_outer;
+    private transient ArrayList<Tuple> m_group;
+    private transient Field m_groupKey;
+    private int m_groupPos;
+    private transient Tuple m_innerNext;
+
+    // Other joins: a block of child2 sorted, whether it holds all of child2,
+    // and the ranges of it left to join with m_outer, as {from, to} pairs
+    private transient ArrayList<Tuple> m_inner;
+    private boolean m_whole;
+    private transient int[] m_ranges;
+    private int m_range;
+    private int m_pos;
+
+    /**
+     * @param p
+     *            The predicate to join on; any operator
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_BYTES);
+    }
+
+    /**
+     * Constructor for a join that holds up to budget bytes of child2 tuples
+     * (as stored in a page) in a block, if its predicate isn't an equality.
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int budget) {
+        m_pred = p;
+        m_child1 = child1;
+        m_child2 = child2;
+        m_td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        Predicate.Op op = p.getOperator();
+        m_equality = op == Predicate.Op.EQUALS || (op == Predicate.Op.LIKE
+                && child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE);
+        m_budget = budget;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_pred;
+    }
+
+    public String getJoinField1Name() {
+        return m_child1.getTupleDesc().getFieldName(m_pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return m_child2.getTupleDesc().getFieldName(m_pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /**
+     * @return true if the tuples of an iterator come out in ascending order
+     *         of a field, as far as can be told from the kind of iterator
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (it instanceof IndexScan) {
+            IndexFile index = ((IndexScan) it).getIndex();
+            return index instanceof BTreeFile && index.getKeyField() == field;
+        } else if (it instanceof Filter) {
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        }
+        return false;
+    }
+
+    private static DbIterator sorted(DbIterator it, int field) {
+        return isSortedOn(it, field) ? it : new OrderBy(field, true, it);
+    }
+
+    /** Compares two fields of the same type */
+    static int compare(Field a, Field b) {
+        if (a instanceof IntField) {
+            int x = ((IntField) a).getValue();
+            int y = ((IntField) b).getValue();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_in1 = m_equality ? sorted(m_child1, m_pred.getField1()) : m_child1;
+        m_in2 = sorted(m_child2, m_pred.getField2());
+        m_in1.open();
+        m_in2.open();
+        if (m_equality) {
+            m_group = new ArrayList<Tuple>();
+            startMerge();
+        } else {
+            m_inner = new ArrayList<Tuple>();
+            m_ranges = new int[4];
+            readBlock(true);
+        }
+        super.open();
+    }
+
+    /**
+     * Reads the next block of child2, or the first one, and starts joining
+     * child1 with it.
+     *
+     * @return false if child2 has no more tuples
+     */
+    private boolean readBlock(boolean first) throws DbException, TransactionAbortedException {
+        m_inner.clear();
+        int n = Join.blockTuples(m_child2.getTupleDesc(), m_budget);
+        while (m_inner.size() < n && m_in2.hasNext()) {
+            m_inner.add(m_in2.next());
+        }
+        m_whole = first && m_inner.size() < n;
+        m_range = m_pos = 0;
+        m_outer = null;
+        return !m_inner.isEmpty();
+    }
+
+    private void startMerge() throws DbException, TransactionAbortedException {
+        m_outer = null;
+        m_group.clear();
+        m_groupKey = null;
+        m_groupPos = 0;
+        m_innerNext = m_in2.hasNext() ? m_in2.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        if (m_in1 != null) {
+            m_in1.close();
+            m_in2.close();
+        }
+        m_in1 = m_in2 = null;
+        m_outer = null;
+        m_group = null;
+        m_innerNext = null;
+        m_inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_in1.rewind();
+        if (m_equality) {
+            m_in2.rewind();
+            startMerge();
+        } else if (m_whole) {
+            // child2 fit in one block, which is still here
+            m_range = m_pos = 0;
+            m_outer = null;
+        } else {
+            m_in2.rewind();
+            readBlock(true);
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(m_td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return m_equality ? fetchMerged() : fetchRanged();
+    }
+
+    private Tuple fetchMerged() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (m_outer != null && m_groupPos < m_group.size()) {
+                return merge(m_outer, m_group.get(m_groupPos++));
+            }
+            if (!m_in1.hasNext()) {
+                return null;
+            }
+            m_outer = m_in1.next();
+            Field key = m_outer.getField(m_pred.getField1());
+            m_groupPos = 0;
+            if (m_groupKey != null && compare(key, m_groupKey) == 0) {
+                continue;
+            }
+            // Gather the tuples of child2 with the new key, skipping lesser
+            m_group.clear();
+            m_groupKey = key;
+            while (m_innerNext != null
+                    && compare(m_innerNext.getField(m_pred.getField2()), key) < 0) {
+                m_innerNext = m_in2.hasNext() ? m_in2.next() : null;
+            }
+            if (m_innerNext == null) {
+                // every key of child1 from here on is past the last of child2
+                return null;
+            }
+            while (m_innerNext != null
+                    && compare(m_innerNext.getField(m_pred.getField2()), key) == 0) {
+                m_group.add(m_innerNext);
+                m_innerNext = m_in2.hasNext() ? m_in2.next() : null;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the first tuple of m_inner whose key is not less
+     *         than key, or with strict, greater than key
+     */
+    private int search(Field key, boolean strict) {
+        int lo = 0, hi = m_inner.size();
+        int field = m_pred.getField2();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(m_inner.get(mid).getField(field), key);
+            if (c < 0 || (strict && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Sets m_ranges to the tuples of m_inner that may join with m_outer */
+    private void findRanges() {
+        Field key = m_outer.getField(m_pred.getField1());
+        int n = m_inner.size();
+        int[] r = m_ranges;
+        r[2] = r[3] = 0;
+        // t1.key op t2.key, so t2.key is on the other side of the operator
+        switch (m_pred.getOperator()) {
+        case LESS_THAN:
+            r[0] = search(key, true);
+            r[1] = n;
+            break;
+        case LESS_THAN_OR_EQ:
+            r[0] = search(key, false);
+            r[1] = n;
+            break;
+        case GREATER_THAN:
+            r[0] = 0;
+            r[1] = search(key, false);
+            break;
+        case GREATER_THAN_OR_EQ:
+            r[0] = 0;
+            r[1] = search(key, true);
+            break;
+        case NOT_EQUALS:
+            r[0] = 0;
+            r[1] = search(key, false);
+            r[2] = search(key, true);
+            r[3] = n;
+            break;
+        default: // LIKE on strings
+            r[0] = 0;
+            r[1] = n;
+            break;
+        }
+        m_range = 0;
+        m_pos = r[0];
+    }
+
+    private Tuple fetchRanged() throws TransactionAbortedException, DbException {
+        boolean check = m_pred.getOperator() == Predicate.Op.LIKE;
+        while (true) {
+            if (m_outer != null) {
+                while (m_range < 4) {
+                    if (m_pos < m_ranges[m_range + 1]) {
+                        Tuple t2 = m_inner.get(m_pos++);
+                        if (!check || m_pred.filter(m_outer, t2)) {
+                            return merge(m_outer, t2);
+                        }
+                        continue;
+                    }
+                    m_range += 2;
+                    if (m_range < 4) {
+                        m_pos = m_ranges[m_range];
+                    }
+                }
+            }
+            if (m_inner.isEmpty()) {
+                return null;
+            }
+            if (!m_in1.hasNext()) {
+                if (!readBlock(false)) {
+                    return null;
+                }
+                m_in1.rewind();
+                continue;
+            }
+            m_outer = m_in1.next();
+            findRanges();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child1, m_child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child1 = children[0];
+        m_child2 = children[1];
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A temporary file that operators write tuples to when they run out of
+ * memory, and read back in the order they were written. Tuples are stored
+ * compactly: an int field in 4 bytes, and a string field as a 2-byte length
+ * and the low byte of each char, as {@link StringField#serialize} keeps,
+ * rather than padded out to its full length.
+ * <p>
+ * The file is only removed by {@link #delete}, which its owner must call
+ * once done with it, whether or not the operator failed.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 32768;
+
+    private final TupleDesc m_td;
+    private final File m_file;
+    private DataOutputStream m_out;
+    private int m_size;
+
+    /** Creates an empty spill file for tuples of the given type */
+    public SpillFile(TupleDesc td) throws DbException {
+        m_td = td;
+        try {
+            m_file = File.createTempFile("spill", ".tmp");
+            m_out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(m_file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("can't create a spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /** @return the number of tuples written */
+    public int size() {
+        return m_size;
+    }
+
+    /** Appends a tuple, which must not be added once the file is read */
+    public void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < m_td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (f instanceof IntField) {
+                    m_out.writeInt(((IntField) f).getValue());
+                } else {
+                    String v = ((StringField) f).getValue();
+                    int len = Math.min(v.length(), Type.STRING_LEN);
+                    m_out.writeShort(len);
+                    m_out.writeBytes(len == v.length() ? v : v.substring(0, len));
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("can't write a spill file: " + e.getMessage());
+        }
+        m_size++;
+    }
+
+    /**
+     * @return an iterator over the tuples written, which ends the writing;
+     *         there may be several open at a time
+     */
+    public DbIterator iterator() throws DbException {
+        if (m_out != null) {
+            try {
+                m_out.close();
+            } catch (IOException e) {
+                throw new DbException("can't write a spill file: " + e.getMessage());
+            }
+            m_out = null;
+        }
+        return new Reader();
+    }
+
+    /** Deletes the file */
+    public void delete() {
+        if (m_out != null) {
+            try {
+                m_out.close();
+            } catch (IOException e) {
+                // being deleted anyway
+            }
+            m_out = null;
+        }
+        m_file.delete();
+    }
+
+    private class Reader extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream m_in;
+        private final byte[] m_buf = new byte[Type.STRING_LEN];
+        private int m_read;
+
+        public TupleDesc getTupleDesc() {
+            return m_td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            try {
+                m_in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(m_file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new DbException("can't read a spill file: " + e.getMessage());
+            }
+            m_read = 0;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (m_in != null) {
+                try {
+                    m_in.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+                m_in = null;
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        protected Tuple fetchNext() throws DbException {
+            if (m_read == m_size) {
+                return null;
+            }
+            Tuple t = new Tuple(m_td);
+            try {
+                for (int i = 0; i < m_td.numFields(); i++) {
+                    if (m_td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(m_in.readInt()));
+                    } else {
+                        int len = m_in.readUnsignedShort();
+                        m_in.readFully(m_buf, 0, len);
+                        t.setField(i, new StringField(new String(m_buf, 0, len), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("can't read a spill file: " + e.getMessage());
+            }
+            m_read++;
+            return t;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            // no children
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,16 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	public void serialize(byte[] data, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		Type.writeInt(data, offset, len);
+		offset += 4;
+		// like DataOutputStream.writeBytes, keeps the low byte of each char
+		for (int i = 0; i < len; i++)
+			data[offset + i] = (byte) value.charAt(i);
+		Arrays.fill(data, offset + len, offset + maxSize, (byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -15,7 +15,7 @@ public class TableStats {
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
 
-    private HeapFile m_file;    // The DbFile we're scanning
+    private PagedFile m_file;    // The DbFile we're scanning
     private int m_iocostperpage;// IO cost per page
     private int m_tuples;       // Number of tuples in the file
 
@@ -95,7 +95,7 @@ public class TableStats {
         // You should try to do this reasonably efficiently, but you don't
         // necessarily have to (for example) do everything
         // in a single scan of the table.
-        m_file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        m_file = (PagedFile) Database.getCatalog().getDatabaseFile(tableid);
         m_iocostperpage = ioCostPerPage;
         m_tuples = 0;
         m_mins = new HashMap<Integer, Integer>();
@@ -198,6 +198,39 @@ public class TableStats {
         return num_pages * m_iocostperpage;
     }
 
+    /**
+     * Estimates the cost of finding the tuples that satisfy a predicate of
+     * the given selectivity through an index: a page read to go down the
+     * tree, and one for each matching tuple, since the tuples of a range
+     * of keys can be on any page of the table. It never exceeds reading
+     * each page of the table once.
+     *
+     * @param selectivity the selectivity of the predicate
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        return m_iocostperpage * (1 + Math.min(m_file.numPages(), selectivity * m_tuples));
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy predicates of
+     * the given selectivity through bitmap indexes: each page that holds
+     * at least one of them is read once. With the matching tuples spread
+     * at random, a page of n tuples holds none of them with probability
+     * (1 - selectivity)^n.
+     *
+     * @param selectivity the selectivity of the predicates the bitmaps answer
+     * @return The estimated cost of the bitmap scan.
+     */
+    public double estimateBitmapScanCost(double selectivity) {
+        int numPages = m_file.numPages();
+        if (numPages == 0) {
+            return 0;
+        }
+        double perPage = (double) m_tuples / numPages;
+        return m_iocostperpage * numPages * (1 - Math.pow(1 - selectivity, perPage));
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -222,8 +255,13 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        if (op != Predicate.Op.EQUALS) {
+            return 1.0;
+        }
+        if (m_inthists.containsKey(field)) {
+            return m_inthists.get(field).avgSelectivity();
+        }
+        return m_strhists.get(field).avgSelectivity();
     }
 
     /**
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY followed by LIMIT n. It reads
+ * its child once and keeps only the n best tuples so far in a heap, so it
+ * takes O(log n) time per tuple and memory for n tuples, rather than sorting
+ * everything. Like OrderBy, tuples with equal keys keep their input order.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator m_child;
+    private final int m_field;
+    private final boolean m_asc;
+    private final int m_limit;
+    private List<Tuple> m_top = Collections.emptyList();
+    private Iterator<Tuple> m_it;
+
+    /**
+     * @param orderbyField
+     *            The field to sort on
+     * @param asc
+     *            True to return the smallest tuples in ascending order, false
+     *            for the largest in descending order
+     * @param limit
+     *            The most tuples to return
+     * @param child
+     *            The child operator
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        m_field = orderbyField;
+        m_asc = asc;
+        m_limit = limit;
+        m_child = child;
+    }
+
+    public boolean isASC() {
+        return m_asc;
+    }
+
+    public int getOrderByField() {
+        return m_field;
+    }
+
+    public String getOrderFieldName() {
+        return m_child.getTupleDesc().getFieldName(m_field);
+    }
+
+    public int getLimit() {
+        return m_limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    /** A tuple with its position in the input, to break ties with */
+    private static class Entry {
+        final Tuple t;
+        final int seq;
+
+        Entry(Tuple t, int seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_child.open();
+        final TupleComparator cmp = new TupleComparator(m_field, m_asc);
+        // the worst of the best tuples so far is at the top of the heap
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, Math.min(m_limit, 1 << 16)),
+                new Comparator<Entry>() {
+                    public int compare(Entry a, Entry b) {
+                        int c = cmp.compare(b.t, a.t);
+                        return c != 0 ? c : b.seq - a.seq;
+                    }
+                });
+        int seq = 0;
+        while (m_child.hasNext()) {
+            Tuple t = m_child.next();
+            if (heap.size() < m_limit) {
+                heap.add(new Entry(t, seq));
+            } else if (m_limit > 0 && cmp.compare(t, heap.peek().t) < 0) {
+                // a later tuple with an equal key doesn't displace the top
+                heap.poll();
+                heap.add(new Entry(t, seq));
+            }
+            seq++;
+        }
+        Tuple[] top = new Tuple[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--)
+            top[i] = heap.poll().t;
+        m_top = Arrays.asList(top);
+        m_it = m_top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        m_it = null;
+        m_top = Collections.emptyList();
+        m_child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_it = m_top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child in
+     * sorted order, up to the limit.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (m_it != null && m_it.hasNext())
+            return m_it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (m_child != children[0]) { m_child = children[0]; }
+    }
+
+}
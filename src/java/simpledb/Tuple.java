@@ -99,9 +99,9 @@ public class Tuple implements Serializable {
         // some code goes here
         String str = "";
         for(int i = 0; i < ourTupleField.length - 1; i++){
-            str += ourTupleField[i] + "\t";
+            str += getField(i) + "\t";
         }
-        str += ourTupleField[ourTupleField.length-1] + "\n";
+        str += getField(ourTupleField.length-1) + "\n";
         return str;
     }
     
@@ -112,7 +112,11 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        Iterator<Field> result = Arrays.asList(ourTupleField).iterator();
+        Field[] fields = new Field[ourTupleField.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = getField(i);
+        }
+        Iterator<Field> result = Arrays.asList(fields).iterator();
         return result;
     }
     
@@ -0,0 +1,142 @@
+package simpledb;
+
+/**
+ * A batch of rows stored a column at a time: an int[] for each INT_TYPE
+ * field and a String[] for each STRING_TYPE field. A selection vector
+ * lists the rows of the batch that are in it, so that a filter drops rows
+ * without moving any values.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** The most rows a batch holds */
+    public static final int CAPACITY = 1024;
+
+    // Selection vector of a batch with every row selected, which operators
+    // can walk in place of a missing selection vector
+    static final int[] ALL_ROWS = new int[CAPACITY];
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ALL_ROWS[i] = i;
+        }
+    }
+
+    private final TupleDesc m_td;
+    final int[][] m_ints;
+    final String[][] m_strings;
+
+    // Number of rows filled in, and the selected ones: the first m_count
+    // entries of m_sel, or every row if m_sel is null
+    int m_rows;
+    int[] m_sel;
+    int m_count;
+
+    /** Creates an empty batch of rows of the given type */
+    public TupleBatch(TupleDesc td) {
+        m_td = td;
+        m_ints = new int[td.numFields()][];
+        m_strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                m_ints[i] = new int[CAPACITY];
+            } else {
+                m_strings[i] = new String[CAPACITY];
+            }
+        }
+    }
+
+    /** Creates a batch over the given columns, sharing them */
+    TupleBatch(TupleDesc td, int[][] ints, String[][] strings, int rows, int[] sel, int count) {
+        m_td = td;
+        m_ints = ints;
+        m_strings = strings;
+        m_rows = rows;
+        m_sel = sel;
+        m_count = count;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /** @return the number of selected rows */
+    public int numRows() {
+        return m_count;
+    }
+
+    /** @return the row of the columns that the i-th selected row is in */
+    public int row(int i) {
+        return m_sel == null ? i : m_sel[i];
+    }
+
+    /** @return the selection vector, which is never null */
+    int[] selection() {
+        return m_sel == null ? ALL_ROWS : m_sel;
+    }
+
+    /** @return the column of an INT_TYPE field */
+    public int[] getInts(int field) {
+        return m_ints[field];
+    }
+
+    /** @return the column of a STRING_TYPE field */
+    public String[] getStrings(int field) {
+        return m_strings[field];
+    }
+
+    /** Empties the batch, to be filled again */
+    public void clear() {
+        m_rows = 0;
+        m_sel = null;
+        m_count = 0;
+    }
+
+    /** @return true if no more rows fit */
+    public boolean isFull() {
+        return m_rows == CAPACITY;
+    }
+
+    /**
+     * Marks the first n rows of the columns as filled in and all of them
+     * as selected.
+     */
+    void setRows(int n) {
+        m_rows = n;
+        m_sel = null;
+        m_count = n;
+    }
+
+    /** Selects the rows listed in the first count entries of sel */
+    void select(int[] sel, int count) {
+        m_sel = sel;
+        m_count = count;
+    }
+
+    /** Adds a tuple as a selected row of a batch with nothing unselected */
+    public void addTuple(Tuple t) {
+        for (int i = 0; i < m_ints.length; i++) {
+            if (m_ints[i] != null) {
+                m_ints[i][m_rows] = ((IntField) t.getField(i)).getValue();
+            } else {
+                m_strings[i][m_rows] = ((StringField) t.getField(i)).getValue();
+            }
+        }
+        m_rows++;
+        m_count++;
+    }
+
+    /** @return the i-th selected row as a Tuple */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(m_td);
+        for (int f = 0; f < m_ints.length; f++) {
+            if (m_ints[f] != null) {
+                t.setField(f, new IntField(m_ints[f][r]));
+            } else {
+                t.setField(f, new StringField(m_strings[f][r], Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+}
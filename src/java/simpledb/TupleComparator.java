@@ -0,0 +1,32 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/** Orders tuples by one field, ascending or descending */
+class TupleComparator implements Comparator<Tuple> {
+    int field;
+    boolean asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this.field = field;
+        this.asc = asc;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        Field t1 = (o1).getField(field);
+        Field t2 = (o2).getField(field);
+        if (t1 instanceof IntField) {
+            int v1 = ((IntField) t1).getValue();
+            int v2 = ((IntField) t2).getValue();
+            int c = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+            return asc ? c : -c;
+        }
+        if (t1.compare(Predicate.Op.EQUALS, t2))
+            return 0;
+        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+            return asc ? 1 : -1;
+        else
+            return asc ? -1 : 1;
+    }
+    
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+/**
+ * Gathers the tuples of a tuple operator into batches, so that batch
+ * operators can be put above it.
+ */
+public class TupleToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator m_child;
+    private transient TupleBatch m_batch;
+
+    public TupleToBatch(DbIterator child) {
+        m_child = child;
+    }
+
+    public DbIterator getChild() {
+        return m_child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_batch = new TupleBatch(m_child.getTupleDesc());
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        m_batch.clear();
+        while (!m_batch.isFull() && m_child.hasNext()) {
+            m_batch.addTuple(m_child.next());
+        }
+        return m_batch.numRows() == 0 ? null : m_batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public void close() {
+        m_child.close();
+        m_batch = null;
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * 2Q replacement (Johnson and Shasha, VLDB '94). Pages seen for the first
+ * time enter a small FIFO queue (A1in). Pages evicted from A1in are
+ * remembered, without their data, in a ghost queue (A1out); a miss on a
+ * remembered page means the page is hot, so it is promoted straight into
+ * the main LRU queue (Am). Scans pass through A1in without disturbing Am.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+    private int m_kin;     // Target size of A1in
+    private int m_kout;    // Maximum number of ghosts in A1out
+
+    private LinkedHashSet<PageId> m_a1in;   // FIFO of resident first-timers
+    private LinkedHashSet<PageId> m_a1out;  // FIFO of evicted first-timers
+    private LinkedHashMap<PageId, Boolean> m_am; // Access-ordered LRU
+    private PageId m_amVictim;  // Last page evicted from Am, it has no ghost
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQPolicy(int capacity) {
+        m_kin = Math.max(1, capacity / 4);
+        m_kout = Math.max(1, capacity / 2);
+        m_a1in = new LinkedHashSet<PageId>();
+        m_a1out = new LinkedHashSet<PageId>();
+        m_am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+        m_amVictim = null;
+    }
+
+    public void admit(PageId pid) {
+        if (m_am.containsKey(pid) || m_a1in.contains(pid)) {
+            access(pid);
+        }
+        else if (m_a1out.remove(pid)) {
+            // Re-referenced after leaving A1in: it's hot
+            m_am.put(pid, Boolean.TRUE);
+        }
+        else {
+            m_a1in.add(pid);
+        }
+    }
+
+    public void access(PageId pid) {
+        // Hits in A1in are ignored on purpose, they are correlated references
+        if (m_am.get(pid) == null && !m_a1in.contains(pid)) {
+            admit(pid);
+        }
+    }
+
+    public PageId evict(PageId incoming) {
+        m_amVictim = null;
+        if (m_a1in.size() > m_kin || (m_am.isEmpty() && !m_a1in.isEmpty())) {
+            PageId victim = removeFirst(m_a1in);
+            m_a1out.add(victim);
+            if (m_a1out.size() > m_kout) {
+                removeFirst(m_a1out);
+            }
+            return victim;
+        }
+        if (m_am.isEmpty()) { return null; }
+        m_amVictim = removeFirst(m_am.keySet());
+        return m_amVictim;
+    }
+
+    public void reinstate(PageId pid) {
+        if (m_a1out.remove(pid)) {
+            // Back into A1in, it was not re-referenced
+            m_a1in.add(pid);
+        }
+        else if (pid.equals(m_amVictim)) {
+            m_am.put(pid, Boolean.TRUE);
+        }
+        else if (!m_am.containsKey(pid) && !m_a1in.contains(pid)) {
+            m_a1in.add(pid);
+        }
+        m_amVictim = null;
+    }
+
+    public void remove(PageId pid) {
+        if (!m_a1in.remove(pid)) {
+            m_am.remove(pid);
+        }
+    }
+
+    private static PageId removeFirst(Set<PageId> s) {
+        Iterator<PageId> it = s.iterator();
+        PageId pid = it.next();
+        it.remove();
+        return pid;
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Records the smallest and largest value of each int field on each page of
+ * a HeapFile, so that a scan with a range predicate can skip the pages
+ * whose values all fall outside it. On a table loaded in the order of a
+ * field, such as a timestamp, each page covers a narrow range of that
+ * field and most pages are skipped.
+ * <p>
+ * The map is kept in memory while the file is in use, and in a sidecar
+ * file next to the data file holding a (min, max) pair of ints per int
+ * field per page. Like the {@link FreeSpaceMap}, the sidecar is updated
+ * whenever a page is written, so it describes the pages on disk, and it
+ * is rebuilt from the pages if it is missing or out of date.
+ * <p>
+ * A range may be wider than the values on its page, but never narrower:
+ * an insert widens its page's range right away, while a delete leaves it
+ * as it is until the page is written and its range is worked out again.
+ */
+public class ZoneMap {
+
+    // Fields the map covers, and each field's column in the map or -1
+    private final int[] m_fields;
+    private final int[] m_column;
+
+    // Range of column c of page p at p * m_fields.length + c. A page with
+    // no tuples has min > max.
+    private int[] m_min;
+    private int[] m_max;
+    private int m_numPages;
+
+    private final File m_file;
+    private FileChannel m_channel;
+
+    private ZoneMap(File file, TupleDesc td, int numPages) {
+        m_file = file;
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        m_column = new int[td.numFields()];
+        for (int j = 0; j < td.numFields(); j++) {
+            m_column[j] = -1;
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                m_column[j] = fields.size();
+                fields.add(j);
+            }
+        }
+        m_fields = new int[fields.size()];
+        for (int c = 0; c < m_fields.length; c++) {
+            m_fields[c] = fields.get(c);
+        }
+        m_numPages = numPages;
+        m_min = new int[numPages * m_fields.length];
+        m_max = new int[numPages * m_fields.length];
+    }
+
+    /** @return the sidecar file holding the map of the given data file */
+    public static File fileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    /** @return the number of bytes the sidecar stores for one page */
+    private int pageBytes() {
+        return m_fields.length * 8;
+    }
+
+    /**
+     * Opens the zone map of a HeapFile, reading every page of the file
+     * from disk to rebuild it if its sidecar file can't be used.
+     */
+    static ZoneMap open(HeapFile hf) throws IOException {
+        File file = fileFor(hf.getFile());
+        int numPages = hf.numPages();
+        ZoneMap map = new ZoneMap(file, hf.getTupleDesc(), numPages);
+        if (map.m_fields.length == 0) {
+            // nothing to record, and no sidecar to keep
+            return map;
+        }
+        if (file.exists() && file.length() == (long) numPages * map.pageBytes()
+                && file.lastModified() >= hf.getFile().lastModified()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                for (int i = 0; i < map.m_min.length; i++) {
+                    map.m_min[i] = in.readInt();
+                    map.m_max[i] = in.readInt();
+                }
+                return map;
+            }
+            catch (EOFException e) {
+                // shorter than it claimed, rebuild below
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        for (int i = 0; i < numPages; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            map.set(i, page);
+        }
+        map.save();
+        return map;
+    }
+
+    /**
+     * Returns false if no tuple on a page can satisfy a predicate, going by
+     * the range of the predicate's field on that page. Predicates on fields
+     * the map doesn't cover, and pages it doesn't know about, may match.
+     */
+    synchronized boolean mayMatch(int pgNo, Predicate p) {
+        if (pgNo >= m_numPages || p.getField() >= m_column.length) {
+            return true;
+        }
+        int c = m_column[p.getField()];
+        if (c < 0 || !(p.getOperand() instanceof IntField)) {
+            return true;
+        }
+        int min = m_min[pgNo * m_fields.length + c];
+        int max = m_max[pgNo * m_fields.length + c];
+        if (min > max) {
+            // no tuples
+            return false;
+        }
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return min <= v && v <= max;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        }
+        return true;
+    }
+
+    /** Widens the ranges of a page to take in a tuple inserted into it */
+    synchronized void inserted(int pgNo, Tuple t) {
+        if (pgNo >= m_numPages) {
+            grow(pgNo + 1);
+        }
+        for (int c = 0; c < m_fields.length; c++) {
+            int v = ((IntField) t.getField(m_fields[c])).getValue();
+            int i = pgNo * m_fields.length + c;
+            m_min[i] = Math.min(m_min[i], v);
+            m_max[i] = Math.max(m_max[i], v);
+        }
+    }
+
+    /** Widens the ranges of a page to take in any value */
+    synchronized void widen(int pgNo) {
+        if (pgNo >= m_numPages) {
+            grow(pgNo + 1);
+        }
+        Arrays.fill(m_min, pgNo * m_fields.length, (pgNo + 1) * m_fields.length, Integer.MIN_VALUE);
+        Arrays.fill(m_max, pgNo * m_fields.length, (pgNo + 1) * m_fields.length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Works out the ranges of a page that was just written to disk from
+     * its tuples, and stores them in the sidecar file.
+     */
+    synchronized void written(HeapPage page) throws IOException {
+        if (m_fields.length == 0) {
+            return;
+        }
+        int pgNo = page.getId().pageNumber();
+        if (pgNo >= m_numPages) {
+            grow(pgNo + 1);
+        }
+        set(pgNo, page);
+        ByteBuffer b = ByteBuffer.allocate(pageBytes());
+        for (int c = 0; c < m_fields.length; c++) {
+            b.putInt(m_min[pgNo * m_fields.length + c]);
+            b.putInt(m_max[pgNo * m_fields.length + c]);
+        }
+        b.flip();
+        long pos = (long) pgNo * pageBytes();
+        while (b.hasRemaining()) {
+            pos += channel().write(b, pos);
+        }
+    }
+
+    private void set(int pgNo, HeapPage page) {
+        int[] min = new int[m_fields.length];
+        int[] max = new int[m_fields.length];
+        page.intRanges(m_fields, min, max);
+        System.arraycopy(min, 0, m_min, pgNo * m_fields.length, min.length);
+        System.arraycopy(max, 0, m_max, pgNo * m_fields.length, max.length);
+    }
+
+    /** Adds pages with no tuples up to numPages */
+    private void grow(int numPages) {
+        int n = numPages * m_fields.length;
+        if (n > m_min.length) {
+            m_min = Arrays.copyOf(m_min, Math.max(n, m_min.length * 2));
+            m_max = Arrays.copyOf(m_max, Math.max(n, m_max.length * 2));
+        }
+        Arrays.fill(m_min, m_numPages * m_fields.length, n, Integer.MAX_VALUE);
+        Arrays.fill(m_max, m_numPages * m_fields.length, n, Integer.MIN_VALUE);
+        m_numPages = numPages;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (m_channel == null) {
+            m_channel = new RandomAccessFile(m_file, "rw").getChannel();
+        }
+        return m_channel;
+    }
+
+    /** Writes the whole map to the sidecar file */
+    private synchronized void save() throws IOException {
+        FileChannel ch = channel();
+        ch.truncate((long) m_numPages * pageBytes());
+        ByteBuffer b = ByteBuffer.allocate(m_numPages * pageBytes());
+        for (int i = 0; i < m_numPages * m_fields.length; i++) {
+            b.putInt(m_min[i]);
+            b.putInt(m_max[i]);
+        }
+        b.flip();
+        long pos = 0;
+        while (b.hasRemaining()) {
+            pos += ch.write(b, pos);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("index", suffix);
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        return f;
+    }
+
+    private static List<Tuple> run(DbIterator it) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        it.close();
+        return result;
+    }
+
+    private static List<Tuple> run(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        it.close();
+        return result;
+    }
+
+    private static int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    /** @return the tuples a SeqScan and a Filter find, in the index's order */
+    private List<String> filtered(HeapFile hf, Predicate p, int keyField) throws Exception {
+        List<Tuple> tuples = run(new Filter(p, new SeqScan(tid, hf.getId())));
+        final int k = keyField;
+        Collections.sort(tuples, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                RecordId ra = a.getRecordId();
+                RecordId rb = b.getRecordId();
+                return BTreePage.compare(a.getField(k), ra.getPageId().pageNumber(), ra.tupleno(),
+                        b.getField(k), rb.getPageId().pageNumber(), rb.tupleno());
+            }
+        });
+        ArrayList<String> result = new ArrayList<String>();
+        for (Tuple t : tuples) {
+            result.add(t.toString());
+        }
+        return result;
+    }
+
+    private static List<String> strings(List<Tuple> tuples) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (Tuple t : tuples) {
+            result.add(t.toString());
+        }
+        return result;
+    }
+
+    /**
+     * An index built from a table finds the same tuples as a scan and a
+     * filter, in key order, for every operator it supports
+     */
+    @Test public void createAndScan() throws Exception {
+        // few distinct keys, so that runs of a key cross leaves
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 50, null, null);
+        BTreeFile index = BTreeFile.create(tempFile(".idx"), hf, 0);
+        Database.getCatalog().addIndex(index);
+        assertTrue(index.numPages() > 50);
+
+        List<Tuple> entries = run(index.iterator(tid));
+        assertEquals(20000, entries.size());
+        for (int i = 1; i < entries.size(); i++) {
+            assertTrue(intValue(entries.get(i - 1), 0) <= intValue(entries.get(i), 0));
+        }
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            for (int v : new int[] { -1, 0, 17, 49, 50 }) {
+                Predicate p = new Predicate(0, op, new IntField(v));
+                assertEquals(op + " " + v, filtered(hf, p, 0), strings(run(new IndexScan(tid, index, p))));
+            }
+        }
+    }
+
+    /** Inserts and deletes through the BufferPool keep the index up to date */
+    @Test public void maintainedByBufferPool() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BTreeFile index = new BTreeFile(tempFile(".idx"), hf, 1);
+        Database.getCatalog().addIndex(index);
+
+        Random r = new Random(0);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, r.nextInt(1000) });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        // the root has split, and stayed at page 0
+        assertTrue(index.numPages() > 10);
+        BTreePage root = (BTreePage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(index.getId(), 0), Permissions.READ_ONLY);
+        assertFalse(root.leaf);
+
+        for (int i = 0; i < inserted.size(); i += 2) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+            Predicate p = new Predicate(1, op, new IntField(500));
+            List<Tuple> found = run(new IndexScan(tid, index, p));
+            assertEquals(filtered(hf, p, 1), strings(found));
+            for (Tuple t : found) {
+                assertEquals(1, intValue(t, 0) % 2);
+            }
+        }
+        assertEquals(2500, run(index.iterator(tid)).size());
+    }
+
+    /** String keys make a deeper tree, which survives being read back */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "code", "n" });
+        HeapFile hf = new HeapFile(tempFile(".dat"), td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        File f = tempFile(".idx");
+        BTreeFile index = new BTreeFile(f, hf, 0);
+        Database.getCatalog().addIndex(index);
+
+        Random r = new Random(0);
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("code" + r.nextInt(500), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        tid = new TransactionId();
+
+        // 29 entries to a leaf and 28 separators to a node: three levels
+        int depth = 1;
+        BTreeFile reopened = new BTreeFile(f, hf, 0);
+        BTreePage page = (BTreePage) reopened.readPage(new HeapPageId(reopened.getId(), 0));
+        while (!page.leaf) {
+            page = (BTreePage) reopened.readPage(new HeapPageId(reopened.getId(), page.children[0]));
+            depth++;
+        }
+        assertTrue(depth >= 3);
+
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new StringField("code42", Type.STRING_LEN));
+        List<Tuple> found = run(new IndexScan(tid, index, p));
+        assertFalse(found.isEmpty());
+        assertEquals(filtered(hf, p, 0), strings(found));
+        p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new StringField("code45", Type.STRING_LEN));
+        assertEquals(filtered(hf, p, 0), strings(run(new IndexScan(tid, index, p))));
+    }
+
+    /** The planner uses an index for a selective filter only */
+    @Test public void chosenWhenSelective() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null, "c");
+        String name = Database.getCatalog().getTableName(hf.getId());
+        Database.getCatalog().addIndex(BTreeFile.create(tempFile(".idx"), hf, 0));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1000));
+
+        assertTrue(plan(hf, Predicate.Op.EQUALS, stats) instanceof IndexScan);
+        assertTrue(plan(hf, Predicate.Op.GREATER_THAN, stats) instanceof Filter);
+    }
+
+    /** @return the operator under the Project of SELECT t.c1 FROM t WHERE t.c0 op 100 */
+    private DbIterator plan(HeapFile hf, Predicate.Op op, Map<String, TableStats> stats) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", op, "100");
+        lp.addProjectField("t.c1", null);
+        Operator project = (Operator) lp.physicalPlan(tid, stats, false);
+        return project.getChildren()[0];
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchOperatorsTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private HeapFile hf1;
+    private HeapFile hf2;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        // More than a batch of rows, spread over several pages
+        hf1 = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, null, "a");
+        hf2 = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, null, "b");
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> run(BatchIterator it) throws Exception {
+        return run(new BatchToTuple(it));
+    }
+
+    @Test public void scan() throws Exception {
+        BatchSeqScan scan = new BatchSeqScan(tid, hf1.getId(), "t");
+        assertEquals(new SeqScan(tid, hf1.getId(), "t").getTupleDesc(), scan.getTupleDesc());
+        assertEquals(run(new SeqScan(tid, hf1.getId(), "t")), run(scan));
+    }
+
+    @Test public void filter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(20));
+            assertEquals(op.toString(),
+                    run(new Filter(p, new SeqScan(tid, hf1.getId()))),
+                    run(new BatchFilter(p, new BatchSeqScan(tid, hf1.getId()))));
+        }
+        // Two filters narrow the same selection vector
+        Predicate p0 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        Predicate p2 = new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(25));
+        assertEquals(run(new Filter(p2, new Filter(p0, new SeqScan(tid, hf1.getId())))),
+                run(new BatchFilter(p2, new BatchFilter(p0, new BatchSeqScan(tid, hf1.getId())))));
+        // A filter nothing passes
+        Predicate none = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000));
+        assertTrue(run(new BatchFilter(none, new BatchSeqScan(tid, hf1.getId()))).isEmpty());
+    }
+
+    @Test public void project() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new IntField(7));
+        assertEquals(run(new Project(fields, types, new Filter(p, new SeqScan(tid, hf1.getId())))),
+                run(new BatchProject(fields, types,
+                        new BatchFilter(p, new BatchSeqScan(tid, hf1.getId())))));
+    }
+
+    @Test public void aggregate() throws Exception {
+        Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT };
+        for (Aggregator.Op op : ops) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                BatchAggregate agg = new BatchAggregate(
+                        new BatchSeqScan(tid, hf1.getId()), 2, gfield, op);
+                Aggregate expected = new Aggregate(new SeqScan(tid, hf1.getId()), 2, gfield, op);
+                assertEquals(op + " " + gfield, run(expected), run(agg));
+                assertEquals(expected.getTupleDesc(), agg.getTupleDesc());
+            }
+        }
+        // Nothing to aggregate gives nothing, as it does for Aggregate
+        Predicate none = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000));
+        assertTrue(run(new BatchAggregate(new BatchFilter(none, new BatchSeqScan(tid, hf1.getId())),
+                2, Aggregator.NO_GROUPING, Aggregator.Op.SUM)).isEmpty());
+    }
+
+    @Test public void join() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        assertEquals(run(new HashEquiJoin(p, new SeqScan(tid, hf2.getId()), new SeqScan(tid, hf1.getId()))),
+                run(new BatchHashEquiJoin(p, new BatchSeqScan(tid, hf2.getId()),
+                        new BatchSeqScan(tid, hf1.getId()))));
+    }
+
+    /** Batch and tuple operators mixed through the adapters in both directions */
+    @Test public void mixedPlan() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        DbIterator expected = new Aggregate(
+                new Join(jp, new Filter(p, new SeqScan(tid, hf1.getId())), new SeqScan(tid, hf2.getId())),
+                2, 3, Aggregator.Op.SUM);
+        DbIterator mixed = new Aggregate(new BatchToTuple(
+                new BatchHashEquiJoin(jp,
+                        new TupleToBatch(new Filter(p, new SeqScan(tid, hf1.getId()))),
+                        new BatchSeqScan(tid, hf2.getId()))),
+                2, 3, Aggregator.Op.SUM);
+        assertEquals(run(expected), run(mixed));
+    }
+
+    @Test public void strings() throws Exception {
+        Object[] data = { "apple", 1, "banana", 2, "apple", 3, "cherry", 4, "banana", 5 };
+        Predicate p = new Predicate(0, Predicate.Op.LIKE, new StringField("an", Type.STRING_LEN));
+        assertEquals(run(new Filter(p, TestUtil.createTupleList(2, data))),
+                run(new BatchFilter(p, new TupleToBatch(TestUtil.createTupleList(2, data)))));
+        assertEquals(run(new Aggregate(TestUtil.createTupleList(2, data), 1, 0, Aggregator.Op.SUM)),
+                run(new BatchAggregate(new TupleToBatch(TestUtil.createTupleList(2, data)),
+                        1, 0, Aggregator.Op.SUM)));
+        assertEquals(run(new Aggregate(TestUtil.createTupleList(2, data), 0, Aggregator.NO_GROUPING,
+                        Aggregator.Op.COUNT)),
+                run(new BatchAggregate(new TupleToBatch(TestUtil.createTupleList(2, data)),
+                        0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT)));
+        JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertEquals(run(new HashEquiJoin(jp, TestUtil.createTupleList(2, data),
+                        TestUtil.createTupleList(2, data))),
+                run(new BatchHashEquiJoin(jp, new TupleToBatch(TestUtil.createTupleList(2, data)),
+                        new TupleToBatch(TestUtil.createTupleList(2, data)))));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void stringSum() throws Exception {
+        Object[] data = { "apple", 1 };
+        new BatchAggregate(new TupleToBatch(TestUtil.createTupleList(2, data)),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchOperatorsTest.class);
+    }
+}
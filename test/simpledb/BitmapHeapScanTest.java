@@ -0,0 +1,198 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapHeapScanTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /** @return a table of three int columns c0..c2 with bitmap indexes on c0 and c1 */
+    private static HeapFile table(int rows, int maxValue) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, rows, maxValue, null, null, "c");
+        for (int field = 0; field < 2; field++) {
+            hf.addBitmapIndex(field);
+        }
+        return hf;
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** @return the tuples a SeqScan finds that satisfy every clause */
+    private List<String> filtered(HeapFile hf, final Predicate[][] clauses) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            boolean all = true;
+            for (Predicate[] clause : clauses) {
+                boolean any = false;
+                for (Predicate p : clause) {
+                    any |= p.filter(t);
+                }
+                all &= any;
+            }
+            if (all) {
+                result.add(t.toString());
+            }
+        }
+        scan.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private static Predicate p(int field, Predicate.Op op, int v) {
+        return new Predicate(field, op, new IntField(v));
+    }
+
+    /** @return the clauses of a few ANDs and ORs over the two indexed fields */
+    private static Predicate[][][] queries() {
+        return new Predicate[][][] {
+            { { p(0, Predicate.Op.EQUALS, 3) } },
+            { { p(0, Predicate.Op.EQUALS, 3) }, { p(1, Predicate.Op.EQUALS, 5) } },
+            { { p(0, Predicate.Op.EQUALS, 3), p(1, Predicate.Op.EQUALS, 5) } },
+            { { p(0, Predicate.Op.EQUALS, 1), p(0, Predicate.Op.EQUALS, 2) },
+              { p(1, Predicate.Op.LESS_THAN, 3) } },
+            { { p(0, Predicate.Op.NOT_EQUALS, 0) }, { p(1, Predicate.Op.GREATER_THAN_OR_EQ, 6) } },
+            { { p(0, Predicate.Op.EQUALS, 100) } },
+        };
+    }
+
+    /** ANDs and ORs of bitmaps find what scanning and filtering does */
+    @Test public void andOr() throws Exception {
+        HeapFile hf = table(20000, 8);
+        for (Predicate[][] clauses : queries()) {
+            BitmapHeapScan scan = new BitmapHeapScan(tid, hf.getId(), "t", clauses);
+            List<String> expected = filtered(hf, clauses);
+            assertEquals(expected, run(scan));
+            // a fresh index has no bits for tuples that don't match
+            scan.open();
+            assertEquals(expected.size(), scan.candidates());
+            scan.close();
+        }
+    }
+
+    /**
+     * Inserts, deletes and updates through the BufferPool keep
+     * the results right, and writing the pages makes the bitmaps exact
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        HeapFile hf = table(5000, 8);
+        Random r = new Random(0);
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(8), r.nextInt(8), i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            all.add(scan.next());
+        }
+        scan.close();
+        for (int i = 0; i < all.size(); i++) {
+            Tuple t = all.get(i);
+            if (i % 3 != 2) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+            if (i % 3 == 1) {
+                // an update, whose new tuple may land in the slot just freed
+                int[] values = { 7 - ((IntField) t.getField(0)).getValue(),
+                        ((IntField) t.getField(1)).getValue(), ((IntField) t.getField(2)).getValue() };
+                Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(values));
+            }
+        }
+        for (Predicate[][] clauses : queries()) {
+            assertEquals(filtered(hf, clauses), run(new BitmapHeapScan(tid, hf.getId(), "t", clauses)));
+        }
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        tid = new TransactionId();
+        for (Predicate[][] clauses : queries()) {
+            BitmapHeapScan bs = new BitmapHeapScan(tid, hf.getId(), "t", clauses);
+            List<String> expected = filtered(hf, clauses);
+            assertEquals(expected, run(bs));
+            bs.open();
+            assertEquals(expected.size(), bs.candidates());
+            bs.close();
+        }
+    }
+
+    /** An index is read back from its sidecar, until a page is written */
+    @Test public void sidecar() throws Exception {
+        HeapFile hf = table(5000, 8);
+        assertTrue(BitmapIndex.fileFor(hf.getFile(), 0).exists());
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        BitmapIndex index = reopened.addBitmapIndex(0);
+        assertEquals(8, index.numValues());
+        assertEquals(hf.getBitmapIndex(0).lookup(Predicate.Op.EQUALS, new IntField(4)).cardinality(),
+                index.lookup(Predicate.Op.EQUALS, new IntField(4)).cardinality());
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertFalse(BitmapIndex.fileFor(hf.getFile(), 0).exists());
+        hf.getBitmapIndex(0).save();
+        assertTrue(BitmapIndex.fileFor(hf.getFile(), 0).exists());
+    }
+
+    /** The planner uses the bitmaps when ANDing them leaves few pages to read */
+    @Test public void chosenWhenSelective() throws Exception {
+        HeapFile hf = table(20000, 100);
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1000));
+
+        DbIterator both = plan(stats, Predicate.Op.EQUALS, "t.c0", "t.c1", "t.c2");
+        assertTrue(both instanceof Filter);
+        assertTrue(((Filter) both).getChildren()[0] instanceof BitmapHeapScan);
+        assertEquals(2, ((BitmapHeapScan) ((Filter) both).getChildren()[0]).getClauses().length);
+        // a range matches a tuple on every page
+        assertTrue(plan(stats, Predicate.Op.GREATER_THAN, "t.c0").getChildren()[0] instanceof SeqScan);
+    }
+
+    /** @return the operator under the Project of SELECT t.c2 FROM t WHERE f op 7 AND ... */
+    private Operator plan(Map<String, TableStats> stats, Predicate.Op op, String... fields)
+            throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId(
+                stats.keySet().iterator().next()), "t");
+        for (String f : fields) {
+            lp.addFilter(f, op, "7");
+        }
+        lp.addProjectField("t.c2", null);
+        Operator project = (Operator) lp.physicalPlan(tid, stats, false);
+        return (Operator) project.getChildren()[0];
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapHeapScanTest.class);
+    }
+}
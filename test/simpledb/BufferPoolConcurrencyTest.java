@@ -0,0 +1,263 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 16;
+
+    /** HeapFile that counts its reads and makes each one slow */
+    private static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger(0);
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private static CountingHeapFile countingFile(int pages) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        CountingHeapFile file = new CountingHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        return file;
+    }
+
+    /** Runs body once on each of THREADS threads, all started together */
+    private static void runConcurrently(final Body body) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        body.run(n);
+                    }
+                    catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure[0] instanceof Exception) {
+            throw (Exception) failure[0];
+        }
+        if (failure[0] != null) {
+            throw (Error) failure[0];
+        }
+    }
+
+    private interface Body {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Threads missing on the same page at once share a single read
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        final CountingHeapFile file = countingFile(1);
+        final BufferPool bp = Database.resetBufferPool(8);
+        final PageId pid = new HeapPageId(file.getId(), 0);
+        final Page[] seen = new Page[THREADS];
+        runConcurrently(new Body() {
+            public void run(int thread) throws Exception {
+                seen[thread] = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+            }
+        });
+        assertEquals(1, file.reads.get());
+        for (Page p : seen) {
+            assertSame(seen[0], p);
+        }
+    }
+
+    /**
+     * Many threads reading more pages than fit in the pool never see a
+     * wrong page and never grow the pool past its size for long
+     */
+    @Test public void concurrentEviction() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        final int tableId = hf.getId();
+        final BufferPool bp = Database.resetBufferPool(8);
+        runConcurrently(new Body() {
+            public void run(int thread) throws Exception {
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < 200; i++) {
+                    PageId pid = new HeapPageId(tableId, (thread * 7 + i) % 40);
+                    Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    assertEquals(pid, p.getId());
+                }
+            }
+        });
+        // A single reader evicts back down to the pool size
+        CountingHeapFile file = countingFile(10);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+        }
+        for (int i = 9; i >= 2; i--) {
+            bp.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(10, file.reads.get());
+        bp.getPage(tid, new HeapPageId(file.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(11, file.reads.get());
+    }
+
+    /** HeapFile whose next write by a given thread stalls after the data is out */
+    private static class StallingHeapFile extends HeapFile {
+        final AtomicReference<Thread> stalled = new AtomicReference<Thread>();
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+
+        StallingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public void writePages(List<Page> pages) throws IOException {
+            super.writePages(pages);
+            if (stalled.compareAndSet(Thread.currentThread(), null)) {
+                written.countDown();
+                try {
+                    resume.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * A page dirtied again while eviction is writing it out is written
+     * again rather than dropped with the change
+     */
+    @Test public void dirtiedDuringEviction() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        final StallingHeapFile file = new StallingHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        final HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        final BufferPool bp = Database.resetBufferPool(1);
+        // Without the flusher, only the eviction writes the page
+        bp.shutdown();
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(1, 2));
+
+        // Reading another page evicts the dirty one; insert while it's written
+        final Exception[] failure = new Exception[1];
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(new TransactionId(), new HeapPageId(other.getId(), 0),
+                            Permissions.READ_ONLY);
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        file.stalled.set(reader);
+        reader.start();
+        assertTrue(file.written.await(5, TimeUnit.SECONDS));
+        try {
+            bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(2, 2));
+        }
+        finally {
+            file.resume.countDown();
+        }
+        reader.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        bp.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SeqScan scan = new SeqScan(new TransactionId(), file.getId());
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(12, count);
+    }
+
+    /**
+     * A page changed in place while latched is written out only once the
+     * change is done
+     */
+    @Test public void writerWaitsForLatch() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.shutdown();
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(1, 2));
+
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        HeapPage page = (HeapPage) bp.latchPage(tid, pid, Permissions.READ_WRITE);
+        final CountDownLatch flushed = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    bp.flushAllPages();
+                    flushed.countDown();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        writer.start();
+        assertFalse(flushed.await(200, TimeUnit.MILLISECONDS));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        bp.unlatchPage(tid, page, true);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        writer.join();
+
+        assertNull(page.isDirty());
+        HeapPage onDisk = (HeapPage) file.readPage(pid);
+        assertEquals(page.getNumEmptySlots(), onDisk.getNumEmptySlots());
+        assertEquals(12, HeapPage.numSlots(file.getTupleDesc()) - onDisk.getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
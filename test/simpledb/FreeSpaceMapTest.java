@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private HeapFile hf;
+
+    /** Three full pages of two-column tuples */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+    }
+
+    private static Tuple firstTuple(HeapPage page) {
+        Iterator<Tuple> it = page.iterator();
+        Tuple t = null;
+        while (t == null) {
+            t = it.next();
+        }
+        return t;
+    }
+
+    /** An insert goes to the slot a delete freed instead of a new page */
+    @Test public void reusesDeletedSlot() throws Exception {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 1), Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, firstTuple(page));
+        assertEquals(1, hf.freeSpaceMap().pageWithRoom());
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(new HeapPageId(hf.getId(), 1), t.getRecordId().getPageId());
+        assertEquals(3, hf.numPages());
+        assertEquals(-1, hf.freeSpaceMap().pageWithRoom());
+    }
+
+    /** The map is built from the page headers and saved next to the file */
+    @Test public void rebuiltFromHeaders() throws Exception {
+        HeapFile writer = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        HeapPage page = (HeapPage) writer.readPage(new HeapPageId(hf.getId(), 2));
+        page.deleteTuple(firstTuple(page));
+        writer.writePage(page);
+
+        File sidecar = FreeSpaceMap.fileFor(hf.getFile());
+        assertTrue(sidecar.exists());
+        assertEquals(3, sidecar.length());
+
+        HeapFile reader = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(2, reader.freeSpaceMap().pageWithRoom());
+        assertEquals(1, reader.countEmptySlots(2));
+        assertEquals(0, reader.countEmptySlots(0));
+    }
+
+    /** A sidecar that pages were written behind is not trusted */
+    @Test public void staleSidecarRebuilt() throws Exception {
+        hf.freeSpaceMap();
+        assertTrue(FreeSpaceMap.fileFor(hf.getFile()).exists());
+
+        // a file that never opened its map writes a page
+        HeapFile writer = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        HeapPage page = (HeapPage) writer.readPage(new HeapPageId(hf.getId(), 0));
+        page.setFile(null);
+        page.deleteTuple(firstTuple(page));
+        writer.writePage(page);
+        assertFalse(FreeSpaceMap.fileFor(hf.getFile()).exists());
+
+        HeapFile reader = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(0, reader.freeSpaceMap().pageWithRoom());
+    }
+
+    /** A page the map wrongly says has room is skipped and corrected */
+    @Test public void wrongHintCorrected() throws Exception {
+        hf.freeSpaceMap().update(1, 10);
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(new HeapPageId(hf.getId(), 3), t.getRecordId().getPageId());
+        assertEquals(4, hf.numPages());
+        assertEquals(3, hf.freeSpaceMap().pageWithRoom());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,216 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.SUM, Aggregator.Op.AVG,
+            Aggregator.Op.COUNT };
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** @return rows of three random ints, some negative */
+    private static int[] rows(int n) {
+        Random rand = new Random(n);
+        int[] data = new int[3 * n];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rand.nextInt(i % 3 == 2 ? 1000 : 10) - (i % 3 == 2 ? 500 : 0);
+        }
+        return data;
+    }
+
+    /** One aggregate at a time gives what Aggregate does */
+    @Test public void matchesAggregate() throws Exception {
+        int[] data = rows(1000);
+        for (Aggregator.Op op : OPS) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                int[] gfields = gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield };
+                HashAggregate agg = new HashAggregate(TestUtil.createTupleList(3, data),
+                        gfields, new int[] { 2 }, new Aggregator.Op[] { op });
+                assertEquals(op + " " + gfield,
+                        run(new Aggregate(TestUtil.createTupleList(3, data), 2, gfield, op)), run(agg));
+            }
+        }
+    }
+
+    /** Several aggregates grouped by two fields, in one pass */
+    @Test public void multiple() throws Exception {
+        int[] data = rows(2000);
+        HashAggregate agg = new HashAggregate(TestUtil.createTupleList(3, data),
+                new int[] { 1, 0 }, new int[] { 2, 2, 2, 2, 0 }, OPS);
+        assertEquals(7, agg.getTupleDesc().numFields());
+
+        // compute each group's aggregates by brute force
+        TreeMap<String, int[]> groups = new TreeMap<String, int[]>();
+        for (int i = 0; i < data.length; i += 3) {
+            String key = data[i + 1] + "\t" + data[i];
+            int[] g = groups.get(key);
+            if (g == null) {
+                g = new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 0 };
+                groups.put(key, g);
+            }
+            g[0] = Math.min(g[0], data[i + 2]);
+            g[1] = Math.max(g[1], data[i + 2]);
+            g[2] += data[i + 2];
+            g[3]++;
+        }
+        ArrayList<String> expected = new ArrayList<String>();
+        for (Map.Entry<String, int[]> e : groups.entrySet()) {
+            int[] g = e.getValue();
+            expected.add(e.getKey() + "\t" + g[0] + "\t" + g[1] + "\t" + g[2] + "\t"
+                    + g[2] / g[3] + "\t" + g[3] + "\n");
+        }
+        Collections.sort(expected);
+        assertEquals(expected, run(agg));
+    }
+
+    @Test public void strings() throws Exception {
+        Object[] data = new Object[900];
+        for (int i = 0; i < data.length; i += 3) {
+            data[i] = "key" + (i % 7);
+            data[i + 1] = i % 5;
+            data[i + 2] = "value" + i;
+        }
+        HashAggregate agg = new HashAggregate(TestUtil.createTupleList(3, data),
+                new int[] { 0, 1 }, new int[] { 2, 1 },
+                new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+        List<String> result = run(agg);
+        assertEquals(35, result.size());
+        int total = 0;
+        for (String row : result) {
+            total += Integer.parseInt(row.trim().split("\t")[2]);
+        }
+        assertEquals(300, total);
+        assertEquals(run(new Aggregate(TestUtil.createTupleList(3, data), 2, 0, Aggregator.Op.COUNT)),
+                run(new HashAggregate(TestUtil.createTupleList(3, data), new int[] { 0 },
+                        new int[] { 2 }, new Aggregator.Op[] { Aggregator.Op.COUNT })));
+
+        try {
+            new HashAggregate(TestUtil.createTupleList(3, data), new int[0],
+                    new int[] { 2 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+            fail("SUM of a string field");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** Budgets that hold all the groups, some of them, and one at a time */
+    @Test public void spills() throws Exception {
+        Object[] data = new Object[3000];
+        Random rand = new Random(0);
+        for (int i = 0; i < data.length; i += 3) {
+            data[i] = rand.nextInt(40);
+            data[i + 1] = "key" + rand.nextInt(20);
+            data[i + 2] = rand.nextInt(1000);
+        }
+        int[] gfields = { 1, 0 };
+        int[] afields = { 2, 2, 2, 2, 2 };
+        List<String> expected = run(new HashAggregate(TestUtil.createTupleList(3, data),
+                gfields, afields, OPS));
+        assertTrue(expected.size() > 300);
+        for (int budget : new int[] { 100000, 200, 10, 1 }) {
+            assertEquals("budget " + budget, expected, run(new HashAggregate(
+                    TestUtil.createTupleList(3, data), gfields, afields, OPS, budget)));
+        }
+
+        HashAggregate agg = new HashAggregate(TestUtil.createTupleList(3, data),
+                gfields, afields, OPS, 10);
+        agg.open();
+        for (int i = 0; i < 100; i++) {
+            agg.next();
+        }
+        agg.rewind();
+        ArrayList<String> again = new ArrayList<String>();
+        while (agg.hasNext()) {
+            again.add(agg.next().toString());
+        }
+        agg.close();
+        Collections.sort(again);
+        assertEquals(expected, again);
+    }
+
+    /** An aggregate whose child fails part way through leaves no partitions behind */
+    @Test public void failedOpen() throws Exception {
+        Object[] data = new Object[3000];
+        for (int i = 0; i < data.length; i += 3) {
+            data[i] = i;
+            data[i + 1] = "key" + i % 20;
+            data[i + 2] = i;
+        }
+        int before = TestUtil.countSpillFiles();
+        HashAggregate agg = new HashAggregate(
+                TestUtil.failAfter(TestUtil.createTupleList(3, data), 900),
+                new int[] { 0 }, new int[] { 2 }, new Aggregator.Op[] { Aggregator.Op.SUM }, 10);
+        try {
+            agg.open();
+            fail("the child failed");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(before, TestUtil.countSpillFiles());
+    }
+
+    @Test public void empty() throws Exception {
+        HashAggregate agg = new HashAggregate(TestUtil.createTupleList(3, new int[0]),
+                new int[0], new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.COUNT });
+        assertTrue(run(agg).isEmpty());
+    }
+
+    /** The parser plans several aggregates and GROUP BY fields into one HashAggregate */
+    @Test public void plan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, 4, null, tuples, "c");
+        Database.getCatalog().addTable(f, "aggt");
+        TableStats.setTableStats("aggt", new TableStats(f.getId(), 10));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT aggt.c1, MAX(aggt.c2), aggt.c0, COUNT(aggt.c2) FROM aggt GROUP BY aggt.c0, aggt.c1;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof HashAggregate);
+
+        HashMap<String, int[]> groups = new HashMap<String, int[]>();
+        for (ArrayList<Integer> t : tuples) {
+            String key = t.get(1) + "\t";
+            int[] g = groups.get(key + t.get(0));
+            if (g == null) {
+                g = new int[] { Integer.MIN_VALUE, 0 };
+                groups.put(key + t.get(0), g);
+            }
+            g[0] = Math.max(g[0], t.get(2));
+            g[1]++;
+        }
+        ArrayList<String> expected = new ArrayList<String>();
+        for (Map.Entry<String, int[]> e : groups.entrySet()) {
+            String[] key = e.getKey().split("\t");
+            expected.add(key[0] + "\t" + e.getValue()[0] + "\t" + key[1] + "\t"
+                    + e.getValue()[1] + "\n");
+        }
+        Collections.sort(expected);
+        assertEquals(expected, run(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashAggregateTest.class);
+    }
+}
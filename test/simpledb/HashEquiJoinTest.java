@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** @return the join as computed by a nested-loops Join */
+    private List<String> expected(HeapFile build, HeapFile probe, JoinPredicate p) throws Exception {
+        return run(new Join(p, new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId())));
+    }
+
+    /** Build sides that fit, that spill some partitions and that spill all of them */
+    @Test public void spills() throws Exception {
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, null, "b");
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 1000, 500, null, null, "p");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<String> expected = expected(build, probe, p);
+        assertFalse(expected.isEmpty());
+        for (int budget : new int[] { 5000, 1500, 40, 1 }) {
+            assertEquals("budget " + budget, expected, run(new HashEquiJoin(p,
+                    new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()), budget)));
+        }
+    }
+
+    /** A key too common to split is joined a chunk of the budget at a time */
+    @Test public void skew() throws Exception {
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 600, 2, null, null, "b");
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 50, 2, null, null, "p");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertEquals(expected(build, probe, p), run(new HashEquiJoin(p,
+                new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()), 100)));
+    }
+
+    /** A build side that fails part way through leaves no partitions behind */
+    @Test public void failedOpen() throws Exception {
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, null, "b");
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 1000, 500, null, null, "p");
+        int before = TestUtil.countSpillFiles();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                TestUtil.failAfter(new SeqScan(tid, build.getId()), 1500),
+                new SeqScan(tid, probe.getId()), 40);
+        try {
+            join.open();
+            fail("the build side failed");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(before, TestUtil.countSpillFiles());
+    }
+
+    @Test public void rewind() throws Exception {
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, null, "b");
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, null, "p");
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        HashEquiJoin join = new HashEquiJoin(p,
+                new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()), 20);
+        join.open();
+        int first = 0;
+        while (join.hasNext()) {
+            join.next();
+            first++;
+        }
+        join.rewind();
+        int second = 0;
+        while (join.hasNext()) {
+            join.next();
+            second++;
+        }
+        join.close();
+        assertEquals(expected(build, probe, p).size(), first);
+        assertEquals(first, second);
+    }
+
+    @Test public void strings() throws Exception {
+        Object[] data = new Object[400];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = "key" + (i % 37);
+            data[i + 1] = i;
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertEquals(run(new Join(p, TestUtil.createTupleList(2, data), TestUtil.createTupleList(2, data))),
+                run(new HashEquiJoin(p, TestUtil.createTupleList(2, data),
+                        TestUtil.createTupleList(2, data), 10)));
+    }
+
+    /** Children swapped in by setChildren decide how join keys are hashed */
+    @Test public void setChildren() throws Exception {
+        Object[] data = { "a", 1, "b", 2, "b", 3 };
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(p, TestUtil.createTupleList(2, new int[] { 1, 2 }),
+                TestUtil.createTupleList(2, new int[] { 1, 2 }), 10);
+        join.setChildren(new DbIterator[] { TestUtil.createTupleList(2, data),
+                TestUtil.createTupleList(2, data) });
+        assertEquals(4, join.getTupleDesc().numFields());
+        assertEquals(run(new Join(p, TestUtil.createTupleList(2, data), TestUtil.createTupleList(2, data))),
+                run(join));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
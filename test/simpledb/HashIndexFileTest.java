@@ -0,0 +1,202 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("index", suffix);
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        return f;
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private static int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** @return the tuples a SeqScan and a Filter find, sorted as strings */
+    private List<String> filtered(HeapFile hf, Predicate p) throws Exception {
+        return run(new Filter(p, new SeqScan(tid, hf.getId())));
+    }
+
+    private HashIndexPage page(HashIndexFile index, int pgNo) throws Exception {
+        return (HashIndexPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(index.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /** An index built from a table finds the same tuples as a scan and a filter */
+    @Test public void createAndScan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, null);
+        HashIndexFile index = HashIndexFile.create(tempFile(".hash"), hf, 0);
+        Database.getCatalog().addIndex(index);
+        assertTrue(index.supports(Predicate.Op.EQUALS));
+        assertFalse(index.supports(Predicate.Op.LESS_THAN));
+        assertTrue(page(index, 0).globalDepth > 0);
+
+        assertEquals(20000, count(index.iterator(tid)));
+        for (int v : new int[] { -1, 0, 17, 2500, 4999, 5000 }) {
+            Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(v));
+            assertEquals("= " + v, filtered(hf, p), run(new IndexScan(tid, index, p)));
+        }
+    }
+
+    /**
+     * Inserts through the BufferPool split buckets and grow the directory,
+     * runs of one key go to overflow pages, and deletes remove entries
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HashIndexFile index = new HashIndexFile(tempFile(".hash"), hf, 1);
+        Database.getCatalog().addIndex(index);
+
+        Random r = new Random(0);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 6000; i++) {
+            // a third of the tuples share one key, more than a bucket holds
+            int key = i % 3 == 0 ? 7 : r.nextInt(1000);
+            Tuple t = Utility.getHeapTuple(new int[] { i, key });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        assertTrue(page(index, 0).globalDepth >= 3);
+        HashIndexPage dir = page(index, 0);
+        HashIndexPage bucket = page(index, dir.bucketFor(HashIndexPage.hash(new IntField(7))));
+        assertTrue(bucket.overflow != -1);
+
+        for (int i = 0; i < inserted.size(); i += 2) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        for (int v : new int[] { 7, 500, 999 }) {
+            Predicate p = new Predicate(1, Predicate.Op.EQUALS, new IntField(v));
+            List<String> found = run(new IndexScan(tid, index, p));
+            assertFalse(found.isEmpty());
+            assertEquals(filtered(hf, p), found);
+        }
+        assertEquals(3000, count(index.iterator(tid)));
+    }
+
+    /**
+     * A bucket with an overflow chain still splits once keys with other
+     * hashes fill it, and only the key it can't separate keeps a chain
+     */
+    @Test public void chainedBucketSplits() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HashIndexFile index = new HashIndexFile(tempFile(".hash"), hf, 1);
+        Database.getCatalog().addIndex(index);
+
+        int cap = HashIndexPage.capacity(Type.INT_TYPE);
+        for (int i = 0; i < 2 * cap + 1; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, 7 }));
+        }
+        assertEquals(0, page(index, 0).globalDepth);
+        assertTrue(page(index, 1).overflow != -1);
+
+        Random r = new Random(0);
+        for (int i = 0; i < 2 * cap; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { i, 100 + r.nextInt(1000) }));
+        }
+        HashIndexPage dir = page(index, 0);
+        assertTrue(dir.globalDepth > 0);
+        // other keys may only use the room left on the chain's last page
+        int sevens = 0;
+        int others = 0;
+        for (int pgNo = dir.bucketFor(HashIndexPage.hash(new IntField(7))); pgNo >= 0; ) {
+            HashIndexPage bucket = page(index, pgNo);
+            for (int i = 0; i < bucket.numEntries; i++) {
+                if (bucket.keys[i].equals(new IntField(7))) {
+                    sevens++;
+                } else {
+                    others++;
+                }
+            }
+            pgNo = bucket.overflow;
+        }
+        assertEquals(2 * cap + 1, sevens);
+        assertTrue(others < cap);
+
+        for (int v : new int[] { 7, 100, 600 }) {
+            Predicate p = new Predicate(1, Predicate.Op.EQUALS, new IntField(v));
+            assertEquals(filtered(hf, p), run(new IndexScan(tid, index, p)));
+        }
+        assertEquals(4 * cap + 1, count(index.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** String keys survive being flushed and read back */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "code", "n" });
+        HeapFile hf = new HeapFile(tempFile(".dat"), td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        File f = tempFile(".hash");
+        HashIndexFile index = new HashIndexFile(f, hf, 0);
+        Database.getCatalog().addIndex(index);
+
+        Random r = new Random(0);
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("code" + r.nextInt(500), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        tid = new TransactionId();
+
+        HashIndexFile reopened = new HashIndexFile(f, hf, 0);
+        assertTrue(((HashIndexPage) reopened.readPage(new HeapPageId(reopened.getId(), 0))).globalDepth > 0);
+
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new StringField("code42", Type.STRING_LEN));
+        List<String> found = run(new IndexScan(tid, index, p));
+        assertFalse(found.isEmpty());
+        assertEquals(filtered(hf, p), found);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -121,6 +121,48 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping split
+     * into segments of two pages
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        int segmentPages = HeapFile.mapSegmentPages;
+        HeapFile.mapSegmentPages = 2;
+        try {
+            HeapFile fivePages = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+            HeapFile mapped = new HeapFile(fivePages.getFile(), fivePages.getTupleDesc());
+            mapped.setMemoryMapped(true);
+            for (int i = 0; i < 5; i++) {
+                HeapPageId pid = new HeapPageId(fivePages.getId(), i);
+                assertEquals(tuplesOf(fivePages.readPage(pid)), tuplesOf(mapped.readPage(pid)));
+            }
+
+            // the file grows into the last, partly mapped segment; the new
+            // page is still empty on disk, the tuple is in the buffer pool
+            mapped.insertTuple(tid, Utility.getHeapTuple(7, 2));
+            HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(fivePages.getId(), 5));
+            assertEquals(504, page.getNumEmptySlots());
+
+            try {
+                mapped.readPage(new HeapPageId(fivePages.getId(), 6));
+                fail("expected exception");
+            } catch (IllegalArgumentException e) {
+            }
+        } finally {
+            HeapFile.mapSegmentPages = segmentPages;
+        }
+    }
+
+    private static List<String> tuplesOf(Page page) {
+        ArrayList<String> tuples = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            tuples.add(String.valueOf(it.next()));
+        }
+        return tuples;
+    }
+
     /**
      * JUnit suite target
      */
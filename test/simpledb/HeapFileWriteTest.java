@@ -7,6 +7,11 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import simpledb.systemtest.SystemTestUtil;
+
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
 
@@ -43,6 +48,49 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePage(): a page goes to its own offset and
+     * the rest of the file is left alone
+     */
+    @Test public void writePagePositional() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        long length = hf.getFile().length();
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2));
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        hf.writePage(page);
+
+        assertEquals(length, hf.getFile().length());
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(1, ((HeapPage) reopened.readPage(new HeapPageId(hf.getId(), 2))).getNumEmptySlots());
+        assertEquals(0, ((HeapPage) reopened.readPage(new HeapPageId(hf.getId(), 0))).getNumEmptySlots());
+        assertEquals(0, ((HeapPage) reopened.readPage(new HeapPageId(hf.getId(), 1))).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.writePages(): runs of adjacent pages and
+     * single pages both reach their offsets
+     */
+    @Test public void writePages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int pgNo : new int[] { 0, 1, 2, 4 }) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+            Iterator<Tuple> it = page.iterator();
+            for (int i = 0; i <= pgNo; i++) {
+                page.deleteTuple(it.next());
+            }
+            pages.add(page);
+        }
+        hf.writePages(pages);
+
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        for (int pgNo = 0; pgNo < 5; pgNo++) {
+            HeapPage page = (HeapPage) reopened.readPage(new HeapPageId(hf.getId(), pgNo));
+            assertEquals(pgNo == 3 ? 0 : pgNo + 1, page.getNumEmptySlots());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for reading string fields back from a page's bytes
+     */
+    @Test public void stringFields() throws Exception {
+        Type[] types = new Type[] { Type.STRING_TYPE, Type.INT_TYPE };
+        TupleDesc td = new TupleDesc(types);
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPageId spid = new HeapPageId(-2, 0);
+        HeapPage page = new HeapPage(spid, HeapPage.createEmptyPageData());
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("hello", Type.STRING_LEN));
+        t.setField(1, new IntField(-42));
+        page.insertTuple(t);
+
+        HeapPage read = new HeapPage(spid, page.getPageData());
+        Tuple tup = read.iterator().next();
+        assertEquals("hello", ((StringField) tup.getField(0)).getValue());
+        assertEquals(-42, ((IntField) tup.getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,6 +1,9 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -126,6 +129,118 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator() on a page with empty slots between
+     * used ones
+     */
+    @Test public void iteratorSkipsEmptySlots() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple[] stored = new Tuple[20];
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = it.next();
+        }
+        page.deleteTuple(stored[3]);
+        page.deleteTuple(stored[7]);
+
+        it = page.iterator();
+        for (int row = 0; row < 20; row++) {
+            if (row == 3 || row == 7)
+                continue;
+            Tuple tup = it.next();
+            assertEquals(row, tup.getRecordId().tupleno());
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][1],
+                    ((IntField) tup.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Tuples read from a page keep their values after their slot is
+     * deleted and reused, and the before image stays as read
+     */
+    @Test public void deletedTupleKeepsValues() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        assertEquals(7, ((IntField) page.iterator().next().getField(0)).getValue());
+        Tuple before = page.getBeforeImage().iterator().next();
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) before.getField(0)).getValue());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData(): an unchanged page gives back
+     * the bytes it was read from, and a changed one is serialized again
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertSame(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        // a tuple of another page lands in slot 0, slot 2 is emptied and a
+        // field of the tuple in slot 1 is replaced
+        HeapPage other = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple[] stored = new Tuple[20];
+        Tuple[] others = new Tuple[20];
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> ot = other.iterator();
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = it.next();
+            others[i] = ot.next();
+        }
+        page.deleteTuple(stored[0]);
+        page.deleteTuple(stored[2]);
+        other.deleteTuple(others[5]);
+        page.insertTuple(others[5]);
+        stored[1].setField(0, new IntField(-1));
+
+        byte[] data = page.getPageData();
+        assertSame(data, page.getPageData());
+        assertEquals(BufferPool.getPageSize(), data.length);
+
+        HeapPage read = new HeapPage(pid, data);
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        it = read.iterator();
+        Tuple t = it.next();
+        assertEquals(0, t.getRecordId().tupleno());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[5][0], ((IntField) t.getField(0)).getValue());
+        t = it.next();
+        assertEquals(-1, ((IntField) t.getField(0)).getValue());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][1], ((IntField) t.getField(1)).getValue());
+        t = it.next();
+        assertEquals(3, t.getRecordId().tupleno());
+        for (int i = 0; i < Utility.getTupleDesc(2).getSize(); i++) {
+            assertEquals(0, data[read.header.length + 2 * 8 + i]);
+        }
+
+        // putting a tuple back where it was gives the same bytes
+        HeapPage again = new HeapPage(pid, data);
+        t = again.iterator().next();
+        again.deleteTuple(t);
+        again.insertTuple(t);
+        assertArrayEquals(data, again.getPageData());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData(): setting a field of a tuple read
+     * from another page changes the image of the page it was inserted into
+     */
+    @Test public void setFieldOfMovedTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage other = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        Tuple t = other.iterator().next();
+        other.deleteTuple(t);
+        page.insertTuple(t);
+        page.getPageData();
+
+        t.setField(0, new IntField(-2));
+        Tuple read = new HeapPage(pid, page.getPageData()).iterator().next();
+        assertEquals(-2, ((IntField) read.getField(0)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
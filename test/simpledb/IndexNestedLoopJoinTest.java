@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Looking tuples up in an index finds what a nested loops join does */
+    @Test public void sameAsJoin() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, null);
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(3, 3000, 200, null, null);
+        HashIndexFile index = HashIndexFile.create(tempFile(), inner, 1);
+        Database.getCatalog().addIndex(index);
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(tid, p,
+                new SeqScan(tid, outer.getId(), "o"), index, "i");
+        List<String> expected = run(new Join(p, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, inner.getId(), "i")));
+        assertTrue(expected.size() > 1000);
+        assertEquals(expected, run(j));
+        assertEquals(new SeqScan(tid, outer.getId(), "o").getTupleDesc().numFields() + 3,
+                j.getTupleDesc().numFields());
+
+        // a rewind looks every tuple up again
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        j.rewind();
+        while (j.hasNext()) {
+            j.next();
+            n--;
+        }
+        j.close();
+        assertEquals(0, n);
+    }
+
+    /** The index can only be used for an equality on its field */
+    @Test(expected = IllegalArgumentException.class) public void wrongField() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HashIndexFile index = HashIndexFile.create(tempFile(), inner, 1);
+        new IndexNestedLoopJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId()), index, "i");
+    }
+
+    /** The planner looks up a small table in the index of a large one, but not a large one */
+    @Test public void chosenForSmallOuter() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        HeapFile medium = SystemTestUtil.createRandomHeapFile(2, 20000, null, null, "c");
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 50000, null, null, "c");
+        Database.getCatalog().addIndex(HashIndexFile.create(tempFile(), large, 0));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile hf : new HeapFile[] { small, medium, large }) {
+            stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1000));
+        }
+
+        // the index is on the right or the left of the join
+        assertTrue(plan(small, large, stats) instanceof IndexNestedLoopJoin);
+        assertTrue(plan(large, small, stats) instanceof IndexNestedLoopJoin);
+        assertFalse(plan(medium, large, stats) instanceof IndexNestedLoopJoin);
+    }
+
+    /** @return the operator under the Project of SELECT a.c1 FROM a, b WHERE a.c0 = b.c0 */
+    private DbIterator plan(HeapFile a, HeapFile b, Map<String, TableStats> stats) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("a.c1", null);
+        Operator project = (Operator) lp.physicalPlan(tid, stats, false);
+        return project.getChildren()[0];
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+    private static Tuple tuple(int key, int n) {
+        return Utility.getHeapTuple(new int[] { key, n });
+    }
+
+    /** @return the second fields of the tuples under a key, in order */
+    private static List<Integer> lookup(IntHashTable table, int key) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for (int row = table.first(key); row >= 0; row = table.next(row)) {
+            assertEquals(key, table.keyOf(row));
+            result.add(((IntField) table.get(row).getField(1)).getValue());
+        }
+        return result;
+    }
+
+    /** Keys spread and clustered, negative and repeated, past several rehashes */
+    @Test public void addAndLookup() {
+        IntHashTable table = new IntHashTable(4);
+        HashMap<Integer, List<Integer>> expected = new HashMap<Integer, List<Integer>>();
+        Random r = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            int key = i % 3 == 0 ? r.nextInt() : r.nextInt(500) - 250;
+            table.add(key, tuple(key, i));
+            if (!expected.containsKey(key)) {
+                expected.put(key, new ArrayList<Integer>());
+            }
+            expected.get(key).add(i);
+        }
+        assertEquals(20000, table.size());
+        for (Map.Entry<Integer, List<Integer>> e : expected.entrySet()) {
+            assertEquals(e.getValue(), lookup(table, e.getKey()));
+        }
+        assertEquals(-1, table.first(1 << 30));
+    }
+
+    @Test public void clear() {
+        IntHashTable table = new IntHashTable(16);
+        for (int i = 0; i < 100; i++) {
+            table.add(i % 10, tuple(i % 10, i));
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.first(3));
+        table.add(3, tuple(3, 7));
+        assertEquals(Arrays.asList(7), lookup(table, 3));
+        assertEquals(3, table.keyOf(0));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
@@ -1,8 +1,13 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +110,76 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Joins in blocks of one and two tuples of child1
+   */
+  @Test public void smallBlocks() throws Exception {
+    int size = Utility.getTupleDesc(width1).getSize();
+    for (int budget : new int[] { 1, 2 * size }) {
+      Join op = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2, budget);
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      op.close();
+      op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2, budget);
+      op.open();
+      eqJoin.open();
+      TestUtil.matchAllTuples(eqJoin, op);
+      // and again after a rewind
+      op.rewind();
+      eqJoin.rewind();
+      TestUtil.matchAllTuples(eqJoin, op);
+      op.close();
+    }
+  }
+
+  /**
+   * Children swapped in by setChildren decide how join fields are compared
+   */
+  @Test public void setChildren() throws Exception {
+    Join op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+    op.setChildren(new DbIterator[] {
+        TestUtil.createTupleList(2, new Object[] { "a", 1, "b", 2 }),
+        TestUtil.createTupleList(2, new Object[] { "b", 3, "c", 4 }) });
+    op.open();
+    assertTrue(op.hasNext());
+    assertEquals(new StringField("b", Type.STRING_LEN), op.next().getField(0));
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * Every operator on string fields, in blocks of three tuples
+   */
+  @Test public void stringBlocks() throws Exception {
+    Object[] data1 = { "apple", 1, "banana", 2, "cherry", 3, "an", 4, "date", 5 };
+    Object[] data2 = { "banana", 10, "apple", 20, "date", 30, "banana", 40 };
+    int budget = 3 * TestUtil.createTupleList(2, data1).getTupleDesc().getSize();
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = new ArrayList<String>();
+      DbIterator outer = TestUtil.createTupleList(2, data1);
+      while (outer.hasNext()) {
+        Tuple t1 = outer.next();
+        DbIterator inner = TestUtil.createTupleList(2, data2);
+        while (inner.hasNext()) {
+          Tuple t2 = inner.next();
+          if (p.filter(t1, t2))
+            expected.add(t1.toString().trim() + "\t" + t2.toString());
+        }
+      }
+      ArrayList<String> actual = new ArrayList<String>();
+      Join j = new Join(p, TestUtil.createTupleList(2, data1), TestUtil.createTupleList(2, data2), budget);
+      j.open();
+      while (j.hasNext())
+        actual.add(j.next().toString());
+      j.close();
+      Collections.sort(expected);
+      Collections.sort(actual);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
   /**
    * JUnit suite target
    */
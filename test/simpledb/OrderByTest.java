@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    /** @return rows of (random key, position in the input) */
+    private static int[] rows(int n, int keys) {
+        Random rand = new Random(n);
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = rand.nextInt(keys);
+            data[2 * i + 1] = i;
+        }
+        return data;
+    }
+
+    /** In memory, a few runs, and enough runs to take more than one merge pass */
+    @Test public void spills() throws Exception {
+        int[] data = rows(2000, 300);
+        for (boolean asc : new boolean[] { true, false }) {
+            List<String> expected = run(new OrderBy(0, asc, TestUtil.createTupleList(2, data)));
+            assertEquals(2000, expected.size());
+            for (int budget : new int[] { 4000, 800, 16 }) {
+                assertEquals("budget " + budget, expected,
+                        run(new OrderBy(0, asc, TestUtil.createTupleList(2, data), budget)));
+            }
+        }
+    }
+
+    /** Equal keys stay in input order, across runs too */
+    @Test public void stable() throws Exception {
+        int[] data = rows(1000, 10);
+        OrderBy sort = new OrderBy(0, true, TestUtil.createTupleList(2, data), 80);
+        sort.open();
+        Tuple prev = null;
+        while (sort.hasNext()) {
+            Tuple t = sort.next();
+            if (prev != null) {
+                int k1 = ((IntField) prev.getField(0)).getValue();
+                int k2 = ((IntField) t.getField(0)).getValue();
+                assertTrue(k1 <= k2);
+                if (k1 == k2)
+                    assertTrue(((IntField) prev.getField(1)).getValue()
+                            < ((IntField) t.getField(1)).getValue());
+            }
+            prev = t;
+        }
+        sort.close();
+    }
+
+    /** A sort that fails part way through doesn't leave its runs behind */
+    @Test public void failedOpen() throws Exception {
+        int before = TestUtil.countSpillFiles();
+        OrderBy sort = new OrderBy(0, true,
+                TestUtil.failAfter(TestUtil.createTupleList(2, rows(1000, 50)), 900), 80);
+        try {
+            sort.open();
+            fail("the child failed");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(before, TestUtil.countSpillFiles());
+    }
+
+    @Test public void rewind() throws Exception {
+        int[] data = rows(500, 50);
+        OrderBy sort = new OrderBy(0, true, TestUtil.createTupleList(2, data), 80);
+        List<String> first = run(sort);
+        sort.open();
+        for (int i = 0; i < 100; i++)
+            sort.next();
+        sort.rewind();
+        ArrayList<String> second = new ArrayList<String>();
+        while (sort.hasNext())
+            second.add(sort.next().toString());
+        sort.close();
+        assertEquals(first, second);
+        // reopening sorts again rather than adding to what was there
+        assertEquals(first, run(sort));
+    }
+
+    @Test public void strings() throws Exception {
+        Object[] data = new Object[600];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = "key" + (i * 7 % 101);
+            data[i + 1] = i;
+        }
+        assertEquals(run(new OrderBy(0, false, TestUtil.createTupleList(2, data))),
+                run(new OrderBy(0, false, TestUtil.createTupleList(2, data), 1000)));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
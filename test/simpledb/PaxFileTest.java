@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /** Writes rows of random ints as a text file for HeapFileEncoder */
+    private static File rows(int columns, int rows) throws IOException {
+        File csv = File.createTempFile("table", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new FileWriter(csv));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                w.print((j == 0 ? "" : ",") + r.nextInt(1000));
+            }
+            w.println();
+        }
+        w.close();
+        return csv;
+    }
+
+    private static File encode(File csv, int columns, boolean pax) throws IOException {
+        File out = File.createTempFile("table", ".dat");
+        out.deleteOnExit();
+        FreeSpaceMap.fileFor(out).deleteOnExit();
+        ZoneMap.fileFor(out).deleteOnExit();
+        Type[] types = Utility.getTypes(columns);
+        if (pax)
+            HeapFileEncoder.convertPax(csv, out, BufferPool.getPageSize(), columns, types, ',');
+        else
+            HeapFileEncoder.convert(csv, out, BufferPool.getPageSize(), columns, types, ',');
+        return out;
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    /** A page laid out column by column holds the same tuples */
+    @Test public void sameTuplesAsHeapPage() throws Exception {
+        byte[] data = PaxPage.fromHeapPageData(HeapPageReadTest.EXAMPLE_DATA, Utility.getTupleDesc(2));
+        PaxPage page = new PaxPage(pid, data);
+        assertEquals(484, page.getNumEmptySlots());
+
+        // column 1 starts after all 504 values of column 0
+        int header = HeapPage.headerSize(504);
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][0], Type.readInt(data, header + 4));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][1], Type.readInt(data, header + 504 * 4 + 4));
+
+        Iterator<Tuple> it = page.iterator();
+        for (int[] values : HeapPageReadTest.EXAMPLE_VALUES) {
+            Tuple t = it.next();
+            assertEquals(values[0], ((IntField) t.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /** Inserts, deletes and tuples from a HeapPage are written column by column */
+    @Test public void getPageData() throws Exception {
+        PaxPage page = new PaxPage(pid, PaxPage.fromHeapPageData(HeapPageReadTest.EXAMPLE_DATA, Utility.getTupleDesc(2)));
+        HeapPage rows = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        Iterator<Tuple> rit = rows.iterator();
+        rit.next();
+        Tuple fromRows = rit.next();
+        rows.deleteTuple(fromRows);
+        page.insertTuple(fromRows);
+
+        PaxPage read = new PaxPage(pid, page.getPageData());
+        assertEquals(484, read.getNumEmptySlots());
+        Tuple t = read.iterator().next();
+        assertEquals(7, ((IntField) t.getField(0)).getValue());
+        assertEquals(8, ((IntField) t.getField(1)).getValue());
+        t = read.tuple(1);
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][0], ((IntField) t.getField(0)).getValue());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][1], ((IntField) t.getField(1)).getValue());
+        assertTrue(read.getBeforeImage() instanceof PaxPage);
+    }
+
+    /** Queries over a PaxFile give the same answers as over a HeapFile */
+    @Test public void sameQueryResults() throws Exception {
+        File csv = rows(6, 3000);
+        HeapFile heap = new HeapFile(encode(csv, 6, false), Utility.getTupleDesc(6));
+        PaxFile pax = new PaxFile(encode(csv, 6, true), Utility.getTupleDesc(6));
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        assertEquals(heap.numPages(), pax.numPages());
+
+        TransactionId tid = new TransactionId();
+        List<List<String>> results = new ArrayList<List<String>>();
+        for (DbFile f : new DbFile[] { heap, pax }) {
+            Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300));
+            DbIterator it = new Aggregate(new Filter(p, new SeqScan(tid, f.getId())),
+                    4, 2, Aggregator.Op.SUM);
+            List<String> result = run(it);
+            Collections.sort(result);
+            results.add(result);
+        }
+        assertFalse(results.get(0).isEmpty());
+        assertEquals(results.get(0), results.get(1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Tuples inserted through the buffer pool reach the file */
+    @Test public void insertTuple() throws Exception {
+        PaxFile pax = new PaxFile(encode(rows(2, 504), 2, true), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 11, 12 });
+        Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+        assertEquals(new HeapPageId(pax.getId(), 1), t.getRecordId().getPageId());
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        HeapPage page = (HeapPage) new PaxFile(pax.getFile(), pax.getTupleDesc())
+                .readPage(new HeapPageId(pax.getId(), 1));
+        assertTrue(page instanceof PaxPage);
+        Tuple read = page.iterator().next();
+        assertEquals(12, ((IntField) read.getField(1)).getValue());
+    }
+
+    /** The catalog opens tables in the format their schema line names */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(schema));
+        w.println("rows (a int, b int)");
+        w.println("columns (a int, b int) pax");
+        w.println("codes (c string) slotted");
+        w.close();
+        for (String name : new String[] { "rows", "columns", "codes" }) {
+            new File(schema.getParent(), name + ".dat").deleteOnExit();
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertEquals(HeapFile.class, c.getDatabaseFile(c.getTableId("rows")).getClass());
+        assertEquals(PaxFile.class, c.getDatabaseFile(c.getTableId("columns")).getClass());
+        assertEquals(SlottedFile.class, c.getDatabaseFile(c.getTableId("codes")).getClass());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * Unit test for LRUPolicy: hits move a page to the back of the queue
+     */
+    @Test public void lru() {
+        ReplacementPolicy p = new LRUPolicy();
+        p.admit(pid(0));
+        p.admit(pid(1));
+        p.admit(pid(2));
+        p.access(pid(0));
+        assertEquals(pid(1), p.evict(null));
+        assertEquals(pid(2), p.evict(null));
+        assertEquals(pid(0), p.evict(null));
+        assertNull(p.evict(null));
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced pages get a second chance
+     */
+    @Test public void clock() {
+        ReplacementPolicy p = new ClockPolicy();
+        p.admit(pid(0));
+        p.admit(pid(1));
+        p.admit(pid(2));
+        // first sweep clears every bit, so the hand evicts frame 0
+        assertEquals(pid(0), p.evict(null));
+        p.admit(pid(3));
+        p.access(pid(1));
+        // 1 was referenced again, 2 was not
+        assertEquals(pid(2), p.evict(null));
+        p.remove(pid(1));
+        assertEquals(pid(3), p.evict(null));
+        assertNull(p.evict(null));
+    }
+
+    /**
+     * Unit test for TwoQPolicy: a scan can't push out a re-referenced page
+     */
+    @Test public void twoQScanResistance() {
+        // 0 is evicted from A1in once, then promoted to Am on its next miss
+        runScanResistance(new TwoQPolicy(4), new int[] { 0, 1, 2, 3, 4, 0 });
+    }
+
+    /**
+     * Unit test for ARCPolicy: a scan can't push out a re-referenced page
+     */
+    @Test public void arcScanResistance() {
+        // the second reference to 0 moves it into T2
+        runScanResistance(new ARCPolicy(4), new int[] { 0, 0, 1, 2, 3 });
+    }
+
+    /**
+     * Unit test for TwoQPolicy: a victim put back isn't promoted to Am
+     */
+    @Test public void twoQReinstate() {
+        ReplacementPolicy p = new TwoQPolicy(4);
+        p.admit(pid(0));
+        p.admit(pid(1));
+        assertEquals(pid(0), p.evict(null));
+        p.reinstate(pid(0));
+        // both are still first-timers in A1in, oldest first
+        assertEquals(pid(1), p.evict(null));
+        assertEquals(pid(0), p.evict(null));
+    }
+
+    /**
+     * Unit test for ARCPolicy: a victim put back returns to T1 and doesn't
+     * count as a ghost hit
+     */
+    @Test public void arcReinstate() {
+        ReplacementPolicy p = new ARCPolicy(4);
+        p.admit(pid(0));
+        p.admit(pid(1));
+        assertEquals(pid(0), p.evict(null));
+        p.reinstate(pid(0));
+        assertEquals(pid(1), p.evict(null));
+        assertEquals(pid(0), p.evict(null));
+    }
+
+    /**
+     * Simulates a 4-page pool: refs makes page 0 hot, then a long scan runs
+     * through the pool. The hot page must survive the scan.
+     */
+    private void runScanResistance(ReplacementPolicy p, int[] refs) {
+        java.util.HashSet<PageId> resident = new java.util.HashSet<PageId>();
+        for (int r : refs) {
+            touch(p, resident, pid(r), 4);
+        }
+        for (int i = 100; i < 140; i++) {
+            touch(p, resident, pid(i), 4);
+            assertTrue(resident.contains(pid(0)));
+        }
+    }
+
+    private void touch(ReplacementPolicy p, java.util.Set<PageId> resident,
+            PageId pid, int capacity) {
+        if (resident.contains(pid)) {
+            p.access(pid);
+            return;
+        }
+        if (resident.size() == capacity) {
+            PageId victim = p.evict(pid);
+            assertTrue(resident.remove(victim));
+        }
+        resident.add(pid);
+        p.admit(pid);
+    }
+
+    /**
+     * Unit test for BufferPool with a policy: hits refresh a page, so the
+     * coldest page is the one evicted
+     */
+    @Test public void bufferPoolUsesPolicy() throws Exception {
+        HeapFile hf = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool bp = Database.resetBufferPool(2, new LRUPolicy());
+        TransactionId tid = new TransactionId();
+        Page p0 = bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        // page 1 is now the least recently used and should make room for 2
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        assertSame(p0, bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Unit test for BufferPool.discardPage: the page is read again and the
+     * policy no longer offers it as a victim
+     */
+    @Test public void discardPage() throws Exception {
+        HeapFile hf = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool bp = Database.resetBufferPool(2, new LRUPolicy());
+        TransactionId tid = new TransactionId();
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        Page p0 = bp.getPage(tid, pid0, Permissions.READ_ONLY);
+        Page p1 = bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        bp.discardPage(pid0);
+        assertNotSame(p0, bp.getPage(tid, pid0, Permissions.READ_ONLY));
+        // there was a free frame, so page 1 stayed
+        assertSame(p1, bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
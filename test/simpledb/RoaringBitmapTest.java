@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class RoaringBitmapTest extends SimpleDbTestBase {
+
+    /** @return a bitmap of n random ints below max, and the same ints in a BitSet */
+    private static RoaringBitmap random(Random r, int n, int max, BitSet expected) {
+        RoaringBitmap b = new RoaringBitmap();
+        for (int i = 0; i < n; i++) {
+            int x = r.nextInt(max);
+            b.add(x);
+            expected.set(x);
+        }
+        return b;
+    }
+
+    private static void assertSame(BitSet expected, RoaringBitmap b) {
+        assertEquals(expected.cardinality(), b.cardinality());
+        assertEquals(expected.isEmpty(), b.isEmpty());
+        int x = -1;
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            x = b.nextSetBit(x + 1);
+            assertEquals(i, x);
+            assertTrue(b.contains(i));
+        }
+        assertEquals(-1, b.nextSetBit(x + 1));
+    }
+
+    /** Sets sparse enough for arrays and dense enough for bitmaps, across chunks */
+    @Test public void addRemoveContains() {
+        Random r = new Random(0);
+        for (int n : new int[] { 0, 10, 3000, 5000, 100000 }) {
+            BitSet expected = new BitSet();
+            RoaringBitmap b = random(r, n, 300000, expected);
+            assertSame(expected, b);
+            for (int i = 0; i < n / 2; i++) {
+                int x = r.nextInt(300000);
+                b.remove(x);
+                expected.clear(x);
+            }
+            assertSame(expected, b);
+        }
+    }
+
+    /** A bitmap container turns back into an array as it empties */
+    @Test public void denseThenSparse() {
+        RoaringBitmap b = new RoaringBitmap();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < 10000; i++) {
+            b.add(i);
+            expected.set(i);
+        }
+        for (int i = 0; i < 10000; i += 3) {
+            b.remove(i);
+            b.remove(i + 1);
+            expected.clear(i, i + 2);
+        }
+        assertSame(expected, b);
+        b.removeRange(0, 10000);
+        assertTrue(b.isEmpty());
+    }
+
+    @Test public void removeRange() {
+        Random r = new Random(1);
+        for (int n : new int[] { 1000, 200000 }) {
+            BitSet expected = new BitSet();
+            RoaringBitmap b = random(r, n, 400000, expected);
+            for (int i = 0; i < 20; i++) {
+                int from = r.nextInt(400000);
+                int to = from + r.nextInt(100000);
+                b.removeRange(from, to);
+                expected.clear(from, to);
+                assertSame(expected, b);
+            }
+        }
+    }
+
+    @Test public void andOr() {
+        Random r = new Random(2);
+        int[] sizes = { 0, 100, 3000, 6000, 100000 };
+        for (int na : sizes) {
+            for (int nb : sizes) {
+                BitSet ea = new BitSet();
+                BitSet eb = new BitSet();
+                RoaringBitmap a = random(r, na, 200000, ea);
+                RoaringBitmap b = random(r, nb, 200000, eb);
+                BitSet and = (BitSet) ea.clone();
+                and.and(eb);
+                BitSet or = (BitSet) ea.clone();
+                or.or(eb);
+                assertSame(and, RoaringBitmap.and(a, b));
+                assertSame(or, RoaringBitmap.or(a, b));
+                // the inputs are left as they were
+                assertSame(ea, a);
+                assertSame(eb, b);
+            }
+        }
+    }
+
+    @Test public void writeAndRead() throws Exception {
+        Random r = new Random(3);
+        BitSet expected = new BitSet();
+        RoaringBitmap b = random(r, 50000, 1000000, expected);
+        for (int i = 0; i < 20000; i++) {
+            b.add(500000 + i);
+            expected.set(500000 + i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        b.writeTo(new DataOutputStream(bytes));
+        RoaringBitmap read = RoaringBitmap.readFrom(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertSame(expected, read);
+        // the copy is independent of the bitmap it came from
+        RoaringBitmap copy = read.copy();
+        copy.removeRange(0, 1000000);
+        assertSame(expected, read);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RoaringBitmapTest.class);
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "code", "n" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(String code, int n) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new StringField(code, Type.STRING_LEN));
+        t.setField(1, new IntField(n));
+        return t;
+    }
+
+    private static String code(Tuple t) {
+        return ((StringField) t.getField(0)).getValue();
+    }
+
+    private static File encode(int rows) throws IOException {
+        File csv = File.createTempFile("codes", ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(csv));
+        for (int i = 0; i < rows; i++) {
+            w.println("c" + i + "," + i);
+        }
+        w.close();
+        File out = File.createTempFile("codes", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convertSlotted(csv, out, new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, ',');
+        return out;
+    }
+
+    /**
+     * Strings of different lengths come back from the page's bytes, each
+     * taking up only its own length
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        String[] codes = { "", "a", "abcdef", "a much longer string value" };
+        int free = page.getFreeBytes();
+        for (int i = 0; i < codes.length; i++) {
+            page.insertTuple(tuple(codes[i], i));
+        }
+        assertEquals(free - 4 * (SlottedPage.SLOT_SIZE + 2 + 4) - 33, page.getFreeBytes());
+
+        SlottedPage read = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < codes.length; i++) {
+            Tuple t = it.next();
+            assertEquals(codes[i], code(t));
+            assertEquals(i, ((IntField) t.getField(1)).getValue());
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /** Deletes leave the other tuples' RecordIds alone and free their slot */
+    @Test public void recordIdsStable() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple[] tuples = new Tuple[5];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = tuple("code" + i, i);
+            page.insertTuple(tuples[i]);
+        }
+        page.deleteTuple(tuples[1]);
+        page.deleteTuple(tuples[4]);
+
+        SlottedPage read = new SlottedPage(pid, page.getPageData());
+        assertEquals(3, read.getNumTuples());
+        assertFalse(read.isSlotUsed(1));
+        for (int slot : new int[] { 0, 2, 3 }) {
+            assertEquals("code" + slot, code(read.tuple(slot)));
+        }
+
+        Tuple t = tuple("new", 9);
+        read.insertTuple(t);
+        assertEquals(1, t.getRecordId().tupleno());
+        assertEquals("code3", code(new SlottedPage(pid, read.getPageData()).tuple(3)));
+    }
+
+    /** Setting a field of a tuple read from a page changes it on the page */
+    @Test public void setFieldWritesBack() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        for (int i = 0; i < 3; i++) {
+            page.insertTuple(tuple("code" + i, i));
+        }
+        SlottedPage read = new SlottedPage(pid, page.getPageData());
+        int free = read.getFreeBytes();
+        read.tuple(1).setField(0, new StringField("longer code", Type.STRING_LEN));
+        read.tuple(2).setField(1, new IntField(42));
+        assertEquals(free - 6, read.getFreeBytes());
+
+        SlottedPage again = new SlottedPage(pid, read.getPageData());
+        assertEquals("code0", code(again.tuple(0)));
+        assertEquals("longer code", code(again.tuple(1)));
+        assertEquals(42, ((IntField) again.tuple(2).getField(1)).getValue());
+
+        // A string that doesn't fit leaves the tuple as it was
+        while (again.hasRoomFor(tuple("abcd", 0))) {
+            again.insertTuple(tuple("abcd", 0));
+        }
+        Tuple t = again.tuple(0);
+        try {
+            t.setField(0, new StringField("a string too long to fit", Type.STRING_LEN));
+            fail("tuple grew past the end of its page");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("code0", code(t));
+        assertEquals("code0", code(new SlottedPage(pid, again.getPageData()).tuple(0)));
+    }
+
+    /** A page takes tuples until their bytes run out */
+    @Test public void pageFull() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple("abcd", n))) {
+            page.insertTuple(tuple("abcd", n++));
+        }
+        assertEquals((BufferPool.getPageSize() - SlottedPage.HEADER_SIZE) / (SlottedPage.SLOT_SIZE + 2 + 4 + 4), n);
+        try {
+            page.insertTuple(tuple("abcd", n));
+            fail("inserted into a full page");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** Files written by HeapFileEncoder scan back in order */
+    @Test public void encodeAndScan() throws Exception {
+        File f = encode(2000);
+        SlottedFile sf = new SlottedFile(f, TD);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        // 16 bytes or less per tuple, against 136 in a HeapFile
+        assertTrue(sf.numPages() <= 8);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("c" + i, code(t));
+            assertEquals(i, ((IntField) t.getField(1)).getValue());
+            i++;
+        }
+        it.close();
+        assertEquals(2000, i);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts and deletes through the buffer pool reach the file */
+    @Test public void insertAndDelete() throws Exception {
+        File f = encode(600);
+        SlottedFile sf = new SlottedFile(f, TD);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        int pages = sf.numPages();
+
+        TransactionId tid = new TransactionId();
+        SlottedPage first = (SlottedPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(sf.getId(), 0), Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, first.tuple(3));
+        Tuple t = tuple("xyz", -1);
+        Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        assertEquals(new RecordId(new HeapPageId(sf.getId(), 0), 3), t.getRecordId());
+        for (int i = 0; i < 500; i++) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple("more" + i, i));
+        }
+        assertTrue(sf.numPages() > pages);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        SlottedFile reopened = new SlottedFile(f, TD);
+        SlottedPage page = (SlottedPage) reopened.readPage(new HeapPageId(sf.getId(), 0));
+        assertEquals("xyz", code(page.tuple(3)));
+        int count = 0;
+        for (int p = 0; p < reopened.numPages(); p++) {
+            count += ((SlottedPage) reopened.readPage(new HeapPageId(sf.getId(), p))).getNumTuples();
+        }
+        assertEquals(1100, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
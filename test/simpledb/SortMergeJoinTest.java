@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private HeapFile a;
+    private HeapFile b;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        a = SystemTestUtil.createRandomHeapFile(2, 300, 40, null, null, "c");
+        b = SystemTestUtil.createRandomHeapFile(2, 200, 40, null, null, "c");
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Every operator, on unsorted inputs, gives what a nested-loops Join does */
+    @Test public void everyOp() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate p = new JoinPredicate(0, op, 1);
+            assertEquals(op.toString(),
+                    run(new Join(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()))),
+                    run(new SortMergeJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()))));
+        }
+    }
+
+    /** Inputs already sorted by an OrderBy or a B+tree aren't sorted again */
+    @Test public void sortedInputs() throws Exception {
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        BTreeFile index = BTreeFile.create(f, b, 1);
+        Database.getCatalog().addIndex(index);
+        DbIterator byIndex = new IndexScan(tid, index,
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(Integer.MIN_VALUE)));
+        DbIterator ordered = new OrderBy(0, true, new SeqScan(tid, a.getId()));
+        assertTrue(SortMergeJoin.isSortedOn(ordered, 0));
+        assertFalse(SortMergeJoin.isSortedOn(ordered, 1));
+        assertTrue(SortMergeJoin.isSortedOn(byIndex, 1));
+        assertTrue(SortMergeJoin.isSortedOn(new Filter(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20)), byIndex), 1));
+        assertFalse(SortMergeJoin.isSortedOn(new SeqScan(tid, a.getId()), 0));
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        assertEquals(run(new Join(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()))),
+                run(new SortMergeJoin(p, ordered, byIndex)));
+    }
+
+    @Test public void rewind() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+            SortMergeJoin j = new SortMergeJoin(new JoinPredicate(1, op, 1),
+                    new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()));
+            j.open();
+            ArrayList<String> first = new ArrayList<String>();
+            while (j.hasNext()) {
+                first.add(j.next().toString());
+            }
+            j.rewind();
+            ArrayList<String> second = new ArrayList<String>();
+            while (j.hasNext()) {
+                second.add(j.next().toString());
+            }
+            j.close();
+            assertFalse(first.isEmpty());
+            assertEquals(first, second);
+        }
+    }
+
+    @Test public void strings() throws Exception {
+        Object[] data1 = { "apple", 1, "banana", 2, "cherry", 3, "an", 4 };
+        Object[] data2 = { "banana", 10, "apple", 20, "date", 30, "banana", 40 };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            assertEquals(op.toString(),
+                    run(new Join(p, TestUtil.createTupleList(2, data1), TestUtil.createTupleList(2, data2))),
+                    run(new SortMergeJoin(p, TestUtil.createTupleList(2, data1),
+                            TestUtil.createTupleList(2, data2))));
+        }
+    }
+
+    /**
+     * The planner merges the inputs of a range join rather than scanning the
+     * inner table for each outer tuple, unless there is only one
+     */
+    @Test public void chosenForLargeRangeJoin() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 1, null, null, "c");
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 20000, null, null, "c");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile hf : new HeapFile[] { small, large }) {
+            stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1000));
+        }
+        assertTrue(plan(large, large, Predicate.Op.LESS_THAN, stats) instanceof SortMergeJoin);
+        assertTrue(plan(small, large, Predicate.Op.LESS_THAN, stats) instanceof Join);
+        assertTrue(plan(large, large, Predicate.Op.EQUALS, stats) instanceof HashEquiJoin);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(large.getId(), "a");
+        lp.addScan(large.getId(), "b");
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        double nl = JoinOptimizer.nestedLoopJoinCost(20000, 20000, 1e5, 1e5, 1);
+        int block = Join.blockTuples(large.getTupleDesc(), SortMergeJoin.DEFAULT_BLOCK_BYTES);
+        double merge = JoinOptimizer.sortMergeJoinCost(Predicate.Op.LESS_THAN, 20000, 20000,
+                1e5, 1e5, false, false, block);
+        assertTrue(merge < nl);
+        assertEquals(merge, jo.estimateJoinCost(new LogicalJoinNode("a", "b", "c0", "c0",
+                Predicate.Op.LESS_THAN), 20000, 20000, 1e5, 1e5), 1e-6);
+        // an inner input many blocks long makes the outer plan run once per block
+        assertTrue(JoinOptimizer.sortMergeJoinCost(Predicate.Op.LESS_THAN, 20000, 20000,
+                1e5, 1e5, false, false, 1) > nl);
+        // inputs that are already sorted make merging cheaper
+        assertTrue(JoinOptimizer.sortMergeJoinCost(Predicate.Op.EQUALS, 20000, 20000, 1e5, 1e5, true, true, block)
+                < JoinOptimizer.sortMergeJoinCost(Predicate.Op.EQUALS, 20000, 20000, 1e5, 1e5, false, false, block));
+    }
+
+    /**
+     * A range join over an inner input many blocks long gives the same
+     * tuples, and rewinds, holding one block at a time
+     */
+    @Test public void blocks() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate p = new JoinPredicate(0, op, 1);
+            List<String> expected = run(new Join(p, new SeqScan(tid, a.getId()),
+                    new SeqScan(tid, b.getId())));
+            // 8 byte tuples, so blocks of 7 tuples
+            SortMergeJoin j = new SortMergeJoin(p, new SeqScan(tid, a.getId()),
+                    new SeqScan(tid, b.getId()), 60);
+            assertEquals(op.toString(), expected, run(j));
+            j.open();
+            j.next();
+            j.rewind();
+            ArrayList<String> again = new ArrayList<String>();
+            while (j.hasNext()) {
+                again.add(j.next().toString());
+            }
+            j.close();
+            Collections.sort(again);
+            assertEquals(op.toString(), expected, again);
+        }
+    }
+
+    /** @return the operator under the Project of SELECT a.c1 FROM a, b WHERE a.c0 op b.c0 */
+    private DbIterator plan(HeapFile a, HeapFile b, Predicate.Op op, Map<String, TableStats> stats)
+            throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", op);
+        lp.addProjectField("a.c1", null);
+        Operator project = (Operator) lp.physicalPlan(tid, stats, false);
+        return project.getChildren()[0];
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
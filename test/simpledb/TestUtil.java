@@ -241,6 +241,63 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * @return an iterator over child that throws a DbException instead of
+     *         returning the tuple after the first n
+     */
+    public static DbIterator failAfter(final DbIterator child, final int n) {
+        return new Operator() {
+            private static final long serialVersionUID = 1L;
+            private int read;
+
+            public void open() throws DbException, TransactionAbortedException {
+                child.open();
+                read = 0;
+                super.open();
+            }
+
+            public void close() {
+                super.close();
+                child.close();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+                read = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return child.getTupleDesc();
+            }
+
+            protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                if (!child.hasNext())
+                    return null;
+                if (read++ == n)
+                    throw new DbException("failing after " + n + " tuples");
+                return child.next();
+            }
+
+            public DbIterator[] getChildren() {
+                return new DbIterator[] { child };
+            }
+
+            public void setChildren(DbIterator[] children) {
+                // fixed child
+            }
+        };
+    }
+
+    /** @return the number of operator spill files in the temporary directory */
+    public static int countSpillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("spill") && name.endsWith(".tmp");
+            }
+        });
+        return names == null ? 0 : names.length;
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
@@ -379,6 +436,11 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.fileFor(emptyFile).deleteOnExit();
+            ZoneMap.fileFor(emptyFile).deleteOnExit();
+            for (int field = 0; field < 2; field++) {
+                BitmapIndex.fileFor(emptyFile, field).deleteOnExit();
+            }
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import Zql.ZDelete;
+import Zql.ZqlParser;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private static List<String> run(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    /** @return rows of (random key, position in the input) */
+    private static int[] rows(int n, int keys) {
+        Random rand = new Random(n);
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = rand.nextInt(keys);
+            data[2 * i + 1] = i;
+        }
+        return data;
+    }
+
+    /** TopN returns the first rows of a (stable) OrderBy */
+    @Test public void matchesOrderBy() throws Exception {
+        int[] data = rows(1000, 50);
+        for (boolean asc : new boolean[] { true, false }) {
+            for (int limit : new int[] { 0, 1, 10, 999, 1000, 5000 }) {
+                assertEquals("limit " + limit,
+                        run(new Limit(limit, new OrderBy(0, asc, TestUtil.createTupleList(2, data)))),
+                        run(new TopN(0, asc, limit, TestUtil.createTupleList(2, data))));
+            }
+        }
+    }
+
+    @Test public void strings() throws Exception {
+        Object[] data = new Object[600];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = "key" + (i * 7 % 101);
+            data[i + 1] = i;
+        }
+        assertEquals(run(new Limit(20, new OrderBy(0, true, TestUtil.createTupleList(2, data)))),
+                run(new TopN(0, true, 20, TestUtil.createTupleList(2, data))));
+    }
+
+    @Test public void rewind() throws Exception {
+        TopN top = new TopN(0, false, 5, TestUtil.createTupleList(2, rows(100, 10)));
+        List<String> first = run(top);
+        assertEquals(5, first.size());
+        top.open();
+        top.next();
+        top.rewind();
+        ArrayList<String> second = new ArrayList<String>();
+        while (top.hasNext())
+            second.add(top.next().toString());
+        top.close();
+        assertEquals(first, second);
+    }
+
+    @Test public void limit() throws Exception {
+        int[] data = rows(10, 10);
+        List<String> all = run(TestUtil.createTupleList(2, data));
+        assertEquals(all.subList(0, 3), run(new Limit(3, TestUtil.createTupleList(2, data))));
+        assertEquals(all, run(new Limit(20, TestUtil.createTupleList(2, data))));
+        assertTrue(run(new Limit(0, TestUtil.createTupleList(2, data))).isEmpty());
+    }
+
+    /** The planner fuses ORDER BY ... LIMIT into TopN, and plans a Limit on its own */
+    @Test public void plan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, null, "c");
+        Database.getCatalog().addTable(f, "topt");
+        TableStats.setTableStats("topt", new TableStats(f.getId(), 10));
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+
+        DbIterator plan = p.generateLogicalPlan(tid,
+                "SELECT * FROM topt ORDER BY topt.c0 DESC LIMIT 7;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        List<String> top = run(plan);
+        assertEquals(run(new Limit(7, new OrderBy(0, false, new SeqScan(tid, f.getId())))), top);
+
+        plan = p.generateLogicalPlan(tid, "SELECT topt.c1 FROM topt limit 3;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        assertEquals(3, run(plan).size());
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM topt ORDER BY topt.c0;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof OrderBy);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Only a LIMIT ending the first statement, outside quotes, is taken */
+    @Test public void limitClause() throws Exception {
+        Parser p = new Parser();
+        assertEquals("SELECT * FROM t;", p.stripLimit("SELECT * FROM t LIMIT 5;"));
+        String s = "SELECT * FROM t; SELECT * FROM t LIMIT 5;";
+        assertEquals(s, p.stripLimit(s));
+        s = "SELECT * FROM t WHERE t.s = 'a LIMIT 5';";
+        assertEquals(s, p.stripLimit(s));
+        s = "SELECT * FROM t WHERE t.s = 'a; LIMIT 5';";
+        assertEquals(s, p.stripLimit(s));
+
+        String sql = p.stripLimit("DELETE FROM t LIMIT 5;");
+        ZqlParser zp = new ZqlParser(new java.io.ByteArrayInputStream(sql.getBytes("UTF-8")));
+        try {
+            p.handleDeleteStatement((ZDelete) zp.readStatement(), new TransactionId());
+            fail("LIMIT on a DELETE should be rejected");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+    private static final int PER_PAGE = 504;
+
+    private TransactionId tid;
+    private HeapFile hf;
+
+    /** Ten full pages of two-column tuples, in order of their first field */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        for (int i = 0; i < PAGES * PER_PAGE; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, r.nextInt(1000))));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, f);
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /** @return the first field of each tuple the scan returns */
+    private List<Integer> scan(Predicate... preds) throws Exception {
+        SeqScan ss = new SeqScan(tid, hf.getId());
+        for (Predicate p : preds) {
+            ss.pushDown(p);
+        }
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        ss.open();
+        while (ss.hasNext()) {
+            values.add(((IntField) ss.next().getField(0)).getValue());
+        }
+        ss.close();
+        return values;
+    }
+
+    /** Only the pages whose range meets the predicate are read */
+    @Test public void skipsPages() throws Exception {
+        List<Integer> values = scan(pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 8 * PER_PAGE + 3));
+        assertEquals(2 * PER_PAGE, values.size());
+        assertEquals(8 * PER_PAGE, (int) values.get(0));
+
+        assertEquals(PER_PAGE, scan(pred(0, Predicate.Op.EQUALS, 3 * PER_PAGE + 7)).size());
+        assertEquals(0, scan(pred(0, Predicate.Op.LESS_THAN, 0)).size());
+        assertEquals(PER_PAGE, scan(pred(0, Predicate.Op.LESS_THAN, 600),
+                pred(0, Predicate.Op.LESS_THAN_OR_EQ, 503)).size());
+        // the second field covers the same range on every page
+        assertEquals(PAGES * PER_PAGE, scan(pred(1, Predicate.Op.LESS_THAN, 10)).size());
+
+        ArrayList<Integer> all = new ArrayList<Integer>();
+        for (int i = 0; i < PAGES * PER_PAGE; i++) {
+            all.add(i);
+        }
+        assertEquals(all, scan(pred(0, Predicate.Op.NOT_EQUALS, 5)));
+    }
+
+    /** An insert widens its page's range before the page is written */
+    @Test public void insertWidens() throws Exception {
+        assertEquals(0, scan(pred(0, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE)).size());
+
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 3), Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        Tuple t = Utility.getHeapTuple(new int[] { 1000000, 1 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(new HeapPageId(hf.getId(), 3), t.getRecordId().getPageId());
+
+        List<Integer> values = scan(pred(0, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE));
+        assertEquals(PER_PAGE, values.size());
+        assertTrue(values.contains(1000000));
+    }
+
+    /**
+     * An insert doesn't open the map; the first scan that uses it does,
+     * and reads the page through the pool until it is written
+     */
+    @Test public void insertBeforeOpen() throws Exception {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 3), Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1000000, 1 }));
+        assertFalse(ZoneMap.fileFor(hf.getFile()).exists());
+
+        List<Integer> values = scan(pred(0, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE));
+        assertEquals(PER_PAGE, values.size());
+        assertTrue(values.contains(1000000));
+        assertFalse(hf.zoneMap().mayMatch(2, pred(0, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE)));
+
+        hf.writePage(page);
+        assertFalse(hf.zoneMap().mayMatch(3, pred(0, Predicate.Op.GREATER_THAN, 1000000)));
+    }
+
+    /** The sidecar is kept up to date as pages are written */
+    @Test public void savedWhenWritten() throws Exception {
+        hf.zoneMap();
+        File sidecar = ZoneMap.fileFor(hf.getFile());
+        assertTrue(sidecar.exists());
+        assertEquals(PAGES * 2 * 8, sidecar.length());
+
+        // emptying a page leaves it with no range once it is written
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            page.deleteTuple(it.next());
+        }
+        assertTrue(hf.zoneMap().mayMatch(0, pred(0, Predicate.Op.EQUALS, 5)));
+        hf.writePage(page);
+        assertFalse(hf.zoneMap().mayMatch(0, pred(0, Predicate.Op.EQUALS, 5)));
+
+        HeapFile reader = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        ZoneMap zones = reader.zoneMap();
+        assertFalse(zones.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 0)));
+        assertTrue(zones.mayMatch(1, pred(0, Predicate.Op.EQUALS, PER_PAGE)));
+        assertFalse(zones.mayMatch(1, pred(0, Predicate.Op.LESS_THAN, PER_PAGE)));
+        assertTrue(zones.mayMatch(9, pred(0, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE - 2)));
+        assertFalse(zones.mayMatch(9, pred(0, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE - 1)));
+    }
+
+    /** A sidecar that pages were written behind is not trusted */
+    @Test public void staleSidecarRebuilt() throws Exception {
+        hf.zoneMap();
+        assertTrue(ZoneMap.fileFor(hf.getFile()).exists());
+
+        // a file that never opened its map writes a page
+        HeapFile writer = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        HeapPage page = (HeapPage) writer.readPage(new HeapPageId(hf.getId(), 9));
+        page.setFile(null);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { -1, 0 }));
+        writer.writePage(page);
+        assertFalse(ZoneMap.fileFor(hf.getFile()).exists());
+
+        HeapFile reader = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertTrue(reader.zoneMap().mayMatch(9, pred(0, Predicate.Op.LESS_THAN, 0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
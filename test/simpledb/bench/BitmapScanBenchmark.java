@@ -0,0 +1,122 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Runs filters over three low-cardinality columns of a table, by scanning
+ * and filtering the table and by combining the columns' bitmap indexes:
+ * <pre>
+ *   SELECT COUNT(c3) FROM t WHERE c0 = 1
+ *   SELECT COUNT(c3) FROM t WHERE c0 = 1 AND c1 = 3
+ *   SELECT COUNT(c3) FROM t WHERE c0 = 1 AND c1 = 3 AND c2 = 7
+ *   SELECT COUNT(c3) FROM t WHERE c0 = 1 AND (c1 = 3 OR c1 = 4) AND c2 = 7
+ * </pre>
+ * c0 has 5 values, c1 20 and c2 50, in no particular order.
+ * Usage: <code>BitmapScanBenchmark [rows]</code>
+ * <p>
+ * Each run starts with an empty buffer pool, so pages are read again from
+ * the OS cache.
+ */
+public class BitmapScanBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static long query(HeapFile file, Predicate[][] clauses, boolean bitmap) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            DbIterator child;
+            if (bitmap) {
+                child = new BitmapHeapScan(tid, file.getId(), "t", clauses);
+            } else {
+                child = new SeqScan(tid, file.getId(), "t");
+                for (Predicate[] clause : clauses) {
+                    // the ORs of a clause are all on one field here
+                    child = clause.length == 1 ? new Filter(clause[0], child)
+                            : new Filter(new InPredicate(clause), child);
+                }
+            }
+            DbIterator it = new Aggregate(child, 3, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    /** A predicate that is satisfied by a tuple that satisfies any of several */
+    private static class InPredicate extends Predicate {
+        private static final long serialVersionUID = 1L;
+        private final Predicate[] m_any;
+
+        InPredicate(Predicate[] any) {
+            super(any[0].getField(), any[0].getOp(), any[0].getOperand());
+            m_any = any;
+        }
+
+        public boolean filter(Tuple t) {
+            for (Predicate p : m_any) {
+                if (p.filter(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static Predicate eq(int field, int v) {
+        return new Predicate(field, Predicate.Op.EQUALS, new IntField(v));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        File csv = File.createTempFile("table", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(5) + "," + r.nextInt(20) + "," + r.nextInt(50) + "," + i);
+        }
+        w.close();
+
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 4);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(4));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int field = 0; field < 3; field++) {
+            BitmapIndex.fileFor(f, field).deleteOnExit();
+            hf.addBitmapIndex(field);
+            bytes += BitmapIndex.fileFor(f, field).length();
+        }
+        System.out.println(String.format("%d rows, %d pages, bitmaps of %d KB built in %.0f ms",
+                rows, hf.numPages(), bytes / 1024, (System.nanoTime() - start) / 1e6));
+
+        Predicate[][][] queries = {
+            { { eq(0, 1) } },
+            { { eq(0, 1) }, { eq(1, 3) } },
+            { { eq(0, 1) }, { eq(1, 3) }, { eq(2, 7) } },
+            { { eq(0, 1) }, { eq(1, 3), eq(1, 4) }, { eq(2, 7) } },
+        };
+        String[] names = { "c0", "c0,c1", "c0,c1,c2", "c0,c1|c1,c2" };
+        System.out.println(String.format("%-16s%12s%12s", "filter", "scan ms", "bitmap ms"));
+        for (int q = 0; q < queries.length; q++) {
+            System.out.println(String.format("%-16s%12.2f%12.2f", names[q],
+                    query(hf, queries[q], false) / 1e6, query(hf, queries[q], true) / 1e6));
+        }
+    }
+}
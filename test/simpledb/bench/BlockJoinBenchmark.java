@@ -0,0 +1,69 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Runs a nested-loops theta join with blocks of one outer tuple, which is
+ * a tuple-at-a-time nested-loops join, and with larger blocks:
+ * <pre>
+ *   SELECT COUNT(a.c1) FROM a, b WHERE a.c0 &gt; b.c0
+ * </pre>
+ * a.c0 is drawn from [0, rows) and b.c0 from [0, 100 * rows), so that about
+ * one in two hundred pairs joins.
+ * Usage: <code>BlockJoinBenchmark [rows]</code>
+ */
+public class BlockJoinBenchmark {
+
+    private static HeapFile table(String name, int rows, int range, Random r) throws IOException {
+        File csv = File.createTempFile(name, ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(range) + "," + i);
+        }
+        w.close();
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /** @return the time to run the join with the given block budget, in ms */
+    private static double run(HeapFile a, HeapFile b, int budget) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbIterator it = new Aggregate(new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()), budget),
+                1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        Random r = new Random(0);
+        HeapFile a = table("left", rows, rows, r);
+        HeapFile b = table("right", rows, rows * 100, r);
+        int size = a.getTupleDesc().getSize();
+        System.out.println(String.format("%d rows a table", rows));
+
+        System.out.println(String.format("%-16s%12s%12s", "block tuples", "inner scans", "ms"));
+        for (int budget : new int[] { 1, 64 * size, Join.DEFAULT_BLOCK_BYTES }) {
+            int block = Join.blockTuples(a.getTupleDesc(), budget);
+            System.out.println(String.format("%-16d%12d%12.0f", block,
+                    (rows + block - 1) / block, run(a, b, budget)));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb.bench;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures BufferPool.getPage throughput with 1 to 64 threads issuing
+ * random page requests at the same time.
+ * <p>
+ * Usage: <code>BufferPoolThroughputBenchmark [milliseconds per run]</code>
+ * <p>
+ * The "hits" workload reads a table that fits in the pool, so after the
+ * first pass every request is a hit. The "misses" workload reads a table
+ * four times larger than the pool, so most requests evict a page and read
+ * one from disk.
+ */
+public class BufferPoolThroughputBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    /**
+     * Runs threads for millis milliseconds, each requesting random pages
+     * of the table.
+     *
+     * @return page requests per second
+     */
+    public static double run(final int tableId, final int numPages, int threads,
+            long millis) throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong requests = new AtomicLong(0);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    long n = 0;
+                    try {
+                        start.await();
+                        while (System.nanoTime() < deadline[0]) {
+                            for (int j = 0; j < 100; j++) {
+                                bp.getPage(tid, new HeapPageId(tableId, r.nextInt(numPages)),
+                                        Permissions.READ_ONLY);
+                            }
+                            n += 100;
+                        }
+                    }
+                    catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    requests.addAndGet(n);
+                }
+            };
+            workers[i].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1000000L;
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        return requests.get() / seconds;
+    }
+
+    private static void report(String name, int tablePages, long millis) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * tablePages, null, null);
+        System.out.println("Workload " + name + ": " + tablePages + " page table, "
+                + BufferPool.DEFAULT_PAGES + " page pool");
+        System.out.println(String.format("%8s%16s", "threads", "requests/s"));
+        for (int threads : THREADS) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            // warm up the pool and the JIT
+            run(hf.getId(), tablePages, threads, millis / 4);
+            double rate = run(hf.getId(), tablePages, threads, millis);
+            System.out.println(String.format("%8d%16.0f", threads, rate));
+        }
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        report("hits", BufferPool.DEFAULT_PAGES - 10, millis);
+        report("misses", BufferPool.DEFAULT_PAGES * 4, millis);
+    }
+}
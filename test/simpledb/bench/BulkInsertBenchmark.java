@@ -0,0 +1,44 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.UUID;
+
+import simpledb.*;
+
+/**
+ * Inserts tuples one at a time into an empty table through the buffer
+ * pool and reports the cost per row as the table grows, which should stay
+ * flat since each insert goes straight to a page with room.
+ * <p>
+ * Usage: <code>BulkInsertBenchmark [rows]</code>
+ */
+public class BulkInsertBenchmark {
+
+    private static final int STEPS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2);
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+
+        System.out.println(String.format("%12s%12s%12s", "rows", "pages", "us/row"));
+        int step = rows / STEPS;
+        for (int s = 0; s < STEPS; s++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < step; i++) {
+                bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.println(String.format("%12d%12d%12.2f", (s + 1) * step,
+                    hf.numPages(), nanos / 1e3 / step));
+        }
+        bp.flushAllPages();
+        bp.shutdown();
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Sorts tables of 1x, 10x and 100x the rows that fit in an OrderBy memory
+ * budget, once with that budget and once all in memory:
+ * <pre>
+ *   SELECT * FROM t ORDER BY t.c0
+ * </pre>
+ * Usage: <code>ExternalSortBenchmark [budget bytes]</code>
+ */
+public class ExternalSortBenchmark {
+
+    private static HeapFile table(int rows, Random r) throws IOException {
+        File csv = File.createTempFile("sort", ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt() + "," + i);
+        }
+        w.close();
+        File f = File.createTempFile("sort", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /** @return the time to sort the table with the given budget, in ms */
+    private static double run(HeapFile t, int budget) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbIterator it = new OrderBy(0, true, new SeqScan(tid, t.getId()), budget);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int budget = args.length > 0 ? Integer.parseInt(args[0]) : 256 << 10;
+        int fit = Join.blockTuples(Utility.getTupleDesc(2), budget);
+        Random r = new Random(0);
+        System.out.println(String.format("budget %d bytes, %d tuples", budget, fit));
+        System.out.println(String.format("%-12s%8s%14s%14s", "rows", "runs", "external ms", "memory ms"));
+        for (int scale : new int[] { 1, 10, 100 }) {
+            HeapFile t = table(fit * scale, r);
+            // warm up, and bring the table into the OS cache
+            run(t, Integer.MAX_VALUE);
+            double external = run(t, budget);
+            double memory = run(t, Integer.MAX_VALUE);
+            System.out.println(String.format("%-12d%8d%14.0f%14.0f", fit * scale, scale,
+                    external, memory));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Computes aggregates of a table grouped by c0, with Aggregate, which takes
+ * a scan per aggregate, and with one HashAggregate:
+ * <pre>
+ *   SELECT c0, SUM(c1) FROM t GROUP BY c0
+ *   SELECT c0, MIN(c1), MAX(c1), SUM(c1), AVG(c1), COUNT(c1) FROM t GROUP BY c0
+ * </pre>
+ * Usage: <code>HashAggregateBenchmark [rows] [groups]</code>
+ */
+public class HashAggregateBenchmark {
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.SUM, Aggregator.Op.AVG,
+            Aggregator.Op.COUNT };
+
+    private static HeapFile table(int rows, int groups, Random r) throws IOException {
+        File csv = File.createTempFile("agg", ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(groups) + "," + r.nextInt(1000));
+        }
+        w.close();
+        File f = File.createTempFile("agg", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    private static void drain(DbIterator it) throws Exception {
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+    }
+
+    /** @return the time to compute the first n of OPS, in ms */
+    private static double run(HeapFile t, int n, boolean hash) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        if (hash) {
+            int[] afields = new int[n];
+            Arrays.fill(afields, 1);
+            drain(new HashAggregate(new SeqScan(tid, t.getId()), new int[] { 0 },
+                    afields, Arrays.copyOf(OPS, n)));
+        } else {
+            for (int i = 0; i < n; i++) {
+                drain(new Aggregate(new SeqScan(tid, t.getId()), 1, 0, OPS[i]));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        HeapFile t = table(rows, groups, new Random(0));
+        // warm up, and bring the table into the OS cache
+        run(t, OPS.length, false);
+        run(t, OPS.length, true);
+        System.out.println(String.format("%d rows, %d groups", rows, groups));
+        System.out.println(String.format("%-12s%14s%18s", "aggregates", "Aggregate ms", "HashAggregate ms"));
+        for (int n : new int[] { 1, OPS.length }) {
+            System.out.println(String.format("%-12d%14.0f%18.0f", n,
+                    run(t, n, false), run(t, n, true)));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Joins two tables of the same size on a key column, with build sides that
+ * fit in memory and that don't:
+ * <pre>
+ *   SELECT * FROM b, p WHERE b.c0 = p.c0
+ * </pre>
+ * Keys are drawn from [0, rows), so each probe tuple matches about one
+ * build tuple. Build time is the time to open the join; GC time is what
+ * the JVM's collectors report for the whole join.
+ * Usage: <code>HashJoinBenchmark [rows]</code>
+ */
+public class HashJoinBenchmark {
+
+    private static HeapFile table(String name, int rows, Random r) throws IOException {
+        File csv = File.createTempFile(name, ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(rows) + "," + i);
+        }
+        w.close();
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    private static long gcMillis() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ms += gc.getCollectionTime();
+        }
+        return ms;
+    }
+
+    /** @return the build, total and GC time of a join, in ms */
+    private static double[] run(HeapFile build, HeapFile probe, int budget) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.gc();
+        TransactionId tid = new TransactionId();
+        long gc = gcMillis();
+        long start = System.nanoTime();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        DbIterator it = new HashEquiJoin(p, new SeqScan(tid, build.getId()),
+                new SeqScan(tid, probe.getId()), budget);
+        it.open();
+        long built = System.nanoTime();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        long end = System.nanoTime();
+        Database.getBufferPool().transactionComplete(tid);
+        return new double[] { (built - start) / 1e6, (end - start) / 1e6, gcMillis() - gc };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random r = new Random(0);
+        HeapFile build = table("build", rows, r);
+        HeapFile probe = table("probe", rows, r);
+        System.out.println(String.format("%d rows, %d pages a table", rows, build.numPages()));
+
+        System.out.println(String.format("%-16s%12s%12s%12s", "budget", "build ms", "total ms", "gc ms"));
+        for (int budget : new int[] { rows, rows / 4, HashEquiJoin.MAP_SIZE }) {
+            double[] ms = run(build, probe, budget);
+            System.out.println(String.format("%-16d%12.0f%12.0f%12.0f", budget, ms[0], ms[1], ms[2]));
+        }
+    }
+}
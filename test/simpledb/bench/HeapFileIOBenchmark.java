@@ -0,0 +1,100 @@
+package simpledb.bench;
+
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures HeapFile page I/O: readPage through FileChannel reads and
+ * through a memory mapping, writePage in sequential and random order, and
+ * writePages with batches of adjacent pages.
+ * <p>
+ * Usage: <code>HeapFileIOBenchmark [pages]</code>
+ * <p>
+ * Every write is timed and reported as microseconds per page and MB/s.
+ * Writes are not forced to the device, so the numbers are for the write
+ * path down to the file system cache.
+ */
+public class HeapFileIOBenchmark {
+
+    private static final int[] BATCH_SIZES = { 1, 4, 16, 64 };
+    private static final int ROUNDS = 5;
+
+    private static void report(String name, int pages, long nanos) {
+        double micros = nanos / 1e3 / pages;
+        double mb = (double) pages * BufferPool.PAGE_SIZE / (1 << 20);
+        System.out.println(String.format("%-22s%12.2f%12.1f", name, micros, mb / (nanos / 1e9)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * numPages, null, null);
+        Page[] pages = new Page[numPages];
+        for (int i = 0; i < numPages; i++) {
+            pages[i] = hf.readPage(new HeapPageId(hf.getId(), i));
+        }
+        Integer[] shuffled = new Integer[numPages];
+        for (int i = 0; i < numPages; i++) {
+            shuffled[i] = i;
+        }
+        Collections.shuffle(Arrays.asList(shuffled), new Random(0));
+
+        System.out.println(numPages + " pages of " + BufferPool.PAGE_SIZE + " bytes, best of " + ROUNDS);
+        System.out.println(String.format("%-22s%12s%12s", "operation", "us/page", "MB/s"));
+
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < numPages; i++) {
+                hf.readPage(new HeapPageId(hf.getId(), i));
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("readPage", numPages, best);
+
+        HeapFile mapped = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        mapped.setMemoryMapped(true);
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < numPages; i++) {
+                mapped.readPage(new HeapPageId(hf.getId(), i));
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("readPage mapped", numPages, best);
+
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < numPages; i++) {
+                hf.writePage(pages[i]);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("writePage sequential", numPages, best);
+
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i : shuffled) {
+                hf.writePage(pages[i]);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("writePage random", numPages, best);
+
+        for (int batch : BATCH_SIZES) {
+            best = Long.MAX_VALUE;
+            for (int r = 0; r < ROUNDS; r++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < numPages; i += batch) {
+                    hf.writePages(Arrays.asList(pages).subList(i, Math.min(numPages, i + batch)));
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            report("writePages batch " + batch, numPages, best);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Joins outer tables of a few sizes with a large table that has a hash
+ * index on its join field, by hashing the outer table and scanning the
+ * large one, and by looking each outer tuple up in the index:
+ * <pre>
+ *   SELECT COUNT(o.c1) FROM o, t WHERE o.c0 = t.c0
+ * </pre>
+ * Usage: <code>IndexJoinBenchmark [rows]</code>
+ * <p>
+ * Each run starts with an empty buffer pool, so pages are read again from
+ * the OS cache.
+ */
+public class IndexJoinBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static HeapFile table(int rows, int maxValue) throws IOException {
+        File csv = File.createTempFile("table", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(rows);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(maxValue) + "," + i);
+        }
+        w.close();
+
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    private static long query(HeapFile outer, HeapFile inner, IndexFile index) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+            DbIterator join = index == null
+                    ? new HashEquiJoin(p, new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "t"))
+                    : new IndexNestedLoopJoin(tid, p, new SeqScan(tid, outer.getId(), "o"), index, "t");
+            DbIterator it = new Aggregate(join, 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        HeapFile hf = table(rows, rows);
+        File idx = File.createTempFile("table", ".hash");
+        idx.deleteOnExit();
+        long start = System.nanoTime();
+        HashIndexFile index = HashIndexFile.create(idx, hf, 0);
+        Database.getCatalog().addIndex(index);
+        System.out.println(String.format("%d rows, %d pages, index of %d pages built in %.0f ms",
+                rows, hf.numPages(), index.numPages(), (System.nanoTime() - start) / 1e6));
+
+        System.out.println(String.format("%-12s%12s%12s", "outer rows", "hash ms", "index ms"));
+        for (int outerRows : new int[] { 10, 1000, 10000, 100000 }) {
+            HeapFile outer = table(outerRows, rows);
+            System.out.println(String.format("%-12d%12.2f%12.2f", outerRows,
+                    query(outer, hf, null) / 1e6, query(outer, hf, index) / 1e6));
+        }
+    }
+}
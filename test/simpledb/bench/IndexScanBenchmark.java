@@ -0,0 +1,84 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Runs point and range queries on a table with a B+tree index on its
+ * first field, whose values are in no particular order, by scanning the
+ * table and by scanning the index:
+ * <pre>
+ *   SELECT COUNT(c1) FROM t WHERE c0 = [v]
+ *   SELECT COUNT(c1) FROM t WHERE c0 &lt; [rows / 1000]
+ *   SELECT COUNT(c1) FROM t WHERE c0 &lt; [rows / 10]
+ * </pre>
+ * Usage: <code>IndexScanBenchmark [rows]</code>
+ * <p>
+ * Each run starts with an empty buffer pool, so pages are read again from
+ * the OS cache.
+ */
+public class IndexScanBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static long query(HeapFile file, BTreeFile index, Predicate p) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            DbIterator child = index == null ? new Filter(p, new SeqScan(tid, file.getId()))
+                    : new IndexScan(tid, index, p);
+            DbIterator it = new Aggregate(child, 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        File csv = File.createTempFile("table", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(rows) + "," + i);
+        }
+        w.close();
+
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+        File idx = File.createTempFile("table", ".idx");
+        idx.deleteOnExit();
+        long start = System.nanoTime();
+        BTreeFile index = BTreeFile.create(idx, hf, 0);
+        Database.getCatalog().addIndex(index);
+        System.out.println(String.format("%d rows, %d pages, index of %d pages built in %.0f ms",
+                rows, hf.numPages(), index.numPages(), (System.nanoTime() - start) / 1e6));
+
+        Predicate[] preds = {
+            new Predicate(0, Predicate.Op.EQUALS, new IntField(rows / 2)),
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(rows / 1000)),
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(rows / 10)),
+        };
+        System.out.println(String.format("%-16s%12s%12s", "predicate", "scan ms", "index ms"));
+        for (Predicate p : preds) {
+            System.out.println(String.format("%-16s%12.2f%12.2f", "c0 " + p.getOp() + " " + p.getOperand(),
+                    query(hf, null, p) / 1e6, query(hf, index, p) / 1e6));
+        }
+    }
+}
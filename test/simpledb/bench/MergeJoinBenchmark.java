@@ -0,0 +1,75 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Joins two tables with nested loops, a hash join and a sort-merge join:
+ * <pre>
+ *   SELECT COUNT(a.c1) FROM a, b WHERE a.c0 &lt; b.c0
+ *   SELECT COUNT(a.c1) FROM a, b WHERE a.c0 = b.c0
+ * </pre>
+ * a.c0 is drawn from [0, 10 * rows) and b.c0 from [0, rows), so that about
+ * one in twenty pairs satisfies the range join.
+ * Usage: <code>MergeJoinBenchmark [rows]</code>
+ */
+public class MergeJoinBenchmark {
+
+    private static HeapFile table(String name, int rows, int range, Random r) throws IOException {
+        File csv = File.createTempFile(name, ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(range) + "," + i);
+        }
+        w.close();
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /** @return the time to run a join of a and b, in ms */
+    private static double run(HeapFile a, HeapFile b, Predicate.Op op, String algorithm)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        JoinPredicate p = new JoinPredicate(0, op, 0);
+        DbIterator s1 = new SeqScan(tid, a.getId());
+        DbIterator s2 = new SeqScan(tid, b.getId());
+        DbIterator join = algorithm.equals("nested") ? new Join(p, s1, s2)
+                : algorithm.equals("hash") ? new HashEquiJoin(p, s1, s2)
+                : new SortMergeJoin(p, s1, s2);
+        DbIterator it = new Aggregate(join, 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        Random r = new Random(0);
+        HeapFile a = table("left", rows, rows * 10, r);
+        HeapFile b = table("right", rows, rows, r);
+        System.out.println(String.format("%d rows a table", rows));
+
+        System.out.println(String.format("%-10s%12s%12s%12s", "join", "nested ms", "hash ms", "merge ms"));
+        System.out.println(String.format("%-10s%12.0f%12s%12.0f", "a < b",
+                run(a, b, Predicate.Op.LESS_THAN, "nested"), "-",
+                run(a, b, Predicate.Op.LESS_THAN, "merge")));
+        System.out.println(String.format("%-10s%12.0f%12.0f%12.0f", "a = b",
+                run(a, b, Predicate.Op.EQUALS, "nested"),
+                run(a, b, Predicate.Op.EQUALS, "hash"),
+                run(a, b, Predicate.Op.EQUALS, "merge")));
+    }
+}
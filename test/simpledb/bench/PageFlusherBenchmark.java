@@ -0,0 +1,98 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures getPage latency under a delete-heavy workload on a table four
+ * times larger than the pool, with and without the background flusher.
+ * <p>
+ * Usage: <code>PageFlusherBenchmark [write latency in microseconds]</code>
+ * <p>
+ * Each write to the table is delayed by the given latency (default 500us)
+ * plus a tenth of it per page, standing in for a device whose writes are
+ * not absorbed by the file system cache. Without the flusher, a getPage
+ * that evicts a dirty page pays for that write.
+ */
+public class PageFlusherBenchmark {
+
+    private static final int OPERATIONS = 20000;
+
+    /** HeapFile whose writes take time */
+    static class SlowHeapFile extends HeapFile {
+        private final long m_latencyMicros;
+
+        SlowHeapFile(File f, TupleDesc td, long latencyMicros) {
+            super(f, td);
+            m_latencyMicros = latencyMicros;
+        }
+
+        public void writePages(List<Page> pages) throws IOException {
+            long micros = m_latencyMicros + m_latencyMicros / 10 * pages.size();
+            try {
+                Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.writePages(pages);
+        }
+    }
+
+    private static void run(String name, int tableId, int numPages, boolean flusher)
+            throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        if (!flusher) {
+            bp.shutdown();
+        }
+        Random r = new Random(0);
+        TransactionId tid = new TransactionId();
+        long[] nanos = new long[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            PageId pid = new HeapPageId(tableId, r.nextInt(numPages));
+            long start = System.nanoTime();
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            nanos[i] = System.nanoTime() - start;
+            // One in four requests deletes a tuple from the page
+            if (r.nextInt(4) == 0) {
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (t != null) {
+                        bp.deleteTuple(tid, t);
+                        break;
+                    }
+                }
+            }
+        }
+        bp.flushAllPages();
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        System.out.println(String.format("%10s%12.1f%12.1f%12.1f%12.1f%12.1f", name,
+                total / 1e3 / OPERATIONS, nanos[OPERATIONS / 2] / 1e3,
+                nanos[OPERATIONS * 95 / 100] / 1e3, nanos[OPERATIONS * 99 / 100] / 1e3,
+                nanos[OPERATIONS - 1] / 1e3));
+    }
+
+    public static void main(String[] args) throws Exception {
+        long latency = args.length > 0 ? Long.parseLong(args[0]) : 500;
+        int pages = BufferPool.DEFAULT_PAGES * 4;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        SlowHeapFile file = new SlowHeapFile(hf.getFile(), hf.getTupleDesc(), latency);
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+
+        System.out.println("getPage latency in us, " + latency + "us per write");
+        System.out.println(String.format("%10s%12s%12s%12s%12s%12s", "flusher", "mean", "p50", "p95", "p99", "max"));
+        for (int round = 0; round < 2; round++) {
+            run("off", file.getId(), pages, false);
+            run("on", file.getId(), pages, true);
+        }
+    }
+}
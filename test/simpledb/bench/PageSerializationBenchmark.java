@@ -0,0 +1,82 @@
+package simpledb.bench;
+
+import java.util.Iterator;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures HeapPage.getPageData on a full page of two int columns.
+ * <p>
+ * Usage: <code>PageSerializationBenchmark [iterations]</code>
+ * <p>
+ * "clean" serializes a page as read from disk; "one change" deletes and
+ * re-inserts a tuple before each call, the usual state of a page being
+ * flushed; "all inserted" serializes a page whose every tuple was
+ * inserted, after one change.
+ */
+public class PageSerializationBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private interface Workload {
+        void run(int iterations) throws Exception;
+    }
+
+    private static void time(String name, int iterations, Workload w) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            w.run(iterations);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%-14s%12.2f", name, best / 1e3 / iterations));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        final HeapPage clean = (HeapPage) hf.readPage(pid);
+        final HeapPage changed = (HeapPage) hf.readPage(pid);
+        final HeapPage inserted = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Iterator<Tuple> it = clean.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            Tuple copy = new Tuple(t.getTupleDesc());
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                copy.setField(j, t.getField(j));
+            }
+            inserted.insertTuple(copy);
+        }
+
+        System.out.println(String.format("%-14s%12s", "page", "us/page"));
+        time("clean", iterations, new Workload() {
+            public void run(int n) {
+                for (int i = 0; i < n; i++) {
+                    clean.getPageData();
+                }
+            }
+        });
+        time("one change", iterations, new Workload() {
+            public void run(int n) throws Exception {
+                for (int i = 0; i < n; i++) {
+                    Tuple t = changed.iterator().next();
+                    changed.deleteTuple(t);
+                    changed.insertTuple(t);
+                    changed.getPageData();
+                }
+            }
+        });
+        time("all inserted", iterations, new Workload() {
+            public void run(int n) throws Exception {
+                for (int i = 0; i < n; i++) {
+                    Tuple t = inserted.iterator().next();
+                    inserted.deleteTuple(t);
+                    inserted.insertTuple(t);
+                    inserted.getPageData();
+                }
+            }
+        });
+    }
+}
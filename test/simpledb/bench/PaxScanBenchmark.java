@@ -0,0 +1,80 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares a HeapFile and a PaxFile holding the same wide table of ints
+ * on a query that reads two of its columns:
+ * <pre>
+ *   SELECT SUM(c1) FROM t WHERE c0 &lt; 100
+ * </pre>
+ * Usage: <code>PaxScanBenchmark [columns] [rows]</code>
+ * <p>
+ * Each run starts with an empty buffer pool, so pages are read again from
+ * the OS cache and their tuples decoded again.
+ */
+public class PaxScanBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static long query(DbFile file) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+            DbIterator it = new Aggregate(new Filter(p, new SeqScan(tid, file.getId())),
+                    1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Type[] types = Utility.getTypes(columns);
+        TupleDesc td = new TupleDesc(types);
+
+        File csv = File.createTempFile("wide", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                w.print((j == 0 ? "" : ",") + r.nextInt(1000));
+            }
+            w.println();
+        }
+        w.close();
+
+        File heap = File.createTempFile("heap", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(csv, heap, BufferPool.getPageSize(), columns, types, ',');
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+        File pax = File.createTempFile("pax", ".dat");
+        pax.deleteOnExit();
+        HeapFileEncoder.convertPax(csv, pax, BufferPool.getPageSize(), columns, types, ',');
+        PaxFile pf = new PaxFile(pax, td);
+        Database.getCatalog().addTable(pf, UUID.randomUUID().toString());
+
+        System.out.println(rows + " rows of " + columns + " int columns, " + hf.numPages() + " pages");
+        System.out.println(String.format("%-10s%12s", "file", "query ms"));
+        for (int round = 0; round < 2; round++) {
+            System.out.println(String.format("%-10s%12.1f", "heap", query(hf) / 1e6));
+            System.out.println(String.format("%-10s%12.1f", "pax", query(pf) / 1e6));
+        }
+    }
+}
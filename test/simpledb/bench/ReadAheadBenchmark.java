@@ -0,0 +1,84 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.UUID;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times cold-cache scans with and without read-ahead.
+ * <p>
+ * Usage: <code>ReadAheadBenchmark [read latency in microseconds]</code>
+ * <p>
+ * The file system cache makes real reads too fast to show anything, so
+ * every page read is delayed by the given latency (default 500us), and the
+ * scan does some work per tuple, like a filter or aggregate would.
+ */
+public class ReadAheadBenchmark {
+
+    private static final int[] MAX_PAGES = { 0, 1, 2, 4, 8, 16 };
+
+    /** HeapFile whose reads take at least latencyMicros */
+    static class SlowHeapFile extends HeapFile {
+        private final long m_latencyNanos;
+
+        SlowHeapFile(File f, TupleDesc td, long latencyMicros) {
+            super(f, td);
+            m_latencyNanos = latencyMicros * 1000;
+        }
+
+        public Page readPage(PageId pid) {
+            long until = System.nanoTime() + m_latencyNanos;
+            try {
+                while (System.nanoTime() < until) {
+                    Thread.sleep(0, 100000);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /** @return the time in milliseconds to scan the table once */
+    private static double time(int tableId) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(new TransactionId(), tableId, "t");
+        scan.open();
+        long sum = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            // Stand-in for per-tuple processing
+            for (int i = 0; i < 200; i++) {
+                sum += t.getField(0).hashCode() * i;
+            }
+        }
+        scan.close();
+        if (sum == 42) {
+            System.out.print("");
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long latency = args.length > 0 ? Long.parseLong(args[0]) : 500;
+        for (int pages : new int[] { 40, 400 }) {
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+            SlowHeapFile file = new SlowHeapFile(hf.getFile(), hf.getTupleDesc(), latency);
+            Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+
+            System.out.println("Scan of " + pages + " pages, " + latency + "us per read");
+            System.out.println(String.format("%10s%12s", "max pages", "ms"));
+            for (int max : MAX_PAGES) {
+                ReadAhead.setMaxPages(max);
+                time(file.getId());
+                System.out.println(String.format("%10d%12.1f", max, time(file.getId())));
+            }
+            System.out.println();
+        }
+        ReadAhead.setMaxPages(ReadAhead.DEFAULT_MAX_PAGES);
+    }
+}
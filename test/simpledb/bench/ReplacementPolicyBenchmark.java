@@ -0,0 +1,179 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Replays page-access traces against every {@link ReplacementPolicy} and
+ * reports the buffer pool hit ratio of each one.
+ * <p>
+ * Usage: <code>ReplacementPolicyBenchmark [trace file ...]</code>
+ * <p>
+ * A trace file has one page access per line, written as
+ * <code>tableId pageNumber</code>. With no arguments the benchmark first
+ * records traces from a SeqScan workload (a small, hot table scanned
+ * between scans of a large table) and a nested-loop Join workload, then
+ * replays them.
+ */
+public class ReplacementPolicyBenchmark {
+
+    private static final String[] POLICIES = { "LRU", "CLOCK", "2Q", "ARC" };
+    private static final int[] POOL_SIZES = { 16, 32, 50, 64, 128 };
+
+    /** Creates the policy with the given name for a pool of capacity pages */
+    public static ReplacementPolicy newPolicy(String name, int capacity) {
+        if (name.equals("LRU")) return new LRUPolicy();
+        if (name.equals("CLOCK")) return new ClockPolicy();
+        if (name.equals("2Q")) return new TwoQPolicy(capacity);
+        if (name.equals("ARC")) return new ARCPolicy(capacity);
+        throw new IllegalArgumentException("Unknown policy " + name);
+    }
+
+    /**
+     * Policy wrapper that records every page request it sees, so running a
+     * query against a BufferPool that uses it produces an access trace.
+     */
+    static class RecordingPolicy implements ReplacementPolicy {
+        private final ReplacementPolicy m_policy;
+        private final PrintWriter m_out;
+
+        RecordingPolicy(ReplacementPolicy policy, PrintWriter out) {
+            m_policy = policy;
+            m_out = out;
+        }
+
+        private void record(PageId pid) {
+            m_out.println(pid.getTableId() + " " + pid.pageNumber());
+        }
+
+        public void admit(PageId pid) { record(pid); m_policy.admit(pid); }
+        public void access(PageId pid) { record(pid); m_policy.access(pid); }
+        public PageId evict(PageId incoming) { return m_policy.evict(incoming); }
+        public void reinstate(PageId pid) { m_policy.reinstate(pid); }
+        public void remove(PageId pid) { m_policy.remove(pid); }
+    }
+
+    /** Reads a trace file into a list of page ids */
+    public static ArrayList<PageId> readTrace(File f) throws IOException {
+        ArrayList<PageId> trace = new ArrayList<PageId>();
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        String line;
+        while ((line = br.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0) continue;
+            String[] els = line.split("\\s+");
+            trace.add(new HeapPageId(Integer.parseInt(els[0]), Integer.parseInt(els[1])));
+        }
+        br.close();
+        return trace;
+    }
+
+    /**
+     * Simulates a buffer pool of the given capacity over the trace.
+     *
+     * @return the fraction of accesses that were hits
+     */
+    public static double hitRatio(List<PageId> trace, ReplacementPolicy policy, int capacity) {
+        HashSet<PageId> resident = new HashSet<PageId>();
+        long hits = 0;
+        for (PageId pid : trace) {
+            if (resident.contains(pid)) {
+                hits++;
+                policy.access(pid);
+                continue;
+            }
+            if (resident.size() >= capacity) {
+                resident.remove(policy.evict(pid));
+            }
+            resident.add(pid);
+            policy.admit(pid);
+        }
+        return trace.isEmpty() ? 0.0 : (double) hits / trace.size();
+    }
+
+    /** Runs a plan to completion against a recording buffer pool */
+    private static void record(DbIterator plan, File traceFile) throws Exception {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(traceFile)));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES,
+                new RecordingPolicy(new LRUPolicy(), out));
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+        }
+        plan.close();
+        out.close();
+    }
+
+    /** Scans a small hot table several times between scans of a large one */
+    private static File recordScanWorkload() throws Exception {
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, 504 * 200, null, null);
+        File traceFile = File.createTempFile("scan", ".trace");
+        traceFile.deleteOnExit();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(traceFile)));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES,
+                new RecordingPolicy(new LRUPolicy(), out));
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 5; i++) {
+                drain(new SeqScan(tid, dim.getId(), "dim"));
+            }
+            drain(new SeqScan(tid, fact.getId(), "fact"));
+        }
+        out.close();
+        return traceFile;
+    }
+
+    /** Nested-loop join that rescans an inner table larger than the pool */
+    private static File recordJoinWorkload() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 30, null, null);
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 504 * 80, null, null);
+        File traceFile = File.createTempFile("join", ".trace");
+        traceFile.deleteOnExit();
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        record(new Join(p, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, inner.getId(), "i")), traceFile);
+        return traceFile;
+    }
+
+    private static void drain(DbIterator it) throws Exception {
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+    }
+
+    private static void report(String name, List<PageId> trace) {
+        System.out.println("Trace " + name + ": " + trace.size() + " page accesses");
+        System.out.print(String.format("%8s", "pages"));
+        for (String policy : POLICIES) {
+            System.out.print(String.format("%10s", policy));
+        }
+        System.out.println();
+        for (int size : POOL_SIZES) {
+            System.out.print(String.format("%8d", size));
+            for (String policy : POLICIES) {
+                double ratio = hitRatio(trace, newPolicy(policy, size), size);
+                System.out.print(String.format("%9.1f%%", ratio * 100));
+            }
+            System.out.println();
+        }
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            for (String name : args) {
+                report(name, readTrace(new File(name)));
+            }
+            return;
+        }
+        report("seqscan", readTrace(recordScanWorkload()));
+        report("join", readTrace(recordJoinWorkload()));
+    }
+}
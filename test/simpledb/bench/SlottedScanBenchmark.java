@@ -0,0 +1,76 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares a HeapFile and a SlottedFile holding the same table of short
+ * string codes and ints: the number of pages each takes up, and the time
+ * to scan it.
+ * <p>
+ * Usage: <code>SlottedScanBenchmark [rows] [code length]</code>
+ * <p>
+ * Each scan starts with an empty buffer pool, so pages are read from the
+ * OS cache.
+ */
+public class SlottedScanBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static long scan(DbFile file) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                it.next().getField(0);
+            }
+            it.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        Type[] types = new Type[] { Type.STRING_TYPE, Type.INT_TYPE };
+        TupleDesc td = new TupleDesc(types);
+
+        File csv = File.createTempFile("codes", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        char[] code = new char[length];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < length; j++) {
+                code[j] = (char) ('A' + r.nextInt(26));
+            }
+            w.println(new String(code) + "," + r.nextInt());
+        }
+        w.close();
+
+        File heap = File.createTempFile("heap", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(csv, heap, BufferPool.getPageSize(), 2, types);
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+        File slotted = File.createTempFile("slotted", ".dat");
+        slotted.deleteOnExit();
+        HeapFileEncoder.convertSlotted(csv, slotted, types, ',');
+        SlottedFile sf = new SlottedFile(slotted, td);
+        Database.getCatalog().addTable(sf, UUID.randomUUID().toString());
+
+        System.out.println(rows + " rows of a " + length + " character code and an int");
+        System.out.println(String.format("%-10s%10s%12s", "file", "pages", "scan ms"));
+        System.out.println(String.format("%-10s%10d%12.1f", "heap", hf.numPages(), scan(hf) / 1e6));
+        System.out.println(String.format("%-10s%10d%12.1f", "slotted", sf.numPages(), scan(sf) / 1e6));
+    }
+}
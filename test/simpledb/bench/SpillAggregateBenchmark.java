@@ -0,0 +1,100 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Groups a table by a column with about one distinct value per two rows,
+ * with Aggregate and with HashAggregate under several group budgets:
+ * <pre>
+ *   SELECT c0, SUM(c1), COUNT(c1) FROM t GROUP BY c0
+ * </pre>
+ * and reports the time and the peak heap used by each.
+ * Usage: <code>SpillAggregateBenchmark [rows]</code>
+ */
+public class SpillAggregateBenchmark {
+
+    private static HeapFile table(int rows, Random r) throws IOException {
+        File csv = File.createTempFile("agg", ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(rows / 2) + "," + r.nextInt(1000));
+        }
+        w.close();
+        File f = File.createTempFile("agg", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Runs the query with HashAggregate and the given budget, or with
+     * Aggregate for a budget of 0.
+     *
+     * @return the time in ms and the peak heap used in MB
+     */
+    private static double[] run(HeapFile t, int budget) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        if (budget == 0) {
+            for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }) {
+                DbIterator it = new Aggregate(new SeqScan(tid, t.getId()), 1, 0, op);
+                it.open();
+                while (it.hasNext()) {
+                    it.next();
+                }
+                it.close();
+            }
+        } else {
+            DbIterator it = new HashAggregate(new SeqScan(tid, t.getId()), new int[] { 0 },
+                    new int[] { 1, 1 }, new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT },
+                    budget);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return new double[] { (System.nanoTime() - start) / 1e6, peakHeap() / 1e6 };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        HeapFile t = table(rows, new Random(0));
+        // warm up, and bring the table into the OS cache
+        run(t, Integer.MAX_VALUE);
+        System.out.println(String.format("%d rows, about %d groups", rows, rows / 2));
+        System.out.println(String.format("%-24s%10s%14s", "operator", "ms", "peak heap MB"));
+        double[] r = run(t, 0);
+        System.out.println(String.format("%-24s%10.0f%14.0f", "Aggregate", r[0], r[1]));
+        for (int budget : new int[] { Integer.MAX_VALUE, HashAggregate.DEFAULT_BUDGET, 1 << 14 }) {
+            r = run(t, budget);
+            System.out.println(String.format("%-24s%10.0f%14.0f", "HashAggregate "
+                    + (budget == Integer.MAX_VALUE ? "unbounded" : String.valueOf(budget)),
+                    r[0], r[1]));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Runs an ORDER BY ... LIMIT query as a full OrderBy under a Limit, and as
+ * a TopN:
+ * <pre>
+ *   SELECT * FROM t ORDER BY t.c0 DESC LIMIT k
+ * </pre>
+ * Usage: <code>TopNBenchmark [rows]</code>
+ */
+public class TopNBenchmark {
+
+    private static HeapFile table(int rows, Random r) throws IOException {
+        File csv = File.createTempFile("topn", ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt() + "," + i);
+        }
+        w.close();
+        File f = File.createTempFile("topn", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /** @return the time to run the query, in ms */
+    private static double run(HeapFile t, int k, boolean topN) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbIterator scan = new SeqScan(tid, t.getId());
+        DbIterator it = topN ? new TopN(0, false, k, scan)
+                : new Limit(k, new OrderBy(0, false, scan));
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        HeapFile t = table(rows, new Random(0));
+        // warm up, and bring the table into the OS cache
+        run(t, 10, false);
+        run(t, 10, true);
+        System.out.println(String.format("%d rows", rows));
+        System.out.println(String.format("%-8s%14s%10s", "k", "OrderBy ms", "TopN ms"));
+        for (int k : new int[] { 10, 100, 1000 }) {
+            System.out.println(String.format("%-8d%14.0f%10.0f", k,
+                    run(t, k, false), run(t, k, true)));
+        }
+    }
+}
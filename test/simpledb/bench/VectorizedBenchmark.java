@@ -0,0 +1,103 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Runs the same plans with tuple operators and with batch operators:
+ * <pre>
+ *   SELECT c1, SUM(c2) FROM t WHERE c0 &lt; 50 GROUP BY c1
+ *   SELECT SUM(t.c2) FROM t, d WHERE t.c1 = d.c0 AND d.c1 &lt; 50
+ * </pre>
+ * t has 4 int columns with c0 in [0, 100) and c1 in [0, 1000); d has a row
+ * for each value of c1.
+ * Usage: <code>VectorizedBenchmark [rows]</code>
+ * <p>
+ * Each run starts with an empty buffer pool, so pages are read again from
+ * the OS cache.
+ */
+public class VectorizedBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static long run(HeapFile t, HeapFile d, boolean join, boolean batch) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            Predicate p = new Predicate(join ? 1 : 0, Predicate.Op.LESS_THAN, new IntField(50));
+            JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+            DbIterator it;
+            if (batch) {
+                BatchIterator b;
+                if (join) {
+                    b = new BatchAggregate(new BatchHashEquiJoin(jp,
+                            new BatchFilter(p, new BatchSeqScan(tid, d.getId())),
+                            new BatchSeqScan(tid, t.getId())),
+                            4, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+                } else {
+                    b = new BatchAggregate(new BatchFilter(p, new BatchSeqScan(tid, t.getId())),
+                            2, 1, Aggregator.Op.SUM);
+                }
+                it = new BatchToTuple(b);
+            } else {
+                if (join) {
+                    it = new Aggregate(new HashEquiJoin(jp,
+                            new Filter(p, new SeqScan(tid, d.getId())),
+                            new SeqScan(tid, t.getId())),
+                            4, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+                } else {
+                    it = new Aggregate(new Filter(p, new SeqScan(tid, t.getId())),
+                            2, 1, Aggregator.Op.SUM);
+                }
+            }
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    private static HeapFile table(String name, int rows, int width, Random r, boolean dim)
+            throws IOException {
+        File csv = File.createTempFile(name, ".txt");
+        csv.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            if (dim) {
+                w.println(i + "," + r.nextInt(1000));
+            } else {
+                w.println(r.nextInt(100) + "," + r.nextInt(1000) + "," + r.nextInt(10000) + "," + i);
+            }
+        }
+        w.close();
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), width);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(width));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random r = new Random(0);
+        HeapFile t = table("fact", rows, 4, r, false);
+        HeapFile d = table("dim", 1000, 2, r, true);
+        System.out.println(String.format("%d rows, %d pages", rows, t.numPages()));
+
+        System.out.println(String.format("%-16s%12s%12s", "query", "tuple ms", "batch ms"));
+        System.out.println(String.format("%-16s%12.2f%12.2f", "filter+agg",
+                run(t, d, false, false) / 1e6, run(t, d, false, true) / 1e6));
+        System.out.println(String.format("%-16s%12.2f%12.2f", "join+agg",
+                run(t, d, true, false) / 1e6, run(t, d, true, true) / 1e6));
+    }
+}
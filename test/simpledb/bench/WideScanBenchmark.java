@@ -0,0 +1,71 @@
+package simpledb.bench;
+
+import java.lang.management.ManagementFactory;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Scans a wide table through a selective Filter on one column and reports
+ * the time and the bytes allocated per tuple scanned.
+ * <p>
+ * Usage: <code>WideScanBenchmark [columns] [rows]</code>
+ * <p>
+ * Each round starts with an empty buffer pool, so every page is built
+ * again from bytes in the OS cache. Read-ahead is off so that pages are
+ * read, and their allocations counted, on the scanning thread.
+ */
+public class WideScanBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    /** @return bytes allocated by this thread so far, or -1 if unknown */
+    private static long allocated() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static int scan(int tableId) throws Exception {
+        TransactionId tid = new TransactionId();
+        // About one row in a hundred passes
+        Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(650)),
+                new SeqScan(tid, tableId));
+        f.open();
+        int n = 0;
+        while (f.hasNext()) {
+            f.next();
+            n++;
+        }
+        f.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(columns, rows, null, null);
+        int poolPages = Math.max(BufferPool.DEFAULT_PAGES, hf.numPages() + 1);
+        ReadAhead.setMaxPages(0);
+        Database.resetBufferPool(poolPages);
+        scan(hf.getId());
+
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            Database.resetBufferPool(poolPages);
+            long before = allocated();
+            long start = System.nanoTime();
+            scan(hf.getId());
+            best = Math.min(best, System.nanoTime() - start);
+            bytes = allocated() - before;
+        }
+        System.out.println(String.format("%d rows of %d int columns, %d pages", rows, columns, hf.numPages()));
+        System.out.println(String.format("%-14s%12.3f", "us/tuple", best / 1e3 / rows));
+        System.out.println(String.format("%-14s%12.1f", "bytes/tuple", (double) bytes / rows));
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Runs a range query over a table loaded in order of its first field, as
+ * a table of events is loaded in time order, with and without pushing the
+ * predicate down to the scan:
+ * <pre>
+ *   SELECT COUNT(c1) FROM t WHERE c0 &gt; [rows - rows / 100]
+ * </pre>
+ * Usage: <code>ZoneMapBenchmark [rows]</code>
+ * <p>
+ * Each run starts with an empty buffer pool, so pages are read again from
+ * the OS cache.
+ */
+public class ZoneMapBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static long query(HeapFile file, int from, boolean pushDown, int rounds) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(from));
+            SeqScan scan = new SeqScan(tid, file.getId());
+            if (pushDown) {
+                scan.pushDown(p);
+            }
+            DbIterator it = new Aggregate(new Filter(p, scan),
+                    1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        File csv = File.createTempFile("events", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+        for (int i = 0; i < rows; i++) {
+            w.println(i + "," + r.nextInt(1000));
+        }
+        w.close();
+
+        File f = File.createTempFile("events", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(csv, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+        int from = rows - rows / 100;
+        System.out.println(rows + " rows, " + hf.numPages() + " pages");
+        System.out.println(String.format("%-12s%12s", "scan", "query ms"));
+        // the first query with a pushed-down predicate builds the zone map
+        System.out.println(String.format("%-12s%12.2f", "first", query(hf, from, true, 1) / 1e6));
+        for (int round = 0; round < 2; round++) {
+            System.out.println(String.format("%-12s%12.2f", "full", query(hf, from, false, ROUNDS) / 1e6));
+            System.out.println(String.format("%-12s%12.2f", "zone map", query(hf, from, true, ROUNDS) / 1e6));
+        }
+    }
+}
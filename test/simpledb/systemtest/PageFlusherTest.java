@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Dirties pages through the buffer pool and checks that the background
+ * flusher writes them out in page order, without anyone evicting or
+ * flushing them.
+ */
+public class PageFlusherTest extends SimpleDbTestBase {
+
+    /** HeapFile that records the page numbers of each batch written */
+    static class RecordingHeapFile extends HeapFile {
+        final List<List<Integer>> batches =
+                Collections.synchronizedList(new ArrayList<List<Integer>>());
+
+        RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public void writePages(List<Page> pages) throws IOException {
+            ArrayList<Integer> batch = new ArrayList<Integer>();
+            for (Page p : pages) {
+                batch.add(p.getId().pageNumber());
+            }
+            batches.add(batch);
+            super.writePages(pages);
+        }
+    }
+
+    /** Deletes the first tuple of every page in reverse page order */
+    private static RecordingHeapFile dirtyEveryPage(int pages) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        RecordingHeapFile file = new RecordingHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = pages - 1; i >= 0; i--) {
+            HeapPage page = (HeapPage) bp.getPage(tid,
+                    new HeapPageId(file.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, firstTuple(page));
+        }
+        return file;
+    }
+
+    private static Tuple firstTuple(HeapPage page) {
+        Iterator<Tuple> it = page.iterator();
+        Tuple t = null;
+        while (t == null) {
+            t = it.next();
+        }
+        return t;
+    }
+
+    private static void awaitClean(HeapFile file, int pages) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        long deadline = System.currentTimeMillis() + 5000;
+        for (int i = 0; i < pages; i++) {
+            Page page = bp.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+            while (page.isDirty() != null) {
+                assertTrue("page " + i + " never flushed", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test public void flushesInBackground() throws Exception {
+        RecordingHeapFile file = dirtyEveryPage(10);
+        awaitClean(file, 10);
+
+        // the deletes reached disk
+        HeapFile onDisk = new HeapFile(file.getFile(), file.getTupleDesc());
+        for (int i = 0; i < 10; i++) {
+            HeapPage page = (HeapPage) onDisk.readPage(new HeapPageId(file.getId(), i));
+            assertEquals(1, page.getNumEmptySlots());
+        }
+    }
+
+    @Test public void coalescesAdjacentPages() throws Exception {
+        RecordingHeapFile file = dirtyEveryPage(10);
+        awaitClean(file, 10);
+
+        // every page was written once, each batch in page order
+        ArrayList<Integer> written = new ArrayList<Integer>();
+        synchronized (file.batches) {
+            for (List<Integer> batch : file.batches) {
+                for (int i = 1; i < batch.size(); i++) {
+                    assertTrue(batch.get(i - 1) < batch.get(i));
+                }
+                written.addAll(batch);
+            }
+        }
+        Collections.sort(written);
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, written);
+        assertTrue(file.batches.size() < 10);
+    }
+
+    @Test public void laterChangesStayDirty() throws Exception {
+        RecordingHeapFile file = dirtyEveryPage(1);
+        awaitClean(file, 1);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid,
+                new HeapPageId(file.getId(), 0), Permissions.READ_WRITE);
+        bp.deleteTuple(tid, firstTuple(page));
+        awaitClean(file, 1);
+
+        HeapFile onDisk = new HeapFile(file.getFile(), file.getTupleDesc());
+        HeapPage written = (HeapPage) onDisk.readPage(new HeapPageId(file.getId(), 0));
+        assertEquals(2, written.getNumEmptySlots());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageFlusherTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans a table whose pages are slow to read and checks that read-ahead
+ * reads them on background threads, each page exactly once.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** HeapFile that records which thread read each page */
+    static class SlowHeapFile extends HeapFile {
+        final Map<PageId, Thread> readers =
+                Collections.synchronizedMap(new HashMap<PageId, Thread>());
+        int reads = 0;
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            synchronized (this) {
+                reads++;
+            }
+            readers.put(pid, Thread.currentThread());
+            try {
+                Thread.sleep(2);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile slowFile(int pages) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        SlowHeapFile file = new SlowHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        return file;
+    }
+
+    private int scan(HeapFile file) throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), file.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    @After public void restoreMaxPages() {
+        ReadAhead.setMaxPages(ReadAhead.DEFAULT_MAX_PAGES);
+    }
+
+    @Test public void readsAheadOnBackgroundThreads() throws Exception {
+        // 40 pages: fits in the pool, so no scan ring
+        SlowHeapFile file = slowFile(40);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(504 * 40, scan(file));
+        assertEquals(40, file.reads);
+
+        int background = 0;
+        for (Thread t : file.readers.values()) {
+            if (t != Thread.currentThread()) {
+                background++;
+            }
+        }
+        assertTrue(background > 0);
+    }
+
+    @Test public void readsAheadIntoScanRing() throws Exception {
+        SlowHeapFile file = slowFile(200);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // pages read ahead share the scan's small ring with the pages it reads
+        assertEquals(504 * 200, scan(file));
+    }
+
+    @Test public void disabled() throws Exception {
+        ReadAhead.setMaxPages(0);
+        SlowHeapFile file = slowFile(10);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(504 * 10, scan(file));
+        for (Thread t : file.readers.values()) {
+            assertSame(Thread.currentThread(), t);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans a table much larger than the buffer pool and checks that the pages
+ * of a small, hot table cached before the scan are still cached after it.
+ */
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 32;
+
+    @Test public void largeScanKeepsHotPages() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 504 * 200, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        TransactionId tid = new TransactionId();
+
+        Page[] hot = new Page[small.numPages()];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        }
+
+        SeqScan scan = new SeqScan(tid, large.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 200, count);
+
+        // the same Page objects mean the hot pages were never evicted
+        for (int i = 0; i < hot.length; i++) {
+            assertSame(hot[i], bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY));
+        }
+    }
+
+    @Test public void smallScanUsesSharedPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertNull(bp.newScanRing(BUFFER_PAGES));
+        assertNotNull(bp.newScanRing(BUFFER_PAGES + 1));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -81,6 +81,11 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.fileFor(temp).deleteOnExit();
+        ZoneMap.fileFor(temp).deleteOnExit();
+        for (int field = 0; field < columns; field++) {
+            BitmapIndex.fileFor(temp, field).deleteOnExit();
+        }
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }